@@ -3,6 +3,7 @@ package com.aerospike.redisson;
 import java.util.ArrayList;
 
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -17,7 +18,9 @@ import org.cache2k.Cache2kBuilder;
 import com.aerospike.client.AerospikeClient;
 import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
+import com.aerospike.client.policy.ScanPolicy;
 import com.aerospike.client.policy.WritePolicy;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -39,6 +42,11 @@ public class RedissonClient {
 	/** If aerospike is not used, the cache database of the User and Blacklist object */
 	static Cache cacheDb;
 
+	/** If aerospike is not used, the heartbeats of the members, by set */
+	static final Map<String, Map<String, Long>> members = new ConcurrentHashMap();
+	/** If aerospike is not used, the records written with putRecord, by set/key */
+	static final Map<String, Map<String, Object>> records = new ConcurrentHashMap();
+
 	/** The JSON encoder/decoder object */
 	public static ObjectMapper mapper = new ObjectMapper();
 	static {
@@ -514,6 +522,181 @@ public class RedissonClient {
 		return k;
 	}
 
+	/**
+	 * Record the heartbeat of a member, one record per member, so members
+	 * don't rewrite each other's entries.
+	 * @param set String. The name of the group (an aerospike set).
+	 * @param name String. The member name.
+	 * @param time long. The time of the heartbeat.
+	 * @param expire int. The number of seconds before the record expires.
+	 * @throws Exception on aerospike errors.
+	 */
+	public void putMember(String set, String name, long time, int expire) throws Exception {
+		if (ae == null) {
+			members.computeIfAbsent(set, k -> new ConcurrentHashMap()).put(name, time);
+			return;
+		}
+		WritePolicy policy = new WritePolicy();
+		policy.expiration = expire;
+		Key key = new Key("test", set, name);
+		ae.getClient().put(policy, key, new Bin("name", name), new Bin("time", time));
+	}
+
+	/**
+	 * Remove a member.
+	 * @param set String. The name of the group.
+	 * @param name String. The member name.
+	 * @throws Exception on aerospike errors.
+	 */
+	public void removeMember(String set, String name) throws Exception {
+		if (ae == null) {
+			Map<String, Long> m = members.get(set);
+			if (m != null)
+				m.remove(name);
+			return;
+		}
+		ae.getClient().delete(null, new Key("test", set, name));
+	}
+
+	/**
+	 * Return the members of a group and their last heartbeats. Expired records
+	 * are gone already on aerospike.
+	 * @param set String. The name of the group.
+	 * @return Map. The heartbeat times, by member name.
+	 * @throws Exception on aerospike errors.
+	 */
+	public Map<String, Long> getMembers(String set) throws Exception {
+		Map<String, Long> rets = new ConcurrentHashMap();
+		if (ae == null) {
+			Map<String, Long> m = members.get(set);
+			if (m != null)
+				rets.putAll(m);
+			return rets;
+		}
+		AerospikeClient client = ae.getClient();
+		if (client == null)
+			throw new Exception("NULL POINTER FOR SCAN");
+		ScanPolicy policy = new ScanPolicy();
+		client.scanAll(policy, "test", set, (key, record) -> {
+			Object name = record.bins.get("name");
+			Object time = record.bins.get("time");
+			if (name != null && time != null)
+				rets.put(name.toString(), ((Number) time).longValue());
+		}, "name", "time");
+		return rets;
+	}
+
+	/**
+	 * Read the bins of a record.
+	 * @param set String. The aerospike set.
+	 * @param skey String. The key of the record.
+	 * @param bins String... The bins to read, none for all of them.
+	 * @return Map. The bins by name, or null if there is no record.
+	 * @throws Exception on aerospike errors.
+	 */
+	public Map<String, Object> getRecord(String set, String skey, String... bins) throws Exception {
+		if (ae == null) {
+			Map<String, Object> m = records.get(set + "/" + skey);
+			if (m == null)
+				return null;
+			Map<String, Object> rets = new HashMap<String, Object>();
+			if (bins.length == 0)
+				rets.putAll(m);
+			for (String bin : bins) {
+				if (m.get(bin) != null)
+					rets.put(bin, m.get(bin));
+			}
+			return rets;
+		}
+		Key key = new Key("test", set, skey);
+		Record record = bins.length == 0 ? ae.getClient().get(null, key) : ae.getClient().get(null, key, bins);
+		if (record == null)
+			return null;
+		return record.bins;
+	}
+
+	/**
+	 * Read a number of records at once.
+	 * @param set String. The aerospike set.
+	 * @param keys List. The keys of the records.
+	 * @return List. The bins of each record, in the order of the keys. Null for records that don't exist.
+	 * @throws Exception on aerospike errors.
+	 */
+	public List<Map<String, Object>> getRecords(String set, List<String> keys) throws Exception {
+		List<Map<String, Object>> rets = new ArrayList<Map<String, Object>>();
+		if (ae == null) {
+			for (String skey : keys)
+				rets.add(getRecord(set, skey));
+			return rets;
+		}
+		Key[] list = new Key[keys.size()];
+		for (int i = 0; i < list.length; i++)
+			list[i] = new Key("test", set, keys.get(i));
+		Record[] records = ae.getClient().get(null, list);
+		for (Record record : records)
+			rets.add(record == null ? null : record.bins);
+		return rets;
+	}
+
+	/**
+	 * Write bins of a record. Bins not given are left alone.
+	 * @param set String. The aerospike set.
+	 * @param skey String. The key of the record.
+	 * @param bins Map. The values to write, by bin name.
+	 * @param expire int. The number of seconds before the record expires, 0 for the namespace default.
+	 * @throws Exception on aerospike errors.
+	 */
+	public void putRecord(String set, String skey, Map<String, Object> bins, int expire) throws Exception {
+		if (ae == null) {
+			records.computeIfAbsent(set + "/" + skey, k -> new ConcurrentHashMap()).putAll(bins);
+			return;
+		}
+		WritePolicy policy = new WritePolicy();
+		policy.expiration = expire;
+		Bin[] list = new Bin[bins.size()];
+		int i = 0;
+		for (Map.Entry<String, Object> e : bins.entrySet())
+			list[i++] = new Bin(e.getKey(), e.getValue());
+		ae.getClient().put(policy, new Key("test", set, skey), list);
+	}
+
+	/**
+	 * Atomically add 1 to a number bin of a record, creating it if needed.
+	 * @param set String. The aerospike set.
+	 * @param skey String. The key of the record.
+	 * @param bin String. The name of the bin.
+	 * @return long. The new value.
+	 * @throws Exception on aerospike errors.
+	 */
+	public long incrRecord(String set, String skey, String bin) throws Exception {
+		if (ae == null) {
+			Map<String, Object> m = records.computeIfAbsent(set + "/" + skey, k -> new ConcurrentHashMap());
+			synchronized (m) {
+				Number n = (Number) m.get(bin);
+				long value = n == null ? 1 : n.longValue() + 1;
+				m.put(bin, value);
+				return value;
+			}
+		}
+		Record record = ae.getClient().operate(null, new Key("test", set, skey), Operation.add(new Bin(bin, 1)),
+				Operation.get(bin));
+		return ((Number) record.getValue(bin)).longValue();
+	}
+
+	/**
+	 * Delete a record.
+	 * @param set String. The aerospike set.
+	 * @param skey String. The key of the record.
+	 * @throws Exception on aerospike errors.
+	 */
+	public void delRecord(String set, String skey) throws Exception {
+		if (ae == null) {
+			records.remove(set + "/" + skey);
+			return;
+		}
+		ae.getClient().delete(null, new Key("test", set, skey));
+	}
+
 	/**
 	 * No op, not used only for redisson compatibility.
 	 */
@@ -0,0 +1,258 @@
+package com.xrtb.bidder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.xrtb.pojo.BidRequest;
+
+/**
+ * Decides which bid requests are worked on and which get an immediate no bid.
+ * There is a limit on the bid requests in flight, adapted AIMD style from the
+ * measured latency: each request that finishes in time raises the limit by
+ * 1/limit (about one per round of requests), a request that finishes later
+ * than TARGET of its exchange's tmax cuts it by BACKOFF. Only requests
+ * received after the last cut can cut again, so one slow burst is one cut.
+ * <p>
+ * Each exchange (route) has a lane with its tmax, its priority and its average
+ * latency. A request is shed when:
+ * <ul>
+ * <li>it has already waited (in the jetty queue) so long that with the
+ * exchange's average latency (at most TARGET of tmax) it would answer after
+ * tmax, so the exchange would throw the answer away anyway, or</li>
+ * <li>the requests in flight are over the exchange's share of the limit. The
+ * highest priority (PRIORITY) gets the whole limit, lower priorities get less,
+ * down to 1 - RESERVE of it, so they are shed first.</li>
+ * </ul>
+ * The tmax of an exchange is set with the "tmax=" option of its seat, or
+ * learned from the tmax of its requests, else DEFAULT_TMAX. The priority is
+ * set with the "priority=" option.
+ * <p>
+ * The adaptive limit and the shedding are off unless the jetty profile sets
+ * "adaptive". Then requests are shed when jetty's thread pool is low on
+ * threads, as the bidder always did, or are over the profile's maxInflight
+ * (MAX_LIMIT without a profile). The latencies are still measured for the
+ * stats.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class AdmissionController {
+
+	/** Set to true to adapt the limit and shed, else admit everything up to the cap */
+	public static volatile boolean ENABLED = false;
+	/** The starting limit on requests in flight */
+	public static volatile int INITIAL_LIMIT = 200;
+	/** The limit never goes below this */
+	public static volatile int MIN_LIMIT = 10;
+	/** The limit never goes above this */
+	public static volatile int MAX_LIMIT = 10000;
+	/** The tmax of an exchange that doesn't say, in ms */
+	public static volatile int DEFAULT_TMAX = 100;
+	/** A request should be answered in this part of its tmax */
+	public static volatile double TARGET = 0.8;
+	/** The limit is multiplied by this when requests are late */
+	public static volatile double BACKOFF = 0.9;
+	/** The highest priority */
+	public static final int PRIORITY = 10;
+	/** The part of the limit held back from the lowest priority */
+	public static volatile double RESERVE = 0.5;
+
+	/** Weight of the newest sample in the average latencies */
+	static final double ALPHA = 0.1;
+
+	/**
+	 * The state of one exchange. The averages are updated without locking, a
+	 * lost update only makes them a little less smooth.
+	 */
+	static class Lane {
+		final String name;
+		/** Configured tmax, 0 if not set */
+		final int configured;
+		final int priority;
+		volatile int tmax;
+		volatile double latency;
+		final LongAdder admitted = new LongAdder();
+		final LongAdder shed = new LongAdder();
+		final LongAdder late = new LongAdder();
+
+		Lane(String name, BidRequest prototype) {
+			this.name = name;
+			configured = prototype == null ? 0 : prototype.tmax;
+			priority = prototype == null ? PRIORITY : Math.max(0, Math.min(PRIORITY, prototype.priority));
+			tmax = configured > 0 ? configured : DEFAULT_TMAX;
+		}
+	}
+
+	/** The limit, as the bits of a double */
+	final AtomicLong limit = new AtomicLong(Double.doubleToLongBits(INITIAL_LIMIT));
+	/** The receive time of the request that caused the last cut */
+	volatile long lastCut;
+	/** The lanes by route index, and the table they were made for */
+	volatile Lane[] lanes = new Lane[0];
+	volatile RouteTable table;
+	/** The cap on the limit */
+	final int max;
+	/** The server's thread pool, checked when not ENABLED */
+	volatile ThreadPool pool;
+
+	/**
+	 * Create a controller.
+	 * @param max int. The most requests in flight ever allowed, 0 for MAX_LIMIT.
+	 */
+	public AdmissionController(int max) {
+		this.max = max > 0 ? max : MAX_LIMIT;
+		if (getLimit() > this.max)
+			limit.set(Double.doubleToLongBits(this.max));
+	}
+
+	/**
+	 * Set the thread pool whose shortage sheds requests when the adaptive limit is off.
+	 * @param pool ThreadPool. The server's thread pool.
+	 */
+	public void setThreadPool(ThreadPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Return the current limit on requests in flight.
+	 * @return double. The limit.
+	 */
+	public double getLimit() {
+		return Double.longBitsToDouble(limit.get());
+	}
+
+	/**
+	 * Return the lane of a route, making the lanes again if the routes changed.
+	 */
+	Lane lane(RouteTable.Route route) {
+		RouteTable routes = RTBServer.routes;
+		Lane[] l = lanes;
+		if (table != routes || route.index >= l.length) {
+			synchronized (this) {
+				if (table != routes || route.index >= lanes.length) {
+					l = new Lane[routes.size()];
+					for (int i = 0; i < routes.size(); i++) {
+						RouteTable.Route r = routes.get(i);
+						BidRequest prototype = r.codec.getPrototype();
+						l[r.index] = new Lane(prototype == null ? r.target : prototype.getExchange(), prototype);
+					}
+					lanes = l;
+					table = routes;
+				}
+				l = lanes;
+			}
+		}
+		if (route.index >= l.length)
+			return new Lane(route.target, null);
+		return l[route.index];
+	}
+
+	/**
+	 * Decide whether to work on a request.
+	 * @param route RouteTable.Route. The exchange's route.
+	 * @param received long. When the request was received, in ms.
+	 * @param inflight int. The requests in flight, counting this one.
+	 * @return String. Null to work on it, else the reason for the no bid.
+	 */
+	public String admit(RouteTable.Route route, long received, int inflight) {
+		Lane lane = lane(route);
+		double l = ENABLED ? getLimit() : max;
+		if (ENABLED) {
+			// A slow exchange still gets the requests that didn't wait, so its latency keeps being measured
+			long waited = System.currentTimeMillis() - received;
+			double service = Math.min(lane.latency, lane.tmax * TARGET);
+			if (waited > 0 && waited + service > lane.tmax) {
+				lane.shed.increment();
+				return "Too late";
+			}
+			l *= 1 - RESERVE * (PRIORITY - lane.priority) / PRIORITY;
+		}
+		ThreadPool p = pool;
+		if (inflight > l || (!ENABLED && p != null && p.isLowOnThreads())) {
+			lane.shed.increment();
+			return "Server throttling";
+		}
+		lane.admitted.increment();
+		return null;
+	}
+
+	/**
+	 * Tell the controller a request is done, and adjust the limit.
+	 * @param route RouteTable.Route. The exchange's route.
+	 * @param received long. When the request was received, in ms.
+	 */
+	public void done(RouteTable.Route route, long received) {
+		Lane lane = lane(route);
+		long latency = System.currentTimeMillis() - received;
+		lane.latency += ALPHA * (latency - lane.latency);
+		if (latency > lane.tmax * TARGET) {
+			lane.late.increment();
+			if (ENABLED && received > lastCut) {
+				lastCut = System.currentTimeMillis();
+				adjust(l -> l * BACKOFF);
+			}
+		} else if (ENABLED)
+			adjust(l -> l + 1 / l);
+	}
+
+	/**
+	 * Change the limit, keeping it between MIN_LIMIT and the cap.
+	 */
+	void adjust(DoubleUnaryOperator f) {
+		long old, next;
+		do {
+			old = limit.get();
+			double l = f.applyAsDouble(Double.longBitsToDouble(old));
+			l = Math.max(MIN_LIMIT, Math.min(max, l));
+			next = Double.doubleToLongBits(l);
+		} while (!limit.compareAndSet(old, next));
+	}
+
+	/**
+	 * Learn the tmax of an exchange from one of its requests, when it isn't configured.
+	 * @param route RouteTable.Route. The exchange's route.
+	 * @param br BidRequest. The request.
+	 */
+	public void observe(RouteTable.Route route, BidRequest br) {
+		Lane lane = lane(route);
+		if (lane.configured > 0 || br.getOriginal() == null)
+			return;
+		JsonNode t = br.getOriginal().get("tmax");
+		if (t != null && t.asInt() > 0 && t.asInt() != lane.tmax)
+			lane.tmax = t.asInt();
+	}
+
+	/**
+	 * Return the statistics of the controller.
+	 * @return Map. The limit, and by exchange the tmax, priority, average latency, requests admitted, shed and late.
+	 */
+	public Map getStats() {
+		Map m = new HashMap();
+		m.put("enabled", ENABLED);
+		m.put("limit", (int) getLimit());
+		List<Map> list = new ArrayList<Map>();
+		for (Lane lane : lanes) {
+			if (lane == null)
+				continue;
+			Map x = new HashMap();
+			x.put("name", lane.name);
+			x.put("tmax", lane.tmax);
+			x.put("priority", lane.priority);
+			x.put("latency", Math.round(lane.latency * 100) / 100.0);
+			x.put("admitted", lane.admitted.sum());
+			x.put("shed", lane.shed.sum());
+			x.put("late", lane.late.sum());
+			list.add(x);
+		}
+		m.put("exchanges", list);
+		return m;
+	}
+}
@@ -0,0 +1,614 @@
+package com.xrtb.bidder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.server.Request;
+
+import com.xrtb.common.JettyProfile;
+
+/**
+ * Runs bid requests with Servlet 3.1 async processing. The body is read with a
+ * ReadListener, so no jetty thread waits on the network. When the body is all
+ * in, the bid is run on a separate executor, where the blocking parts (gzip,
+ * fraud check, cache reads for frequency caps, recordBid) are allowed to
+ * block. The normal Handler does the actual work, so CampaignSelector and
+ * BidResponse are the same as in blocking mode. The Handler writes into a
+ * buffered response, copied to the real one only if the bid finishes before
+ * the timeout, so a late bid never writes to a response jetty has recycled.
+ * For the same reason the Handler never sees the jetty request: what it reads
+ * (headers, time stamp, remote address, URL) is copied before the bid is
+ * queued.
+ * <p>
+ * The executor is either a fixed pool with a bounded queue, bids beyond it get
+ * a no bid, or virtual threads when the JVM supports them.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class AsyncBidHandler {
+
+	/** Number of async bids that timed out */
+	public static AtomicLong timeouts = new AtomicLong(0);
+	/** Number of async bids rejected because the executor queue was full or shut down */
+	public static AtomicLong rejected = new AtomicLong(0);
+
+	/** The handler that does the bidding */
+	Handler bids;
+	/** The profile in use */
+	JettyProfile profile;
+	/** Where the bids are run */
+	ExecutorService executor;
+	/** True if the executor uses virtual threads */
+	boolean virtual;
+
+	/**
+	 * Create the async handler.
+	 *
+	 * @param bids
+	 *            Handler. The bid handler.
+	 * @param profile
+	 *            JettyProfile. The profile, gives the executor and timeout.
+	 */
+	AsyncBidHandler(Handler bids, JettyProfile profile) {
+		this.bids = bids;
+		this.profile = profile;
+		if ("virtual".equals(profile.executor))
+			executor = virtualExecutor();
+		if (executor == null)
+			executor = new ThreadPoolExecutor(profile.asyncThreads, profile.asyncThreads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(Math.max(1, profile.asyncQueue)));
+		else
+			virtual = true;
+	}
+
+	/**
+	 * Return a virtual thread per task executor, found by reflection so the
+	 * bidder still runs on Java 8.
+	 *
+	 * @return ExecutorService. The executor, or null if not supported by this
+	 *         JVM.
+	 */
+	static ExecutorService virtualExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception error) {
+			return null;
+		}
+	}
+
+	/**
+	 * Tell whether virtual threads are in use.
+	 *
+	 * @return boolean. Returns true if bids run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Start async processing of a bid request. Returns right away, the response
+	 * is completed by the executor.
+	 *
+	 * @param target
+	 *            String. The target uri.
+	 * @param baseRequest
+	 *            Request. The jetty request.
+	 * @param request
+	 *            HttpServletRequest. The servlet request.
+	 * @param response
+	 *            HttpServletResponse. The servlet response.
+	 * @param done
+	 *            Runnable. Called once when the request is completed.
+	 * @throws IOException
+	 *             if the input stream can't be obtained.
+	 */
+	void start(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+			Runnable done) throws IOException {
+		AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(profile.asyncTimeout);
+		baseRequest.setHandled(true);
+
+		AtomicBoolean finished = new AtomicBoolean(false);
+		ctx.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				done.run();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				timeouts.incrementAndGet();
+				if (finished.compareAndSet(false, true)) {
+					noBid(response, "Timeout");
+					ctx.complete();
+				}
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				if (finished.compareAndSet(false, true))
+					ctx.complete();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+
+			}
+		});
+
+		int length = request.getContentLength();
+		ByteArrayOutputStream data = new ByteArrayOutputStream(length > 0 ? length : 4096);
+		ServletInputStream in = request.getInputStream();
+		in.setReadListener(new ReadListener() {
+			byte[] buf = new byte[4096];
+
+			@Override
+			public void onDataAvailable() throws IOException {
+				int n;
+				while (in.isReady() && (n = in.read(buf)) != -1)
+					data.write(buf, 0, n);
+			}
+
+			@Override
+			public void onAllDataRead() {
+				try {
+					BufferedRequest copy = new BufferedRequest(baseRequest, request, data.toByteArray());
+					executor.execute(() -> bid(target, copy, response, ctx, finished));
+				} catch (RejectedExecutionException error) {
+					rejected.incrementAndGet();
+					if (finished.compareAndSet(false, true)) {
+						noBid(response, "Server throttling");
+						ctx.complete();
+					}
+				}
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				if (finished.compareAndSet(false, true)) {
+					RTBServer.error.increment();
+					noBid(response, "Read error: " + error.toString());
+					ctx.complete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run the bid on the executor thread, against the copy of the request. The
+	 * answer is copied to the response only if the timeout didn't answer first.
+	 */
+	void bid(String target, BufferedRequest request, HttpServletResponse response, AsyncContext ctx,
+			AtomicBoolean finished) {
+		if (finished.get())
+			return;
+		BufferedResponse answer = new BufferedResponse(response);
+		try {
+			bids.handle(target, request.base, request, answer);
+		} catch (Exception error) {
+			RTBServer.error.increment();
+		} finally {
+			if (finished.compareAndSet(false, true)) {
+				try {
+					answer.copyTo(response);
+				} catch (Exception error) {
+					RTBServer.error.increment();
+				}
+				ctx.complete();
+			}
+		}
+	}
+
+	/**
+	 * Set a no bid on the response.
+	 */
+	static void noBid(HttpServletResponse response, String reason) {
+		if (response.isCommitted())
+			return;
+		RTBServer.nobid.increment();
+		response.setHeader("X-REASON", reason);
+		response.setStatus(RTBServer.NOBID_CODE);
+	}
+
+	/**
+	 * Stop the executor.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * A copy of a request whose body was already read by the ReadListener, made
+	 * on the jetty thread so the executor never touches the jetty request,
+	 * which is recycled when the timeout completes it. The Handler gets a
+	 * detached Request in place of the jetty one, it only marks it handled.
+	 */
+	static class BufferedRequest extends HttpServletRequestWrapper {
+		/** Stands in for the jetty request, carries the time stamp */
+		final Request base = new Request(null, null);
+		final BodyInputStream in;
+		/** The headers, by name, any case */
+		final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		final String method;
+		final String contentType;
+		final String characterEncoding;
+		final String remoteAddr;
+		final String remoteHost;
+		final int remotePort;
+		final String requestURI;
+		final String requestURL;
+		final String queryString;
+
+		BufferedRequest(Request baseRequest, HttpServletRequest request, byte[] body) {
+			super(request);
+			base.setTimeStamp(baseRequest.getTimeStamp());
+			in = new BodyInputStream(body);
+			for (Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements();) {
+				String name = names.nextElement();
+				headers.put(name, Collections.list(request.getHeaders(name)));
+			}
+			method = request.getMethod();
+			contentType = request.getContentType();
+			characterEncoding = request.getCharacterEncoding();
+			remoteAddr = request.getRemoteAddr();
+			remoteHost = request.getRemoteHost();
+			remotePort = request.getRemotePort();
+			requestURI = request.getRequestURI();
+			requestURL = request.getRequestURL().toString();
+			queryString = request.getQueryString();
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			return in;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			List<String> values = headers.get(name);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			List<String> values = headers.get(name);
+			return Collections.enumeration(values == null ? Collections.<String> emptyList() : values);
+		}
+
+		@Override
+		public Enumeration<String> getHeaderNames() {
+			return Collections.enumeration(headers.keySet());
+		}
+
+		@Override
+		public int getIntHeader(String name) {
+			String value = getHeader(name);
+			return value == null ? -1 : Integer.parseInt(value);
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public int getContentLength() {
+			return in.length;
+		}
+
+		@Override
+		public long getContentLengthLong() {
+			return in.length;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		@Override
+		public String getRemoteAddr() {
+			return remoteAddr;
+		}
+
+		@Override
+		public String getRemoteHost() {
+			return remoteHost;
+		}
+
+		@Override
+		public int getRemotePort() {
+			return remotePort;
+		}
+
+		@Override
+		public String getRequestURI() {
+			return requestURI;
+		}
+
+		@Override
+		public StringBuffer getRequestURL() {
+			return new StringBuffer(requestURL);
+		}
+
+		@Override
+		public String getQueryString() {
+			return queryString;
+		}
+	}
+
+	/**
+	 * Servlet input stream over a byte array.
+	 */
+	static class BodyInputStream extends ServletInputStream {
+		ByteArrayInputStream in;
+		int length;
+
+		BodyInputStream(byte[] body) {
+			in = new ByteArrayInputStream(body);
+			length = body.length;
+		}
+
+		@Override
+		public int read() {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			return in.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			return in.available();
+		}
+
+		@Override
+		public boolean isFinished() {
+			return in.available() == 0;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener listener) {
+			throw new IllegalStateException("Body is already read");
+		}
+	}
+
+	/**
+	 * A response that keeps the status, headers and body until copyTo() is
+	 * called, nothing reaches the real response before that.
+	 */
+	static class BufferedResponse extends HttpServletResponseWrapper {
+		/** The calls to make on the real response, in order */
+		List<Op> ops = new ArrayList<Op>();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		BodyOutputStream out;
+		PrintWriter writer;
+		int status = SC_OK;
+		String contentType;
+
+		interface Op {
+			void apply(HttpServletResponse response) throws IOException;
+		}
+
+		BufferedResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		/**
+		 * Write what was buffered to the real response.
+		 * @param response HttpServletResponse. The response to write.
+		 * @throws IOException on write errors.
+		 */
+		void copyTo(HttpServletResponse response) throws IOException {
+			for (Op op : ops)
+				op.apply(response);
+			if (writer != null)
+				writer.flush();
+			if (body.size() > 0)
+				response.getOutputStream().write(body.toByteArray());
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+			ops.add(r -> r.setStatus(sc));
+		}
+
+		@Override
+		public void sendError(int sc) {
+			status = sc;
+			ops.add(r -> r.sendError(sc));
+		}
+
+		@Override
+		public void sendError(int sc, String msg) {
+			status = sc;
+			ops.add(r -> r.sendError(sc, msg));
+		}
+
+		@Override
+		public void sendRedirect(String location) {
+			status = SC_FOUND;
+			ops.add(r -> r.sendRedirect(location));
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			ops.add(r -> r.setHeader(name, value));
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			ops.add(r -> r.addHeader(name, value));
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			ops.add(r -> r.setIntHeader(name, value));
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			ops.add(r -> r.addIntHeader(name, value));
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+			ops.add(r -> r.setDateHeader(name, date));
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+			ops.add(r -> r.addDateHeader(name, date));
+		}
+
+		@Override
+		public void setContentType(String type) {
+			contentType = type;
+			ops.add(r -> r.setContentType(type));
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+			ops.add(r -> r.setCharacterEncoding(charset));
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			ops.add(r -> r.setContentLength(len));
+		}
+
+		@Override
+		public void setContentLengthLong(long len) {
+			ops.add(r -> r.setContentLengthLong(len));
+		}
+
+		@Override
+		public void setBufferSize(int size) {
+
+		}
+
+		@Override
+		public boolean isCommitted() {
+			return false;
+		}
+
+		@Override
+		public void flushBuffer() {
+
+		}
+
+		@Override
+		public void resetBuffer() {
+			body.reset();
+		}
+
+		@Override
+		public void reset() {
+			body.reset();
+			ops.clear();
+			status = SC_OK;
+			contentType = null;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (out == null)
+				out = new BodyOutputStream(body);
+			return out;
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			if (writer == null)
+				writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8));
+			return writer;
+		}
+	}
+
+	/**
+	 * Servlet output stream into a byte array.
+	 */
+	static class BodyOutputStream extends ServletOutputStream {
+		ByteArrayOutputStream out;
+
+		BodyOutputStream(ByteArrayOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) {
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			throw new IllegalStateException("Body is buffered");
+		}
+	}
+}
@@ -1,12 +1,15 @@
 package com.xrtb.bidder;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -14,12 +17,14 @@ import com.fasterxml.jackson.databind.node.MissingNode;
 import com.xrtb.common.Campaign;
 import com.xrtb.common.Configuration;
 import com.xrtb.common.Creative;
+import com.xrtb.common.CreativeIndex;
+import com.xrtb.common.Deal;
 import com.xrtb.common.Node;
 import com.xrtb.exchanges.appnexus.Appnexus;
 import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.Impression;
 import com.xrtb.probe.Probe;
 
-import edu.emory.mathcs.backport.java.util.Collections;
 
 /**
  * CampaignProcessor. Given a campaign, process it into a bid. The
@@ -55,6 +60,8 @@ public class CampaignProcessor implements Runnable {
 	UUID uuid = UUID.randomUUID();
 
 	SelectedCreative selected = null;
+	/** When not null, every creative is tested and the ones that can bid are added here */
+	List<SelectedCreative> eligible;
 	//Thread me = null;
 
 	boolean done = false;
@@ -158,12 +165,22 @@ public class CampaignProcessor implements Runnable {
 		///////////////////////////
 		
 		Map<String,String> capSpecs = new ConcurrentHashMap();
-		List<Creative> creatives = new ArrayList(camp.creatives);
-		Collections.shuffle(creatives);
+		List<Creative> creatives = candidates();
 		StringBuilder xerr = new StringBuilder();
-		for (Creative create : creatives) {
-			if ((selected  = create.process(br, capSpecs, camp.adId,err, probe)) != null) {
-				break;
+		// Rotate from a random start instead of shuffling a copy
+		int size = creatives.size();
+		int start = size < 2 ? 0 : ThreadLocalRandom.current().nextInt(size);
+		for (int k = 0; k < size; k++) {
+			Creative create = creatives.get((start + k) % size);
+			SelectedCreative candidate = create.process(br, capSpecs, camp.adId,err, probe);
+			if (candidate != null) {
+				if (eligible == null) {
+					selected = candidate;
+					break;
+				}
+				eligible.add(candidate);
+				if (selected == null)
+					selected = candidate;
 			} else {
 				if (probe != null) {
 					probe.process(br.getExchange(), camp.adId, create.impid, err);
@@ -233,6 +250,66 @@ public class CampaignProcessor implements Runnable {
 		done = true;
 	}
 
+	/**
+	 * Return the creatives that could bid, from the creative index of the
+	 * campaign: only the ones whose type and size fit an impression, and when
+	 * every impression is a private auction, only the ones with one of the
+	 * deals. The others are counted in the probe. For the usual request, one
+	 * public impression, this is a list built when the campaign was loaded.
+	 * 
+	 * @return List. The creatives to test. Don't modify it.
+	 */
+	List<Creative> candidates() {
+		CreativeIndex index = camp.getCreativeIndex();
+		int n = br.getImpressions();
+		if (n == 0)
+			return camp.creatives;
+		if (n == 1 && br.getImpression(0).deals == null) {
+			CreativeIndex.Bucket b = index.get(br.getImpression(0));
+			if (b == null)
+				return camp.creatives;
+			if (probe != null) {
+				for (int i = 0; i < b.others.size(); i++)
+					probe.process(br.getExchange(), camp.adId, b.others.get(i).impid, Probe.TYPE_WH_MATCH);
+			}
+			return b.creatives;
+		}
+
+		Set<Creative> fits = new LinkedHashSet<Creative>();
+		boolean deals = true;
+		for (int i = 0; i < n; i++) {
+			Impression imp = br.getImpression(i);
+			CreativeIndex.Bucket b = index.get(imp);
+			fits.addAll(b == null ? camp.creatives : b.creatives);
+			if (imp.deals == null)
+				deals = false;
+		}
+		Set<Creative> set = fits;
+		if (deals) {
+			set = new LinkedHashSet<Creative>();
+			for (int i = 0; i < n; i++) {
+				List<Deal> list = br.getImpression(i).deals;
+				for (int j = 0; j < list.size(); j++) {
+					List<Creative> carriers = camp.getDealCreatives(list.get(j).id);
+					if (carriers == null)
+						continue;
+					for (Creative c : carriers) {
+						if (fits.contains(c))
+							set.add(c);
+					}
+				}
+			}
+		}
+		if (probe != null && set.size() < camp.creatives.size()) {
+			for (Creative c : camp.creatives) {
+				if (set.contains(c) == false)
+					probe.process(br.getExchange(), camp.adId, c.impid,
+							fits.contains(c) ? Probe.NO_APPLIC_DEAL : Probe.TYPE_WH_MATCH);
+			}
+		}
+		return new ArrayList<Creative>(set);
+	}
+
 	/**
 	 * Is the campaign processing done?
 	 * 
@@ -262,6 +339,33 @@ public class CampaignProcessor implements Runnable {
 		return selected;
 	}
 
+	/**
+	 * Test every creative, instead of stopping at the first that can bid. Call
+	 * before run().
+	 */
+	public void testAllCreatives() {
+		eligible = new ArrayList<SelectedCreative>();
+	}
+
+	/**
+	 * Return the creatives that can bid, when testAllCreatives() was set.
+	 * 
+	 * @return List. The creatives that matched, null if only the first was
+	 *         looked for.
+	 */
+	public List<SelectedCreative> getEligible() {
+		return eligible;
+	}
+
+	/**
+	 * Return the campaign of this processor.
+	 * 
+	 * @return Campaign. The campaign tested.
+	 */
+	public Campaign getCampaign() {
+		return camp;
+	}
+
 	public SelectedCreative call() {
 		while (true) {
 			if (isDone())
@@ -8,10 +8,12 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import com.xrtb.common.AudienceLookup;
 import com.xrtb.common.Campaign;
 import com.xrtb.common.Configuration;
 import com.xrtb.common.Creative;
 import com.xrtb.common.Node;
+import com.xrtb.common.QueryLookup;
 import com.xrtb.pojo.BidRequest;
 import com.xrtb.pojo.BidResponse;
 import com.xrtb.pojo.Impression;
@@ -37,8 +39,6 @@ public class CampaignSelector {
 	/** The instance of the singleton */
 	static CampaignSelector theInstance;
 
-	public static volatile int highWaterMark = 100;
-
 	static ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
 
 	/**
@@ -90,6 +90,8 @@ public class CampaignSelector {
 		Collections.shuffle(list);
 		List<SelectedCreative> candidates = new ArrayList();
 		boolean exchangeIsAdx = br.getExchange().equals("adx");
+		AudienceLookup.prefetch(br, list);
+		QueryLookup.prefetch(br, list);
 		while (kount < list.size()) {
 			try {
 				test = list.get(kount);
@@ -151,20 +153,32 @@ public class CampaignSelector {
 	}
 
 	/**
-	 * Hueristic adjustment
+	 * Run every campaign against a bid request, testing every creative, instead
+	 * of stopping at the first that can bid. Used to find out what would bid on
+	 * logged requests, see the Replay tool.
+	 * 
+	 * @param br
+	 *            BidRequest. The request to test.
+	 * @return List. The processors of the campaigns that apply to the
+	 *         exchange, after running. Empty if this is not a biddable request.
 	 */
-	public static void adjustHighWaterMark() {
-		if (RTBServer.avgBidTime > 30) {
-			if (highWaterMark > Configuration.getInstance().campaignsList.size())
-				highWaterMark = Configuration.getInstance().campaignsList.size();
-			highWaterMark -= 5;
-		} else {
-			if (highWaterMark < Configuration.getInstance().campaignsList.size())
-				highWaterMark += 1;
-			else
-				highWaterMark = Configuration.getInstance().campaignsList.size();
+	public List<CampaignProcessor> evaluate(BidRequest br) {
+		List<CampaignProcessor> list = new ArrayList<CampaignProcessor>();
+		if (br.notABidRequest() || br.blackListed)
+			return list;
+		boolean exchangeIsAdx = br.getExchange().equals("adx");
+		List<Campaign> campaigns = new ArrayList<Campaign>(config.campaignsList);
+		AudienceLookup.prefetch(br, campaigns);
+		QueryLookup.prefetch(br, campaigns);
+		for (Campaign camp : campaigns) {
+			if (camp.isAdx == exchangeIsAdx) {
+				CampaignProcessor p = new CampaignProcessor(camp, br, null, null);
+				p.testAllCreatives();
+				p.run();
+				list.add(p);
+			}
 		}
-		// System.out.println("--->HIGH WATER MARK: " + highWaterMark);
+		return list;
 	}
 
 	/**
@@ -0,0 +1,251 @@
+package com.xrtb.bidder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.xrtb.commands.BasicCommand;
+
+/**
+ * Runs the commands the bidder receives. Commands that change the state of
+ * the bidder (campaigns, prices, start/stop...) go on one queue and are
+ * applied one at a time, in the order they arrived, by a single writer thread.
+ * The read only queries are answered by a small pool, so they don't wait
+ * behind a campaign load.
+ * <p>
+ * Campaign adds that are next to each other on the queue are handed to the
+ * handler as one batch, so a mass deploy from the admin tool costs one
+ * recompile of the bid request instead of one per campaign.
+ * <p>
+ * The latency of a command is from when it was received to when it is done.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class CommandExecutor {
+
+	/** The number of threads answering the read only commands */
+	public static volatile int READERS = 2;
+	/** The most campaign adds applied as one batch */
+	public static volatile int MAX_BATCH = 500;
+
+	/**
+	 * What the executor runs the commands with.
+	 */
+	public interface Handler {
+		/**
+		 * Execute one command.
+		 *
+		 * @param cmd
+		 *            BasicCommand. The command.
+		 * @throws Exception
+		 *             on errors executing it.
+		 */
+		public void execute(BasicCommand cmd) throws Exception;
+
+		/**
+		 * Add campaigns, recompiling once for all of them.
+		 *
+		 * @param cmds
+		 *            List. The ADD_CAMPAIGN commands, in order.
+		 * @throws Exception
+		 *             on errors loading them.
+		 */
+		public void addCampaigns(List<BasicCommand> cmds) throws Exception;
+	}
+
+	/**
+	 * A command and when it was received.
+	 */
+	static class Entry {
+		final BasicCommand cmd;
+		final long time = System.nanoTime();
+
+		Entry(BasicCommand cmd) {
+			this.cmd = cmd;
+		}
+	}
+
+	/** Runs the commands */
+	final Handler handler;
+	/** The state changing commands, in order */
+	final LinkedBlockingQueue<Entry> writes = new LinkedBlockingQueue<Entry>();
+	/** Answers the queries */
+	final ExecutorService readers;
+	/** The single writer */
+	final Thread writer;
+	/** The queries not answered yet */
+	final AtomicInteger reads = new AtomicInteger();
+
+	/** Commands done */
+	final LongAdder executed = new LongAdder();
+	/** Batches of campaign adds, and campaigns in them */
+	final LongAdder batches = new LongAdder();
+	final LongAdder batched = new LongAdder();
+	/** Total and largest latency in nanoseconds */
+	final LongAdder latency = new LongAdder();
+	final AtomicLong maxLatency = new AtomicLong();
+
+	volatile boolean running = true;
+
+	/**
+	 * Start the executor.
+	 *
+	 * @param handler
+	 *            Handler. What runs the commands.
+	 */
+	public CommandExecutor(Handler handler) {
+		this.handler = handler;
+		readers = Executors.newFixedThreadPool(READERS, r -> {
+			Thread t = new Thread(r, "command-reader");
+			t.setDaemon(true);
+			return t;
+		});
+		writer = new Thread(() -> writeLoop(), "command-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Is this command a read only query?
+	 *
+	 * @param cmd
+	 *            int. The command id.
+	 * @return boolean. Returns true if it doesn't change the bidder.
+	 */
+	public static boolean isQuery(int cmd) {
+		switch (cmd) {
+		case Controller.GET_PRICE:
+		case Controller.ECHO:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Queue a command.
+	 *
+	 * @param cmd
+	 *            BasicCommand. The command to run.
+	 */
+	public void submit(BasicCommand cmd) {
+		Entry e = new Entry(cmd);
+		if (isQuery(cmd.cmd)) {
+			reads.incrementAndGet();
+			readers.execute(() -> {
+				try {
+					handler.execute(cmd);
+				} catch (Throwable error) {
+					error.printStackTrace();
+				} finally {
+					reads.decrementAndGet();
+					done(e);
+				}
+			});
+		} else
+			writes.add(e);
+	}
+
+	/**
+	 * Apply the state changing commands, one at a time.
+	 */
+	void writeLoop() {
+		List<Entry> batch = new ArrayList<Entry>();
+		List<BasicCommand> cmds = new ArrayList<BasicCommand>();
+		while (running) {
+			Entry e;
+			try {
+				e = writes.take();
+			} catch (InterruptedException error) {
+				return;
+			}
+			if (e.cmd.cmd != Controller.ADD_CAMPAIGN) {
+				try {
+					handler.execute(e.cmd);
+				} catch (Throwable error) {
+					error.printStackTrace();
+				} finally {
+					done(e);
+				}
+				continue;
+			}
+			try {
+				batch.clear();
+				cmds.clear();
+				batch.add(e);
+				Entry next;
+				while (batch.size() < MAX_BATCH && (next = writes.peek()) != null
+						&& next.cmd.cmd == Controller.ADD_CAMPAIGN)
+					batch.add(writes.poll());
+				for (Entry x : batch)
+					cmds.add(x.cmd);
+				batches.increment();
+				batched.add(batch.size());
+				handler.addCampaigns(cmds);
+			} catch (Throwable error) {
+				error.printStackTrace();
+			}
+			for (Entry x : batch)
+				done(x);
+			batch.clear();
+		}
+	}
+
+	void done(Entry e) {
+		long t = System.nanoTime() - e.time;
+		executed.increment();
+		latency.add(t);
+		maxLatency.accumulateAndGet(t, Math::max);
+	}
+
+	/**
+	 * Return the number of commands waiting.
+	 *
+	 * @return int. The state changing commands queued plus the queries not
+	 *         answered yet.
+	 */
+	public int getQueueDepth() {
+		return writes.size() + reads.get();
+	}
+
+	/**
+	 * Return the executor statistics. The largest latency is since the last
+	 * call.
+	 *
+	 * @return Map. Queue depths, counts and latencies in milliseconds.
+	 */
+	public Map getStats() {
+		Map m = new HashMap();
+		long n = executed.sum();
+		m.put("writeQueue", writes.size());
+		m.put("readQueue", reads.get());
+		m.put("executed", n);
+		m.put("batches", batches.sum());
+		m.put("batched", batched.sum());
+		m.put("avgLatency", n == 0 ? 0.0 : latency.sum() / 1e6 / n);
+		m.put("maxLatency", maxLatency.getAndSet(0) / 1e6);
+		return m;
+	}
+
+	/**
+	 * Stop the executor. Commands still queued are dropped.
+	 */
+	public void shutdown() {
+		running = false;
+		writer.interrupt();
+		readers.shutdownNow();
+		try {
+			readers.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+}
@@ -26,6 +26,7 @@ import com.xrtb.commands.SetPrice;
 import com.xrtb.commands.ShutdownNotice;
 
 import com.xrtb.common.Campaign;
+import com.xrtb.common.CampaignRegistry;
 import com.xrtb.common.Configuration;
 import com.xrtb.common.Creative;
 import com.xrtb.common.ExchangeLogLevel;
@@ -91,6 +92,10 @@ public enum Controller {
 	public static final int SET_PRICE = 13;
 	// Add a list of campaigns
 	public static final int ADD_CAMPAIGNS_LIST = 14;
+	/** Stop bidding on a creative without removing it */
+	public static final int PAUSE_CREATIVE = 15;
+	/** Start bidding on a paused creative again */
+	public static final int RESUME_CREATIVE = 16;
 
 	/** The REDIS channel for sending commands to the bidders */
 	public static final String COMMANDS = "commands";
@@ -147,7 +152,8 @@ public enum Controller {
 			bidCachePool = Configuration.getInstance().redisson;
 
 			RTopic t = new RTopic(Configuration.getInstance().commandAddresses);
-			t.addListener(new CommandLoop());
+			loop = new CommandLoop();
+			t.addListener(loop);
 
 			responseQueue = new ZPublisher(config.RESPONSES);
 
@@ -196,7 +202,6 @@ public enum Controller {
 	 *             on redis errors.
 	 */
 	public void addCampaign(Campaign c) throws Exception {
-		Configuration.getInstance().deleteCampaign(c.owner, c.adId);
 		Configuration.getInstance().addCampaign(c);
 	}
 
@@ -209,33 +214,73 @@ public enum Controller {
 	 *             on REDIS errors.
 	 */
 	public void addCampaign(BasicCommand c) throws Exception {
-		System.out.println("ADDING " + c.owner + "/" + c.target);
-		Campaign camp = WebCampaign.getInstance().db.getCampaign(c.owner, c.target);
-		BasicCommand m = new BasicCommand();
-		m.owner = c.owner;
-		m.to = c.from;
-		m.from = Configuration.getInstance().instanceName;
-		m.id = c.id;
-		m.type = c.type;
-		if (camp == null) {
-			m.status = "Error";
-			m.msg = "Campaign load failed, could not find " + c.owner + "/" + c.target;
-			responseQueue.add(m);
-		} else {
+		List<BasicCommand> list = new ArrayList();
+		list.add(c);
+		addCampaigns(list);
+	}
 
-			System.out.println("------>" + camp.owner + "/" + camp.adId);
+	/**
+	 * Add campaigns from REDIS, with one recompile for all of them. The
+	 * responses are sent after the recompile, when the campaigns are live. A
+	 * campaign that fails to load gets an error response, the others are still
+	 * loaded.
+	 * 
+	 * @param cmds
+	 *            List. The add commands.
+	 */
+	public void addCampaigns(List<BasicCommand> cmds) {
+		List<BasicCommand> responses = new ArrayList();
+		boolean compile = false;
+		for (BasicCommand c : cmds) {
+			System.out.println("ADDING " + c.owner + "/" + c.target);
+			BasicCommand m = new BasicCommand();
+			m.owner = c.owner;
+			m.to = c.from;
+			m.from = Configuration.getInstance().instanceName;
+			m.id = c.id;
+			m.type = c.type;
+			try {
+				Campaign camp = WebCampaign.getInstance().db.getCampaign(c.owner, c.target);
+				if (camp == null) {
+					m.status = "Error";
+					m.msg = "Campaign load failed, could not find " + c.owner + "/" + c.target;
+				} else {
 
-			Configuration.getInstance().deleteCampaign(camp.owner, camp.adId);
-			Configuration.getInstance().addCampaign(camp);
+					System.out.println("------>" + camp.owner + "/" + camp.adId);
 
-			// System.out.println(camp.toJson());
+					compile |= Configuration.getInstance().loadCampaign(camp);
+
+					m.msg = "Campaign " + camp.owner + "/" + camp.adId + " loaded ok";
+					m.name = "AddCampaign Response";
+				}
+			} catch (Exception error) {
+				error.printStackTrace();
+				m.status = "error";
+				m.msg = error.toString();
+			}
+			responses.add(m);
+		}
+		if (compile) {
+			try {
+				Configuration.getInstance().recompile();
+			} catch (Exception error) {
+				error.printStackTrace();
+				for (BasicCommand m : responses) {
+					if (m.status.equals("ok")) {
+						m.status = "error";
+						m.msg = "Recompile failed: " + error.toString();
+					}
+				}
+			}
+		}
 
-			m.msg = "Campaign " + camp.owner + "/" + camp.adId + " loaded ok";
-			m.name = "AddCampaign Response";
-			sendLog(1, "AddCampaign", m.msg + " by " + c.owner);
+		for (int i = 0; i < responses.size(); i++) {
+			BasicCommand m = responses.get(i);
+			if (m.status.equals("ok"))
+				sendLog(1, "AddCampaign", m.msg + " by " + cmds.get(i).owner);
 			responseQueue.add(m);
+			System.out.println(m.msg);
 		}
-		System.out.println(m.msg);
 	}
 	
 	public void addCampaignsList(BasicCommand c) throws Exception {
@@ -262,31 +307,16 @@ public enum Controller {
 		m.from = Configuration.getInstance().instanceName;
 		m.id = cmd.id;
 		m.type = cmd.type;
-		boolean handled = false;
-		Double price = cmd.price;
-		for (Campaign campaign : Configuration.getInstance().campaignsList) {
-			if (campaign.adId.equals(campName)) {
-				for (Creative creat : campaign.creatives) {
-					if (creat.impid.equals(creatName)) {
-						creat.price = price;
-						m.msg = "Price set to " + price;
-						handled = true;
-						Database db = Database.getInstance();
-						db.reload();
-						
-					}
-				}
-				if (handled == false) {
-					m.status = "Error";
-					m.msg = "Can't find creative: " + creatName;
-					handled = true;
-					break;
-				}
-			}
-		}
-		if (!handled) {
+		// Only the price changes, so nothing is reloaded or recompiled.
+		CampaignRegistry registry = Configuration.getInstance().campaignsList;
+		if (registry.find(cmd.owner, campName) == null) {
 			m.msg = "Can't find campaign: " + campName;
 			m.status = "Error";
+		} else if (registry.setPrice(cmd.owner, campName, creatName, cmd.price)) {
+			m.msg = "Price set to " + cmd.price;
+		} else {
+			m.status = "Error";
+			m.msg = "Can't find creative: " + creatName;
 		}
 		
 		m.name = "SetPrice Response";
@@ -304,25 +334,16 @@ public enum Controller {
 		m.from = Configuration.getInstance().instanceName;
 		m.id = c.id;
 		m.type = c.type;
-		boolean handled = false;
-		for (Campaign campaign : Configuration.getInstance().campaignsList) {
-			if (campaign.adId.equals(parts[0])) {
-				for (Creative creat : campaign.creatives) {
-					if (creat.impid.equals(parts[1])) {
-						m.price = creat.price;
-						handled = true;
-						break;
-					}
-				}
-				m.status = "Error";
-				m.msg = "Can't find creative: " + parts[1];
-				handled = true;
-				break;
-			}
-		}
-		if (!handled) {
+		CampaignRegistry registry = Configuration.getInstance().campaignsList;
+		Creative creat = registry.getCreative(c.owner, parts[0], parts[1]);
+		if (creat != null)
+			m.price = creat.price;
+		else if (registry.find(c.owner, parts[0]) == null) {
 			m.msg = "Can't find campaign: " + parts[0];
 			m.status = "Error";
+		} else {
+			m.status = "Error";
+			m.msg = "Can't find creative: " + parts[1];
 		}
 		
 		m.name = "GetPrice Response";
@@ -696,6 +717,52 @@ public enum Controller {
 		this.sendLog(1, "setLogLevel", m.msg + ", by " + cmd.from);
 	}
 	
+	/**
+	 * Pause or resume a creative of a running campaign. The campaign stays
+	 * loaded and nothing is recompiled.
+	 * 
+	 * @param cmd
+	 *            BasicCommand. The PauseCreative or ResumeCreative command.
+	 */
+	public void pauseCreative(BasicCommand cmd) {
+		String owner = cmd.owner;
+		String campaignid = cmd.name;
+		String creativeid = cmd.target;
+		boolean pause = cmd.cmd == PAUSE_CREATIVE;
+		String what = (pause ? "Pause" : "Resume") + " campaign creative " + owner + "/" + campaignid + "/"
+				+ creativeid;
+
+		Echo m = RTBServer.getStatus();
+		m.owner = cmd.owner;
+		m.to = cmd.from;
+		m.from = Configuration.getInstance().instanceName;
+		m.id = cmd.id;
+		CampaignRegistry registry = Configuration.getInstance().campaignsList;
+		boolean done = pause ? registry.pause(owner, campaignid, creativeid)
+				: registry.resume(owner, campaignid, creativeid);
+		if (done)
+			m.msg = what + " succeeded";
+		else {
+			m.status = "Error";
+			m.msg = what + " failed, reason: " + (pause ? "no such creative running" : "creative is not paused");
+		}
+		m.name = (pause ? "PauseCreative" : "ResumeCreative") + " Response";
+		responseQueue.add(m);
+		this.sendLog(1, "pauseCreative", m.msg + ", by " + cmd.from);
+	}
+
+	/**
+	 * Return the statistics of the command executor.
+	 * 
+	 * @return Map. Queue depths, counts and latencies, empty if the command
+	 *         loop isn't running.
+	 */
+	public Map getCommandStats() {
+		if (loop == null)
+			return new HashMap();
+		return loop.executor.getStats();
+	}
+
 	public List<Map> getBackPressure() {
 		List<Map> bp = new ArrayList();
 		Map m = null;
@@ -783,7 +850,8 @@ public enum Controller {
 
 	/**
 	 * Sends an RTB request out on the appropriate Publisher queue. Note, this does not report
-	 * to the Unilogger queue.
+	 * to the Unilogger queue. Whether it is logged is decided by the request id, and the record is
+	 * built and serialized by the RequestLog thread, not this one.
 	 * 
 	 * @param br  BidRequest. The request.
 	 * @param override boolean. Set to true to log, no matter what the log percentage is set at.
@@ -796,32 +864,15 @@ public enum Controller {
 			 return false;
 		 
 		 if (!override) {
-			 if (!requestLogLevel.shouldLog(br.getExchange()))
+			 if (!requestLogLevel.shouldLog(br.getExchange(), br.id))
 				return false;
 		 }
  
 		if (requestQueue != null) {
-				ObjectNode original = (ObjectNode) br.getOriginal();
-				
-				// Can happen if this wasn't a real bid
-				if (original == null)
-					return false;
-
-				ObjectNode child = factory.objectNode();
-				child.put("timestamp", System.currentTimeMillis());
-				child.put("exchange", br.getExchange());
-
-				ObjectNode ext = (ObjectNode) original.get("ext");
-				if (ext != null) {
-					ext.put("timestamp", System.currentTimeMillis());
-					ext.put("exchange", br.getExchange());
-				} else {
-					child.put("timestamp", System.currentTimeMillis());
-					child.put("exchange", br.getExchange());
-					original.put("ext", child);
-				}
-				original.put("type", "requests");
-				requestQueue.add(original);
+			// Can happen if this wasn't a real bid
+			if (br.getOriginal() == null)
+				return false;
+			return RequestLog.log(br.getOriginal(), br.getExchange(), requestQueue);
 		}
 		
 		return true;
@@ -840,7 +891,7 @@ public enum Controller {
 
 		////////////// UNIFIED LOGGER ///////////////
 		if (request2Queue != null)
-			request2Queue.add(br.getOriginal());
+			RequestLog.log(br.getOriginal(), br.getExchange(), request2Queue);
 		/////////////////////////////////////////////
 		
 		if (bidQueue != null) 
@@ -1096,12 +1147,14 @@ public enum Controller {
  * @author Ben M. Faul
  *
  */
-class CommandLoop implements com.xrtb.jmq.MessageListener<BasicCommand> {
+class CommandLoop implements com.xrtb.jmq.MessageListener<BasicCommand>, CommandExecutor.Handler {
 	/**
 	 * The thread this command loop uses to process REDIS subscription messages
 	 */
 	/** The configuration object */
 	Configuration config = Configuration.getInstance();
+	/** Runs the commands, in order, off the subscriber thread */
+	final CommandExecutor executor = new CommandExecutor(this);
 
 	/**
 	 * On a message from REDIS, handle the command.
@@ -1139,88 +1192,36 @@ class CommandLoop implements com.xrtb.jmq.MessageListener<BasicCommand> {
 
 		}
 
+		executor.submit(item);
+	}
+
+	/**
+	 * Run a command, called by the executor.
+	 * 
+	 * @param item
+	 *            BasicCommand. The command.
+	 */
+	@Override
+	public void execute(BasicCommand item) {
 		try {
-			Runnable task = null;
-			Thread thread;
 			switch (item.cmd) {
 			case Controller.GET_PRICE:
-				task = () -> {
-					try {
-						Controller.getInstance().getPrice(item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
+				Controller.getInstance().getPrice(item);
 				break;
 			case Controller.SET_PRICE:
-				task = () -> {
-					try {
-						Controller.getInstance().setPrice((SetPrice)item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
+				Controller.getInstance().setPrice((SetPrice) item);
 				break;
 			case Controller.ADD_CAMPAIGN:
-
-				task = () -> {
-					try {
-						Controller.getInstance().addCampaign(item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
-
+				Controller.getInstance().addCampaign(item);
 				break;
-			
 			case Controller.ADD_CAMPAIGNS_LIST:
-
-				task = () -> {
-					try {
-						Controller.getInstance().addCampaignsList(item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
-
+				Controller.getInstance().addCampaignsList(item);
 				break;
-			
 			case Controller.DEL_CAMPAIGN:
-				task = () -> {
-					try {
-						Controller.getInstance().deleteCampaign(item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
-
+				Controller.getInstance().deleteCampaign(item);
 				break;
 			case Controller.DELETE_USER:
-				task = () -> {
-					try {
-						Controller.getInstance().deleteUser(item);
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				};
-				thread = new Thread(task);
-				thread.start();
+				Controller.getInstance().deleteUser(item);
 				break;
 			case Controller.STOP_BIDDER:
 				Controller.getInstance().stopBidder(item);
@@ -1237,26 +1238,48 @@ class CommandLoop implements com.xrtb.jmq.MessageListener<BasicCommand> {
 			case Controller.DELETE_CREATIVE:
 				Controller.getInstance().deleteCreative((DeleteCreative) item);
 				break;
+			case Controller.PAUSE_CREATIVE:
+			case Controller.RESUME_CREATIVE:
+				Controller.getInstance().pauseCreative(item);
+				break;
 
 			default:
 				Controller.getInstance().notHandled(item);
 			}
 
 		} catch (Exception error) {
-			try {
-				item.msg = error.toString();
-				item.to = item.from;
-				item.from = Configuration.getInstance().instanceName;
-				item.status = "error";
-				Controller.getInstance().responseQueue.add(item);
-				error.printStackTrace();
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			error.printStackTrace();
+			error(item, error);
 		}
 
 	}
 
+	/**
+	 * Add a run of campaigns, called by the executor.
+	 * 
+	 * @param items
+	 *            List. The ADD_CAMPAIGN commands.
+	 */
+	@Override
+	public void addCampaigns(List<BasicCommand> items) {
+		try {
+			Controller.getInstance().addCampaigns(items);
+		} catch (Exception error) {
+			for (BasicCommand item : items)
+				error(item, error);
+		}
+	}
+
+	void error(BasicCommand item, Exception error) {
+		try {
+			item.msg = error.toString();
+			item.to = item.from;
+			item.from = Configuration.getInstance().instanceName;
+			item.status = "error";
+			Controller.getInstance().responseQueue.add(item);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		error.printStackTrace();
+	}
+
 }
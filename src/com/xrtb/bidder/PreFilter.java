@@ -0,0 +1,350 @@
+package com.xrtb.bidder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.xrtb.common.Campaign;
+import com.xrtb.common.CampaignRegistry;
+import com.xrtb.common.Configuration;
+import com.xrtb.common.Creative;
+import com.xrtb.common.Dimension;
+import com.xrtb.common.Node;
+import com.xrtb.pojo.BidRequest;
+
+/**
+ * Answers the no bids that can be decided from a few fields, before the bid
+ * request is parsed. A streaming scanner reads only site.domain, app.domain,
+ * device.geo.country and the banner sizes of the impressions, skipping
+ * everything else, and these are checked against a summary of what the
+ * running campaigns could possibly match:
+ * <ul>
+ * <li>"stopped": the bidder is stopped or paused, or has no campaigns.</li>
+ * <li>"domain": the site or app domain is in the master black list.</li>
+ * <li>"country": every campaign requires device.geo.country (EQUALS or MEMBER
+ * of a list) and the country is none of them.</li>
+ * <li>"size": every impression is a banner with a width and height, and no
+ * banner creative fits any of them.</li>
+ * </ul>
+ * The summary is rebuilt when the campaigns change. Anything the summary
+ * can't be sure of (an OR, an expression, a video creative, an impression
+ * without a size) lets the request through to the full parse, so the filter
+ * only drops what the campaigns would have dropped.
+ * <p>
+ * Only the plain OpenRTB exchanges are filtered. The checks are set with the
+ * "prefilter" list of the "app" section, all of them by default.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class PreFilter {
+
+	/** All the checks */
+	public static final List<String> ALL = Arrays.asList("stopped", "domain", "country", "size");
+	/** The checks done, none if empty */
+	public static volatile Set<String> CHECKS = new HashSet<String>(ALL);
+
+	static final JsonFactory factory = new JsonFactory();
+
+	/** Requests rejected, by reason */
+	static final Map<String, LongAdder> rejected = new ConcurrentHashMap<String, LongAdder>();
+	/** Requests scanned */
+	static final LongAdder scanned = new LongAdder();
+
+	/**
+	 * The fields of a bid request the filter looks at.
+	 */
+	public static class Fields {
+		public String siteDomain;
+		public String appDomain;
+		public String country;
+		/** The width and height of the banner impressions */
+		public List<int[]> sizes = new ArrayList<int[]>();
+		/** True if an impression is video, native, or a banner without a size */
+		public boolean unsized;
+	}
+
+	/**
+	 * What the running campaigns could possibly match.
+	 */
+	static class Summary {
+		final CampaignRegistry campaigns;
+		final long version;
+		/** The countries some campaign accepts, null if any */
+		final Set<String> countries;
+		/** True if no campaign accepts a request without a country */
+		final boolean countryRequired;
+		/** The dimensions of the banner creatives, null if any size can match */
+		final List<Dimension> dimensions;
+
+		Summary(CampaignRegistry campaigns, long version, Set<String> countries, boolean countryRequired,
+				List<Dimension> dimensions) {
+			this.campaigns = campaigns;
+			this.version = version;
+			this.countries = countries;
+			this.countryRequired = countryRequired;
+			this.dimensions = dimensions;
+		}
+	}
+
+	static volatile Summary summary;
+
+	/**
+	 * Set the checks to do.
+	 * @param checks List. The names of the checks, null for all of them.
+	 */
+	public static void setChecks(List<String> checks) {
+		CHECKS = new HashSet<String>(checks == null ? ALL : checks);
+	}
+
+	/**
+	 * Decide whether a request can be answered with a no bid before it is parsed.
+	 * @param body byte[]. The bid request.
+	 * @return String. The reason for the no bid, or null if the request has to be parsed.
+	 */
+	public static String check(byte[] body) {
+		return check(Configuration.getInstance().campaignsList, body);
+	}
+
+	/**
+	 * Decide whether a request can be answered with a no bid, against a set of campaigns.
+	 * @param campaigns CampaignRegistry. The running campaigns.
+	 * @param body byte[]. The bid request.
+	 * @return String. The reason for the no bid, or null if the request has to be parsed.
+	 */
+	public static String check(CampaignRegistry campaigns, byte[] body) {
+		Set<String> checks = CHECKS;
+		if (checks.isEmpty())
+			return null;
+		String reason = null;
+		if (checks.contains("stopped")) {
+			if (RTBServer.stopped || RTBServer.paused)
+				reason = "Server stopped";
+			else if (campaigns.size() == 0)
+				reason = "No campaigns loaded";
+		}
+		if (reason == null) {
+			Fields f;
+			try {
+				f = scan(body);
+			} catch (Exception error) {
+				return null; // the parser will report it
+			}
+			if (f == null)
+				return null;
+			scanned.increment();
+			reason = check(getSummary(campaigns), f, checks);
+		}
+		if (reason != null)
+			rejected.computeIfAbsent(reason, k -> new LongAdder()).increment();
+		return reason;
+	}
+
+	/**
+	 * Check the fields of a request against a summary.
+	 */
+	static String check(Summary s, Fields f, Set<String> checks) {
+		if (checks.contains("domain") && BidRequest.blackList != null) {
+			String domain = f.siteDomain != null ? f.siteDomain : f.appDomain;
+			if (domain != null && BidRequest.blackList.contains(domain))
+				return "master-black-list";
+		}
+		if (checks.contains("country") && s.countries != null) {
+			if (f.country == null ? s.countryRequired : !s.countries.contains(f.country))
+				return "No campaign for country";
+		}
+		if (checks.contains("size") && s.dimensions != null && !f.unsized && f.sizes.size() > 0) {
+			for (int[] wh : f.sizes) {
+				for (Dimension d : s.dimensions) {
+					if (d.fits(wh[0], wh[1]))
+						return null;
+				}
+			}
+			return "No creative for size";
+		}
+		return null;
+	}
+
+	/**
+	 * Return the summary of the running campaigns, rebuilding it if they changed.
+	 */
+	static Summary getSummary(CampaignRegistry campaigns) {
+		Summary s = summary;
+		if (s != null && s.campaigns == campaigns && s.version == campaigns.getVersion())
+			return s;
+		synchronized (PreFilter.class) {
+			s = summary;
+			if (s == null || s.campaigns != campaigns || s.version != campaigns.getVersion())
+				summary = s = summarize(campaigns);
+			return s;
+		}
+	}
+
+	/**
+	 * Summarize what the campaigns could match.
+	 * @param campaigns CampaignRegistry. The campaigns.
+	 * @return Summary. The summary.
+	 */
+	static Summary summarize(CampaignRegistry campaigns) {
+		long version = campaigns.getVersion();
+		Set<String> countries = new HashSet<String>();
+		boolean required = true;
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+		for (Campaign c : campaigns) {
+			Node n = countryNode(c);
+			if (n == null)
+				countries = null;
+			else {
+				if (countries != null) {
+					if (n.value instanceof Collection) {
+						for (Object o : (Collection) n.value)
+							countries.add(o.toString());
+					} else
+						countries.add(n.value.toString());
+				}
+				if (n.notPresentOk)
+					required = false;
+			}
+
+			if (dimensions != null) {
+				for (Creative cr : c.creatives) {
+					if (cr.isVideo() || cr.isNative())
+						continue;
+					if (cr.dimensions == null || cr.dimensions.size() == 0) {
+						dimensions = null;
+						break;
+					}
+					dimensions.addAll(cr.dimensions);
+				}
+			}
+		}
+		return new Summary(campaigns, version, countries, countries == null ? false : required, dimensions);
+	}
+
+	/**
+	 * Return the campaign attribute that limits device.geo.country to a list, or null if there isn't one.
+	 */
+	static Node countryNode(Campaign c) {
+		for (Node n : c.attributes) {
+			if (!"device.geo.country".equals(n.hierarchy) || n.code != null || n.value == null)
+				continue;
+			if (n.operator == Node.EQUALS && n.value instanceof String)
+				return n;
+			if (n.operator == Node.MEMBER && n.value instanceof Collection)
+				return n;
+		}
+		return null;
+	}
+
+	/**
+	 * Read the fields of a bid request, skipping everything else.
+	 * @param body byte[]. The JSON of the request.
+	 * @return Fields. The fields, or null if it isn't a JSON object.
+	 * @throws IOException on bad JSON.
+	 */
+	public static Fields scan(byte[] body) throws IOException {
+		Fields f = new Fields();
+		try (JsonParser p = factory.createParser(body)) {
+			if (p.nextToken() != JsonToken.START_OBJECT)
+				return null;
+			while (p.nextToken() == JsonToken.FIELD_NAME) {
+				String name = p.getCurrentName();
+				JsonToken t = p.nextToken();
+				if (t == JsonToken.START_OBJECT && name.equals("site"))
+					f.siteDomain = text(p, "domain");
+				else if (t == JsonToken.START_OBJECT && name.equals("app"))
+					f.appDomain = text(p, "domain");
+				else if (t == JsonToken.START_OBJECT && name.equals("device"))
+					device(p, f);
+				else if (t == JsonToken.START_ARRAY && name.equals("imp")) {
+					while (p.nextToken() == JsonToken.START_OBJECT)
+						imp(p, f);
+				} else
+					p.skipChildren();
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Read an object, returning the text of one of its fields.
+	 */
+	static String text(JsonParser p, String field) throws IOException {
+		String value = null;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.getCurrentName();
+			JsonToken t = p.nextToken();
+			if (t == JsonToken.VALUE_STRING && name.equals(field))
+				value = p.getText();
+			else
+				p.skipChildren();
+		}
+		return value;
+	}
+
+	static void device(JsonParser p, Fields f) throws IOException {
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.getCurrentName();
+			JsonToken t = p.nextToken();
+			if (t == JsonToken.START_OBJECT && name.equals("geo"))
+				f.country = text(p, "country");
+			else
+				p.skipChildren();
+		}
+	}
+
+	/**
+	 * Read an impression. Like Impression, a banner wins over video and native.
+	 */
+	static void imp(JsonParser p, Fields f) throws IOException {
+		Integer w = null, h = null;
+		boolean banner = false;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.getCurrentName();
+			JsonToken t = p.nextToken();
+			if (t == JsonToken.START_OBJECT && name.equals("banner")) {
+				banner = true;
+				while (p.nextToken() == JsonToken.FIELD_NAME) {
+					String bname = p.getCurrentName();
+					JsonToken bt = p.nextToken();
+					if (bt == JsonToken.VALUE_NUMBER_INT && bname.equals("w"))
+						w = p.getIntValue();
+					else if (bt == JsonToken.VALUE_NUMBER_INT && bname.equals("h"))
+						h = p.getIntValue();
+					else
+						p.skipChildren();
+				}
+			} else
+				p.skipChildren();
+		}
+		if (banner && w != null && h != null)
+			f.sizes.add(new int[] { w, h });
+		else
+			f.unsized = true;
+	}
+
+	/**
+	 * Return the statistics of the filter.
+	 * @return Map. The requests scanned, and the requests rejected by reason.
+	 */
+	public static Map getStats() {
+		Map m = new HashMap();
+		m.put("scanned", scanned.sum());
+		Map r = new HashMap();
+		for (Map.Entry<String, LongAdder> e : rejected.entrySet())
+			r.put(e.getKey(), e.getValue().sum());
+		m.put("rejected", r);
+		return m;
+	}
+}
@@ -1,5 +1,6 @@
 package com.xrtb.bidder;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 import java.io.File;
@@ -24,9 +25,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
@@ -35,6 +37,7 @@ import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.io.ConnectionStatistics;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
@@ -44,21 +47,28 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.aerospike.redisson.AerospikeHandler;
 import com.xrtb.commands.Echo;
+import com.xrtb.common.AudienceLookup;
 import com.xrtb.common.Campaign;
 import com.xrtb.common.Configuration;
+import com.xrtb.common.JettyProfile;
+import com.xrtb.common.QueryLookup;
 import com.xrtb.common.SSL;
 import com.xrtb.fraud.ForensiqClient;
+import com.xrtb.jmq.JMQContext;
 import com.xrtb.jmq.WebMQ;
 import com.xrtb.pojo.BidRequest;
 import com.xrtb.pojo.BidResponse;
 import com.xrtb.pojo.NobidResponse;
+import com.xrtb.pojo.OpenRtbCodec;
 import com.xrtb.pojo.WinObject;
+import com.xrtb.tools.Compression;
 import com.xrtb.tools.DbTools;
 import com.xrtb.tools.HeapDumper;
 import com.xrtb.tools.NameNode;
@@ -129,43 +139,53 @@ public class RTBServer implements Runnable {
 
 	/**
 	 * a counter for the number of requests the bidder has received and
-	 * processed
+	 * processed. The counters are LongAdders, the request threads increment
+	 * them without contending on one field.
 	 */
-	public static long request = 0;
+	public static final LongAdder request = new LongAdder();
 	/** Counter for number of bids made */
-	public static long bid = 0; // number of bids processed
+	public static final LongAdder bid = new LongAdder(); // number of bids processed
 	/** Counter for number of nobids made */
-	public static long nobid = 0; // number of nobids processed
+	public static final LongAdder nobid = new LongAdder(); // number of nobids processed
 	/** Number of errors in accessing the bidder */
-	public static long error = 0;
+	public static final LongAdder error = new LongAdder();
 	/** Number of actual requests */
-	public static long handled = 0;
+	public static final LongAdder handled = new LongAdder();
 	/** Number of unknown accesses */
-	public static long unknown = 0;
+	public static final LongAdder unknown = new LongAdder();
 	/** The configuration of the bidder */
 	public static Configuration config;
 	/** The number of win notifications */
-	public static long win = 0;
+	public static final LongAdder win = new LongAdder();
 	/** The number of clicks processed */
-	public static long clicks = 0;
+	public static final LongAdder clicks = new LongAdder();
 	/** The number of pixels fired */
-	public static long pixels = 0;
+	public static final LongAdder pixels = new LongAdder();
 	/** The average time */
-	public static long avgBidTime;
+	public static volatile long avgBidTime;
 	/** Fraud counter */
-	public static long fraud = 0;
+	public static final LongAdder fraud = new LongAdder();
 	/** xtime counter */
-	public static long xtime = 0;
+	public static final LongAdder xtime = new LongAdder();
+	/** Bid requests shed because too many were in flight */
+	public static final LongAdder shed = new LongAdder();
+	/** Bid requests currently being processed */
+	static AtomicInteger inflight = new AtomicInteger(0);
+	/** Decides which bid requests are worked on */
+	static volatile AdmissionController admission;
+	/** Connection statistics of the bid connectors, null if no jetty profile */
+	static ConnectionStatistics connectionStats;
 	/** The hearbead pool controller */
 	public static MyNameNode node;
 	/** double adpsend */
-	public static volatile double adspend;
+	public static final DoubleAdder adspend = new DoubleAdder();
 	/** is the server ready to receive data */
 	boolean ready;
 
+	/** The time and the win, click, pixel, bid and nobid totals at the last snapshot, for the qps */
 	static long deltaTime = 0, deltaWin = 0, deltaClick = 0, deltaPixel = 0, deltaNobid = 0, deltaBid = 0;
-	static double qps = 0;
-	static double avgx = 0;
+	static volatile double qps = 0;
+	static volatile double avgx = 0;
 
 	static AtomicLong totalBidTime = new AtomicLong(0);
 	static AtomicLong bidCountWindow = new AtomicLong(0);
@@ -189,6 +209,8 @@ public class RTBServer implements Runnable {
 
 	/** Bid target to exchange class map */
 	public static Map<String, BidRequest> exchanges = new HashMap();
+	/** Route table of the bid targets, built from exchanges when the seats are loaded */
+	public static volatile RouteTable routes = new RouteTable();
 
 	/**
 	 * This is the entry point for the RTB server.
@@ -371,30 +393,31 @@ public class RTBServer implements Runnable {
 	/**
 	 * Set summary stats.
 	 */
-	public static void setSummaryStats() {
-		if (xtime == 0)
+	public static synchronized void setSummaryStats() {
+		long nobids = nobid.sum();
+		long bids = bid.sum();
+		long x = xtime.sum();
+		if (x == 0)
 			avgx = 0;
 		else
-			avgx = (nobid + bid) / (double) xtime;
+			avgx = (nobids + bids) / (double) x;
 
-		if (System.currentTimeMillis() - deltaTime < 30000)
+		long now = System.currentTimeMillis();
+		if (now - deltaTime < 30000)
 			return;
 
-		deltaWin = win - deltaWin;
-		deltaClick = clicks - deltaClick;
-		deltaPixel = pixels - deltaPixel;
-		deltaBid = bid - deltaBid;
-		deltaNobid = nobid - deltaNobid;
-
-		qps = (deltaWin + deltaClick + deltaPixel + deltaBid + deltaNobid);
-		long secs = (System.currentTimeMillis() - deltaTime) / 1000;
-		qps = qps / secs;
-		deltaTime = System.currentTimeMillis();
-		deltaWin = win;
-		deltaClick = clicks;
-		deltaPixel = pixels;
-		deltaBid = bid;
-		deltaNobid = nobid;
+		long wins = win.sum();
+		long clicked = clicks.sum();
+		long fired = pixels.sum();
+		double secs = (now - deltaTime) / 1000.0;
+		qps = ((wins - deltaWin) + (clicked - deltaClick) + (fired - deltaPixel) + (bids - deltaBid)
+				+ (nobids - deltaNobid)) / secs;
+		deltaTime = now;
+		deltaWin = wins;
+		deltaClick = clicked;
+		deltaPixel = fired;
+		deltaBid = bids;
+		deltaNobid = nobids;
 		
 		// QPS the exchanges
 		BidRequest.getExchangeCounts(secs);
@@ -420,10 +443,40 @@ public class RTBServer implements Runnable {
 		m.put("diskFree", Performance.getPercFreeDisk());
 		m.put("openfiles", Performance.getOpenFileDescriptorCount());
 		m.put("exchanges", BidRequest.getExchangeCounts());
+		if (connectionStats != null)
+			m.put("connections", getConnectionStats());
+		m.put("compression", Compression.getStats());
 
 		return DbTools.mapper.writeValueAsString(m);
 	}
 
+	/**
+	 * Return the connection reuse metrics of the bid connectors. The
+	 * requests per connection figure shows how well the exchanges are keeping
+	 * their connections alive.
+	 * 
+	 * @return Map. The connection statistics, or null if no jetty profile is
+	 *         configured.
+	 */
+	public static Map getConnectionStats() {
+		if (connectionStats == null)
+			return null;
+		Map m = new HashMap();
+		long total = connectionStats.getConnectionsTotal();
+		long messages = connectionStats.getReceivedMessages();
+		m.put("open", connectionStats.getConnections());
+		m.put("max", connectionStats.getConnectionsMax());
+		m.put("total", total);
+		m.put("requests", messages);
+		m.put("requestsPerConnection", total == 0 ? 0 : (double) messages / total);
+		m.put("meanDuration", connectionStats.getConnectionDurationMean());
+		m.put("inflight", inflight.get());
+		m.put("shed", shed.sum());
+		m.put("asyncTimeouts", AsyncBidHandler.timeouts.get());
+		m.put("asyncRejected", AsyncBidHandler.rejected.get());
+		return m;
+	}
+
 	/**
 	 * Establishes the HTTP Handler, creates the Jetty server and attaches the
 	 * handler and then joins the server. This method does not return, but it is
@@ -444,26 +497,42 @@ public class RTBServer implements Runnable {
 			return;
 		}
 
-		QueuedThreadPool threadPool = new QueuedThreadPool(threads, 50);
+		JettyProfile profile = Configuration.getInstance().jetty;
+		QueuedThreadPool threadPool;
+		if (profile == null)
+			threadPool = new QueuedThreadPool(threads, 50);
+		else {
+			threadPool = profile.threadPool();
+			connectionStats = new ConnectionStatistics();
+		}
 		server = new Server(threadPool);
 		ServerConnector connector = null;
 
 		if (Configuration.getInstance().port != 0) {
-			connector = new ServerConnector(server);
+			if (profile == null) {
+				connector = new ServerConnector(server);
+				connector.setIdleTimeout(60000);
+			} else
+				connector = profile.connector(server, connectionStats,
+						new HttpConnectionFactory(profile.httpConfiguration()));
 			connector.setPort(Configuration.getInstance().port);
-			connector.setIdleTimeout(60000);
 		}
 
 		if (config.getInstance().ssl != null) {
 
-			HttpConfiguration https = new HttpConfiguration();
+			HttpConfiguration https = profile == null ? new HttpConfiguration() : profile.httpConfiguration();
 			https.addCustomizer(new SecureRequestCustomizer());
 			SslContextFactory sslContextFactory = new SslContextFactory();
 			sslContextFactory.setKeyStorePath(ssl.setKeyStorePath);
 			sslContextFactory.setKeyStorePassword(ssl.setKeyStorePassword);
 			sslContextFactory.setKeyManagerPassword(ssl.setKeyManagerPassword);
-			ServerConnector sslConnector = new ServerConnector(server,
-					new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory(https));
+			ServerConnector sslConnector;
+			if (profile == null)
+				sslConnector = new ServerConnector(server, new SslConnectionFactory(sslContextFactory, "http/1.1"),
+						new HttpConnectionFactory(https));
+			else
+				sslConnector = profile.connector(server, connectionStats,
+						new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory(https));
 			sslConnector.setPort(Configuration.getInstance().sslPort);
 
 			if (connector != null)
@@ -489,7 +558,14 @@ public class RTBServer implements Runnable {
 			BidRequest.compile();
 			SessionHandler sh = new SessionHandler(); // org.eclipse.jetty.server.session.SessionHandler
 			sh.setHandler(handler);
-			server.setHandler(sh); // set session handle
+			server.setHandler(new BidRouter(sh, handler, profile));
+
+			if (profile != null)
+				Controller.getInstance().sendLog(1, "RTBServer.run",
+						"Jetty profile: acceptors=" + profile.acceptors() + ", selectors=" + profile.selectors()
+								+ ", threads=" + profile.maxThreads + ", queue=" + profile.queueSize + ", inflight="
+								+ profile.maxInflight + ", sessionless=" + profile.sessionless + ", mode="
+								+ profile.mode + ", executor=" + profile.executor);
 
 			startPeridocLogger();
 
@@ -631,6 +707,7 @@ public class RTBServer implements Runnable {
 					// queues needing to drain
 					// have a chance to do so
 
+					setSummaryStats();
 					avgBidTime = totalBidTime.get();
 					double davgBidTime = avgBidTime;
 					double window = bidCountWindow.get();
@@ -663,8 +740,9 @@ public class RTBServer implements Runnable {
 					String msg = "openfiles=" + of + ", cpu=" + perf + "%, mem=" + mem + ", freedsk=" + pf
 							+ "%, threads=" + threads + ", low-on-threads= " + server.getThreadPool().isLowOnThreads()
 							+ ", qps=" + sqps + ", avgBidTime=" + savgbidtime + "ms, avgForensiq= " + avgForensiq
-							+ "ms, total=" + handled + ", requests=" + request + ", bids=" + bid + ", nobids=" + nobid
-							+ ", fraud=" + fraud + ", wins=" + win + ", pixels=" + pixels + ", clicks=" + clicks
+							+ "ms, total=" + handled.sum() + ", requests=" + request.sum() + ", bids=" + bid.sum()
+							+ ", nobids=" + nobid.sum() + ", fraud=" + fraud.sum() + ", wins=" + win.sum() + ", pixels="
+							+ pixels.sum() + ", clicks=" + clicks.sum()
 							+ ", exchanges= " + exchangeCounts + ", stopped=" + stopped + ", campaigns="
 							+ Configuration.getInstance().campaignsList.size();
 					Map m = new HashMap();
@@ -687,17 +765,28 @@ public class RTBServer implements Runnable {
 					m.put("threads", threads);
 					m.put("qps", qps);
 					m.put("avgbidtime", Double.parseDouble(savgbidtime));
-					m.put("handled", handled);
-					m.put("requests", request);
-					m.put("nobid", nobid);
-					m.put("fraud", fraud);
-					m.put("wins", win);
-					m.put("pixels", pixels);
-					m.put("clicks", clicks);
+					m.put("handled", handled.sum());
+					m.put("requests", request.sum());
+					m.put("nobid", nobid.sum());
+					m.put("fraud", fraud.sum());
+					m.put("wins", win.sum());
+					m.put("pixels", pixels.sum());
+					m.put("clicks", clicks.sum());
 					m.put("stopped", stopped);
-					m.put("bids", bid);
+					m.put("bids", bid.sum());
 					m.put("exchanges", exchangeCounts);
 					m.put("campaigns", Configuration.getInstance().campaignsList.size());
+					if (connectionStats != null)
+						m.put("connections", getConnectionStats());
+					m.put("compression", Compression.getStats());
+					m.put("commands", Controller.getInstance().getCommandStats());
+					m.put("audience", AudienceLookup.getStats());
+					m.put("queries", QueryLookup.getStats());
+					m.put("sockets", JMQContext.getStats());
+					m.put("requestlog", RequestLog.getStats());
+					m.put("prefilter", PreFilter.getStats());
+					if (admission != null)
+						m.put("admission", admission.getStats());
 
 					if (CampaignProcessor.probe != null) {
 						// System.out.println("=======> REPORT: " +
@@ -707,7 +796,6 @@ public class RTBServer implements Runnable {
 					Controller.getInstance().sendStats(m);
 
 					Controller.getInstance().sendLog(1, "Heartbeat", msg);
-					CampaignSelector.adjustHighWaterMark();
 
 					// Thread.sleep(100);
 					// RTBServer.paused = false;
@@ -790,17 +878,17 @@ public class RTBServer implements Runnable {
 		e.from = Configuration.getInstance().instanceName;
 		e.percentage = percentage.intValue();
 		e.stopped = stopped;
-		e.request = request;
-		e.bid = bid;
-		e.win = win;
-		e.nobid = nobid;
-		e.error = error;
-		e.handled = handled;
-		e.unknown = unknown;
-		e.clicks = clicks;
-		e.pixel = pixels;
-		e.fraud = fraud;
-		e.adspend = adspend;
+		e.request = request.sum();
+		e.bid = bid.sum();
+		e.win = win.sum();
+		e.nobid = nobid.sum();
+		e.error = error.sum();
+		e.handled = handled.sum();
+		e.unknown = unknown.sum();
+		e.clicks = clicks.sum();
+		e.pixel = pixels.sum();
+		e.fraud = fraud.sum();
+		e.adspend = adspend.sum();
 		e.loglevel = Configuration.getInstance().logLevel;
 		e.qps = qps;
 		e.campaigns = Configuration.getInstance().campaignsList;
@@ -824,6 +912,112 @@ public class RTBServer implements Runnable {
 	}
 }
 
+/**
+ * Front door of the bidder. Bid requests are first put to the
+ * AdmissionController, and answered with the no bid code before they are
+ * parsed when it sheds them. With a jetty profile they go straight to the
+ * handler without an HTTP session, or in async mode to the AsyncBidHandler.
+ * Everything else goes through the session handler.
+ * 
+ * @author Ben M. Faul
+ *
+ */
+class BidRouter extends HandlerWrapper {
+	/** The bid handler, also wrapped by the session handler */
+	Handler bids;
+	/** The profile in use */
+	JettyProfile profile;
+	/** The async bid runner, null in blocking mode */
+	AsyncBidHandler async;
+	/** Decides which bid requests are worked on */
+	AdmissionController admission;
+
+	/**
+	 * Create the router.
+	 * 
+	 * @param sessions
+	 *            SessionHandler. The session handler wrapping the bid handler.
+	 * @param bids
+	 *            Handler. The bid handler.
+	 * @param profile
+	 *            JettyProfile. The jetty profile.
+	 */
+	BidRouter(SessionHandler sessions, Handler bids, JettyProfile profile) {
+		setHandler(sessions);
+		this.bids = bids;
+		this.profile = profile;
+		if (profile != null && profile.isAsync())
+			async = new AsyncBidHandler(bids, profile);
+		admission = new AdmissionController(profile == null ? 0 : profile.maxInflight);
+		RTBServer.admission = admission;
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+
+		RouteTable.Route route = RTBServer.routes.get(target);
+		if (route == null) {
+			super.handle(target, baseRequest, request, response);
+			return;
+		}
+
+		boolean release = true;
+		long received = baseRequest.getTimeStamp();
+		try {
+			int n = RTBServer.inflight.incrementAndGet();
+			String reason = admission.admit(route, received, n);
+			if (reason != null) {
+				RTBServer.request.increment();
+				RTBServer.nobid.increment();
+				RTBServer.shed.increment();
+				baseRequest.setHandled(true);
+				response.setHeader("X-REASON", reason);
+				response.setStatus(RTBServer.NOBID_CODE);
+				return;
+			}
+			if (async != null) {
+				async.start(target, baseRequest, request, response, () -> done(route, received));
+				release = false;
+			} else {
+				release = false;
+				try {
+					if (profile != null && profile.sessionless)
+						bids.handle(target, baseRequest, request, response);
+					else
+						super.handle(target, baseRequest, request, response);
+				} finally {
+					done(route, received);
+				}
+			}
+		} finally {
+			if (release)
+				RTBServer.inflight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A bid request is finished, release it and tell the admission controller how long it took.
+	 */
+	void done(RouteTable.Route route, long received) {
+		RTBServer.inflight.decrementAndGet();
+		admission.done(route, received);
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		admission.setThreadPool(getServer().getThreadPool());
+		super.doStart();
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		if (async != null)
+			async.shutdown();
+		super.doStop();
+	}
+}
+
 /**
  * JETTY handler for incoming bid request.
  * 
@@ -878,7 +1072,7 @@ class Handler extends AbstractHandler {
 		String id = "";
 		Campaign campaign = null;
 		boolean unknown = true;
-		RTBServer.handled++;
+		RTBServer.handled.increment();
 		int code = RTBServer.BID_CODE;
 		baseRequest.setHandled(true);
 		long time = System.currentTimeMillis();
@@ -912,7 +1106,9 @@ class Handler extends AbstractHandler {
 			 */
 
 			BidResponse bresp = null;
-			x = RTBServer.exchanges.get(target);
+			RouteTable.Route route = RTBServer.routes.get(target);
+			if (route != null)
+				x = route.codec.getPrototype();
 
 			if (x != null) {
 
@@ -923,7 +1119,7 @@ class Handler extends AbstractHandler {
 					return;
 				}
 
-				RTBServer.request++;
+				RTBServer.request.increment();
 
 				/*************
 				 * Uncomment to run smaato compliance testing
@@ -944,7 +1140,7 @@ class Handler extends AbstractHandler {
 					json = "Wrong target: " + target + " is not configured.";
 					code = RTBServer.NOBID_CODE;
 					Controller.getInstance().sendLog(2, "Handler:handle:error", json);
-					RTBServer.error++;
+					RTBServer.error.increment();
 					System.out.println("=============> Wrong target: " + target + " is not configured.");
 					baseRequest.setHandled(true);
 					response.setStatus(code);
@@ -956,11 +1152,25 @@ class Handler extends AbstractHandler {
 					unknown = false;
 					// RunRecord log = new RunRecord("bid-request");
 
-					if (isGzip)
-						body = new GZIPInputStream(body);
+					if (route.codec instanceof OpenRtbCodec && !PreFilter.CHECKS.isEmpty()) {
+						byte[] data = isGzip ? Compression.gunzip(body) : Compression.readAll(body);
+						String reason = PreFilter.check(data);
+						if (reason != null) {
+							x.incrementRequests();
+							RTBServer.nobid.increment();
+							baseRequest.setHandled(true);
+							response.setHeader("X-REASON", reason);
+							response.setStatus(x.returnNoBidCode());
+							return;
+						}
+						body = new ByteArrayInputStream(data);
+					} else if (isGzip)
+						body = new ByteArrayInputStream(Compression.gunzip(body));
 
-					br = x.copy(body);
+					br = route.codec.decode(body);
 					br.incrementRequests();
+					if (RTBServer.admission != null)
+						RTBServer.admission.observe(route, br);
 					
 					id = br.getId();
 
@@ -970,7 +1180,7 @@ class Handler extends AbstractHandler {
 							dumpRequestInfo(target, request);
 
 							System.out.println(br.getOriginal());
-							RTBServer.nobid++;
+							RTBServer.nobid.increment();
 							Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 							response.setStatus(br.returnNoBidCode());
 							response.setContentType(br.returnContentType());
@@ -985,7 +1195,7 @@ class Handler extends AbstractHandler {
 							Controller.getInstance().sendLog(1, "BidRequest:setup:blacklisted",
 									br.id + ", site/app.domain = " + br.siteDomain);
 						}
-						RTBServer.nobid++;
+						RTBServer.nobid.increment();
 						Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 						response.setStatus(br.returnNoBidCode());
 						response.setContentType(br.returnContentType());
@@ -999,39 +1209,26 @@ class Handler extends AbstractHandler {
 					
 					if (!br.forensiqPassed()) {
 						code = RTBServer.NOBID_CODE;
-						RTBServer.nobid++;
-						RTBServer.fraud++;
+						RTBServer.nobid.increment();
+						RTBServer.fraud.increment();
 						Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 						Controller.getInstance().publishFraud(br.fraudRecord);
 					}
 
-					if (RTBServer.server.getThreadPool().isLowOnThreads()) {
-						code = RTBServer.NOBID_CODE;
-						json = "Server throttling";
-						RTBServer.nobid++;
-						response.setStatus(br.returnNoBidCode());
-						response.setContentType(br.returnContentType());
-						baseRequest.setHandled(true);
-						br.writeNoBid(response, time);
-						
-						Controller.getInstance().sendRequest(br,false);
-						return;
-					}
-
 					if (CampaignSelector.getInstance().size() == 0) {
 						json = br.returnNoBid("No campaigns loaded");
 						code = RTBServer.NOBID_CODE;
-						RTBServer.nobid++;
+						RTBServer.nobid.increment();
 						Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 					} else if (RTBServer.stopped || RTBServer.paused) {
 						json = br.returnNoBid("Server stopped");
 						code = RTBServer.NOBID_CODE;
-						RTBServer.nobid++;
+						RTBServer.nobid.increment();
 						Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 					} else if (!checkPercentage()) {
 						json = br.returnNoBid("Server throttled");
 						code = RTBServer.NOBID_CODE;
-						RTBServer.nobid++;
+						RTBServer.nobid.increment();
 						Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 					} else {
 						// if (RTBServer.strategy ==
@@ -1057,7 +1254,7 @@ class Handler extends AbstractHandler {
 								code = RTBServer.NOBID_CODE;
 								json = br.returnNoBid("No matching campaign");
 								code = RTBServer.NOBID_CODE;
-								RTBServer.nobid++;
+								RTBServer.nobid.increment();
 								Controller.getInstance().sendNobid(new NobidResponse(br.id, br.getExchange()));
 							} else {
 								code = RTBServer.BID_CODE;
@@ -1070,7 +1267,7 @@ class Handler extends AbstractHandler {
 									Controller.getInstance().recordBid(bresp);
 									Controller.getInstance().sendRequest(br, true);
 
-									RTBServer.bid++;
+									RTBServer.bid.increment();
 								}
 							}
 						}
@@ -1081,7 +1278,7 @@ class Handler extends AbstractHandler {
 				time = System.currentTimeMillis() - time;
 
 				response.setHeader("X-TIME", Long.toString(time));
-				RTBServer.xtime += time;
+				RTBServer.xtime.add(time);
 
 				response.setContentType(br.returnContentType()); // "application/json;charset=utf-8");
 				if (code == 204) {
@@ -1099,8 +1296,14 @@ class Handler extends AbstractHandler {
 					response.setStatus(code);
 					// If bresp is null, then this is an alternate response, not
 					// a no-bid or bid
-					if (bresp != null)
-						bresp.writeTo(response);
+					if (bresp != null) {
+						if (x.gzipThreshold >= 0)
+							response.setHeader("Vary", "Accept-Encoding");
+						if (x.gzipThreshold >= 0 && Compression.acceptsGzip(request.getHeader("Accept-Encoding")))
+							bresp.writeCompressed(response, x.gzipThreshold);
+						else
+							bresp.writeTo(response);
+					}
 				} else {
 					br.writeNoBid(response, time);
 					// Send the request to the log, if it was suppressed
@@ -1126,7 +1329,7 @@ class Handler extends AbstractHandler {
 					if (json == null) {
 
 					}
-					RTBServer.win++;
+					RTBServer.win.increment();
 				} catch (Exception error) {
 					response.setHeader("X-ERROR", "Error processing win response");
 					response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -1145,7 +1348,7 @@ class Handler extends AbstractHandler {
 				response.setStatus(HttpServletResponse.SC_OK);
 				baseRequest.setHandled(true);
 				response.getWriter().println("");
-				RTBServer.pixels++;
+				RTBServer.pixels.increment();
 				return;
 			}
 
@@ -1162,7 +1365,7 @@ class Handler extends AbstractHandler {
 				if (params != null) {
 					response.sendRedirect(URLDecoder.decode(params[1], "UTF-8"));
 				}
-				RTBServer.clicks++;
+				RTBServer.clicks.increment();
 				return;
 			}
 
@@ -1184,7 +1387,7 @@ class Handler extends AbstractHandler {
 			}
 			
 			if (target.contains("favicon")) {
-				RTBServer.handled--; // don't count this useless turd.
+				RTBServer.handled.decrement(); // don't count this useless turd.
 				response.setStatus(HttpServletResponse.SC_OK);
 				baseRequest.setHandled(true);
 				response.getWriter().println("");
@@ -1196,7 +1399,7 @@ class Handler extends AbstractHandler {
 				response.setStatus(404);
 				Controller.getInstance().sendLog(2, "Handler:handle",
 						"Error: wrong request for admin login:" + getIpAddress(request) + ", target = " + target);
-				RTBServer.error++;
+				RTBServer.error.increment();
 			} else {
 				AdminHandler admin = new AdminHandler();
 				admin.handle(target, baseRequest, request, response);
@@ -1224,7 +1427,7 @@ class Handler extends AbstractHandler {
 			}
 			////////////////////////////////////////////////////////////////////////////
 			
-			RTBServer.error++;
+			RTBServer.error.increment();
 			String exchange = target;
 			if (x != null) {
 				x.incrementErrors();
@@ -1257,7 +1460,7 @@ class Handler extends AbstractHandler {
 	public static void sendResponse(HttpServletResponse response, String html) throws Exception {
 
 		try {
-			byte[] bytes = compressGZip(html);
+			byte[] bytes = Compression.gzip(html);
 			response.addHeader("Content-Encoding", "gzip");
 			int sz = bytes.length;
 			response.setContentLength(sz);
@@ -1271,31 +1474,7 @@ class Handler extends AbstractHandler {
 	}
 
 	private static String uncompressGzip(InputStream stream) throws Exception {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-		GZIPInputStream gzis = new GZIPInputStream(stream);
-		byte[] buffer = new byte[1024];
-		int len = 0;
-		String str = "";
-
-		while ((len = gzis.read(buffer)) > 0) {
-			str += new String(buffer, 0, len);
-		}
-
-		gzis.close();
-		return str;
-	}
-
-	private static byte[] compressGZip(String uncompressed) throws Exception {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		GZIPOutputStream gzos = new GZIPOutputStream(baos);
-
-		byte[] uncompressedBytes = uncompressed.getBytes();
-
-		gzos.write(uncompressedBytes, 0, uncompressedBytes.length);
-		gzos.close();
-
-		return baos.toByteArray();
+		return new String(Compression.gunzip(stream));
 	}
 
 	private void dumpRequestInfo(String target, HttpServletRequest req) {
@@ -1342,7 +1521,7 @@ class Handler extends AbstractHandler {
 		}
 
 		if (tester.equals("nobid")) {
-			RTBServer.nobid++;
+			RTBServer.nobid.increment();
 			baseRequest.setHandled(true);
 			response.setStatus(RTBServer.NOBID_CODE);
 			response.getWriter().println("");
@@ -1377,7 +1556,7 @@ class Handler extends AbstractHandler {
 			baseRequest.setHandled(true);
 			Controller.getInstance().sendBid(br,bresp);
 			Controller.getInstance().recordBid(bresp);
-			RTBServer.bid++;
+			RTBServer.bid.increment();
 			response.setStatus(RTBServer.BID_CODE);
 
 			response.getWriter().println(json);
@@ -1466,7 +1645,7 @@ class AdminHandler extends Handler {
 		String id = "";
 		Campaign campaign = null;
 		boolean unknown = true;
-		RTBServer.handled++;
+		RTBServer.handled.increment();
 		int code = RTBServer.BID_CODE;
 		baseRequest.setHandled(true);
 		long time = System.currentTimeMillis();
@@ -1560,7 +1739,7 @@ class AdminHandler extends Handler {
 			}
 
 			if (target.contains("favicon")) {
-				RTBServer.handled--; // don't count this useless turd.
+				RTBServer.handled.decrement(); // don't count this useless turd.
 				response.setStatus(HttpServletResponse.SC_OK);
 				baseRequest.setHandled(true);
 				response.getWriter().println("");
@@ -1784,8 +1963,7 @@ class MyNameNode extends NameNode {
 	@Override
 	public void log(int level, String where, String msg) {
 		try {
-			super.removeYourself();
-			Controller.getInstance().sendLog(3, where, msg);
+			Controller.getInstance().sendLog(level, where, msg);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
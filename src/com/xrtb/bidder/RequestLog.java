@@ -0,0 +1,203 @@
+package com.xrtb.bidder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The request log pipeline. The request thread only decides whether to log
+ * (ExchangeLogLevel, by request id) and puts the parsed request on a bounded
+ * queue. The log thread builds the record and hands it to the publisher, which
+ * serializes it, so none of that is paid for while answering the exchange.
+ * <p>
+ * The record is a new object: the original request is never changed. When
+ * FIELDS is set, only those paths are kept, like "id", "imp.banner.w" or
+ * "device.geo"; a path through an array applies to each element. The record
+ * always gets "ext" with the timestamp and exchange (added to a copy of the
+ * request's own ext) and "type":"requests".
+ * <p>
+ * The fields are set with "requestfields" in the "zeromq" part of the
+ * configuration.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public enum RequestLog {
+	INSTANCE;
+
+	/** The paths to keep, or null to keep the whole request */
+	public static volatile List<String[]> FIELDS;
+	/** Requests waiting to be logged, more than this are dropped */
+	public static volatile int QUEUE = 10000;
+
+	static final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+	/**
+	 * A request to log.
+	 */
+	static class Entry {
+		final JsonNode original;
+		final String exchange;
+		final long timestamp;
+		final ZPublisher target;
+
+		Entry(JsonNode original, String exchange, long timestamp, ZPublisher target) {
+			this.original = original;
+			this.exchange = exchange;
+			this.timestamp = timestamp;
+			this.target = target;
+		}
+	}
+
+	static ArrayBlockingQueue<Entry> queue;
+	static Thread thread;
+	static final LongAdder logged = new LongAdder();
+	static final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Set the paths to keep.
+	 * @param fields List. Dotted JSON paths, or null (or empty) for the whole request.
+	 */
+	public static void setFields(List<String> fields) {
+		if (fields == null || fields.size() == 0) {
+			FIELDS = null;
+			return;
+		}
+		List<String[]> paths = new ArrayList<String[]>();
+		for (String f : fields)
+			paths.add(f.split("\\."));
+		FIELDS = paths;
+	}
+
+	/**
+	 * Queue a request to be logged. Returns right away.
+	 * @param original JsonNode. The request as received. Not changed.
+	 * @param exchange String. The exchange it came from.
+	 * @param target ZPublisher. Where the record goes.
+	 * @return boolean. Returns false if the queue was full and the request was dropped.
+	 */
+	public static boolean log(JsonNode original, String exchange, ZPublisher target) {
+		if (original == null || target == null)
+			return false;
+		if (queue == null)
+			start();
+		if (queue.offer(new Entry(original, exchange, System.currentTimeMillis(), target)))
+			return true;
+		dropped.increment();
+		return false;
+	}
+
+	static synchronized void start() {
+		if (queue != null)
+			return;
+		ArrayBlockingQueue<Entry> q = new ArrayBlockingQueue<Entry>(QUEUE);
+		thread = new Thread(() -> {
+			while (true) {
+				try {
+					Entry e = q.poll(1, TimeUnit.SECONDS);
+					if (e == null)
+						continue;
+					e.target.add(record(e.original, e.exchange, e.timestamp));
+					logged.increment();
+				} catch (InterruptedException error) {
+					return;
+				} catch (Exception error) {
+					error.printStackTrace();
+				}
+			}
+		}, "request-log");
+		thread.setDaemon(true);
+		thread.start();
+		queue = q;
+	}
+
+	/**
+	 * Build the log record of a request, projected to FIELDS.
+	 * @param original JsonNode. The request. Not changed.
+	 * @param exchange String. The exchange.
+	 * @param timestamp long. When it was received.
+	 * @return ObjectNode. The record.
+	 */
+	public static ObjectNode record(JsonNode original, String exchange, long timestamp) {
+		List<String[]> fields = FIELDS;
+		ObjectNode record = factory.objectNode();
+		if (fields == null) {
+			Iterator<Map.Entry<String, JsonNode>> it = original.fields();
+			while (it.hasNext()) {
+				Map.Entry<String, JsonNode> e = it.next();
+				record.set(e.getKey(), e.getValue());
+			}
+		} else {
+			for (String[] path : fields)
+				project(original, record, path, 0);
+		}
+
+		ObjectNode ext = factory.objectNode();
+		JsonNode x = original.get("ext");
+		if (x instanceof ObjectNode)
+			ext.setAll((ObjectNode) x);
+		ext.put("timestamp", timestamp);
+		ext.put("exchange", exchange);
+		record.set("ext", ext);
+		record.put("type", "requests");
+		return record;
+	}
+
+	/**
+	 * Copy one path from a node into the record. The leaves are shared with
+	 * the original, only the objects and arrays on the path are new.
+	 */
+	static void project(JsonNode from, ObjectNode to, String[] path, int i) {
+		JsonNode value = from.get(path[i]);
+		if (value == null)
+			return;
+		if (i == path.length - 1) {
+			to.set(path[i], value);
+			return;
+		}
+		if (value.isObject()) {
+			JsonNode child = to.get(path[i]);
+			if (!(child instanceof ObjectNode)) {
+				child = factory.objectNode();
+				to.set(path[i], child);
+			}
+			project(value, (ObjectNode) child, path, i + 1);
+		} else if (value.isArray()) {
+			JsonNode child = to.get(path[i]);
+			if (!(child instanceof ArrayNode)) {
+				ArrayNode array = factory.arrayNode();
+				for (int j = 0; j < value.size(); j++)
+					array.addObject();
+				to.set(path[i], array);
+				child = array;
+			}
+			for (int j = 0; j < value.size(); j++) {
+				JsonNode element = value.get(j);
+				if (element.isObject())
+					project(element, (ObjectNode) child.get(j), path, i + 1);
+			}
+		}
+	}
+
+	/**
+	 * Return the statistics of the request log.
+	 * @return Map. The records logged, dropped and waiting.
+	 */
+	public static Map getStats() {
+		Map m = new HashMap();
+		m.put("logged", logged.sum());
+		m.put("dropped", dropped.sum());
+		m.put("queued", queue == null ? 0 : queue.size());
+		return m;
+	}
+}
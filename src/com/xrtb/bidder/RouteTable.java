@@ -0,0 +1,166 @@
+package com.xrtb.bidder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.ExchangeCodec;
+import com.xrtb.pojo.OpenRtbCodec;
+import com.xrtb.pojo.PrototypeCodec;
+
+/**
+ * Precomputed table of the bid request targets. Built once from
+ * RTBServer.exchanges when the seats are loaded and never changed after, so
+ * lookups need no locking. Targets that can't be bid endpoints (wrong length or
+ * wrong prefix, like the win, pixel and admin urls) are rejected before any
+ * hashing is done.
+ * <p>
+ * Every route has a dense index, from 0 to size()-1, which can be used to keep
+ * per exchange data in arrays.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class RouteTable {
+
+	/**
+	 * One bid request endpoint.
+	 */
+	public static class Route {
+		/** The uri of the endpoint */
+		public final String target;
+		/** The dense index of this route */
+		public final int index;
+		/** The codec for the exchange */
+		public final ExchangeCodec codec;
+
+		Route(String target, int index, ExchangeCodec codec) {
+			this.target = target;
+			this.index = index;
+			this.codec = codec;
+		}
+	}
+
+	/** The open addressing table, a power of 2 in size */
+	final Route[] table;
+	/** The hash codes of the targets in the table */
+	final int[] hashes;
+	/** The routes by index */
+	final Route[] routes;
+	/** The prefix common to all targets */
+	final String prefix;
+	/** The shortest target */
+	final int minLength;
+	/** The longest target */
+	final int maxLength;
+
+	/**
+	 * An empty table.
+	 */
+	public RouteTable() {
+		this(new java.util.HashMap<String, BidRequest>());
+	}
+
+	/**
+	 * Build the table from the configured exchanges.
+	 *
+	 * @param exchanges
+	 *            Map. The exchange instances by target uri.
+	 */
+	public RouteTable(Map<String, BidRequest> exchanges) {
+		List<Route> list = new ArrayList<Route>();
+		String pre = null;
+		int min = Integer.MAX_VALUE, max = 0;
+		for (Map.Entry<String, BidRequest> e : exchanges.entrySet()) {
+			String target = e.getKey();
+			list.add(new Route(target, list.size(), codecFor(e.getValue())));
+			pre = pre == null ? target : commonPrefix(pre, target);
+			min = Math.min(min, target.length());
+			max = Math.max(max, target.length());
+		}
+		routes = list.toArray(new Route[list.size()]);
+		prefix = pre == null ? "" : pre;
+		minLength = list.size() == 0 ? 1 : min;
+		maxLength = max;
+
+		int size = 2;
+		while (size < routes.length * 2)
+			size <<= 1;
+		table = new Route[size];
+		hashes = new int[size];
+		for (Route r : routes) {
+			int h = r.target.hashCode();
+			int i = h & (size - 1);
+			while (table[i] != null)
+				i = (i + 1) & (size - 1);
+			table[i] = r;
+			hashes[i] = h;
+		}
+	}
+
+	/**
+	 * Pick the codec for an exchange. Plain OpenRTB exchanges are decoded
+	 * without constructing the exchange subclass.
+	 *
+	 * @param x
+	 *            BidRequest. The configured exchange instance.
+	 * @return ExchangeCodec. The codec to use.
+	 */
+	public static ExchangeCodec codecFor(BidRequest x) {
+		if (OpenRtbCodec.isPlain(x.getClass()))
+			return new OpenRtbCodec(x);
+		return new PrototypeCodec(x);
+	}
+
+	/**
+	 * Find the route of a target.
+	 *
+	 * @param target
+	 *            String. The target uri of the HTTP request.
+	 * @return Route. The route, or null if the target is not a bid endpoint.
+	 */
+	public Route get(String target) {
+		int len = target.length();
+		if (len < minLength || len > maxLength || !target.startsWith(prefix))
+			return null;
+		int h = target.hashCode();
+		int mask = table.length - 1;
+		int i = h & mask;
+		Route r;
+		while ((r = table[i]) != null) {
+			if (hashes[i] == h && r.target.equals(target))
+				return r;
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the route with this index.
+	 *
+	 * @param index
+	 *            int. The dense route index.
+	 * @return Route. The route.
+	 */
+	public Route get(int index) {
+		return routes[index];
+	}
+
+	/**
+	 * Return the number of routes.
+	 *
+	 * @return int. The number of bid endpoints.
+	 */
+	public int size() {
+		return routes.length;
+	}
+
+	static String commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return a.substring(0, i);
+	}
+}
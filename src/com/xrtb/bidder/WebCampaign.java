@@ -1152,16 +1152,16 @@ public class WebCampaign {
 			Map values = new HashMap();
 			if (member.equals(Configuration.getInstance().instanceName)) {
 				RTBServer.getStatus();
-				values.put("total", RTBServer.handled);
-				values.put("bid", RTBServer.bid);
-				values.put("request", RTBServer.request);
-				values.put("nobid", RTBServer.nobid);
-				values.put("win", RTBServer.win);
-				values.put("clicks", RTBServer.clicks);
-				values.put("pixels", RTBServer.pixels);
-				values.put("fraud", RTBServer.fraud);
-				values.put("errors", RTBServer.error);
-				values.put("adspend", RTBServer.adspend);
+				values.put("total", RTBServer.handled.sum());
+				values.put("bid", RTBServer.bid.sum());
+				values.put("request", RTBServer.request.sum());
+				values.put("nobid", RTBServer.nobid.sum());
+				values.put("win", RTBServer.win.sum());
+				values.put("clicks", RTBServer.clicks.sum());
+				values.put("pixels", RTBServer.pixels.sum());
+				values.put("fraud", RTBServer.fraud.sum());
+				values.put("errors", RTBServer.error.sum());
+				values.put("adspend", RTBServer.adspend.sum());
 				values.put("qps", RTBServer.qps);
 				values.put("avgx", RTBServer.avgx);
 				values.put("exchanges", BidRequest.getExchangeCounts());
@@ -1,8 +1,6 @@
 package com.xrtb.bidder;
 
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -12,7 +10,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xrtb.common.Configuration;
 import com.xrtb.common.HttpPostGet;
 import com.xrtb.tools.DbTools;
-import com.xrtb.tools.logmaster.AppendToFile;
+import com.xrtb.tools.LogSink;
 
 import redis.clients.jedis.JedisPool;
 
@@ -35,20 +33,22 @@ public class ZPublisher implements Runnable {
 
 	// Filename, if not using ZeroMQ
 	protected String fileName;
-	// The timestamp part of the name
-	String tailstamp;
+	// The file writer, when logging to a file
+	protected LogSink sink;
 	// Logger time, how many minuutes before you clip the log
 	protected int time;
-	// count down time
-	protected long countdown;
+	// Clip the log at this many bytes
+	protected long maxBytes;
+	// Gzip the log file
+	protected boolean gzip;
+	// Drop lines when the log file falls behind, instead of waiting
+	protected boolean drop;
 	// Strinbuilder for file ops
 	volatile protected StringBuilder sb = new StringBuilder();
 	// Object to JSON formatter
 	protected ObjectMapper mapper;
 	// Set if error occurs
 	protected boolean errored = false;
-	// Logging formatter yyyy-mm-dd-hh:ss part.
-	SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH:mm");
 
 	JedisPool jedisPool;
 
@@ -88,7 +88,11 @@ public class ZPublisher implements Runnable {
 	}
 
 	/**
-	 * The HTTP Post, Zeromq, Redis and file logging constructor.
+	 * The HTTP Post, Zeromq, Redis and file logging constructor. The file form
+	 * is file://name[&time=minutes][&size=megabytes][&gzip][&drop], where time
+	 * and size roll the file and gzip compresses it. When the file falls behind,
+	 * the callers wait for it, unless drop is set, then the lines that don't
+	 * fit are dropped and counted.
 	 * 
 	 * @param address
 	 *            String. Either http://... or file:// form for the loggert.
@@ -102,15 +106,30 @@ public class ZPublisher implements Runnable {
 			if (i > -1) {
 				address = address.substring(7);
 				String[] parts = address.split("&");
-				if (parts.length > 1) {
-					address = parts[0];
-					String[] x = parts[1].split("=");
-					time = Integer.parseInt(x[1]);
-					time *= 60000;
-					setTime();
+				address = parts[0];
+				for (int j = 1; j < parts.length; j++) {
+					String[] x = parts[j].split("=");
+					switch (x[0]) {
+					case "time":
+						time = Integer.parseInt(x[1]);
+						time *= 60000;
+						break;
+					case "size":
+						maxBytes = Long.parseLong(x[1]) * 1024 * 1024;
+						break;
+					case "gzip":
+						gzip = true;
+						break;
+					case "drop":
+						drop = true;
+						break;
+					default:
+						throw new Exception("Unknown file logger option: " + parts[j]);
+					}
 				}
 			}
 			this.fileName = address;
+			sink = new LogSink(fileName, time, maxBytes, gzip);
 			mapper = new ObjectMapper();
 		} else if (address.startsWith("redis")) {
 			String[] parts = address.split(":");
@@ -138,16 +157,10 @@ public class ZPublisher implements Runnable {
 		me.start();
 	}
 
-	/**
-	 * Set the countdown timer when used for chopping off the current log and
-	 * making a new one.
-	 */
-	void setTime() {
-		countdown = System.currentTimeMillis() + time;
-	}
-
 	public Map getBp() {
 		Map m = null;
+		if (sink != null)
+			return sink.getStats();
 		if (http == null)
 			return null;
 
@@ -218,52 +231,23 @@ public class ZPublisher implements Runnable {
 	}
 
 	/**
-	 * Run the file logger.
+	 * Run the file logger. The sink does the writing, this just watches it and
+	 * reports the first error.
 	 */
 	public void runFileLogger() {
-		Object obj = null;
-
-		String thisFile = this.fileName;
-
-		if (countdown != 0) {
-			tailstamp = "-" + sdf.format(new Date());
-			thisFile += tailstamp;
-		} else
-			tailstamp = "";
-
-		while (true) {
+		while (sink != null) {
 			try {
-				Thread.sleep(1);
-
-				synchronized (this) {
-					if (sb.length() != 0) {
-						try {
-							AppendToFile.item(thisFile, sb);
-						} catch (Exception error) {
-							error.printStackTrace();
-						}
-						sb.setLength(0);
-						sb.trimToSize();
-					}
-
-					if (countdown != 0 && System.currentTimeMillis() > countdown) {
-						thisFile = this.fileName + tailstamp;
-						AppendToFile.close(thisFile);
-
-						tailstamp = "-" + sdf.format(new Date());
-						thisFile = this.fileName + tailstamp;
-						setTime();
-					}
-				}
-			} catch (Exception error) {
-				errored = true;
-				try {
+				Thread.sleep(1000);
+				String error = sink.getError();
+				if (error != null && !errored) {
+					errored = true;
 					Controller.getInstance().sendLog(1, "Publisher:" + fileName,
-							"Publisher log error on " + fileName + ", error = " + error.toString());
-				} catch (Exception e) {
+							"Publisher log error on " + fileName + ", error = " + error);
 				}
+			} catch (InterruptedException error) {
+				return;
+			} catch (Exception error) {
 				error.printStackTrace();
-				sb.setLength(0);
 			}
 		}
 	}
@@ -334,7 +318,7 @@ public class ZPublisher implements Runnable {
 	 */
 	public void add(Object s) {
 		if (fileName != null || http != null) {
-			if (errored)
+			if (errored && sink == null)
 				return;
 
 			String contents = null;
@@ -344,6 +328,10 @@ public class ZPublisher implements Runnable {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+			if (sink != null) {
+				write(contents);
+				return;
+			}
 			synchronized (this) {
 				sb.append(contents);
 				sb.append("\n");
@@ -360,6 +348,10 @@ public class ZPublisher implements Runnable {
 	 */
 	public void addString(String contents) {
 		if (fileName != null || http != null) {
+			if (sink != null) {
+				write(contents);
+				return;
+			}
 			synchronized (this) {
 				sb.append(contents);
 				sb.append("\n");
@@ -367,4 +359,22 @@ public class ZPublisher implements Runnable {
 		} else
 			queue.add(contents);
 	}
+
+	/**
+	 * Write a line to the file, waiting for room unless drop is set.
+	 * 
+	 * @param contents
+	 *            String. The line.
+	 */
+	void write(String contents) {
+		if (drop) {
+			sink.offer(contents);
+			return;
+		}
+		try {
+			sink.put(contents);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 }
\ No newline at end of file
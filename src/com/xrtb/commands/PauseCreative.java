@@ -0,0 +1,33 @@
+package com.xrtb.commands;
+
+import com.xrtb.bidder.Controller;
+
+/**
+ * A class that is used to pause bidding on a creative of a running campaign.
+ * @author Ben M. Faul
+ *
+ */
+
+public class PauseCreative extends BasicCommand {
+	public PauseCreative() {
+		super();
+		cmd = Controller.PAUSE_CREATIVE;
+		msg = "Pause Creative issued";
+	}
+	
+	/**
+	 * Pause a creative of a campaign.
+	 * @param to String. The bidder being directed to host the command.
+	 * @param owner String. The owner of the campaign.
+	 * @param campaign String. The adid of the campaign.
+	 * @param creative String. The impid of the creative to pause.
+	 */
+	public PauseCreative(String to, String owner, String campaign, String creative) {
+		super(to);
+		this.owner = owner;
+		this.name = campaign;
+		this.target = creative;
+		cmd = Controller.PAUSE_CREATIVE;
+		msg = "Pause Creative issued";
+	}
+}
@@ -0,0 +1,336 @@
+package com.xrtb.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.xrtb.pojo.BidRequest;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Answers the audience targeting questions, the MEMBER and NOT_MEMBER nodes
+ * whose value is a redis set ("$name"). Before the campaigns are tested, all
+ * the questions every candidate campaign will ask about a request are
+ * gathered, the ones not in the cache are sent to redis in one pipeline, and
+ * the answers are kept with the request for the nodes to use. Answers are
+ * cached per set and member for TTL seconds, so a user seen again doesn't go
+ * to redis at all. When the source fails, it isn't asked again for RETRY_MS,
+ * the questions are answered false meanwhile, so an outage doesn't cost a
+ * timeout per node per request.
+ * <p>
+ * Without a redis pool the sets are read from a local stand-in, which can be
+ * loaded with add().
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class AudienceLookup {
+
+	/** Seconds an answer is cached */
+	public static volatile int TTL = 60;
+	/** The most answers cached */
+	public static volatile int MAX_SIZE = 1000000;
+	/** Ms the source is left alone after it fails, before it is tried again */
+	public static volatile int RETRY_MS = 1000;
+
+	/**
+	 * Where the sets are.
+	 */
+	public interface Source {
+		/**
+		 * Answer a number of membership questions in one call.
+		 *
+		 * @param sets
+		 *            List. The names of the sets.
+		 * @param members
+		 *            List. The member to test in each set.
+		 * @return boolean[]. The answers, in order.
+		 * @throws Exception
+		 *             on errors reaching the sets.
+		 */
+		public boolean[] isMember(List<String> sets, List<String> members) throws Exception;
+	}
+
+	/**
+	 * Sends the questions to redis as one pipeline.
+	 */
+	public static class RedisSource implements Source {
+		final JedisPool pool;
+
+		public RedisSource(JedisPool pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		public boolean[] isMember(List<String> sets, List<String> members) throws Exception {
+			boolean[] answers = new boolean[sets.size()];
+			try (Jedis jedis = pool.getResource()) {
+				Pipeline p = jedis.pipelined();
+				List<Response<Boolean>> responses = new ArrayList<Response<Boolean>>();
+				for (int i = 0; i < answers.length; i++)
+					responses.add(p.sismember(sets.get(i), members.get(i)));
+				p.sync();
+				for (int i = 0; i < answers.length; i++)
+					answers[i] = Boolean.TRUE.equals(responses.get(i).get());
+			}
+			return answers;
+		}
+	}
+
+	/**
+	 * The sets kept in memory, standing in for redis.
+	 */
+	public static class LocalSource implements Source {
+		final Map<String, Set<String>> sets = new ConcurrentHashMap<String, Set<String>>();
+
+		/**
+		 * Add a member to a set.
+		 * @param set String. The name of the set.
+		 * @param member String. The member to add.
+		 */
+		public void add(String set, String member) {
+			sets.computeIfAbsent(set, k -> ConcurrentHashMap.newKeySet()).add(member);
+		}
+
+		@Override
+		public boolean[] isMember(List<String> names, List<String> members) {
+			boolean[] answers = new boolean[names.size()];
+			for (int i = 0; i < answers.length; i++) {
+				Set<String> set = sets.get(names.get(i));
+				answers[i] = set != null && set.contains(members.get(i));
+			}
+			return answers;
+		}
+	}
+
+	/** Where the sets are, null until first used */
+	static volatile Source source;
+	/** The answers, by set and member */
+	static volatile Cache<String, Boolean> cache;
+	/** When the source can be tried again after it failed, 0 if it didn't */
+	static volatile long failedUntil;
+
+	/** Questions asked, answered from the cache, sent to the source, and round trips */
+	static final LongAdder asked = new LongAdder();
+	static final LongAdder hits = new LongAdder();
+	static final LongAdder fetched = new LongAdder();
+	static final LongAdder trips = new LongAdder();
+	static final LongAdder errors = new LongAdder();
+	static final LongAdder skipped = new LongAdder();
+
+	/**
+	 * Use this source for the sets, and forget the cached answers.
+	 * @param s Source. Where the sets are.
+	 */
+	public static synchronized void setSource(Source s) {
+		source = s;
+		cache = null;
+		failedUntil = 0;
+	}
+
+	/**
+	 * Return the source, the redis pool of the configuration if there is one,
+	 * otherwise the local stand-in.
+	 * @return Source. Where the sets are.
+	 */
+	public static Source getSource() {
+		Source s = source;
+		if (s == null) {
+			synchronized (AudienceLookup.class) {
+				if (source == null) {
+					JedisPool pool = Configuration.getInstance().jedisPool;
+					source = pool != null ? new RedisSource(pool) : new LocalSource();
+				}
+				s = source;
+			}
+		}
+		return s;
+	}
+
+	static Cache<String, Boolean> getCache() {
+		Cache<String, Boolean> c = cache;
+		if (c == null) {
+			synchronized (AudienceLookup.class) {
+				if (cache == null)
+					cache = new Cache2kBuilder<String, Boolean>() {
+					}.expireAfterWrite(TTL, TimeUnit.SECONDS).entryCapacity(MAX_SIZE).build();
+				c = cache;
+			}
+		}
+		return c;
+	}
+
+	static String key(String set, String member) {
+		return set + "\u0001" + member;
+	}
+
+	/**
+	 * The text of a bid request value, the member to look for.
+	 */
+	static String text(Object brValue) {
+		if (brValue == null || brValue instanceof MissingNode)
+			return null;
+		if (brValue instanceof JsonNode)
+			return ((JsonNode) brValue).asText();
+		return brValue.toString();
+	}
+
+	/**
+	 * Answer all the audience questions the campaigns will ask about this
+	 * request, in one trip to the source for the ones not cached. The answers
+	 * are kept in the request.
+	 * @param br BidRequest. The request.
+	 * @param campaigns List. The campaigns that will be tested.
+	 */
+	public static void prefetch(BidRequest br, List<Campaign> campaigns) {
+		Map<String, Boolean> answers = null;
+		Cache<String, Boolean> c = null;
+		List<String> sets = null;
+		List<String> members = null;
+		Set<String> keys = null;
+		for (Campaign camp : campaigns) {
+			List<Node> nodes = camp.getAudience();
+			for (int i = 0; i < nodes.size(); i++) {
+				Node n = nodes.get(i);
+				String member;
+				try {
+					member = text(br.interrogate(n.hierarchy));
+				} catch (Exception error) {
+					continue;
+				}
+				if (member == null)
+					continue;
+				if (answers == null) {
+					answers = new HashMap<String, Boolean>();
+					c = getCache();
+					sets = new ArrayList<String>();
+					members = new ArrayList<String>();
+					keys = new HashSet<String>();
+				}
+				String key = key(n.sval, member);
+				if (answers.containsKey(key) || keys.contains(key))
+					continue;
+				asked.increment();
+				Boolean b = c.peek(key);
+				if (b != null) {
+					hits.increment();
+					answers.put(key, b);
+				} else {
+					keys.add(key);
+					sets.add(n.sval);
+					members.add(member);
+				}
+			}
+		}
+		if (answers == null)
+			return;
+		if (sets.size() > 0)
+			fetch(c, sets, members, answers);
+		br.audience = answers;
+	}
+
+	/**
+	 * Ask the source, and cache the answers. If the source fails, or failed
+	 * less than RETRY_MS ago, the questions are answered false for this
+	 * request and nothing is cached.
+	 */
+	static void fetch(Cache<String, Boolean> c, List<String> sets, List<String> members,
+			Map<String, Boolean> answers) {
+		if (failedUntil > System.currentTimeMillis()) {
+			skipped.add(sets.size());
+			none(sets, members, answers);
+			return;
+		}
+		boolean[] result;
+		try {
+			trips.increment();
+			fetched.add(sets.size());
+			result = getSource().isMember(sets, members);
+		} catch (Exception error) {
+			errors.increment();
+			if (failedUntil == 0)
+				error.printStackTrace();
+			failedUntil = System.currentTimeMillis() + RETRY_MS;
+			none(sets, members, answers);
+			return;
+		}
+		failedUntil = 0;
+		for (int i = 0; i < result.length; i++) {
+			String key = key(sets.get(i), members.get(i));
+			c.put(key, result[i]);
+			answers.put(key, result[i]);
+		}
+	}
+
+	/**
+	 * Answer the questions false for this request only.
+	 */
+	static void none(List<String> sets, List<String> members, Map<String, Boolean> answers) {
+		for (int i = 0; i < sets.size(); i++)
+			answers.put(key(sets.get(i), members.get(i)), false);
+	}
+
+	/**
+	 * Is this a member of the set? Answered from the request if it was
+	 * prefetched, then the cache, then the source.
+	 * @param br BidRequest. The request, can be null.
+	 * @param set String. The name of the set.
+	 * @param member String. The member.
+	 * @return boolean. Returns true if it is in the set.
+	 */
+	public static boolean isMember(BidRequest br, String set, String member) {
+		if (member == null)
+			return false;
+		String key = key(set, member);
+		if (br != null && br.audience != null) {
+			Boolean b = br.audience.get(key);
+			if (b != null)
+				return b;
+		}
+		asked.increment();
+		Cache<String, Boolean> c = getCache();
+		Boolean b = c.peek(key);
+		if (b != null) {
+			hits.increment();
+			return b;
+		}
+		List<String> sets = new ArrayList<String>();
+		List<String> members = new ArrayList<String>();
+		sets.add(set);
+		members.add(member);
+		Map<String, Boolean> answers = new HashMap<String, Boolean>();
+		fetch(c, sets, members, answers);
+		return Boolean.TRUE.equals(answers.get(key));
+	}
+
+	/**
+	 * Return the lookup statistics.
+	 * @return Map. Questions asked, answered from the cache, sent to the source, round trips, failed
+	 *         trips, and questions not sent because the source was failing.
+	 */
+	public static Map getStats() {
+		Map m = new HashMap();
+		m.put("asked", asked.sum());
+		m.put("hits", hits.sum());
+		m.put("fetched", fetched.sum());
+		m.put("trips", trips.sum());
+		m.put("errors", errors.sum());
+		m.put("skipped", skipped.sum());
+		return m;
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -48,6 +49,14 @@ public class Campaign implements Comparable {
 	public transient StringBuilder encodedIab;	
 	/** Should you do forensiq fingerprinting for this campaign? */
 	public boolean forensiq = false;
+	/** The creatives that carry each deal, by deal id, built by encodeDeals() */
+	transient volatile Map<String, List<Creative>> dealCreatives;
+	/** The creatives by type and size, built by indexCreatives() */
+	transient volatile CreativeIndex creativeIndex;
+	/** The audience (redis set) nodes, built by indexCreatives() */
+	transient volatile List<Node> audience;
+	/** The QUERY nodes with a remote data source, built by indexCreatives() */
+	transient volatile List<Node> queries;
 	
 	/**
 	 * Empty constructor, simply takes all defaults, useful for testing.
@@ -207,6 +216,131 @@ public class Campaign implements Comparable {
 			c.encodeUrl();
 			c.encodeAttributes();
 		}
+		indexCreatives();
+	}
+
+	/**
+	 * Build the indexes of the creatives, by deal and by size. Call again after
+	 * the list of creatives changes.
+	 */
+	public void indexCreatives() {
+		encodeDeals();
+		creativeIndex = new CreativeIndex(creatives);
+		indexNodes();
+	}
+
+	/**
+	 * Find the audience and QUERY nodes again, after the attributes change.
+	 */
+	void indexNodes() {
+		audience = findNodes(n -> n.isAudience());
+		queries = findNodes(n -> n.isRemoteQuery());
+	}
+
+	/**
+	 * Return the nodes of the campaign attributes and creative attributes,
+	 * including the parts of OR nodes, that pass a test.
+	 * @param test Predicate. The test.
+	 * @return List. The nodes found.
+	 */
+	public List<Node> findNodes(Predicate<Node> test) {
+		List<Node> list = new ArrayList<Node>();
+		if (attributes != null) {
+			for (Node n : attributes)
+				findNodes(list, n, test);
+		}
+		if (creatives != null) {
+			for (Creative cr : creatives) {
+				if (cr.attributes != null) {
+					for (Node n : cr.attributes)
+						findNodes(list, n, test);
+				}
+			}
+		}
+		return list;
+	}
+
+	static void findNodes(List<Node> list, Node n, Predicate<Node> test) {
+		if (n.operator == Node.OR && n.value instanceof List) {
+			for (Object x : (List) n.value) {
+				if (x instanceof Node)
+					findNodes(list, (Node) x, test);
+			}
+		} else if (test.test(n))
+			list.add(n);
+	}
+
+	/**
+	 * Return the nodes of the campaign and its creatives that test membership
+	 * in a redis set.
+	 * @return List. The audience nodes, don't modify.
+	 */
+	@JsonIgnore
+	public List<Node> getAudience() {
+		List<Node> list = audience;
+		if (list == null)
+			audience = list = findNodes(n -> n.isAudience());
+		return list;
+	}
+
+	/**
+	 * Return the QUERY nodes of the campaign and its creatives that use a
+	 * remote data source.
+	 * @return List. The query nodes, don't modify.
+	 */
+	@JsonIgnore
+	public List<Node> getQueries() {
+		List<Node> list = queries;
+		if (list == null)
+			queries = list = findNodes(n -> n.isRemoteQuery());
+		return list;
+	}
+
+	/**
+	 * Return the index of the creatives by type and size.
+	 * @return CreativeIndex. The index of the current creatives.
+	 */
+	@JsonIgnore
+	public CreativeIndex getCreativeIndex() {
+		CreativeIndex index = creativeIndex;
+		if (index == null) {
+			index = new CreativeIndex(creatives);
+			creativeIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Index the deals of the creatives, by deal id. Call again after the deals of
+	 * the creatives change.
+	 */
+	public void encodeDeals() {
+		Map<String, List<Creative>> index = new HashMap<String, List<Creative>>();
+		for (Creative c : creatives) {
+			c.encodeDeals();
+			if (c.deals == null)
+				continue;
+			for (Deal d : c.deals) {
+				List<Creative> list = index.computeIfAbsent(d.id, k -> new ArrayList<Creative>());
+				if (list.isEmpty() || list.get(list.size() - 1) != c)   // same deal twice in c
+					list.add(c);
+			}
+		}
+		dealCreatives = index;
+	}
+
+	/**
+	 * Return the creatives that can bid on a deal.
+	 * @param id String. The id of the deal in the bid request.
+	 * @return List. The creatives with this deal, null if there are none. Don't modify it.
+	 */
+	public List<Creative> getDealCreatives(String id) {
+		Map<String, List<Creative>> index = dealCreatives;
+		if (index == null) {
+			encodeDeals();
+			index = dealCreatives;
+		}
+		return index.get(id);
 	}
 	
 	/**
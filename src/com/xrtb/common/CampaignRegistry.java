@@ -0,0 +1,498 @@
+package com.xrtb.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The running campaigns, indexed by owner and ad id. This is the
+ * campaignsList of the Configuration, so it is still a List for the code that
+ * walks the campaigns, but lookups don't scan it.
+ * <p>
+ * The list is copy on write: the bidder threads read a snapshot without
+ * locking, and the commands that change it are rare. The index is rebuilt on
+ * every change to the list.
+ * <p>
+ * The delta operations (price, pause and resume a creative, replace the
+ * attributes) change only the campaign they are aimed at, and tell the caller
+ * whether the bid request has to be recompiled, which is only when a campaign
+ * targets a field of the request that isn't compiled yet.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class CampaignRegistry extends CopyOnWriteArrayList<Campaign> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The campaigns by owner/adId */
+	transient volatile Map<String, Campaign> index = new HashMap<String, Campaign>();
+	/** The campaigns by adId, the first loaded if more than one owner uses it */
+	transient volatile Map<String, Campaign> byAdId = new HashMap<String, Campaign>();
+	/** The paused creatives, by owner/adId/impid */
+	transient final Map<String, Creative> paused = new HashMap<String, Creative>();
+	/** Counts the changes to the campaigns, so summaries of them know when to rebuild */
+	transient volatile long version;
+
+	/**
+	 * An empty registry.
+	 */
+	public CampaignRegistry() {
+
+	}
+
+	static String key(String owner, String adId) {
+		return owner + "/" + adId;
+	}
+
+	/**
+	 * Rebuild the index from the list.
+	 */
+	synchronized void reindex() {
+		Map<String, Campaign> m = new HashMap<String, Campaign>();
+		Map<String, Campaign> a = new HashMap<String, Campaign>();
+		for (Campaign c : this) {
+			m.putIfAbsent(key(c.owner, c.adId), c);
+			a.putIfAbsent(c.adId, c);
+		}
+		index = m;
+		byAdId = a;
+		version++;
+		Iterator<String> it = paused.keySet().iterator();
+		while (it.hasNext()) {
+			String k = it.next();
+			if (!m.containsKey(k.substring(0, k.lastIndexOf('/'))))
+				it.remove();
+		}
+	}
+
+	/**
+	 * Return the number of changes made to the campaigns. Changes when
+	 * campaigns are added or removed, creatives paused or resumed, or
+	 * attributes replaced. Not when prices change.
+	 *
+	 * @return long. The version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return a campaign.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @return Campaign. The campaign, or null if it is not running.
+	 */
+	public Campaign get(String owner, String adId) {
+		return index.get(key(owner, adId));
+	}
+
+	/**
+	 * Return a campaign by owner and ad id, or by ad id alone if the owner
+	 * doesn't have it. The price commands name campaigns by ad id.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign, may be null.
+	 * @param adId
+	 *            String. The ad id.
+	 * @return Campaign. The campaign, or null if it is not running.
+	 */
+	public Campaign find(String owner, String adId) {
+		Campaign c = owner == null ? null : get(owner, adId);
+		return c != null ? c : byAdId.get(adId);
+	}
+
+	/**
+	 * Return a creative of a running campaign.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign, may be null.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param impid
+	 *            String. The creative's impid.
+	 * @return Creative. The creative, or null if there isn't one.
+	 */
+	public Creative getCreative(String owner, String adId, String impid) {
+		Campaign c = find(owner, adId);
+		if (c == null)
+			return null;
+		for (Creative cr : c.creatives) {
+			if (cr.impid.equals(impid))
+				return cr;
+		}
+		return null;
+	}
+
+	/**
+	 * Add a campaign, replacing the running one with the same owner and ad id.
+	 * The campaign must be encoded already. Creatives paused in the old
+	 * campaign stay paused: the new campaign's creatives with the same impid
+	 * are taken out of it and become the paused ones.
+	 *
+	 * @param c
+	 *            Campaign. The campaign to add.
+	 * @return Campaign. The campaign replaced, or null if it is new.
+	 */
+	public synchronized Campaign replace(Campaign c) {
+		Campaign old = get(c.owner, c.adId);
+		if (old != null) {
+			int i = indexOf(old);
+			if (i >= 0) {
+				repause(c);
+				super.set(i, c);
+				reindex();
+				return old;
+			}
+		}
+		add(c);
+		return null;
+	}
+
+	/**
+	 * Carry the paused creatives of a campaign over to its replacement.
+	 */
+	void repause(Campaign c) {
+		String prefix = key(c.owner, c.adId) + "/";
+		List<Creative> list = null;
+		Iterator<Map.Entry<String, Creative>> it = paused.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Creative> e = it.next();
+			if (!e.getKey().startsWith(prefix))
+				continue;
+			String impid = e.getKey().substring(prefix.length());
+			Creative fresh = null;
+			for (Creative cr : c.creatives) {
+				if (cr.impid.equals(impid))
+					fresh = cr;
+			}
+			if (fresh == null) {
+				it.remove();
+				continue;
+			}
+			if (list == null)
+				list = new ArrayList<Creative>(c.creatives);
+			list.remove(fresh);
+			e.setValue(fresh);
+		}
+		if (list != null) {
+			c.creatives = list;
+			c.indexCreatives();
+		}
+	}
+
+	/**
+	 * Remove a campaign.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @return Campaign. The campaign removed, or null if it was not running.
+	 */
+	public synchronized Campaign remove(String owner, String adId) {
+		Campaign c = get(owner, adId);
+		if (c != null)
+			remove(c);
+		return c;
+	}
+
+	/**
+	 * Set the price of a creative. Only the price is changed, nothing is
+	 * recompiled.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign, may be null.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param impid
+	 *            String. The creative's impid.
+	 * @param price
+	 *            double. The new price.
+	 * @return boolean. Returns false if there is no such creative.
+	 */
+	public synchronized boolean setPrice(String owner, String adId, String impid, double price) {
+		Creative cr = getCreative(owner, adId, impid);
+		if (cr == null) {
+			Campaign c = find(owner, adId);
+			if (c != null)
+				cr = paused.get(key(c.owner, c.adId) + "/" + impid);
+		}
+		if (cr == null)
+			return false;
+		cr.setPrice(price);
+		return true;
+	}
+
+	/**
+	 * Stop bidding with a creative, without removing it from the campaign for
+	 * good. The campaign gets a new creatives list, so a bid in progress sees
+	 * either the old list or the new one.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param impid
+	 *            String. The creative's impid.
+	 * @return boolean. Returns false if there is no such creative running.
+	 */
+	public synchronized boolean pause(String owner, String adId, String impid) {
+		Campaign c = get(owner, adId);
+		if (c == null)
+			return false;
+		List<Creative> list = new ArrayList<Creative>(c.creatives);
+		for (Creative cr : list) {
+			if (cr.impid.equals(impid)) {
+				list.remove(cr);
+				paused.put(key(owner, adId) + "/" + impid, cr);
+				c.creatives = list;
+				c.indexCreatives();
+				version++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Start bidding with a paused creative again.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param impid
+	 *            String. The creative's impid.
+	 * @return boolean. Returns false if the creative is not paused.
+	 */
+	public synchronized boolean resume(String owner, String adId, String impid) {
+		Campaign c = get(owner, adId);
+		Creative cr = paused.remove(key(owner, adId) + "/" + impid);
+		if (c == null || cr == null)
+			return false;
+		List<Creative> list = new ArrayList<Creative>(c.creatives);
+		list.add(cr);
+		c.creatives = list;
+		c.indexCreatives();
+		version++;
+		return true;
+	}
+
+	/**
+	 * Is this creative paused?
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param impid
+	 *            String. The creative's impid.
+	 * @return boolean. Returns true if paused.
+	 */
+	public synchronized boolean isPaused(String owner, String adId, String impid) {
+		return paused.containsKey(key(owner, adId) + "/" + impid);
+	}
+
+	/**
+	 * Replace the attributes of a campaign. The new nodes are encoded and
+	 * swapped in as a new list.
+	 *
+	 * @param owner
+	 *            String. The owner of the campaign.
+	 * @param adId
+	 *            String. The ad id.
+	 * @param attributes
+	 *            List. The new constraint nodes.
+	 * @return boolean. Returns true if the bid request has to be recompiled.
+	 * @throws Exception
+	 *             if there is no such campaign, or a node can't be encoded.
+	 */
+	public synchronized boolean setAttributes(String owner, String adId, List<Node> attributes) throws Exception {
+		Campaign c = get(owner, adId);
+		if (c == null)
+			throw new Exception("No such campaign found: " + owner + "/" + adId);
+		List<Node> list = new ArrayList<Node>(attributes);
+		for (Node n : list)
+			n.setValues();
+		c.attributes = list;
+		c.indexNodes();
+		version++;
+		return !compiled(c);
+	}
+
+	/**
+	 * Is every field the campaign targets already compiled into the bid
+	 * request?
+	 *
+	 * @param c
+	 *            Campaign. The campaign.
+	 * @return boolean. Returns false if the bid request must be recompiled.
+	 */
+	public static boolean compiled(Campaign c) {
+		return com.xrtb.pojo.BidRequest.isCompiled(targets(c));
+	}
+
+	/**
+	 * Return the fields of the bid request a campaign targets: the campaign
+	 * and creative attributes, the parts of OR nodes, and the frequency caps.
+	 *
+	 * @param c
+	 *            Campaign. The campaign.
+	 * @return Set. The dotted hierarchies.
+	 */
+	public static Set<String> targets(Campaign c) {
+		Set<String> set = new HashSet<String>();
+		for (Node n : c.attributes)
+			target(set, n);
+		for (Creative cr : c.creatives) {
+			for (Node n : cr.attributes)
+				target(set, n);
+			if (cr.capSpecification != null)
+				set.add(cr.capSpecification);
+		}
+		return set;
+	}
+
+	static void target(Set<String> set, Node n) {
+		if (n.operator == Node.OR && n.value instanceof List) {
+			for (Object x : (List) n.value) {
+				if (x instanceof Node)
+					target(set, (Node) x);
+				else if (x instanceof Map)
+					add(set, (List) ((Map) x).get("bidRequestValues"));
+			}
+		} else if (n.hierarchy != null && n.hierarchy.length() > 0)
+			set.add(n.hierarchy);
+		else
+			add(set, n.bidRequestValues);
+	}
+
+	static void add(Set<String> set, List brv) {
+		if (brv == null || brv.size() == 0)
+			return;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < brv.size(); i++) {
+			if (i > 0)
+				sb.append(".");
+			sb.append(brv.get(i));
+		}
+		set.add(sb.toString());
+	}
+
+	/////////////////////////////////////////////////////////////////////////
+	// The list changes, each rebuilds the index
+
+	@Override
+	public synchronized Campaign set(int i, Campaign c) {
+		Campaign old = super.set(i, c);
+		reindex();
+		return old;
+	}
+
+	@Override
+	public synchronized boolean add(Campaign c) {
+		super.add(c);
+		reindex();
+		return true;
+	}
+
+	@Override
+	public synchronized void add(int i, Campaign c) {
+		super.add(i, c);
+		reindex();
+	}
+
+	@Override
+	public synchronized Campaign remove(int i) {
+		Campaign c = super.remove(i);
+		reindex();
+		return c;
+	}
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		boolean b = super.remove(o);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized boolean addIfAbsent(Campaign c) {
+		boolean b = super.addIfAbsent(c);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized boolean removeAll(Collection<?> c) {
+		boolean b = super.removeAll(c);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized boolean retainAll(Collection<?> c) {
+		boolean b = super.retainAll(c);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized int addAllAbsent(Collection<? extends Campaign> c) {
+		int n = super.addAllAbsent(c);
+		reindex();
+		return n;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		reindex();
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends Campaign> c) {
+		boolean b = super.addAll(c);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized boolean addAll(int i, Collection<? extends Campaign> c) {
+		boolean b = super.addAll(i, c);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized boolean removeIf(Predicate<? super Campaign> filter) {
+		boolean b = super.removeIf(filter);
+		reindex();
+		return b;
+	}
+
+	@Override
+	public synchronized void replaceAll(UnaryOperator<Campaign> operator) {
+		super.replaceAll(operator);
+		reindex();
+	}
+
+	@Override
+	public synchronized void sort(Comparator<? super Campaign> c) {
+		super.sort(c);
+		reindex();
+	}
+}
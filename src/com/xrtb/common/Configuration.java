@@ -26,9 +26,13 @@ import com.aerospike.client.policy.ClientPolicy;
 import com.aerospike.redisson.AerospikeHandler;
 import com.aerospike.redisson.RedissonClient;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.xrtb.bidder.AdmissionController;
 import com.xrtb.bidder.Controller;
 import com.xrtb.bidder.DeadmanSwitch;
+import com.xrtb.bidder.PreFilter;
+import com.xrtb.bidder.RequestLog;
 import com.xrtb.bidder.RTBServer;
+import com.xrtb.bidder.RouteTable;
 import com.xrtb.bidder.WebCampaign;
 import com.xrtb.blocks.NavMap;
 import com.xrtb.db.DataBaseObject;
@@ -40,10 +44,12 @@ import com.xrtb.fraud.ForensiqClient;
 import com.xrtb.fraud.FraudIF;
 import com.xrtb.fraud.MMDBClient;
 import com.xrtb.geo.GeoTag;
+import com.xrtb.jmq.JMQContext;
 import com.xrtb.pojo.BidRequest;
 import com.xrtb.tools.DbTools;
 import com.xrtb.tools.LookingGlass;
 import com.xrtb.tools.MacroProcessing;
+import com.xrtb.tools.Membership;
 import com.xrtb.tools.NashHorn;
 import com.xrtb.tools.ZkConnect;
 
@@ -77,8 +83,6 @@ public class Configuration {
 
 	/** Geotag extension object */
 	public GeoTag geoTagger = new GeoTag();
-	/** The Nashhorn shell used by the bidder */
-	JJS shell;
 	/**
 	 * The standard HTTP port the bidder uses, note this commands from the
 	 * command line -p
@@ -105,7 +109,7 @@ public class Configuration {
 	/** The blocking files */
 	public List<Map> filesList;
 	/** The campaigns used to make bids */
-	public List<Campaign> campaignsList = new ArrayList<Campaign>();
+	public CampaignRegistry campaignsList = new CampaignRegistry();
 	/** An empty template for the exchange formatted message */
 	public Map template = new HashMap();
 	/** Standard pixel tracking URL */
@@ -127,6 +131,8 @@ public class Configuration {
 	public String fileName;
 	/** The SSL Information, if SSL is supplied */
 	public SSL ssl;
+	/** The Jetty performance profile, null means use the legacy server setup */
+	public JettyProfile jetty;
 	/** The root password, passed in the Campaigns/payday.json file */
 	public String password;
 
@@ -415,6 +421,18 @@ public class Configuration {
 						case "!usesEncodedAdm":
 							br.usesEncodedAdm = false;
 							break;
+						case "gzip":
+							br.gzipThreshold = tuples.length > 1 ? Integer.parseInt(tuples[1]) : 0;
+							break;
+						case "!gzip":
+							br.gzipThreshold = -1;
+							break;
+						case "priority":
+							br.priority = Integer.parseInt(tuples[1]);
+							break;
+						case "tmax":
+							br.tmax = Integer.parseInt(tuples[1]);
+							break;
 						case "rlog":
 							Double rlog = Double.parseDouble(tuples[1]);
 							ExchangeLogLevel.getInstance().setExchangeLogLevel(name, rlog.intValue());
@@ -446,6 +464,7 @@ public class Configuration {
 				throw error;
 			}
 		}
+		RTBServer.routes = new RouteTable(RTBServer.exchanges);
 
 		/**
 		 * Create forensiq
@@ -497,10 +516,21 @@ public class Configuration {
 			RTBServer.threads = (Integer) m.get("threads");
 		}
 
+		if (m.get("jetty") != null) {
+			jetty = new JettyProfile((Map) m.get("jetty"));
+		}
+		AdmissionController.ENABLED = jetty != null && jetty.adaptive;
+
 		if (m.get("multibid") != null) {
 			multibid = (Boolean) m.get("multibid");
 		}
 
+		Object prefilter = m.get("prefilter");
+		if (prefilter instanceof Boolean)
+			PreFilter.setChecks((Boolean) prefilter ? null : new ArrayList<String>());
+		else
+			PreFilter.setChecks((List<String>) prefilter);
+
 		if (m.get("adminPort") != null) {
 			adminPort = (Integer) m.get("adminPort");
 		}
@@ -588,10 +618,12 @@ public class Configuration {
 			readDatabaseIntoCache("database.json");
 			readBlackListIntoCache("blacklist.json");
 		}
+		Membership.start(redisson);
 
 		/**
 		 * Zeromq
 		 */
+		JMQContext.configure(zeromq);
 		if ((value = (String) zeromq.get("bidchannel")) != null)
 			BIDS_CHANNEL = value;
 		if ((value = (String) zeromq.get("nobidchannel")) != null)
@@ -644,6 +676,7 @@ public class Configuration {
 				}
 			}
 		}
+		RequestLog.setFields((List<String>) zeromq.get("requestfields"));
 		/********************************************************************/
 
 		campaignsList.clear();
@@ -714,6 +747,11 @@ public class Configuration {
 				new NavMap(name, fileName, true);
 			} else if (type.contains("AdxGeoCodes")) {
 				new AdxGeoCodes(name, fileName);
+			} else if (type.contains("Membership")) {
+				if (fileName == null)
+					new Membership(name); // shared, read from the cache
+				else
+					new Membership(name, fileName);
 			} else if (type.contains("LookingGlass")) {
 				new LookingGlass(name, fileName);
 			} else {
@@ -808,11 +846,6 @@ public class Configuration {
 				if (theInstance == null) {
 					theInstance = new Configuration();
 					theInstance.initialize(fileName);
-					try {
-						theInstance.shell = new JJS();
-					} catch (Exception error) {
-
-					}
 				} else
 					theInstance.initialize(fileName);
 			}
@@ -840,11 +873,6 @@ public class Configuration {
 				if (theInstance == null) {
 					theInstance = new Configuration();
 					theInstance.initialize(fileName, shard, port, sslPort);
-					try {
-						theInstance.shell = new JJS();
-					} catch (Exception error) {
-
-					}
 				} else
 					theInstance.initialize(fileName);
 			}
@@ -1008,14 +1036,14 @@ public class Configuration {
 			}
 		}
 
-		for (Campaign c : deletions) {
-			campaignsList.remove(c);
-			if (redisson.isCache2k()) {
-				Database db = Database.getInstance();
+		campaignsList.removeAll(deletions);
+		if (redisson.isCache2k()) {
+			Database db = Database.getInstance();
+			for (Campaign c : deletions)
 				db.deleteCampaign(owner, name);
-			}
 		}
-		recompile();
+		// Nothing to recompile, the fields the deleted campaigns used are
+		// just not looked at any more.
 		return delta;
 	}
 
@@ -1038,6 +1066,7 @@ public class Configuration {
 				for (Creative cr : c.creatives) {
 					if (cr.impid.equals(crid)) {
 						c.creatives.remove(cr);
+						c.indexCreatives();
 						// recompile(); -> recompile on the next add or delete
 						// campaign.
 						if (redisson.isCache2k()) {
@@ -1083,19 +1112,26 @@ public class Configuration {
 		if (c == null)
 			return;
 
-		for (int i = 0; i < campaignsList.size(); i++) {
-			Campaign test = campaignsList.get(i);
-			if (test.adId.equals(c.adId) && test.owner.equals(c.owner)) {
-				campaignsList.remove(i);
-				break;
-			}
-		}
+		if (loadCampaign(c))
+			recompile();
+	}
 
+	/**
+	 * Add a campaign to the list of campaigns we are running, without
+	 * recompiling. Used to add several campaigns with one recompile.
+	 * 
+	 * @param c
+	 *            Campaign. The campaign to add.
+	 * @return boolean. Returns true if the bid request must be recompiled for
+	 *         this campaign.
+	 * @throws Exception
+	 *             if the encoding of the attributes fails.
+	 */
+	public boolean loadCampaign(Campaign c) throws Exception {
 		c.encodeCreatives();
 		c.encodeAttributes();
-		campaignsList.add(c);
-
-		recompile();
+		campaignsList.replace(c);
+		return !CampaignRegistry.compiled(c);
 	}
 
 	/**
@@ -1110,26 +1146,17 @@ public class Configuration {
 	 */
 	public void addCampaignsList(String owner, String[] campaigns) throws Exception {
 
-		List<Integer> removals = new ArrayList();
+		boolean compile = false;
 		for (String adid : campaigns) {
 			Campaign camp = WebCampaign.getInstance().db.getCampaign(owner, adid);
 			if (camp != null) {
-				for (int i = 0; i < campaignsList.size(); i++) {
-					Campaign test = campaignsList.get(i);
-					if (test.adId.equals(adid)) {
-						campaignsList.remove(i);
-						break;
-					}
-				}
-
-				camp.encodeCreatives();
-				camp.encodeAttributes();
-				campaignsList.add(camp);
+				compile |= loadCampaign(camp);
 			} else {
 				System.out.println("ERROR: no such camaign: " + adid);
 			}
 		}
-		recompile();
+		if (compile)
+			recompile();
 	}
 
 	/**
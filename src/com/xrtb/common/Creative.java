@@ -5,6 +5,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -58,6 +59,8 @@ public class Creative {
 	public String subtemplate;
 	/** Private/preferred deals */
 	public List<Deal> deals;
+	/** The deals by id, built by encodeDeals() */
+	transient Map<String, Deal> dealIndex;
 	/** String representation of w */
 	transient public String strW;
 	/** String representation of h */
@@ -97,6 +100,13 @@ public class Creative {
 	public String vasturl;
 	/** The price associated with this creative */
 	public double price = .01;
+	/**
+	 * Optional bid shading Expression, the bid price becomes its value. For
+	 * example "max(bidfloor + 0.01, price * 0.85)"
+	 */
+	public String shading;
+	/** The compiled shading expression */
+	transient Expression shader;
 
 	// /////////////////////////////////////////////
 	/** Native content assets */
@@ -144,6 +154,9 @@ public class Creative {
 	 * @return Deal. The deal, or null, if no deal.
 	 */
 	public Deal findDeal(String id) {
+		Map<String, Deal> index = dealIndex;
+		if (index != null)
+			return index.get(id);
 		if (deals == null || deals.size() == 0)
 			return null;
 		for (int i = 0; i < deals.size(); i++) {
@@ -155,6 +168,21 @@ public class Creative {
 		return null;
 	}
 
+	/**
+	 * Index the deals by id, so the deals of a bid request are looked up instead
+	 * of compared with every deal of the creative. Call after changing the deals.
+	 */
+	public void encodeDeals() {
+		if (deals == null || deals.size() == 0) {
+			dealIndex = null;
+			return;
+		}
+		Map<String, Deal> index = new HashMap<String, Deal>();
+		for (Deal d : deals)
+			index.putIfAbsent(d.id, d);
+		dealIndex = index;
+	}
+
 	/**
 	 * Given a list of deals, find out if we have a deal that matches.
 	 * 
@@ -323,13 +351,14 @@ public class Creative {
 	}
 
 	/**
-	 * Set the price on this creative
+	 * Set the price on this creative, and the string form the macros use.
 	 * 
 	 * @param price
 	 *            double. The price to set.
 	 */
 	public void setPrice(double price) {
 		this.price = price;
+		strPrice = Double.toString(price);
 	}
 
 	/**
@@ -376,6 +405,11 @@ public class Creative {
 			n.setValues();
 		}
 
+		if (shading != null)
+			shader = Expression.compile(shading);
+		else
+			shader = null;
+
 		if (nativead != null) {
 			nativead.encode();
 		}
@@ -435,7 +469,6 @@ public class Creative {
 	}
 	
 	public SelectedCreative xproc(BidRequest br, String adId, Impression imp, Map<String, String> capSpecs, StringBuilder errorString, Probe probe) {
-		List<Deal> newDeals = null;
 		String dealId = null;
 		double xprice = price;
 		String impid = this.impid;
@@ -466,20 +499,23 @@ public class Creative {
 				/**
 				 * Ok, find a deal!
 				 */
-				newDeals = new ArrayList<Deal>(deals);
-				newDeals.retainAll(imp.deals);
-				if (newDeals.size() != 0) {
-					dealId = newDeals.get(0).id;
-					xprice = newDeals.get(0).price;
-					Deal brDeal = imp.getDeal(dealId);
-
-					if (brDeal == null && price == 0) {
-						probe.process(br.getExchange(), adId, impid, Probe.PRIVATE_AUCTION_LIMITED);
-						if (errorString != null)
-							errorString.append(Probe.NO_WINNING_DEAL_FOUND);
-						return null;
+				Deal brDeal = null;
+				double best = 0;
+				for (int i = 0; i < imp.deals.size(); i++) {
+					Deal d = imp.deals.get(i);
+					Deal mine = findDeal(d.id);
+					if (mine == null)
+						continue;
+					// Negative prices are a multiple of the deal's floor
+					double bid = mine.price < 0 ? Math.abs(mine.price) * d.price : mine.price;
+					if (brDeal == null || bid > best) {
+						brDeal = d;
+						best = bid;
+						dealId = mine.id;
+						xprice = mine.price;
 					}
-
+				}
+				if (brDeal != null) {
 					imp.bidFloor = new Double(brDeal.price);
 				} else
 					if (price == 0 || imp.privateAuction == 1) {
@@ -516,6 +552,8 @@ public class Creative {
 			if (xprice < 0) {
 				xprice = Math.abs(xprice) * imp.bidFloor;
 			}
+			if (shader != null)
+				xprice = shader.price(br, imp, xprice);
 			if (imp.bidFloor > xprice) {
 				probe.process(br.getExchange(), adId, impid, Probe.BID_FLOOR);
 				if (errorString != null) {
@@ -527,6 +565,8 @@ public class Creative {
 		} else {
 			if (xprice < 0)
 				xprice = .01; // A fake bid price if no bid floor
+			if (shader != null)
+				xprice = shader.price(br, imp, xprice);
 		}
 		//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
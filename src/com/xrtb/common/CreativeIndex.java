@@ -0,0 +1,153 @@
+package com.xrtb.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.xrtb.pojo.Impression;
+
+/**
+ * The creatives of a campaign, indexed by ad type (banner, video, native) and
+ * size, so an impression is only tested against the creatives that could fit
+ * it. Creatives with exact sizes are filed under each size, the ones with
+ * ranges or no size at all are in a wildcard bucket that goes with every size
+ * of their type. Native creatives are not sized.
+ * <p>
+ * The buckets are built when the campaign is loaded, each with the creatives
+ * that don't fit it, so the probe can count those without a per request list.
+ * The creatives in a bucket keep their order in the campaign.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class CreativeIndex {
+
+	static final int BANNER = 0;
+	static final int VIDEO = 1;
+	static final int NATIVE = 2;
+
+	/**
+	 * The creatives that could fit an impression, and the ones that don't.
+	 */
+	public static class Bucket {
+		/** The creatives to test. Don't modify */
+		public final List<Creative> creatives;
+		/** The creatives that can't fit. Don't modify */
+		public final List<Creative> others;
+
+		Bucket(List<Creative> all, List<Creative> creatives) {
+			List<Creative> rest = new ArrayList<Creative>();
+			for (Creative c : all) {
+				if (creatives.contains(c) == false)
+					rest.add(c);
+			}
+			this.creatives = Collections.unmodifiableList(creatives);
+			this.others = Collections.unmodifiableList(rest);
+		}
+	}
+
+	/** By type, the buckets of the exact sizes */
+	final List<Map<Long, Bucket>> sizes = new ArrayList<Map<Long, Bucket>>();
+	/** By type, the creatives that fit any size, for sizes nobody has */
+	final Bucket[] wildcards = new Bucket[3];
+	/** By type, all the creatives, for impressions without a size */
+	final Bucket[] types = new Bucket[3];
+
+	/**
+	 * Index a list of creatives.
+	 *
+	 * @param creatives
+	 *            List. The creatives of the campaign.
+	 */
+	public CreativeIndex(List<Creative> creatives) {
+		List<List<Creative>> all = new ArrayList<List<Creative>>();
+		List<List<Creative>> flexible = new ArrayList<List<Creative>>();
+		List<Map<Long, List<Creative>>> exact = new ArrayList<Map<Long, List<Creative>>>();
+		for (int i = 0; i < 3; i++) {
+			all.add(new ArrayList<Creative>());
+			flexible.add(new ArrayList<Creative>());
+			exact.add(new HashMap<Long, List<Creative>>());
+		}
+
+		for (Creative c : creatives) {
+			int type = typeOf(c);
+			all.get(type).add(c);
+			if (type == NATIVE)
+				continue;
+			if (isExact(c.dimensions) == false) {
+				flexible.get(type).add(c);
+				continue;
+			}
+			for (Dimension d : c.dimensions) {
+				List<Creative> list = exact.get(type).computeIfAbsent(key(d.leftX, d.leftY),
+						k -> new ArrayList<Creative>());
+				if (list.contains(c) == false)
+					list.add(c);
+			}
+		}
+
+		for (int type = 0; type < 3; type++) {
+			types[type] = new Bucket(creatives, all.get(type));
+			wildcards[type] = new Bucket(creatives, flexible.get(type));
+			Map<Long, Bucket> map = new HashMap<Long, Bucket>();
+			for (Map.Entry<Long, List<Creative>> e : exact.get(type).entrySet()) {
+				// Exact and wildcards, in the campaign's order
+				List<Creative> list = new ArrayList<Creative>();
+				for (Creative c : all.get(type)) {
+					if (e.getValue().contains(c) || flexible.get(type).contains(c))
+						list.add(c);
+				}
+				map.put(e.getKey(), new Bucket(creatives, list));
+			}
+			sizes.add(map);
+		}
+	}
+
+	static int typeOf(Creative c) {
+		if (c.isNative())
+			return NATIVE;
+		if (c.isVideo())
+			return VIDEO;
+		return BANNER;
+	}
+
+	static long key(int w, int h) {
+		return ((long) w << 32) | (h & 0xffffffffL);
+	}
+
+	/**
+	 * Are all the dimensions single sizes?
+	 */
+	static boolean isExact(Dimensions dims) {
+		if (dims == null || dims.size() == 0)
+			return false;
+		for (Dimension d : dims) {
+			if (d.leftX == -1 || d.leftY == -1 || d.leftX != d.rightX || d.leftY != d.rightY)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the creatives that could fit an impression.
+	 *
+	 * @param imp
+	 *            Impression. The impression of the bid request.
+	 * @return Bucket. The creatives to test, or null if all of them have to be
+	 *         tested (an impression that is both video and native).
+	 */
+	public Bucket get(Impression imp) {
+		if (imp.nativePart != null) {
+			if (imp.video != null)
+				return null;
+			return types[NATIVE];
+		}
+		int type = imp.video != null ? VIDEO : BANNER;
+		if (imp.w == null || imp.h == null)
+			return types[type];
+		Bucket b = sizes.get(type).get(key(imp.w, imp.h));
+		return b != null ? b : wildcards[type];
+	}
+}
@@ -31,7 +31,17 @@ public class Deal  {
 	
 	@Override 
 	public boolean equals(Object who) {
+		if (who instanceof Deal == false)
+			return false;
 		Deal x = (Deal)who;
-		return x.id.equals(id);
+		return x.id == null ? id == null : x.id.equals(id);
+	}
+
+	/**
+	 * Deals are the same if the ids are, so hash on the id.
+	 */
+	@Override
+	public int hashCode() {
+		return id == null ? 0 : id.hashCode();
 	}
 }
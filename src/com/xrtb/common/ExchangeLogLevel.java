@@ -1,14 +1,19 @@
 package com.xrtb.common;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.xrtb.tools.MemberSet;
 import com.xrtb.tools.XORShiftRandom;
 
 /**
  * Class that determines if a request log should be released. By default, all requests will be released. You can
  * set the percentage to globally log. You can however override the global request percentage by specfying the
  * log level in the creation of the endpoint.
+ * <p>
+ * Sampling by request id is deterministic: the id is hashed into 0 - 99 and
+ * logged if that is under the level, so every bidder (and the unilogger) picks
+ * the same requests, and a request id can be checked after the fact.
  * @author Ben M. Faul
  *
  */
@@ -17,7 +22,7 @@ public enum ExchangeLogLevel {
 	INSTANCE;
 
 	// The exchange level logging
-	Map<String, Integer> levels = new HashMap<String,Integer>();
+	Map<String, Integer> levels = new ConcurrentHashMap<String,Integer>();
 	
 	// Global request log strategy
 	int requestLogPercentage = 100;
@@ -72,14 +77,31 @@ public enum ExchangeLogLevel {
 		if (level == null)
 			level = requestLogPercentage;
 		
-		if (level == 100)
+		if (level >= 100)
 			return true;
 		
 		int value = xorrandom.random(100);
-		if (! (requestLogPercentage >= value)) {
+		if (! (level > value)) {
 			return false;
 		}
 		return true;
 
 	}
+
+	/**
+	 * Should this request be logged, decided by its id, so the answer is always the same for the same request.
+	 * @param exchange String. The exchange in question.
+	 * @param id String. The request id. If null, the request is sampled at random.
+	 * @return boolean. True means log it, false means don't log it.
+	 */
+	public boolean shouldLog(String exchange, String id) {
+		if (id == null)
+			return shouldLog(exchange);
+		int level = getLevel(exchange);
+		if (level >= 100)
+			return true;
+		if (level <= 0)
+			return false;
+		return Long.remainderUnsigned(MemberSet.hash(id), 100) < level;
+	}
 }
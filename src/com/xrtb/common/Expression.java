@@ -0,0 +1,721 @@
+package com.xrtb.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.Impression;
+
+/**
+ * A small expression language for custom targeting and bid pricing. The source
+ * is compiled once, when the campaign is loaded, into a tree of closures over
+ * the bid request. Evaluation does no parsing and keeps no state, so one
+ * compiled expression is safe to use from all the campaign processor threads.
+ * <p>
+ * Identifiers are dotted bid request fields, like site.domain or
+ * device.geo.country, or imp.0.bidfloor. These variables are also defined:
+ * <ul>
+ * <li>price - the bid price before this expression, for bid shading.</li>
+ * <li>bidfloor - the bid floor of the impression, 0 if none.</li>
+ * <li>exchange - the name of the exchange.</li>
+ * </ul>
+ * Operators are the usual ? : || &amp;&amp; == != &lt; &lt;= &gt; &gt;= + - *
+ * / % and !, with the usual precedence. Strings are quoted with ' or ". The
+ * functions are min, max, abs, floor, ceil, round(x[,digits]), rand(),
+ * len(x), lower(s), upper(s), contains(s|list, x), startsWith(s, x),
+ * endsWith(s, x), in(x, a, b, ...), exists(x) and num(x).
+ * <p>
+ * Examples: <br>
+ * device.geo.country == 'USA' &amp;&amp; in(device.os, 'iOS', 'Android') <br>
+ * max(bidfloor + 0.01, price * 0.85)
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class Expression {
+
+	/** The source of the expression */
+	final String source;
+	/** The compiled expression */
+	final Term root;
+
+	Expression(String source, Term root) {
+		this.source = source;
+		this.root = root;
+	}
+
+	/**
+	 * Compile an expression.
+	 *
+	 * @param source
+	 *            String. The text of the expression.
+	 * @return Expression. The compiled expression.
+	 * @throws Exception
+	 *             on syntax errors.
+	 */
+	public static Expression compile(String source) throws Exception {
+		Parser p = new Parser(source);
+		Term t = p.expression();
+		if (p.token != Parser.END)
+			throw p.error("Unexpected '" + p.text + "'");
+		return new Expression(source, t);
+	}
+
+	/**
+	 * Evaluate the expression.
+	 *
+	 * @param br
+	 *            BidRequest. The bid request.
+	 * @param imp
+	 *            Impression. The impression being considered, may be null.
+	 * @param price
+	 *            double. The value of the price variable.
+	 * @return Object. The result, a Double, String, Boolean, List or null.
+	 */
+	public Object eval(BidRequest br, Impression imp, double price) {
+		return root.eval(new Env(br, imp, price));
+	}
+
+	/**
+	 * Evaluate the expression as a condition.
+	 *
+	 * @param br
+	 *            BidRequest. The bid request.
+	 * @return boolean. The truth of the result.
+	 */
+	public boolean test(BidRequest br) {
+		return truth(root.eval(new Env(br, null, 0)));
+	}
+
+	/**
+	 * Evaluate the expression as a price. If the result is not a number the
+	 * price passed in is returned.
+	 *
+	 * @param br
+	 *            BidRequest. The bid request.
+	 * @param imp
+	 *            Impression. The impression being priced.
+	 * @param price
+	 *            double. The price before the expression.
+	 * @return double. The new price.
+	 */
+	public double price(BidRequest br, Impression imp, double price) {
+		Object x = root.eval(new Env(br, imp, price));
+		if (x instanceof Number)
+			return ((Number) x).doubleValue();
+		return price;
+	}
+
+	/**
+	 * Tell whether the expression is a constant.
+	 *
+	 * @return boolean. Returns true if the result does not depend on the bid
+	 *         request.
+	 */
+	public boolean isConstant() {
+		return root instanceof Const;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * What a term is evaluated against.
+	 */
+	static final class Env {
+		final BidRequest br;
+		final Impression imp;
+		final double price;
+
+		Env(BidRequest br, Impression imp, double price) {
+			this.br = br;
+			this.imp = imp;
+			this.price = price;
+		}
+	}
+
+	/**
+	 * A compiled piece of an expression.
+	 */
+	interface Term {
+		Object eval(Env env);
+	}
+
+	/**
+	 * A constant, the result of folding.
+	 */
+	static final class Const implements Term {
+		final Object value;
+
+		Const(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object eval(Env env) {
+			return value;
+		}
+	}
+
+	interface Unary {
+		Object apply(Object a);
+	}
+
+	interface Binary {
+		Object apply(Object a, Object b);
+	}
+
+	interface Function {
+		Object apply(Object[] args);
+	}
+
+	static final Object[] NONE = new Object[0];
+
+	/**
+	 * Make a unary term, folded if the operand is a constant.
+	 */
+	static Term unary(Term a, Unary f) {
+		if (a instanceof Const)
+			return new Const(f.apply(((Const) a).value));
+		return env -> f.apply(a.eval(env));
+	}
+
+	/**
+	 * Make a binary term, folded if both operands are constants.
+	 */
+	static Term binary(Term a, Term b, Binary f) {
+		if (a instanceof Const && b instanceof Const)
+			return new Const(f.apply(((Const) a).value, ((Const) b).value));
+		return env -> f.apply(a.eval(env), b.eval(env));
+	}
+
+	/**
+	 * Make a function call term, folded if all the arguments are constants and
+	 * the function is pure.
+	 */
+	static Term call(Term[] args, Function f, boolean pure) {
+		boolean constant = pure;
+		for (Term t : args)
+			constant &= t instanceof Const;
+		if (constant) {
+			Object[] values = new Object[args.length];
+			for (int i = 0; i < args.length; i++)
+				values[i] = ((Const) args[i]).value;
+			return new Const(f.apply(values));
+		}
+		if (args.length == 0)
+			return env -> f.apply(NONE);
+		return env -> {
+			Object[] values = new Object[args.length];
+			for (int i = 0; i < args.length; i++)
+				values[i] = args[i].eval(env);
+			return f.apply(values);
+		};
+	}
+
+	/**
+	 * Make a term that fetches a field from the bid request.
+	 */
+	static Term field(String path) {
+		List<String> parts = Arrays.asList(path.split("\\."));
+		return env -> value(env.br.interrogate(path, parts));
+	}
+
+	/**
+	 * Convert what the bid request returns into a plain Java value.
+	 */
+	static Object value(Object x) {
+		if (x == null || x instanceof MissingNode)
+			return null;
+		if (x instanceof JsonNode) {
+			JsonNode n = (JsonNode) x;
+			if (n.isNumber())
+				return n.doubleValue();
+			if (n.isTextual())
+				return n.textValue();
+			if (n.isBoolean())
+				return n.booleanValue();
+			if (n.isArray()) {
+				List list = new ArrayList();
+				for (int i = 0; i < n.size(); i++)
+					list.add(value(n.get(i)));
+				return list;
+			}
+			if (n.isNull())
+				return null;
+			return n;
+		}
+		if (x instanceof Number)
+			return ((Number) x).doubleValue();
+		if (x instanceof Collection) {
+			List list = new ArrayList();
+			for (Object o : (Collection) x)
+				list.add(value(o));
+			return list;
+		}
+		return x;
+	}
+
+	/**
+	 * The truth of a value. Null, false, 0 and the empty string are false.
+	 */
+	static boolean truth(Object x) {
+		if (x == null)
+			return false;
+		if (x instanceof Boolean)
+			return (Boolean) x;
+		if (x instanceof Number)
+			return ((Number) x).doubleValue() != 0;
+		if (x instanceof String)
+			return ((String) x).length() != 0;
+		if (x instanceof Collection)
+			return !((Collection) x).isEmpty();
+		return true;
+	}
+
+	static Double num(Object x) {
+		if (x instanceof Number)
+			return ((Number) x).doubleValue();
+		if (x instanceof Boolean)
+			return (Boolean) x ? 1.0 : 0.0;
+		if (x instanceof String) {
+			try {
+				return Double.parseDouble((String) x);
+			} catch (NumberFormatException error) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	static Object arith(Object a, Object b, char op) {
+		if (op == '+' && (a instanceof String || b instanceof String))
+			return String.valueOf(a) + String.valueOf(b);
+		Double x = num(a), y = num(b);
+		if (x == null || y == null)
+			return null;
+		switch (op) {
+		case '+':
+			return x + y;
+		case '-':
+			return x - y;
+		case '*':
+			return x * y;
+		case '/':
+			return y == 0 ? null : x / y;
+		default:
+			return y == 0 ? null : x % y;
+		}
+	}
+
+	static boolean same(Object a, Object b) {
+		if (a == null || b == null)
+			return a == b;
+		if (a instanceof Number || b instanceof Number) {
+			Double x = num(a), y = num(b);
+			return x != null && y != null && x.doubleValue() == y.doubleValue();
+		}
+		return a.equals(b);
+	}
+
+	static Object compare(Object a, Object b, String op) {
+		int c;
+		if (a instanceof String && b instanceof String)
+			c = ((String) a).compareTo((String) b);
+		else {
+			Double x = num(a), y = num(b);
+			if (x == null || y == null)
+				return false;
+			c = Double.compare(x, y);
+		}
+		switch (op) {
+		case "<":
+			return c < 0;
+		case "<=":
+			return c <= 0;
+		case ">":
+			return c > 0;
+		default:
+			return c >= 0;
+		}
+	}
+
+	static Object extreme(Object[] args, boolean max) {
+		Double best = null;
+		for (Object o : args) {
+			Double x = num(o);
+			if (x != null && (best == null || (max ? x > best : x < best)))
+				best = x;
+		}
+		return best;
+	}
+
+	static Object round(Object[] args) {
+		Double x = num(args[0]);
+		if (x == null)
+			return null;
+		double scale = args.length > 1 && num(args[1]) != null ? Math.pow(10, num(args[1])) : 1;
+		return Math.round(x * scale) / scale;
+	}
+
+	static Object contains(Object a, Object b) {
+		if (a instanceof Collection) {
+			for (Object o : (Collection) a) {
+				if (same(o, b))
+					return true;
+			}
+			return false;
+		}
+		if (a instanceof String && b != null)
+			return ((String) a).contains(b.toString());
+		return false;
+	}
+
+	static Object in(Object[] args) {
+		for (int i = 1; i < args.length; i++) {
+			if (args[i] instanceof Collection) {
+				if ((Boolean) contains(args[i], args[0]))
+					return true;
+			} else if (same(args[0], args[i]))
+				return true;
+		}
+		return false;
+	}
+
+	static Object len(Object x) {
+		if (x instanceof String)
+			return (double) ((String) x).length();
+		if (x instanceof Collection)
+			return (double) ((Collection) x).size();
+		return x == null ? 0.0 : 1.0;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Recursive descent parser, builds the terms as it goes.
+	 */
+	static final class Parser {
+		static final int END = 0, NUMBER = 1, STRING = 2, IDENT = 3, OP = 4;
+
+		final String src;
+		int pos;
+		int start;
+		int token;
+		String text;
+		Object literal;
+
+		Parser(String src) throws Exception {
+			this.src = src;
+			next();
+		}
+
+		Exception error(String msg) {
+			return new Exception("Expression error at " + start + ": " + msg + ", in: " + src);
+		}
+
+		void next() throws Exception {
+			while (pos < src.length() && Character.isWhitespace(src.charAt(pos)))
+				pos++;
+			start = pos;
+			if (pos >= src.length()) {
+				token = END;
+				text = "";
+				return;
+			}
+			char c = src.charAt(pos);
+			if (Character.isDigit(c) || (c == '.' && pos + 1 < src.length() && Character.isDigit(src.charAt(pos + 1)))) {
+				while (pos < src.length()) {
+					char d = src.charAt(pos);
+					if (d == 'e' || d == 'E') {
+						pos++;
+						if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-'))
+							pos++;
+					} else if (Character.isDigit(d) || d == '.')
+						pos++;
+					else
+						break;
+				}
+				text = src.substring(start, pos);
+				try {
+					literal = Double.parseDouble(text);
+				} catch (NumberFormatException error) {
+					throw error("Bad number " + text);
+				}
+				token = NUMBER;
+			} else if (c == '\'' || c == '"') {
+				StringBuilder sb = new StringBuilder();
+				pos++;
+				while (pos < src.length() && src.charAt(pos) != c) {
+					char x = src.charAt(pos++);
+					if (x == '\\' && pos < src.length())
+						x = src.charAt(pos++);
+					sb.append(x);
+				}
+				if (pos >= src.length())
+					throw error("Unterminated string");
+				pos++;
+				text = sb.toString();
+				literal = text;
+				token = STRING;
+			} else if (Character.isJavaIdentifierStart(c)) {
+				// Dotted paths, with array indexes and * wildcards
+				while (pos < src.length()) {
+					char x = src.charAt(pos);
+					if (Character.isJavaIdentifierPart(x) || x == '.' || x == '*')
+						pos++;
+					else
+						break;
+				}
+				text = src.substring(start, pos);
+				token = IDENT;
+			} else {
+				String two = pos + 1 < src.length() ? src.substring(pos, pos + 2) : "";
+				switch (two) {
+				case "&&":
+				case "||":
+				case "==":
+				case "!=":
+				case "<=":
+				case ">=":
+					text = two;
+					pos += 2;
+					break;
+				default:
+					if ("+-*/%<>!?:(),".indexOf(c) < 0)
+						throw error("Unexpected character '" + c + "'");
+					text = String.valueOf(c);
+					pos++;
+				}
+				token = OP;
+			}
+		}
+
+		boolean is(String op) {
+			return token == OP && text.equals(op);
+		}
+
+		void expect(String op) throws Exception {
+			if (!is(op))
+				throw error("Expected '" + op + "'");
+			next();
+		}
+
+		Term expression() throws Exception {
+			Term cond = or();
+			if (!is("?"))
+				return cond;
+			next();
+			Term a = expression();
+			expect(":");
+			Term b = expression();
+			if (cond instanceof Const)
+				return truth(((Const) cond).value) ? a : b;
+			return env -> truth(cond.eval(env)) ? a.eval(env) : b.eval(env);
+		}
+
+		Term or() throws Exception {
+			Term t = and();
+			while (is("||")) {
+				next();
+				Term a = t, b = and();
+				t = env -> truth(a.eval(env)) || truth(b.eval(env));
+			}
+			return t;
+		}
+
+		Term and() throws Exception {
+			Term t = equality();
+			while (is("&&")) {
+				next();
+				Term a = t, b = equality();
+				t = env -> truth(a.eval(env)) && truth(b.eval(env));
+			}
+			return t;
+		}
+
+		Term equality() throws Exception {
+			Term t = relation();
+			while (is("==") || is("!=")) {
+				boolean eq = is("==");
+				next();
+				t = binary(t, relation(), (a, b) -> same(a, b) == eq);
+			}
+			return t;
+		}
+
+		Term relation() throws Exception {
+			Term t = additive();
+			while (is("<") || is("<=") || is(">") || is(">=")) {
+				String op = text;
+				next();
+				t = binary(t, additive(), (a, b) -> compare(a, b, op));
+			}
+			return t;
+		}
+
+		Term additive() throws Exception {
+			Term t = multiplicative();
+			while (is("+") || is("-")) {
+				char op = text.charAt(0);
+				next();
+				t = binary(t, multiplicative(), (a, b) -> arith(a, b, op));
+			}
+			return t;
+		}
+
+		Term multiplicative() throws Exception {
+			Term t = unary();
+			while (is("*") || is("/") || is("%")) {
+				char op = text.charAt(0);
+				next();
+				t = binary(t, unary(), (a, b) -> arith(a, b, op));
+			}
+			return t;
+		}
+
+		Term unary() throws Exception {
+			if (is("!")) {
+				next();
+				return Expression.unary(unary(), a -> !truth(a));
+			}
+			if (is("-")) {
+				next();
+				return Expression.unary(unary(), a -> {
+					Double x = num(a);
+					return x == null ? null : -x;
+				});
+			}
+			return primary();
+		}
+
+		Term primary() throws Exception {
+			Term t;
+			switch (token) {
+			case NUMBER:
+			case STRING:
+				t = new Const(literal);
+				next();
+				return t;
+			case IDENT:
+				String name = text;
+				next();
+				if (is("("))
+					return function(name);
+				return identifier(name);
+			default:
+				if (is("(")) {
+					next();
+					t = expression();
+					expect(")");
+					return t;
+				}
+				if (token == END)
+					throw error("Unexpected end of expression");
+				throw error("Unexpected '" + text + "'");
+			}
+		}
+
+		Term identifier(String name) {
+			switch (name) {
+			case "true":
+				return new Const(true);
+			case "false":
+				return new Const(false);
+			case "null":
+				return new Const(null);
+			case "price":
+				return env -> env.price;
+			case "bidfloor":
+				return env -> env.imp == null || env.imp.bidFloor == null ? 0.0 : env.imp.bidFloor;
+			case "exchange":
+				return env -> env.br.getExchange();
+			default:
+				return field(name);
+			}
+		}
+
+		Term function(String name) throws Exception {
+			next();
+			List<Term> list = new ArrayList<Term>();
+			if (!is(")")) {
+				list.add(expression());
+				while (is(",")) {
+					next();
+					list.add(expression());
+				}
+			}
+			expect(")");
+			Term[] args = list.toArray(new Term[list.size()]);
+
+			switch (name) {
+			case "min":
+				return call(args, a -> extreme(a, false), true);
+			case "max":
+				return call(args, a -> extreme(a, true), true);
+			case "abs":
+				arity(name, args, 1);
+				return call(args, a -> num(a[0]) == null ? null : Math.abs(num(a[0])), true);
+			case "floor":
+				arity(name, args, 1);
+				return call(args, a -> num(a[0]) == null ? null : Math.floor(num(a[0])), true);
+			case "ceil":
+				arity(name, args, 1);
+				return call(args, a -> num(a[0]) == null ? null : Math.ceil(num(a[0])), true);
+			case "round":
+				if (args.length < 1 || args.length > 2)
+					throw error("round takes 1 or 2 arguments");
+				return call(args, a -> round(a), true);
+			case "rand":
+				arity(name, args, 0);
+				return call(args, a -> ThreadLocalRandom.current().nextDouble(), false);
+			case "len":
+				arity(name, args, 1);
+				return call(args, a -> len(a[0]), true);
+			case "lower":
+				arity(name, args, 1);
+				return call(args, a -> a[0] == null ? null : a[0].toString().toLowerCase(), true);
+			case "upper":
+				arity(name, args, 1);
+				return call(args, a -> a[0] == null ? null : a[0].toString().toUpperCase(), true);
+			case "contains":
+				arity(name, args, 2);
+				return call(args, a -> contains(a[0], a[1]), true);
+			case "startsWith":
+				arity(name, args, 2);
+				return call(args, a -> a[0] != null && a[1] != null && a[0].toString().startsWith(a[1].toString()),
+						true);
+			case "endsWith":
+				arity(name, args, 2);
+				return call(args, a -> a[0] != null && a[1] != null && a[0].toString().endsWith(a[1].toString()),
+						true);
+			case "in":
+				if (args.length < 2)
+					throw error("in takes at least 2 arguments");
+				return call(args, a -> in(a), true);
+			case "exists":
+				arity(name, args, 1);
+				return call(args, a -> a[0] != null, true);
+			case "num":
+				arity(name, args, 1);
+				return call(args, a -> num(a[0]), true);
+			default:
+				throw error("Unknown function " + name);
+			}
+		}
+
+		void arity(String name, Term[] args, int n) throws Exception {
+			if (args.length != n)
+				throw error(name + " takes " + n + " argument(s)");
+		}
+	}
+}
@@ -6,8 +6,10 @@ import javax.script.ScriptEngineManager;
 /**
  * A class that encapsulates a Nashhorn script engine.
  * @author Ben M. Faul
- *
+ * @deprecated campaign nodes and creatives use the compiled Expression language.
+ * Nashorn re-parses every call, is not thread safe, and is not in newer JDKs.
  */
+@Deprecated
 public class JJS {
 	/** The script engine */
 	static ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
@@ -0,0 +1,223 @@
+package com.xrtb.common;
+
+import java.util.Map;
+
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * The performance profile of the bidder's Jetty server. Loaded from the
+ * optional "jetty" object of the "app" section, for example:
+ *
+ * <pre>
+ * "jetty" : { "acceptorsPerCore" : 0.25, "selectorsPerCore" : 1, "maxThreads" : 256,
+ *             "queueSize" : 4096, "maxInflight" : 2000, "idleTimeout" : 300000 }
+ * </pre>
+ *
+ * When the object is absent the legacy server setup in RTBServer is used.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class JettyProfile {
+
+	/** Number of acceptor threads per available core, at least 1 */
+	public double acceptorsPerCore = 0.25;
+	/** Number of NIO selector threads per available core, at least 1 */
+	public double selectorsPerCore = 1;
+	/** Max worker threads, sized for CPU rather than for connections */
+	public int maxThreads = 256;
+	/** Min worker threads kept warm */
+	public int minThreads = 32;
+	/** Bound on the jobs waiting for a worker thread. Beyond this Jetty rejects */
+	public int queueSize = 4096;
+	/**
+	 * Max bid requests being processed at once, the cap on the adaptive limit
+	 * of the AdmissionController. Requests above the limit are answered
+	 * immediately with the no bid code. 0 means its MAX_LIMIT.
+	 */
+	public int maxInflight = 2000;
+	/**
+	 * Adapt the limit on requests in flight to the measured latency, and shed
+	 * requests that can't be answered within their exchange's tmax. When false,
+	 * maxInflight is a fixed cap.
+	 */
+	public boolean adaptive = false;
+	/** Keep-alive idle timeout, in ms. Exchanges reuse connections for a long time */
+	public int idleTimeout = 300000;
+	/** Size of the accept backlog of the listening socket */
+	public int acceptQueueSize = 1024;
+	/** Largest request header accepted */
+	public int requestHeaderSize = 8192;
+	/** Size of the response output buffer */
+	public int outputBufferSize = 32768;
+	/** Send bid requests around the session handler */
+	public boolean sessionless = true;
+	/**
+	 * How bid requests are executed. "blocking" runs them on the jetty thread,
+	 * "async" reads the body without blocking and runs the bid on a separate
+	 * executor.
+	 */
+	public String mode = BLOCKING;
+	/**
+	 * The executor used in async mode. "pool" is a fixed pool of asyncThreads
+	 * with a queue of asyncQueue, "virtual" uses virtual threads when the JVM has them and falls back to the
+	 * pool when it does not.
+	 */
+	public String executor = "pool";
+	/** Number of threads in the async bid pool */
+	public int asyncThreads = 256;
+	/** Bids waiting for an async pool thread. Beyond this they get a no bid */
+	public int asyncQueue = 4096;
+	/** Max time an async bid may take before a no bid is sent, in ms */
+	public int asyncTimeout = 1000;
+
+	/** Run bids on the jetty thread */
+	public static final String BLOCKING = "blocking";
+	/** Run bids with async servlet reads and a separate executor */
+	public static final String ASYNC = "async";
+
+	/**
+	 * Default profile.
+	 */
+	public JettyProfile() {
+
+	}
+
+	/**
+	 * Create the profile from the "jetty" configuration object. Missing keys
+	 * keep their defaults.
+	 *
+	 * @param m
+	 *            Map. The configuration object.
+	 */
+	public JettyProfile(Map m) {
+		acceptorsPerCore = getDouble(m, "acceptorsPerCore", acceptorsPerCore);
+		selectorsPerCore = getDouble(m, "selectorsPerCore", selectorsPerCore);
+		maxThreads = getInt(m, "maxThreads", maxThreads);
+		minThreads = getInt(m, "minThreads", minThreads);
+		queueSize = getInt(m, "queueSize", queueSize);
+		maxInflight = getInt(m, "maxInflight", maxInflight);
+		idleTimeout = getInt(m, "idleTimeout", idleTimeout);
+		acceptQueueSize = getInt(m, "acceptQueueSize", acceptQueueSize);
+		requestHeaderSize = getInt(m, "requestHeaderSize", requestHeaderSize);
+		outputBufferSize = getInt(m, "outputBufferSize", outputBufferSize);
+		if (m.get("adaptive") != null)
+			adaptive = (Boolean) m.get("adaptive");
+		if (m.get("sessionless") != null)
+			sessionless = (Boolean) m.get("sessionless");
+		if (m.get("mode") != null)
+			mode = (String) m.get("mode");
+		if (m.get("executor") != null)
+			executor = (String) m.get("executor");
+		asyncThreads = getInt(m, "asyncThreads", asyncThreads);
+		asyncQueue = getInt(m, "asyncQueue", asyncQueue);
+		asyncTimeout = getInt(m, "asyncTimeout", asyncTimeout);
+		if (minThreads > maxThreads)
+			minThreads = maxThreads;
+	}
+
+	/**
+	 * Tell whether bids are handled asynchronously.
+	 *
+	 * @return boolean. Returns true if the mode is async.
+	 */
+	public boolean isAsync() {
+		return ASYNC.equals(mode);
+	}
+
+	/**
+	 * Return the number of acceptors for this machine.
+	 *
+	 * @return int. The number of acceptor threads.
+	 */
+	public int acceptors() {
+		return perCore(acceptorsPerCore);
+	}
+
+	/**
+	 * Return the number of selectors for this machine.
+	 *
+	 * @return int. The number of selector threads.
+	 */
+	public int selectors() {
+		return perCore(selectorsPerCore);
+	}
+
+	/**
+	 * Create the worker pool with a bounded job queue.
+	 *
+	 * @return QueuedThreadPool. The pool to hand to the Jetty server.
+	 */
+	public QueuedThreadPool threadPool() {
+		int min = Math.min(minThreads, maxThreads);
+		BlockingArrayQueue<Runnable> queue = new BlockingArrayQueue<Runnable>(Math.min(queueSize, 1024),
+				Math.min(queueSize, 1024), queueSize);
+		QueuedThreadPool pool = new QueuedThreadPool(maxThreads, min, 60000, queue);
+		pool.setName("bidder");
+		return pool;
+	}
+
+	/**
+	 * Create the HTTP configuration. Keep alive stays on, the junk headers are
+	 * turned off.
+	 *
+	 * @return HttpConfiguration. The configuration for the connection factories.
+	 */
+	public HttpConfiguration httpConfiguration() {
+		HttpConfiguration http = new HttpConfiguration();
+		http.setPersistentConnectionsEnabled(true);
+		http.setRequestHeaderSize(requestHeaderSize);
+		http.setOutputBufferSize(outputBufferSize);
+		http.setSendServerVersion(false);
+		http.setSendXPoweredBy(false);
+		http.setSendDateHeader(false);
+		http.setDelayDispatchUntilContent(true);
+		return http;
+	}
+
+	/**
+	 * Create a connector using this profile.
+	 *
+	 * @param server
+	 *            Server. The jetty server.
+	 * @param stats
+	 *            ConnectionStatistics. The statistics bean to attach, or null.
+	 * @param factories
+	 *            ConnectionFactory... The connection factories.
+	 * @return ServerConnector. The tuned connector.
+	 */
+	public ServerConnector connector(Server server, ConnectionStatistics stats, ConnectionFactory... factories) {
+		ServerConnector connector = new ServerConnector(server, null, null, null, acceptors(), selectors(),
+				factories);
+		connector.setIdleTimeout(idleTimeout);
+		connector.setAcceptQueueSize(acceptQueueSize);
+		if (stats != null)
+			connector.addBean(stats);
+		return connector;
+	}
+
+	int perCore(double factor) {
+		int n = (int) Math.round(Runtime.getRuntime().availableProcessors() * factor);
+		return Math.max(1, n);
+	}
+
+	static int getInt(Map m, String key, int value) {
+		Object obj = m.get(key);
+		if (obj == null)
+			return value;
+		return ((Number) obj).intValue();
+	}
+
+	static double getDouble(Map m, String key, double value) {
+		Object obj = m.get(key);
+		if (obj == null)
+			return value;
+		return ((Number) obj).doubleValue();
+	}
+}
@@ -24,8 +24,9 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.xrtb.blocks.NavMap;
 import com.xrtb.pojo.BidRequest;
+import com.xrtb.tools.LookingGlass;
+import com.xrtb.tools.Membership;
 
-import redis.clients.jedis.Jedis;
 
 /**
  * A class that implements a parse-able node in the RTB object, and applies
@@ -208,14 +209,20 @@ public class Node {
 	/** When the value is a list */
 	transient List lval = null;
 
-	/** if present will execute this JavaScript code */
-	protected String code = null;
-	/** context to execute in */
-	public JJS shell = null;
+	/**
+	 * if present, an Expression that must also be true for the node to match,
+	 * for example "device.geo.country == 'USA' &amp;&amp; rand() &lt; 0.5"
+	 */
+	public String code = null;
+	/** the compiled code */
+	transient Expression expression;
 	/** text name of the operator */
 	public String op;
 	/** text name of the query sub op */
 	transient String subop = null;
+	/** The data source type and name of a QUERY that isn't builtin */
+	transient String querySource;
+	transient String queryName;
 	/** A pattern matcher */
 	transient Pattern pattern;
 
@@ -261,6 +268,16 @@ public class Node {
 
 	public Node(Map map) throws Exception {
 		this.name = (String) map.get("name");
+		String code = (String) map.get("code");
+		if (code != null) {
+			try {
+				Expression.compile(code);
+				this.code = code;
+			} catch (Exception error) {
+				// Stored before expressions, when code was JavaScript
+				System.out.println("ERROR: node " + name + " code ignored, " + error.getMessage());
+			}
+		}
 		Object test = map.get("op");
 		op = (String) test;
 		test = map.get("notPresentOk");
@@ -287,6 +304,9 @@ public class Node {
 	 *             if this.values is not a recognized object.
 	 */
 	public void setValues() throws Exception {
+		if (code != null)
+			expression = Expression.compile(code);
+
 		if (op != null) {
 			Integer x = OPS.get(op);
 			if (x == null)
@@ -345,8 +365,9 @@ public class Node {
 				suboperator  = OPS.get(subop);
 				if (source.equals("builtin")) {
 					value = builtinMap.get(name);
-				} else {                          // Is Aerospike
-					
+				} else {                          // Aerospike, file or http, see QueryLookup
+					querySource = source;
+					queryName = name;
 				}
 			} else
 				lval = (List) value;
@@ -425,7 +446,7 @@ public class Node {
 	}
 
 	/**
-	 * Constructor for the campaign Node with associated JavaScript
+	 * Constructor for the campaign Node with an associated expression
 	 * 
 	 * @param name.
 	 *            String - the name of this node.
@@ -438,17 +459,16 @@ public class Node {
 	 *            Object - the constant to test the value of the hierarchy
 	 *            against.
 	 * @param code.
-	 *            String - the Java code to execute if node evaluates true.
-	 * @param shell.
-	 *            JJS - the encapsulated Nashhorn context to use for this
-	 *            operation.
+	 *            String - the expression that must also be true for the node
+	 *            to match.
 	 * @throws Exception
-	 *             if the value object is not recognized.
+	 *             if the value object is not recognized or the code does not
+	 *             compile.
 	 */
-	public Node(String name, String heirarchy, String operator, Object value, String code, JJS shell) throws Exception {
+	public Node(String name, String heirarchy, String operator, Object value, String code) throws Exception {
 		this(name, heirarchy, operator, value);
 		this.code = code;
-		this.shell = shell;
+		setValues();
 	}
 
 	/**
@@ -506,9 +526,13 @@ public class Node {
 		if (oldOperator == QUERY) {
 			brValue = br.interrogate(hierarchy);
 			JsonNode n = (JsonNode)brValue;
-			String key = n.asText();
-			Map map = (Map)value;
-			brValue = map.get(key);
+			String key = n == null ? null : n.asText();
+			if (querySource != null) {
+				brValue = QueryLookup.get(br, querySource, queryName, key);
+			} else {
+				Map map = (Map)value;
+				brValue = map.get(key);
+			}
 			test = testInternal(brValue);
 		} else {
 			try {
@@ -517,7 +541,10 @@ public class Node {
 				e.printStackTrace();
 				throw new Exception("Bad hierarchy: " + hierarchy + ", " + e.toString());
 			}
-			if (brValue != null)
+			if (brValue != null && isAudience() && !(brValue instanceof MissingNode)) {
+				boolean t = AudienceLookup.isMember(br, sval, AudienceLookup.text(brValue));
+				test = operator == MEMBER ? t : !t;
+			} else if (brValue != null)
 				test = testInternal(brValue);
 			else {
 				if (operator == NOT_EXISTS)
@@ -527,6 +554,8 @@ public class Node {
 			}
 		}
 		operator = oldOperator;
+		if (test && expression != null)
+			test = expression.test(br);
 		return test;
 	}
 
@@ -647,14 +676,19 @@ public class Node {
 		case NOT_MEMBER:
 			
 			if (sval != null && sval.startsWith("@")) {
-				boolean t = NavMap.searchTable(sval,svalue);
+				boolean t;
+				Object symbol = LookingGlass.symbols.get(sval);
+				if (symbol instanceof Membership)
+					t = ((Membership) symbol).contains(svalue);
+				else
+					t = NavMap.searchTable(sval,svalue);
 				if (operator == NOT_MEMBER)
 					return !t;
 				else
 					return t;
 			}
 			if (sval != null && sval.startsWith("$")) {
-				boolean t = jedisIsMember(sval,svalue);
+				boolean t = AudienceLookup.isMember(null,sval,svalue);
 				if (operator == NOT_MEMBER)
 					return !t;
 				else
@@ -800,17 +834,24 @@ public class Node {
 		return false;
 	}
 	
-	boolean jedisIsMember(String key, String member) {
-		boolean t = false;
-		try {
-			Jedis jedis = Configuration.getInstance().jedisPool.getResource();
-			t = jedis.sismember(key,member);
-			Configuration.getInstance().jedisPool.returnResource(jedis);
-			//t = Configuration.getInstance().jedisPool.sismember(key, member);
-		} catch (Exception error) {
-			error.printStackTrace();
-		}
-		return t;
+	/**
+	 * Is this a test of membership in a redis set ($name)? These are answered
+	 * by the AudienceLookup.
+	 * 
+	 * @return boolean. Returns true if it is.
+	 */
+	boolean isAudience() {
+		return (operator == MEMBER || operator == NOT_MEMBER) && sval != null && sval.startsWith("$");
+	}
+
+	/**
+	 * Is this a QUERY on a remote data source? These are answered by the
+	 * QueryLookup.
+	 * 
+	 * @return boolean. Returns true if it is.
+	 */
+	boolean isRemoteQuery() {
+		return querySource != null;
 	}
 
 	/**
@@ -0,0 +1,413 @@
+package com.xrtb.common;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+
+import com.aerospike.redisson.RedissonClient;
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.tools.DbTools;
+
+/**
+ * Answers the QUERY nodes that look up a value in a remote data source, for
+ * example a segment or score keyed by device id or site id. The node's value
+ * is [source, name, op, operand], where the source is one of:
+ * <ul>
+ * <li>aerospike - name is the aerospike set, the value is in the "value" bin
+ * of the record with the key.</li>
+ * <li>file - name is a local file of key,value lines, memory mapped.</li>
+ * <li>http - name is a URL, sent a JSON list of keys, returning a JSON object
+ * of the values found.</li>
+ * </ul>
+ * More can be added with register().
+ * <p>
+ * Like the audience lookups, all the keys the candidate campaigns will look
+ * up for a request are gathered first, and the ones not cached are fetched
+ * with one call per source and name. Values, and keys that aren't there, are
+ * cached for TTL seconds. When a source and name fails, it isn't asked again
+ * for RETRY_MS, the nodes see no value meanwhile, so an outage doesn't cost a
+ * timeout per node per request.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class QueryLookup {
+
+	/** Seconds a value, or its absence, is cached */
+	public static volatile int TTL = 300;
+	/** The most values cached */
+	public static volatile int MAX_SIZE = 1000000;
+	/** Timeout in ms of the http source */
+	public static volatile int HTTP_TIMEOUT = 50;
+	/** Ms a source and name that failed is left alone before it is tried again */
+	public static volatile int RETRY_MS = 1000;
+
+	/** Cached for a key that isn't in the source */
+	static final Object NONE = new Object();
+
+	/**
+	 * A key value data source.
+	 */
+	public interface Source {
+		/**
+		 * Look up a number of keys in one call.
+		 *
+		 * @param name
+		 *            String. What to look them up in (a set, file, URL...).
+		 * @param keys
+		 *            List. The keys.
+		 * @return Map. The values of the keys found.
+		 * @throws Exception
+		 *             on errors reaching the source.
+		 */
+		public Map<String, Object> get(String name, List<String> keys) throws Exception;
+	}
+
+	/**
+	 * Values in aerospike, one record per key, read with a batch get.
+	 */
+	public static class AerospikeSource implements Source {
+		@Override
+		public Map<String, Object> get(String name, List<String> keys) throws Exception {
+			RedissonClient redis = Configuration.getInstance().redisson;
+			List<Map<String, Object>> records = redis.getRecords(name, keys);
+			Map<String, Object> values = new HashMap<String, Object>();
+			for (int i = 0; i < keys.size(); i++) {
+				Map<String, Object> r = records.get(i);
+				if (r != null && r.get("value") != null)
+					values.put(keys.get(i), r.get("value"));
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Values in local files of key,value lines. The file is memory mapped and
+	 * only the keys and where their values start are kept on the heap.
+	 */
+	public static class FileSource implements Source {
+		final Map<String, MappedFile> files = new ConcurrentHashMap<String, MappedFile>();
+
+		@Override
+		public Map<String, Object> get(String name, List<String> keys) throws Exception {
+			MappedFile f = files.get(name);
+			if (f == null) {
+				synchronized (this) {
+					f = files.get(name);
+					if (f == null) {
+						f = new MappedFile(name);
+						files.put(name, f);
+					}
+				}
+			}
+			Map<String, Object> values = new HashMap<String, Object>();
+			for (String key : keys) {
+				String v = f.get(key);
+				if (v != null)
+					values.put(key, parse(v));
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * A memory mapped file of key,value lines.
+	 */
+	static class MappedFile {
+		final MappedByteBuffer buf;
+		/** Where the value of each key starts */
+		final Map<String, Integer> offsets = new HashMap<String, Integer>();
+
+		MappedFile(String path) throws Exception {
+			try (RandomAccessFile file = new RandomAccessFile(new File(path), "r")) {
+				FileChannel ch = file.getChannel();
+				buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			}
+			StringBuilder sb = new StringBuilder();
+			int n = buf.limit();
+			for (int i = 0; i < n; i++) {
+				char c = (char) (buf.get(i) & 0xff);
+				if (c == ',') {
+					offsets.put(sb.toString(), i + 1);
+					while (i < n && buf.get(i) != '\n')
+						i++;
+					sb.setLength(0);
+				} else if (c == '\n')
+					sb.setLength(0);
+				else if (c != '\r')
+					sb.append(c);
+			}
+		}
+
+		String get(String key) {
+			Integer start = offsets.get(key);
+			if (start == null)
+				return null;
+			int end = start;
+			while (end < buf.limit() && buf.get(end) != '\n' && buf.get(end) != '\r')
+				end++;
+			byte[] b = new byte[end - start];
+			for (int i = 0; i < b.length; i++)
+				b[i] = buf.get(start + i);
+			return new String(b).trim();
+		}
+	}
+
+	/**
+	 * Values from a web service. The keys are posted as a JSON list, the reply
+	 * is a JSON object with the values of the keys found.
+	 */
+	public static class HttpSource implements Source {
+		@Override
+		public Map<String, Object> get(String name, List<String> keys) throws Exception {
+			HttpPostGet hp = new HttpPostGet();
+			String reply = hp.sendPost(name, DbTools.mapper.writeValueAsString(keys), HTTP_TIMEOUT, HTTP_TIMEOUT);
+			if (reply == null)
+				throw new Exception("No reply from " + name);
+			Map<String, Object> values = DbTools.mapper.readValue(reply, Map.class);
+			for (Map.Entry<String, Object> e : values.entrySet())
+				e.setValue(normalize(e.getValue()));
+			return values;
+		}
+	}
+
+	/** The sources, by the name used in the QUERY nodes */
+	static final Map<String, Source> sources = new ConcurrentHashMap<String, Source>();
+	static {
+		sources.put("aerospike", new AerospikeSource());
+		sources.put("file", new FileSource());
+		sources.put("http", new HttpSource());
+	}
+
+	/** The values, by source, name and key */
+	static volatile Cache<String, Object> cache;
+	/** When the failed sources and names can be tried again, by source and name */
+	static final Map<String, Long> failed = new ConcurrentHashMap<String, Long>();
+
+	/** Lookups, answered from the cache, fetched from the sources, and round trips */
+	static final LongAdder asked = new LongAdder();
+	static final LongAdder hits = new LongAdder();
+	static final LongAdder fetched = new LongAdder();
+	static final LongAdder trips = new LongAdder();
+	static final LongAdder errors = new LongAdder();
+	static final LongAdder skipped = new LongAdder();
+
+	/**
+	 * Add or replace a source, and forget the cached values.
+	 * @param type String. The source name used in the QUERY nodes.
+	 * @param source Source. The data source.
+	 */
+	public static synchronized void register(String type, Source source) {
+		sources.put(type, source);
+		cache = null;
+		failed.clear();
+	}
+
+	static Cache<String, Object> getCache() {
+		Cache<String, Object> c = cache;
+		if (c == null) {
+			synchronized (QueryLookup.class) {
+				if (cache == null)
+					cache = new Cache2kBuilder<String, Object>() {
+					}.expireAfterWrite(TTL, TimeUnit.SECONDS).entryCapacity(MAX_SIZE).build();
+				c = cache;
+			}
+		}
+		return c;
+	}
+
+	static String key(String source, String name, String key) {
+		return source + "\u0001" + name + "\u0001" + key;
+	}
+
+	/**
+	 * Turn the text of a value into a number if it is one.
+	 */
+	static Object parse(String v) {
+		try {
+			return normalize(Long.parseLong(v));
+		} catch (NumberFormatException e) {
+		}
+		try {
+			return Double.parseDouble(v);
+		} catch (NumberFormatException e) {
+		}
+		return v;
+	}
+
+	/**
+	 * Numbers as the Node compares them: Integer if it fits, else Double.
+	 */
+	static Object normalize(Object v) {
+		if (v instanceof Long || v instanceof Short || v instanceof Byte) {
+			long x = ((Number) v).longValue();
+			if (x >= Integer.MIN_VALUE && x <= Integer.MAX_VALUE)
+				return (int) x;
+			return (double) x;
+		}
+		if (v instanceof Float)
+			return ((Float) v).doubleValue();
+		return v;
+	}
+
+	/**
+	 * Look up the values of all the QUERY nodes of the campaigns for this
+	 * request, with one call per source and name for the ones not cached.
+	 * The values are kept in the request.
+	 * @param br BidRequest. The request.
+	 * @param campaigns List. The campaigns that will be tested.
+	 */
+	public static void prefetch(BidRequest br, List<Campaign> campaigns) {
+		Map<String, Object> values = null;
+		Cache<String, Object> c = null;
+		Map<String, List<String>> missing = null;
+		for (Campaign camp : campaigns) {
+			List<Node> nodes = camp.getQueries();
+			for (int i = 0; i < nodes.size(); i++) {
+				Node n = nodes.get(i);
+				String k;
+				try {
+					k = AudienceLookup.text(br.interrogate(n.hierarchy));
+				} catch (Exception error) {
+					continue;
+				}
+				if (k == null)
+					continue;
+				if (values == null) {
+					values = new HashMap<String, Object>();
+					c = getCache();
+					missing = new LinkedHashMap<String, List<String>>();
+				}
+				String key = key(n.querySource, n.queryName, k);
+				if (values.containsKey(key))
+					continue;
+				asked.increment();
+				Object v = c.peek(key);
+				if (v != null) {
+					hits.increment();
+					values.put(key, v);
+				} else {
+					values.put(key, null); // Filled in below
+					missing.computeIfAbsent(n.querySource + "\u0001" + n.queryName, x -> new ArrayList<String>())
+							.add(k);
+				}
+			}
+		}
+		if (values == null)
+			return;
+		for (Map.Entry<String, List<String>> e : missing.entrySet()) {
+			String[] parts = e.getKey().split("\u0001", 2);
+			fetch(c, parts[0], parts[1], e.getValue(), values);
+		}
+		br.queries = values;
+	}
+
+	/**
+	 * Fetch from the source and cache the values, and the absence of the keys
+	 * not found. If the source fails, or failed less than RETRY_MS ago, the keys
+	 * have no value in this request and nothing is cached.
+	 */
+	static void fetch(Cache<String, Object> c, String type, String name, List<String> keys,
+			Map<String, Object> values) {
+		Source source = sources.get(type);
+		if (source == null)
+			return;
+		String where = type + "\u0001" + name;
+		Long retry = failed.get(where);
+		if (retry != null && retry > System.currentTimeMillis()) {
+			skipped.add(keys.size());
+			none(type, name, keys, values);
+			return;
+		}
+		Map<String, Object> found;
+		try {
+			trips.increment();
+			fetched.add(keys.size());
+			found = source.get(name, keys);
+		} catch (Exception error) {
+			errors.increment();
+			if (failed.put(where, System.currentTimeMillis() + RETRY_MS) == null)
+				error.printStackTrace();
+			none(type, name, keys, values);
+			return;
+		}
+		failed.remove(where);
+		for (String k : keys) {
+			Object v = found.get(k);
+			if (v == null)
+				v = NONE;
+			String key = key(type, name, k);
+			c.put(key, v);
+			values.put(key, v);
+		}
+	}
+
+	/**
+	 * Answer the keys with no value for this request only.
+	 */
+	static void none(String type, String name, List<String> keys, Map<String, Object> values) {
+		for (String k : keys)
+			values.put(key(type, name, k), NONE);
+	}
+
+	/**
+	 * Return the value of a key. Answered from the request if it was
+	 * prefetched, then the cache, then the source.
+	 * @param br BidRequest. The request, can be null.
+	 * @param type String. The source.
+	 * @param name String. The set, file or URL in the source.
+	 * @param k String. The key.
+	 * @return Object. The value, or null if there is none.
+	 */
+	public static Object get(BidRequest br, String type, String name, String k) {
+		if (k == null)
+			return null;
+		String key = key(type, name, k);
+		Object v = null;
+		if (br != null && br.queries != null)
+			v = br.queries.get(key);
+		if (v == null) {
+			asked.increment();
+			Cache<String, Object> c = getCache();
+			v = c.peek(key);
+			if (v != null)
+				hits.increment();
+			else {
+				List<String> keys = new ArrayList<String>();
+				keys.add(k);
+				Map<String, Object> values = new HashMap<String, Object>();
+				fetch(c, type, name, keys, values);
+				v = values.get(key);
+			}
+		}
+		return v == NONE ? null : v;
+	}
+
+	/**
+	 * Return the lookup statistics.
+	 * @return Map. Lookups, answered from the cache, fetched from the sources, round trips, failed
+	 *         trips, and keys not fetched because their source was failing.
+	 */
+	public static Map getStats() {
+		Map m = new HashMap();
+		m.put("asked", asked.sum());
+		m.put("hits", hits.sum());
+		m.put("fetched", fetched.sum());
+		m.put("trips", trips.sum());
+		m.put("errors", errors.sum());
+		m.put("skipped", skipped.sum());
+		return m;
+	}
+}
@@ -236,6 +236,14 @@ public class AdxBidResponse extends BidResponse {
 	public void writeTo(HttpServletResponse response, String x) throws Exception {
 		internal.writeTo(response.getOutputStream());
 	}
+
+	/**
+	 * Protobuf responses are small and binary, never compressed.
+	 */
+	@Override
+	public void writeCompressed(HttpServletResponse response, int threshold) throws Exception {
+		writeTo(response);
+	}
 	
 	/**
 	 * Returns whether the response is actually a no bid.
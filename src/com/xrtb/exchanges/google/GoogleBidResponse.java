@@ -314,6 +314,14 @@ public class GoogleBidResponse extends com.xrtb.pojo.BidResponse {
 		response.setContentType(x);
 		internal.writeTo(response.getOutputStream());
 	}
+
+	/**
+	 * Protobuf responses are small and binary, never compressed.
+	 */
+	@Override
+	public void writeCompressed(HttpServletResponse response, int threshold) throws Exception {
+		writeTo(response);
+	}
 	
 	/**
 	 * Returns a string representation of the request in Protobuf form.
@@ -29,6 +29,14 @@ public abstract class AbstractLogger implements Runnable {
 	/** A list of object sets. Each list is a different channel/file. */
 	Set<List> setOfLists = new HashSet();
 
+	/**
+	 * A logger that writes as it is offered to, so there is no batch thread.
+	 * Subclasses doing this override offer().
+	 */
+	protected AbstractLogger() {
+
+	}
+
 	public AbstractLogger(int interval) {
 		LOG_INTERVAL = interval;
 		me = new Thread(this);
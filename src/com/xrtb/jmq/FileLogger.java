@@ -2,43 +2,78 @@ package com.xrtb.jmq;
 
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.xrtb.tools.LogSink;
 
 /**
- * A simple class that logs channel information to a file, based on the channel name. You will be called
- * at execute() every logging interval. The name is the channel name, the values is a list of JSON strings that are the
- * log entries for this channel for the log period.
- * 
+ * A simple class that logs channel information to a file, based on the channel name. Each channel has its own
+ * LogSink, so entries are streamed to the file as they are offered, instead of being held for the logging interval.
+ * When a file falls behind, the caller waits for it rather than losing entries.
+ *
  * @author Ben M. Faul
  *
  */
 
 public class FileLogger extends AbstractLogger {
+	/** The sinks, by channel name */
+	final Map<String, LogSink> sinks = new ConcurrentHashMap<String, LogSink>();
+
 	/**
 	 * The constructor for the file logger
+	 * @param interval int. Kept for compatibility, the logger writes continuously.
 	 */
 	public FileLogger(int interval) {
-		super(interval);
+		super();
+		LOG_INTERVAL = interval;
+	}
+
+	/**
+	 * Stream an object to its channel's file.
+	 * @param offering LogObject. The object to log.
+	 */
+	@Override
+	public void offer(LogObject offering) {
+		try {
+			sink(offering.name).put(offering.content);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
-	
+
 	/**
 	 * Time to log something.
 	 * @param name. String. The channel name.
 	 * @param values List. A list of JSON strings.
 	 */
 	public void execute(String name, List<String> values) {
-		StringBuilder sb = new StringBuilder();
-
-		for (String contents : values) {
-			sb.append(contents);
-			sb.append("\n");
-		}
-		if (sb.length() > 0)
-			try {
-				AppendToFile.item(MSubscriber.logDir + "/" + name, sb);
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+		LogSink sink = sink(name);
+		try {
+			for (String contents : values) {
+				sink.put(contents);
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Return the sink of a channel, creating it if needed.
+	 * @param name String. The channel name.
+	 * @return LogSink. The sink writing the channel's file.
+	 */
+	LogSink sink(String name) {
+		return sinks.computeIfAbsent(name, k -> new LogSink(MSubscriber.logDir + "/" + k));
+	}
+
+	/**
+	 * Write out what is pending and close the files.
+	 */
+	public void close() {
+		for (LogSink sink : sinks.values())
+			sink.close();
+		sinks.clear();
 	}
 
 }
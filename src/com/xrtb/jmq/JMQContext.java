@@ -1,22 +1,183 @@
 package com.xrtb.jmq;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
 
+/**
+ * The one ZeroMQ context of the process, and the sockets made from it. Every
+ * publisher and subscriber in jmq gets its context and sockets here, so a
+ * bidder with ten channels runs IO_THREADS I/O threads, not ten.
+ * <p>
+ * The sockets get bounded high water marks. When a subscriber (the log master
+ * for example) stalls, a PUB socket drops messages at SEND_HWM instead of
+ * queueing them until the process runs out of memory. Sends through send()
+ * are counted, and so are the messages ZeroMQ refused.
+ * <p>
+ * The settings are read from the "zeromq" part of the configuration
+ * ("iothreads", "sndhwm", "rcvhwm", "linger") and apply to the context and
+ * sockets made after that.
+ *
+ * @author Ben M. Faul
+ *
+ */
 public enum JMQContext {
 	INSTANCE;
-	
+
+	/** I/O threads of the context */
+	public static volatile int IO_THREADS = 1;
+	/** Messages queued per peer before a socket drops (PUB) or blocks/refuses (PUSH) */
+	public static volatile int SEND_HWM = 100000;
+	/** Messages queued per peer on the receiving side */
+	public static volatile int RECV_HWM = 100000;
+	/** Milliseconds a closed socket keeps trying to send what's left */
+	public static volatile int LINGER = 5000;
+
 	static Context context;
-	
-	public static Context getInstance() {
+
+	/**
+	 * A socket and its counters.
+	 */
+	static class Counted {
+		final String name;
+		final int type;
+		final LongAdder sent = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+
+		Counted(String name, int type) {
+			this.name = name;
+			this.type = type;
+		}
+	}
+
+	/** The open sockets */
+	static final Map<Socket, Counted> sockets = new ConcurrentHashMap<Socket, Counted>();
+	/** Numbers the unnamed sockets */
+	static final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Return the context, making it the first time.
+	 * @return Context. The one context of the process.
+	 */
+	public static synchronized Context getInstance() {
 		if (context == null)
-			context = ZMQ.context(1);
+			context = ZMQ.context(IO_THREADS);
 		return context;
 	}
-	
-	public static void term() {
+
+	/**
+	 * Set up from the "zeromq" part of the configuration.
+	 * @param zeromq Map. The zeromq configuration.
+	 */
+	public static void configure(Map zeromq) {
+		if (zeromq.get("iothreads") != null)
+			IO_THREADS = ((Number) zeromq.get("iothreads")).intValue();
+		if (zeromq.get("sndhwm") != null)
+			SEND_HWM = ((Number) zeromq.get("sndhwm")).intValue();
+		if (zeromq.get("rcvhwm") != null)
+			RECV_HWM = ((Number) zeromq.get("rcvhwm")).intValue();
+		if (zeromq.get("linger") != null)
+			LINGER = ((Number) zeromq.get("linger")).intValue();
+	}
+
+	/**
+	 * Make a socket with the high water marks and linger set. Close it with close().
+	 * @param type int. The socket type, ZMQ.PUB etc.
+	 * @param name String. What it is for, for the stats. Can be null.
+	 * @return Socket. The new socket.
+	 */
+	public static Socket socket(int type, String name) {
+		Socket socket = getInstance().socket(type);
+		socket.setSndHWM(SEND_HWM);
+		socket.setRcvHWM(RECV_HWM);
+		socket.setLinger(LINGER);
+		if (name == null)
+			name = "socket-" + count.incrementAndGet();
+		sockets.put(socket, new Counted(name, type));
+		return socket;
+	}
+
+	/**
+	 * Send a message without blocking, counting it, or the drop if ZeroMQ
+	 * won't take it. A PUB socket at its high water mark drops without telling.
+	 * @param socket Socket. A socket made by socket().
+	 * @param topic String. Sent first if not null.
+	 * @param message String. The message.
+	 * @return boolean. Returns false if it was dropped.
+	 */
+	public static boolean send(Socket socket, String topic, String message) {
+		return send(socket, topic, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Send a message already encoded, see send(Socket, String, String).
+	 * @param socket Socket. A socket made by socket().
+	 * @param topic String. Sent first if not null.
+	 * @param message byte[]. The message.
+	 * @return boolean. Returns false if it was dropped.
+	 */
+	public static boolean send(Socket socket, String topic, byte[] message) {
+		Counted c = sockets.get(socket);
+		boolean sent;
+		if (topic != null)
+			sent = socket.sendMore(topic) && socket.send(message, ZMQ.DONTWAIT);
+		else
+			sent = socket.send(message, ZMQ.DONTWAIT);
+		if (c != null) {
+			if (sent)
+				c.sent.increment();
+			else
+				c.dropped.increment();
+		}
+		return sent;
+	}
+
+	/**
+	 * Close a socket made by socket().
+	 * @param socket Socket. The socket.
+	 */
+	public static void close(Socket socket) {
+		if (socket == null)
+			return;
+		sockets.remove(socket);
+		socket.close();
+	}
+
+	/**
+	 * Return the counters of the open sockets.
+	 * @return List. The name, type, messages sent and dropped of each socket.
+	 */
+	public static List<Map> getStats() {
+		List<Map> list = new ArrayList<Map>();
+		for (Counted c : sockets.values()) {
+			Map m = new HashMap();
+			m.put("name", c.name);
+			m.put("type", c.type);
+			m.put("sent", c.sent.sum());
+			m.put("dropped", c.dropped.sum());
+			list.add(m);
+		}
+		return list;
+	}
+
+	/**
+	 * Close the open sockets and terminate the context.
+	 */
+	public static synchronized void term() {
 		if (context == null)
 			return;
+		for (Socket s : new ArrayList<Socket>(sockets.keySet()))
+			close(s);
 		context.term();
+		context = null;
 	}
 }
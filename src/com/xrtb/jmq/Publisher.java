@@ -1,13 +1,20 @@
 package com.xrtb.jmq;
 
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
 
+/**
+ * A PUB socket bound to an address, publishing on one topic. The socket comes
+ * from JMQContext, so it shares the one context and has a bounded high water
+ * mark: when the subscribers can't keep up, messages are dropped and counted
+ * instead of queued without limit.
+ * 
+ * @author Ben M. Faul
+ *
+ */
 public class Publisher {
 
 	Socket publisher = null;
-	Context context = JMQContext.getInstance();
 	boolean running = false;
 	String topicName = null;
 
@@ -23,39 +30,39 @@ public class Publisher {
 
 	public Publisher(String binding, String topicName) throws Exception {
 
-		context = ZMQ.context(1);
-		publisher = context.socket(ZMQ.PUB);
+		publisher = JMQContext.socket(ZMQ.PUB, topicName + "@" + binding);
+		publisher.setIdentity("B".getBytes());
 		publisher.bind(binding);
 
 		Thread.sleep(100);
 		//System.out.println("Starting Publisher..");
-		publisher.setIdentity("B".getBytes());
-		publisher.setLinger(5000);
-		publisher.setHWM(0);
 
 		this.topicName = topicName;
 	}
 
-	public void publish(Object message)  {
-		publisher.sendMore(topicName);
+	/**
+	 * Publish a message. A ZMQ socket is not thread safe, so the callers take turns.
+	 * @param message Object. The message, serialized by Tools.
+	 * @return boolean. Returns false if it was dropped.
+	 */
+	public synchronized boolean publish(Object message)  {
 		String msg = Tools.serialize(message);
-		if (msg != null)
-			publisher.send(msg);
-		else
+		if (msg == null) {
 			System.err.println("No publish:" + message);
+			return false;
+		}
+		return JMQContext.send(publisher, topicName, msg);
 	}
 
+	/**
+	 * Publish a message. The send doesn't block, so this is the same as publish().
+	 * @param message Object. The message, serialized by Tools.
+	 */
 	public void publishAsync(Object message)  {
-		Runnable u = () -> {
-			publisher.sendMore(topicName);
-			String msg = Tools.serialize(message);
-			publisher.send(msg);
-		};
-		Thread nthread = new Thread(u);
-		nthread.start();
+		publish(message);
 	}
 
-	public void shutdown() {
-		publisher.close();
+	public synchronized void shutdown() {
+		JMQContext.close(publisher);
 	}
-}
\ No newline at end of file
+}
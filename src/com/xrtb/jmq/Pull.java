@@ -11,22 +11,22 @@ public class Pull {
 		if (limit != null) {
 			lim = Integer.parseInt(limit);
 		}
-		ZMQ.Context context = ZMQ.context(1);
-		ZMQ.Socket rcv = context.socket(ZMQ.PULL);
+		ZMQ.Socket rcv = JMQContext.socket(ZMQ.PULL, "pull:" + port);
 		rcv.bind("tcp://*:" + port);
 		if (timeout != null) {
 			int t = Integer.parseInt(timeout);
 			rcv.setReceiveTimeOut(t);
 		}
 		
-		int k = 0;
-		while(k < lim || lim == 0) {
-			String str = rcv.recvStr();		
-			response.getWriter().println(str);
-			k++;
+		try {
+			int k = 0;
+			while(k < lim || lim == 0) {
+				String str = rcv.recvStr();		
+				response.getWriter().println(str);
+				k++;
+			}
+		} finally {
+			JMQContext.close(rcv);
 		}
-		
-		rcv.close();
-		context.term();
 	}
 }
\ No newline at end of file
@@ -1,15 +1,13 @@
 package com.xrtb.jmq;
 
-import org.zeromq.ZMQ;
-
+/**
+ * Push a message to a port on this host, through the long lived pusher of the port.
+ * @author Ben M. Faul
+ *
+ */
 public class Push {
 
 	public Push(String port, String message)  {
-		ZMQ.Context context = ZMQ.context(1);
-		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
-		sender.connect("tcp://localhost:" + port);
-		sender.send(message);
-		sender.close();
-		context.term();
+		WebMQPublisher.getPusher(port).send(null, message);
 	}
 }
\ No newline at end of file
@@ -12,24 +12,20 @@ public class PushPull {
 	}
 
 	public void push() {
-		ZMQ.Context context = ZMQ.context(1);
-		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		ZMQ.Socket sender = JMQContext.socket(ZMQ.PUSH, "push:8086");
 		sender.connect("tcp://localhost:8086");
-		sender.send("MESSAGE");
-		sender.close();
-		context.term();
+		JMQContext.send(sender, null, "MESSAGE");
+		JMQContext.close(sender);
 	}
 
 	public void pull() {
 		Runnable redisupdater = () -> {
-			ZMQ.Context context = ZMQ.context(1);
-			ZMQ.Socket rcv = context.socket(ZMQ.PULL);
+			ZMQ.Socket rcv = JMQContext.socket(ZMQ.PULL, "pull:8086");
 			rcv.bind("tcp://*:8086");
 			rcv.setReceiveTimeOut(1000);
 			String str = rcv.recvStr();
 			System.out.println("Received: " + str);
-			rcv.close();
-			context.term();
+			JMQContext.close(rcv);
 		};
 		Thread nthread = new Thread(redisupdater);
 		nthread.start();
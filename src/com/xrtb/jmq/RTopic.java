@@ -11,20 +11,17 @@ import java.util.Map;
 import java.util.Set;
 
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
 
 public class RTopic implements EventIF {
 	
 	Socket publisher = null;
 	SubscriberIF subscriber = null;
-	Context context = null;
 	boolean running = false;
 	String topicName = null;
 	public Map<String,MessageListener> m = new HashMap();
 	
 	public RTopic(String address) throws Exception {
-		context = ZMQ.context(1);
 		if (address.contains("&")) {
 			String [] parts = address.split("&");
 			subscriber = new Subscriber(this,parts[0]);
@@ -39,8 +36,6 @@ public class RTopic implements EventIF {
 	 * @throws Exception
 	 */
 	public RTopic(List<String> addresses) throws Exception {
-		
-		context = ZMQ.context(1);	
 		subscriber = new MSubscriber(this,addresses);
 	}
 	
@@ -53,12 +48,9 @@ public class RTopic implements EventIF {
 	public RTopic(String phandler, List<String> addresses) throws Exception {
 		this(addresses);
 		
-		publisher = context.socket(ZMQ.PUB);
-		publisher.bind(phandler);
-
+		publisher = JMQContext.socket(ZMQ.PUB, phandler);
 		publisher.setIdentity("B".getBytes());
-		publisher.setLinger(5000);
-		publisher.setHWM(0);
+		publisher.bind(phandler);
 	}
 	
 	public void subscribe(String str) {
@@ -69,17 +61,18 @@ public class RTopic implements EventIF {
 		shutdown();
 	}
 	
+	/**
+	 * Close the subscriber and the publisher. The context is shared, it stays up.
+	 */
 	public void shutdown() {
 		if (subscriber != null) {
 	        subscriber.close ();
 	        subscriber = null;
 		}
 		if (publisher != null) {
-			publisher.close();
+			JMQContext.close(publisher);
 			publisher = null;
 		}
-        context.term ();
-        subscriber.shutdown();
 	}
 	
 	public void publishAsync(String topic, Object message) {
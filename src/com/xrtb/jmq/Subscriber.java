@@ -1,7 +1,6 @@
 package com.xrtb.jmq;
 
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
 
 /**
@@ -12,7 +11,6 @@ import org.zeromq.ZMQ.Socket;
  */
 public class Subscriber implements Runnable, SubscriberIF {
 
-	Context context = JMQContext.getInstance();
 	EventIF handler;
 	Socket subscriber;
 	Thread me;
@@ -23,7 +21,8 @@ public class Subscriber implements Runnable, SubscriberIF {
 
 	public Subscriber(EventIF handler, String address) throws Exception {
 		this.handler = handler;
-		subscriber = context.socket(ZMQ.SUB);
+		subscriber = JMQContext.socket(ZMQ.SUB, address);
+		subscriber.setReceiveTimeOut(1000);
 
 		subscriber.connect(address);
 		me = new Thread(this);
@@ -36,17 +35,26 @@ public class Subscriber implements Runnable, SubscriberIF {
 
 	@Override
 	public void run() {
-		while (me.isInterrupted()==false) {
-			// Read envelope with address
-			String address = subscriber.recvStr();
-			// Read message contents
-			String contents = subscriber.recvStr();
-			handler.handleMessage(address, contents);
+		try {
+			while (me.isInterrupted()==false) {
+				// Read envelope with address
+				String address = subscriber.recvStr();
+				if (address == null)
+					continue;
+				// Read message contents
+				String contents = subscriber.recvStr();
+				handler.handleMessage(address, contents);
+			}
+		} finally {
+			JMQContext.close(subscriber);
 		}
 	}
 
+	/**
+	 * Stop receiving. The socket is closed by the receiving thread, which owns it.
+	 */
 	public void shutdown() {
-		subscriber.close();
+		me.interrupt();
 	}
 	
 	public void close() {
@@ -17,8 +17,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
@@ -37,6 +39,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xrtb.bidder.MimeTypes;
 import com.xrtb.jmq.config.Config;
+import com.xrtb.tools.Compression;
 import com.xrtb.tools.NashHorn;
 
 
@@ -185,7 +188,10 @@ class Handler extends AbstractHandler {
 			if (target.equals("/addresses")) {
 				response.setContentType("application/json;charset=utf-8");
 				baseRequest.setHandled(true);
-				String result = WebMQ.mapper.writeValueAsString("TBD");
+				Map m = new HashMap();
+				m.put("publishers", WebMQPublisher.getAllStats());
+				m.put("subscribers", WebMQSubscriber.getAllStats());
+				String result = WebMQ.mapper.writeValueAsString(m);
 				response.getWriter().println(result);
 				
 				return;
@@ -220,8 +226,8 @@ class Handler extends AbstractHandler {
 				
 				
 				try {
-					new WebMQPublisher(port,topic,message);
-					response.getWriter().println("{\"status\":\"ok\"}");
+					int n = send(WebMQPublisher.getPublisher(port), topic, message, request.getParameter("batch") != null);
+					response.getWriter().println("{\"status\":\"ok\",\"queued\":" + n + "}");
 				} catch (Exception error) {
 					response.getWriter().println("{\"error\":\"" + error.toString() + "\"}");
 				}
@@ -230,8 +236,8 @@ class Handler extends AbstractHandler {
 			}
 			
 			/**
-			 * Warning, never returns
-			 *  /subscribe?port=5570&topics=a,b,c
+			 * Streams until the client goes away, on an async request
+			 *  /subscribe?port=5570&topics=a,b,c[&sse]
 			 */
 			if (target.startsWith("/subscribe")) {
 				response.setStatus(HttpServletResponse.SC_OK);
@@ -250,8 +256,8 @@ class Handler extends AbstractHandler {
 				}
 				
 				
-				new WebMQSubscriber(response,port,topics);       // does not return
-				
+				WebMQSubscriber.subscribe(request,response,port,topics);
+				return;
 			}
 			
 			if (target.startsWith("/push")) {
@@ -270,8 +276,8 @@ class Handler extends AbstractHandler {
 				}
 			
 				try {
-					new Push(port,message);     
-					response.getWriter().println("{\"status\":\"ok\"}");
+					int n = send(WebMQPublisher.getPusher(port), null, message, request.getParameter("batch") != null);
+					response.getWriter().println("{\"status\":\"ok\",\"queued\":" + n + "}");
 				} catch (Exception error) {
 					response.getWriter().println("{\"error\":\"" + error.toString() + "\"}");
 				}
@@ -318,6 +324,34 @@ class Handler extends AbstractHandler {
 		response.setStatus(code);
 	}
 
+	/**
+	 * Queue a message, or with batch, each element of a JSON array, on a publisher.
+	 * 
+	 * @param p
+	 *            WebMQPublisher. The publisher.
+	 * @param topic
+	 *            String. The topic, null for push.
+	 * @param message
+	 *            String. The message or the JSON array of messages.
+	 * @param batch
+	 *            boolean. True if message is an array of messages.
+	 * @return int. The number of messages queued, the others were dropped.
+	 * @throws Exception
+	 *             on JSON errors.
+	 */
+	static int send(WebMQPublisher p, String topic, String message, boolean batch) throws Exception {
+		if (!batch)
+			return p.send(topic, message) ? 1 : 0;
+		List<String> messages = new ArrayList<String>();
+		for (Object x : mapper.readValue(message, List.class)) {
+			if (x instanceof String)
+				messages.add((String) x);
+			else
+				messages.add(mapper.writeValueAsString(x));
+		}
+		return p.send(topic, messages);
+	}
+
 	/**
 	 * Return the IP address of this
 	 * 
@@ -341,16 +375,8 @@ class Handler extends AbstractHandler {
 	}
 	
 	  public static byte[] compressGZip(String uncompressed) throws Exception {
-	            ByteArrayOutputStream baos  = new ByteArrayOutputStream();
-	            GZIPOutputStream gzos       = new GZIPOutputStream(baos);
-	     
-	            byte [] uncompressedBytes   = uncompressed.getBytes();
-	     
-	            gzos.write(uncompressedBytes, 0, uncompressedBytes.length);
-	            gzos.close();
-	     
-	            return baos.toByteArray();
-	    }
+		  return Compression.gzip(uncompressed);
+	  }
 
 	  public static String getStringFromInputStream(InputStream is) {
 
@@ -1,32 +1,227 @@
 package com.xrtb.jmq;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+
+/**
+ * The long lived publishers of WebMQ. There is one per port and kind (PUB
+ * bound to the port, or PUSH connected to it), created on first use and kept
+ * open, so a /publish or /push is a put on a queue instead of a new context, a
+ * bind and a one second wait for the subscribers. The socket is bound or
+ * connected when the publisher is made, so the caller gets the error if that
+ * fails, and is then handed to the publisher's thread, which sends what is
+ * queued.
+ * <p>
+ * A PUB socket waits WARMUP ms after the bind before the first send, so the
+ * subscribers have connected. When the queue is full the message is dropped
+ * and counted, and so is one the socket refuses at its high water mark.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class WebMQPublisher implements Runnable {
+
+	/** The most messages waiting for a publisher */
+	public static volatile int QUEUE = 10000;
+	/** Milliseconds a new PUB socket waits for subscribers before sending */
+	public static volatile int WARMUP = 1000;
+
+	/** The publishers, by kind and port */
+	static final Map<String, WebMQPublisher> publishers = new ConcurrentHashMap<String, WebMQPublisher>();
+
+	/**
+	 * Messages and bytes sent on a topic.
+	 */
+	static class Counter {
+		final LongAdder messages = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		/** The messages and time at the last stats call, for the rate */
+		long lastMessages;
+		long lastTime = System.currentTimeMillis();
+	}
+
+	/** The port */
+	final String port;
+	/** ZMQ.PUB or ZMQ.PUSH */
+	final int type;
+	/** Topic and message pairs to send. Topic is null for PUSH */
+	final ArrayBlockingQueue<String[]> queue;
+	/** Counters by topic */
+	final Map<String, Counter> topics = new ConcurrentHashMap<String, Counter>();
+	/** Messages dropped because the queue was full */
+	final LongAdder dropped = new LongAdder();
+	/** The socket, used only by the sending thread once it is started */
+	final Socket socket;
+	/** When a PUB socket may send, after the WARMUP */
+	final long ready;
+	/** The sending thread */
+	final Thread thread;
+	volatile boolean running = true;
 
-public class WebMQPublisher {
-	Socket publisher = null;
-	Context context = null;
-	boolean running = false;
-	
 	public static void main(String [] args) throws Exception {
-		WebMQPublisher p = new WebMQPublisher("5570","test","Hello world");
+		getPublisher("5570").send("test", "Hello world");
+		Thread.sleep(WARMUP + 500);
+	}
+
+	WebMQPublisher(String port, int type) {
+		this.port = port;
+		this.type = type;
+		queue = new ArrayBlockingQueue<String[]>(QUEUE);
+		socket = JMQContext.socket(type, (type == ZMQ.PUB ? "webmq-pub:" : "webmq-push:") + port);
+		try {
+			if (type == ZMQ.PUB)
+				socket.bind("tcp://*:" + port);
+			else
+				socket.connect("tcp://localhost:" + port);
+		} catch (RuntimeException error) {
+			JMQContext.close(socket);
+			throw error;
+		}
+		ready = type == ZMQ.PUB ? System.currentTimeMillis() + WARMUP : 0;
+		thread = new Thread(this, (type == ZMQ.PUB ? "webmq-pub-" : "webmq-push-") + port);
+		thread.setDaemon(true);
+		thread.start();
 	}
 
-	public WebMQPublisher(String port, String topic, String message) throws Exception {
+	/**
+	 * Return the PUB publisher bound to a port, creating it if needed.
+	 * @param port String. The port.
+	 * @return WebMQPublisher. The publisher.
+	 * @throws ZMQException if the port can't be bound.
+	 */
+	public static WebMQPublisher getPublisher(String port) {
+		return publishers.computeIfAbsent("pub:" + port, k -> new WebMQPublisher(port, ZMQ.PUB));
+	}
+
+	/**
+	 * Return the PUSH publisher connected to a port on this host, creating it if needed.
+	 * @param port String. The port.
+	 * @return WebMQPublisher. The publisher.
+	 * @throws ZMQException if the address is not valid.
+	 */
+	public static WebMQPublisher getPusher(String port) {
+		return publishers.computeIfAbsent("push:" + port, k -> new WebMQPublisher(port, ZMQ.PUSH));
+	}
 
-		String binding = "tcp://*:" + port;
-		context = ZMQ.context(1);
-		publisher = context.socket(ZMQ.PUB);
-		publisher.bind(binding);
-		Thread.sleep(1000);
-		publisher.setIdentity("B".getBytes());
-		publisher.setLinger(5000);
-		publisher.setHWM(0);
+	/**
+	 * Queue a message. Returns right away.
+	 * @param topic String. The topic, ignored for PUSH.
+	 * @param message String. The message.
+	 * @return boolean. Returns false if the queue was full and the message was dropped.
+	 */
+	public boolean send(String topic, String message) {
+		if (queue.offer(new String[] { type == ZMQ.PUB ? topic : null, message }))
+			return true;
+		dropped.increment();
+		return false;
+	}
+
+	/**
+	 * Queue a number of messages.
+	 * @param topic String. The topic, ignored for PUSH.
+	 * @param messages List. The messages.
+	 * @return int. The number queued, the rest were dropped.
+	 */
+	public int send(String topic, List<String> messages) {
+		int n = 0;
+		for (String message : messages) {
+			if (send(topic, message))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Send what is queued, on the publisher's own socket.
+	 */
+	public void run() {
+		try {
+			long wait = ready - System.currentTimeMillis();
+			if (wait > 0)
+				Thread.sleep(wait);
+
+			while (running) {
+				String[] m = queue.poll(1, TimeUnit.SECONDS);
+				if (m == null)
+					continue;
+				String topic = m[0] == null ? "" : m[0];
+				byte[] data = m[1].getBytes(StandardCharsets.UTF_8);
+				if (!JMQContext.send(socket, m[0], data)) {
+					dropped.increment();
+					continue;
+				}
+				Counter c = topics.computeIfAbsent(topic, k -> new Counter());
+				c.messages.increment();
+				c.bytes.add(data.length);
+			}
+		} catch (InterruptedException error) {
+
+		} catch (Exception error) {
+			error.printStackTrace();
+			publishers.remove((type == ZMQ.PUB ? "pub:" : "push:") + port, this);
+		} finally {
+			JMQContext.close(socket);
+		}
+	}
+
+	/**
+	 * Stop the publisher and close its socket. Messages still queued are dropped.
+	 */
+	public void close() {
+		running = false;
+		publishers.remove((type == ZMQ.PUB ? "pub:" : "push:") + port, this);
+		thread.interrupt();
+	}
+
+	/**
+	 * Return the statistics of this publisher. The rates are since the last call.
+	 * @return Map. The port, kind, queue depth, drops, and by topic the messages, bytes and messages per second.
+	 */
+	public Map getStats() {
+		Map m = new HashMap();
+		m.put("port", port);
+		m.put("type", type == ZMQ.PUB ? "publish" : "push");
+		m.put("queued", queue.size());
+		m.put("dropped", dropped.sum());
+		Map t = new HashMap();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Counter> e : topics.entrySet()) {
+			Counter c = e.getValue();
+			Map x = new HashMap();
+			long n = c.messages.sum();
+			synchronized (c) {
+				long ms = Math.max(1, now - c.lastTime);
+				x.put("rate", (n - c.lastMessages) * 1000.0 / ms);
+				c.lastMessages = n;
+				c.lastTime = now;
+			}
+			x.put("messages", n);
+			x.put("bytes", c.bytes.sum());
+			t.put(e.getKey(), x);
+		}
+		m.put("topics", t);
+		return m;
+	}
 
-		publisher.sendMore(topic);
-		boolean isSent = publisher.send(message);
-		publisher.close();
-		context.term();
+	/**
+	 * Return the statistics of all the publishers.
+	 * @return List. The stats of each publisher.
+	 */
+	public static List<Map> getAllStats() {
+		List<Map> list = new ArrayList<Map>();
+		for (WebMQPublisher p : publishers.values())
+			list.add(p.getStats());
+		return list;
 	}
-}
\ No newline at end of file
+}
@@ -1,54 +1,279 @@
 package com.xrtb.jmq;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
 import org.zeromq.ZMQ.Socket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-public class WebMQSubscriber {
-	
-	ObjectMapper mapper = new ObjectMapper();
-	
-	public WebMQSubscriber(HttpServletResponse response, String port, String topics) {
-		  // Prepare our context and subscriber
-		
-		
-        Context context = ZMQ.context(1);
-        Socket subscriber = context.socket(ZMQ.SUB);
-
-        subscriber.connect("tcp://localhost:" + port);
-        
-        String [] parts = topics.split(",");
-        for (String topic : parts) {
-        	subscriber.subscribe(topic.getBytes());
-        }
-
-        while (!Thread.currentThread ().isInterrupted ()) {
-            // Read envelope with address
-            String address = subscriber.recvStr ();
-            // Read message contents
-            String contents = subscriber.recvStr ();
-            Map m = new HashMap();
-            m.put("topic", address);
-            m.put("message", contents);
-           
-            try {
-            	contents = mapper.writeValueAsString(m);
-				response.getWriter().println(contents);
-				response.flushBuffer();       	
-			} catch (IOException e) {
-				//e.printStackTrace();
-				break;
-			}               
-        }
-        subscriber.close ();
-        context.term ();
+/**
+ * The WebMQ subscriptions. There is one upstream SUB socket per port and
+ * topic, no matter how many HTTP clients are watching it, and its messages
+ * are fanned out to the clients. Each message is encoded once, as a JSON line
+ * and as a server sent event, and the same bytes go to every client.
+ * <p>
+ * The clients are async requests written with a WriteListener, so nobody holds
+ * a Jetty thread. Each has a bounded buffer, a client that can't keep up
+ * loses messages (counted) instead of slowing down the others. The upstream
+ * socket is closed when its last client leaves.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class WebMQSubscriber implements Runnable {
+
+	/** The most messages buffered for a client */
+	public static volatile int BUFFER = 1000;
+
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	/** The subscriptions, by port and topic */
+	static final Map<String, WebMQSubscriber> hubs = new ConcurrentHashMap<String, WebMQSubscriber>();
+
+	/**
+	 * A message, encoded for both kinds of clients.
+	 */
+	static class Encoded {
+		final byte[] line;
+		final byte[] event;
+
+		Encoded(String topic, String message) throws Exception {
+			Map m = new HashMap();
+			m.put("topic", topic);
+			m.put("message", message);
+			String json = mapper.writeValueAsString(m);
+			line = (json + "\n").getBytes(StandardCharsets.UTF_8);
+			event = ("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * An HTTP client watching one or more topics.
+	 */
+	static class Client implements WriteListener {
+		final AsyncContext ctx;
+		final ServletOutputStream out;
+		final boolean sse;
+		final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(BUFFER);
+		final List<WebMQSubscriber> subscriptions = new ArrayList<WebMQSubscriber>();
+		final AtomicBoolean closed = new AtomicBoolean();
+		final LongAdder dropped = new LongAdder();
+		boolean unflushed;
+
+		Client(AsyncContext ctx, boolean sse) throws IOException {
+			this.ctx = ctx;
+			this.sse = sse;
+			out = ctx.getResponse().getOutputStream();
+		}
+
+		void offer(Encoded m) {
+			if (queue.offer(sse ? m.event : m.line))
+				write();
+			else
+				dropped.increment();
+		}
+
+		/**
+		 * Write what is queued while the connection takes it. When it doesn't,
+		 * the container calls onWritePossible later.
+		 */
+		synchronized void write() {
+			if (closed.get())
+				return;
+			try {
+				while (out.isReady()) {
+					byte[] b = queue.poll();
+					if (b == null) {
+						if (unflushed) {
+							unflushed = false;
+							out.flush();
+						}
+						return;
+					}
+					out.write(b);
+					unflushed = true;
+				}
+			} catch (IOException error) {
+				close();
+			}
+		}
+
+		@Override
+		public void onWritePossible() {
+			write();
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			close();
+		}
+
+		void close() {
+			if (!closed.compareAndSet(false, true))
+				return;
+			for (WebMQSubscriber hub : subscriptions)
+				hub.remove(this);
+			try {
+				ctx.complete();
+			} catch (Exception error) {
+
+			}
+		}
+	}
+
+	/** The port and topic */
+	final String port;
+	final String topic;
+	/** The clients of this subscription */
+	final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	/** Messages received */
+	final LongAdder received = new LongAdder();
+	/** The receiving thread */
+	final Thread thread;
+	volatile boolean running = true;
+
+	WebMQSubscriber(String port, String topic) {
+		this.port = port;
+		this.topic = topic;
+		thread = new Thread(this, "webmq-sub-" + port + "-" + topic);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Start streaming the topics of a port to an HTTP client. Returns right
+	 * away, the request stays open until the client goes away.
+	 *
+	 * @param request
+	 *            HttpServletRequest. The client's request.
+	 * @param response
+	 *            HttpServletResponse. The response to write to.
+	 * @param port
+	 *            String. The port the messages are published on.
+	 * @param topics
+	 *            String. Comma separated topics.
+	 * @throws IOException
+	 *             on errors getting the output stream.
+	 */
+	public static void subscribe(HttpServletRequest request, HttpServletResponse response, String port,
+			String topics) throws IOException {
+		String accept = request.getHeader("Accept");
+		boolean sse = request.getParameter("sse") != null
+				|| (accept != null && accept.contains("text/event-stream"));
+		if (sse) {
+			response.setContentType("text/event-stream;charset=utf-8");
+			response.setHeader("Cache-Control", "no-cache");
+		}
+		AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(0);
+		Client client = new Client(ctx, sse);
+		ctx.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				client.close();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				client.close();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				client.close();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+
+			}
+		});
+		client.out.setWriteListener(client);
+		synchronized (hubs) {
+			for (String topic : topics.split(",")) {
+				WebMQSubscriber hub = hubs.computeIfAbsent(port + "/" + topic, k -> new WebMQSubscriber(port, topic));
+				hub.clients.add(client);
+				client.subscriptions.add(hub);
+			}
+		}
+	}
+
+	/**
+	 * Remove a client, and stop the subscription if it was the last one.
+	 */
+	void remove(Client client) {
+		synchronized (hubs) {
+			clients.remove(client);
+			if (clients.size() == 0) {
+				running = false;
+				hubs.remove(port + "/" + topic, this);
+			}
+		}
+	}
+
+	/**
+	 * Receive from upstream and hand the messages to the clients.
+	 */
+	public void run() {
+		Socket subscriber = JMQContext.socket(ZMQ.SUB, "webmq-sub:" + port + "/" + topic);
+		try {
+			subscriber.setReceiveTimeOut(1000);
+			subscriber.connect("tcp://localhost:" + port);
+			subscriber.subscribe(topic.getBytes());
+			while (running) {
+				String address = subscriber.recvStr();
+				if (address == null)
+					continue;
+				String contents = subscriber.hasReceiveMore() ? subscriber.recvStr() : "";
+				received.increment();
+				Encoded m = new Encoded(address, contents);
+				for (Client c : clients)
+					c.offer(m);
+			}
+		} catch (Exception error) {
+			error.printStackTrace();
+		} finally {
+			JMQContext.close(subscriber);
+		}
+	}
+
+	/**
+	 * Return the statistics of the subscriptions.
+	 * @return List. By port and topic, the messages received, the clients, and the messages they dropped.
+	 */
+	public static List<Map> getAllStats() {
+		List<Map> list = new ArrayList<Map>();
+		for (WebMQSubscriber hub : hubs.values()) {
+			Map m = new HashMap();
+			m.put("port", hub.port);
+			m.put("topic", hub.topic);
+			m.put("received", hub.received.sum());
+			m.put("clients", hub.clients.size());
+			long dropped = 0;
+			for (Client c : hub.clients)
+				dropped += c.dropped.sum();
+			m.put("dropped", dropped);
+			list.add(m);
+		}
+		return list;
 	}
 }
@@ -8,7 +8,9 @@ import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
- * An accumulator for exchange level statistics.
+ * An accumulator for exchange level statistics. The counters are LongAdders,
+ * so the request threads never contend on them. The rate is computed from a
+ * snapshot of the counters taken at the last reporting period.
  * @author Ben M. Faul
  *
  */
@@ -19,12 +21,11 @@ public class Accumulator {
 	public LongAdder requests = new LongAdder();
 	public LongAdder wins = new LongAdder();
 	public LongAdder errors = new LongAdder();
-	public double qps = 0;
+	public volatile double qps = 0;
 	
-	private long deltaBids = 0;
-	private long deltaRequests = 0;
-	private long deltaWins = 0;
-	private long deltaErrors = 0;
+	/** The bids and requests at the last snapshot */
+	private long lastBids = 0;
+	private long lastRequests = 0;
 
 	String name;
 	
@@ -52,54 +53,23 @@ public class Accumulator {
 	}
 	
 	/**
-	 * Computes deltas. Call once per reporting period, or it will skew the results.
-	 */
-	public void delta() {
-		double dBids = deltaBids;
-		double dRequests = deltaRequests;
-		double dWins = deltaWins;
-		double dErrors = deltaErrors;
-		
-		deltaBids = bids.longValue() - deltaBids;
-		deltaRequests = requests.longValue() - deltaRequests;
-		deltaWins = wins.longValue() - deltaWins;
-		deltaErrors = errors.longValue() - deltaErrors;
-		
-		if (dBids == deltaBids) {
-			deltaBids = 0;
-		}
-		if (dRequests == deltaRequests) {
-			deltaRequests = 0;
-		}
-		if (dWins == deltaWins) {
-			deltaWins = 0;
-		}
-		if (dErrors == deltaErrors) {
-			deltaErrors = 0;
-		}
-	}
-	
-	/**
-	 * Sets and returns delta qps. Only call this once per reporting period.
-	 * @param time double. The time in seconds.
+	 * Sets and returns delta qps, the requests and bids since the last snapshot. Only call this once per reporting period.
+	 * @param time double. The time in seconds since the last call.
 	 * @return double. The QPS. Rounds to 2 places.
 	 */
-	public double getDelta(double time) {
-		if (time == 0) {
-			qps = 0;
-			return 0;
-		}
-		
-		delta();
-		
-		long total = deltaBids + deltaRequests;;
-		if (total == 0) {
+	public synchronized double getDelta(double time) {
+		long b = bids.sum();
+		long r = requests.sum();
+		long total = (b - lastBids) + (r - lastRequests);
+		lastBids = b;
+		lastRequests = r;
+
+		if (time <= 0 || total <= 0) {
 			qps = 0;
 			return 0;
 		}
-		qps = total/time;
 		
-		 BigDecimal bd = new BigDecimal(qps);
+		 BigDecimal bd = new BigDecimal(total/time);
 		 bd = bd.setScale(2, RoundingMode.HALF_UP);
 		 qps =  bd.doubleValue();
 		    
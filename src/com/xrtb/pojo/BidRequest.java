@@ -9,6 +9,7 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -49,13 +50,25 @@ public class BidRequest {
 
 	public transient static final JsonNodeFactory factory = JsonNodeFactory.instance;
 
-	/** The JACKSON objectmapper that will be used by the BidRequest. */
-	protected transient ObjectMapper mapper = new ObjectMapper();
+	/** The JACKSON objectmapper used by all BidRequests, thread safe once configured. */
+	protected static final transient ObjectMapper mapper = new ObjectMapper();
 
 	/** The jackson based JSON root node */
 	transient protected JsonNode rootNode = null;
 	/** Indicates this bid request's response uses an encoded adm field */
 	transient public boolean usesEncodedAdm = true;
+	/**
+	 * Gzip bid responses at least this many bytes long, when the exchange
+	 * accepts gzip. -1 means never compress
+	 */
+	transient public int gzipThreshold = -1;
+	/**
+	 * Priority of this exchange when load is shed, 0 to 10. The lowest are
+	 * shed first
+	 */
+	transient public int priority = 10;
+	/** The tmax of this exchange in ms, 0 means use the tmax of its requests */
+	transient public int tmax = 0;
 	/**
 	 * The bid request values are mapped into a hashmap for fast lookup by
 	 * campaigns
@@ -102,6 +115,11 @@ public class BidRequest {
 
 	transient public boolean blackListed = false;
 
+	/** The answers to the audience questions of the campaigns, see AudienceLookup.prefetch */
+	transient public Map<String, Boolean> audience;
+	/** The values of the remote QUERY nodes of the campaigns, see QueryLookup.prefetch */
+	transient public Map<String, Object> queries;
+
 	transient public static Set<String> blackList;
 
 	/** The pageurl of the request */
@@ -205,6 +223,18 @@ public class BidRequest {
 		startBidder();
 	}
 
+	/**
+	 * Are these fields of the bid request already compiled? If so, a campaign
+	 * that uses only them can be added without a compile.
+	 * 
+	 * @param hierarchies
+	 *            Collection. The dotted names of the fields.
+	 * @return boolean. Returns true if every one is in the compiled map.
+	 */
+	public synchronized static boolean isCompiled(Collection<String> hierarchies) {
+		return mapp.keySet().containsAll(hierarchies);
+	}
+
 	private static boolean needsRestart = false;
 	private static boolean compilerBusy = false;
 
@@ -744,6 +774,27 @@ public class BidRequest {
 		return obj;
 	}
 
+	/**
+	 * Interrogate an entity in the JSON, with the dotted name already split
+	 * into its parts. Used by compiled expressions, so the split is done once.
+	 * 
+	 * @param line
+	 *            String. The dotted name.
+	 * @param parts
+	 *            List. The dotted name split on '.'.
+	 * @return Object. Returns the object at the 'line' location or null if it
+	 *         doesn't exist.
+	 */
+	public Object interrogate(String line, List<String> parts) {
+		if (line.equals("exchange"))
+			return exchange;
+
+		Object obj = database.get(line);
+		if (obj == null)
+			obj = walkTree(parts);
+		return obj;
+	}
+
 	/**
 	 * Walk the JSON tree using the list. The list contains the object names.
 	 * Foe example, device.geo.lat is stored in the list as
@@ -16,6 +16,7 @@ import com.xrtb.common.Campaign;
 import com.xrtb.common.Configuration;
 import com.xrtb.common.Creative;
 import com.xrtb.common.URIEncoder;
+import com.xrtb.tools.Compression;
 import com.xrtb.tools.DbTools;
 import com.xrtb.tools.MacroProcessing;
 
@@ -765,6 +766,22 @@ public class BidResponse {
 	public void writeTo(HttpServletResponse res, String json) throws Exception {
 		res.getOutputStream().write(json.getBytes());
 	}
+
+	/**
+	 * Output the bid response, gzipped if it is at least threshold bytes long.
+	 * @param res HttpServletResponse. The response to write to.
+	 * @param threshold int. The minimum size in bytes to compress.
+	 * @throws Exception on I/O errors.
+	 */
+	public void writeCompressed(HttpServletResponse res, int threshold) throws Exception {
+		byte[] bytes = response.toString().getBytes();
+		if (bytes.length >= threshold) {
+			bytes = Compression.gzip(bytes);
+			res.setHeader("Content-Encoding", "gzip");
+		}
+		res.setContentLength(bytes.length);
+		res.getOutputStream().write(bytes);
+	}
 	
 	/**
 	 * Return whether this is a no bid. For openRTB it always returns false because we won't make this object when
@@ -0,0 +1,40 @@
+package com.xrtb.pojo;
+
+import java.io.InputStream;
+
+/**
+ * Decodes the bid requests of one exchange. A codec is created once per
+ * configured seat and is shared by all the jetty threads, so implementations
+ * must be stateless and thread safe.
+ * 
+ * @author Ben M. Faul
+ *
+ */
+public interface ExchangeCodec {
+
+	/**
+	 * Decode a bid request.
+	 * 
+	 * @param in
+	 *            InputStream. The body of the HTTP request.
+	 * @return BidRequest. The decoded request.
+	 * @throws Exception
+	 *             on parse errors.
+	 */
+	public BidRequest decode(InputStream in) throws Exception;
+
+	/**
+	 * Return the name of the exchange.
+	 * 
+	 * @return String. The exchange name.
+	 */
+	public String getExchange();
+
+	/**
+	 * Return the configured instance of the exchange. Holds the seat options,
+	 * the content type, the no bid code, and the encoder of the response.
+	 * 
+	 * @return BidRequest. The configured exchange instance.
+	 */
+	public BidRequest getPrototype();
+}
@@ -1,80 +1,93 @@
 package com.xrtb.pojo;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The per exchange counters. Each exchange gets a dense id the first time it is
+ * seen, and its Accumulator lives at that index in an array. The array is only
+ * replaced (copied, one longer) when an exchange is added, which happens a few
+ * times at startup, so an increment is a lock free map read, an array read
+ * and a LongAdder increment.
+ * @author Ben M. Faul
+ *
+ */
 public class ExchangeCounts {
 
-	ConcurrentHashMap<String, Accumulator> map = new ConcurrentHashMap();
-	Set<String> exchanges = new HashSet<String>();
+	/** The ids of the exchanges */
+	final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	/** The accumulators by id */
+	volatile Accumulator[] cells = new Accumulator[0];
+
+	/**
+	 * Return the id of an exchange, adding it if it is new.
+	 * @param exchange String. The exchange name.
+	 * @return int. The dense id of the exchange.
+	 */
+	public int id(String exchange) {
+		Integer id = ids.get(exchange);
+		if (id != null)
+			return id;
+		return add(exchange);
+	}
+
+	synchronized int add(String exchange) {
+		Integer id = ids.get(exchange);
+		if (id != null)
+			return id;
+		Accumulator[] a = Arrays.copyOf(cells, cells.length + 1);
+		a[a.length - 1] = new Accumulator(exchange);
+		cells = a;
+		ids.put(exchange, a.length - 1);
+		return a.length - 1;
+	}
+
+	/**
+	 * Return the accumulator of an exchange.
+	 * @param exchange String. The exchange name.
+	 * @return Accumulator. Its counters.
+	 */
+	public Accumulator get(String exchange) {
+		int id = id(exchange);
+		return cells[id];
+	}
 	
 	public void incrementBid(String exchange) {
-		Accumulator a =  map.get(exchange);
-		if (a == null) {
-			exchanges.add(exchange);
-			a = new Accumulator(exchange);
-			map.put(exchange, a);
-		}
-		a.bids.increment();
+		get(exchange).bids.increment();
 	}
 	
 	public void incrementWins(String exchange) {
-		Accumulator a =  map.get(exchange);
-		if (a == null) {
-			exchanges.add(exchange);
-			a = new Accumulator(exchange);
-			map.put(exchange, a);
-		}
-		a.wins.increment();	
+		get(exchange).wins.increment();	
 	}
 	
 	public void incrementRequest(String exchange) {
-		Accumulator a =  map.get(exchange);
-		if (a == null) {
-			exchanges.add(exchange);
-			a = new Accumulator(exchange);
-			map.put(exchange, a);
-		}
-		a.requests.increment();
+		get(exchange).requests.increment();
 	}
 	
 	public void incrementError(String exchange) {
-		Accumulator a =  map.get(exchange);
-		if (a == null) {
-			exchanges.add(exchange);
-			a = new Accumulator(exchange);
-			map.put(exchange, a);
-		}
-		a.errors.increment();
+		get(exchange).errors.increment();
 	}
 
 	public List<Map> getList() {
 		List<Map> list = new ArrayList();
-		String[] array = exchanges.toArray(new String[exchanges.size()]);
-		for (int i = 0; i < array.length; i++) {
-			String exchange = array[i];
-			if (exchange != null) {
-				Accumulator x = map.get(exchange);
-				list.add(x.getMap());
-			}
-		}
+		for (Accumulator x : cells)
+			list.add(x.getMap());
 		return list;	
 	}
 	
+	/**
+	 * Take the snapshot of each exchange and compute its qps.
+	 * @param time double. The seconds since the last snapshot.
+	 * @return List. The exchange maps, with the new qps.
+	 */
 	public List<Map> getList(double time) {
 		List<Map> list = new ArrayList();
-		String[] array = exchanges.toArray(new String[exchanges.size()]);
-		for (int i = 0; i < array.length; i++) {
-			String exchange = array[i];
-			if (exchange != null) {
-				Accumulator x = map.get(exchange);
-				x.getDelta(time);
-				list.add(x.getMap());
-			}
+		for (Accumulator x : cells) {
+			x.getDelta(time);
+			list.add(x.getMap());
 		}
 		return list;	
 	}
@@ -0,0 +1,84 @@
+package com.xrtb.pojo;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Codec for exchanges that send plain OpenRTB. The request is decoded directly
+ * into a BidRequest and stamped with the exchange name, so no exchange
+ * subclass is constructed. Exchanges like Nexage, Pubmatic and Generic only
+ * set their name, and use this codec.
+ * 
+ * @author Ben M. Faul
+ *
+ */
+public class OpenRtbCodec implements ExchangeCodec {
+
+	/** The configured exchange instance */
+	final BidRequest prototype;
+	/** The name of the exchange */
+	final String exchange;
+	/** Copied from the prototype to the decoded requests */
+	final boolean usesEncodedAdm;
+
+	/**
+	 * Create the codec from the configured exchange instance.
+	 * 
+	 * @param prototype
+	 *            BidRequest. The configured exchange instance.
+	 */
+	public OpenRtbCodec(BidRequest prototype) {
+		this.prototype = prototype;
+		this.exchange = prototype.getExchange();
+		this.usesEncodedAdm = prototype.usesEncodedAdm;
+	}
+
+	@Override
+	public BidRequest decode(InputStream in) throws Exception {
+		BidRequest br = new BidRequest(in);
+		br.setExchange(exchange);
+		br.usesEncodedAdm = usesEncodedAdm;
+		return br;
+	}
+
+	@Override
+	public String getExchange() {
+		return exchange;
+	}
+
+	@Override
+	public BidRequest getPrototype() {
+		return prototype;
+	}
+
+	/**
+	 * Tell whether an exchange class is plain OpenRTB. That is, it adds no
+	 * instance fields and overrides nothing but copy() and parseSpecial(),
+	 * which only set the exchange name.
+	 * 
+	 * @param c
+	 *            Class. The exchange class.
+	 * @return boolean. Returns true if the OpenRtbCodec can stand in for it.
+	 */
+	public static boolean isPlain(Class<?> c) {
+		while (c != BidRequest.class) {
+			for (Field f : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(f.getModifiers()))
+					return false;
+			}
+			for (Method m : c.getDeclaredMethods()) {
+				if (m.isSynthetic() || m.isBridge() || Modifier.isStatic(m.getModifiers()))
+					continue;
+				String name = m.getName();
+				if (!(name.equals("copy") || name.equals("parseSpecial")))
+					return false;
+			}
+			c = c.getSuperclass();
+			if (c == null)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,41 @@
+package com.xrtb.pojo;
+
+import java.io.InputStream;
+
+/**
+ * Codec for exchanges with their own parsing, like Adx, Google, Appnexus and
+ * Stroer. Delegates to the copy() of the configured exchange instance.
+ * 
+ * @author Ben M. Faul
+ *
+ */
+public class PrototypeCodec implements ExchangeCodec {
+
+	/** The configured exchange instance */
+	final BidRequest prototype;
+
+	/**
+	 * Create the codec from the configured exchange instance.
+	 * 
+	 * @param prototype
+	 *            BidRequest. The configured exchange instance.
+	 */
+	public PrototypeCodec(BidRequest prototype) {
+		this.prototype = prototype;
+	}
+
+	@Override
+	public BidRequest decode(InputStream in) throws Exception {
+		return prototype.copy(in);
+	}
+
+	@Override
+	public String getExchange() {
+		return prototype.getExchange();
+	}
+
+	@Override
+	public BidRequest getPrototype() {
+		return prototype;
+	}
+}
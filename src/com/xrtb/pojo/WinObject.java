@@ -203,7 +203,7 @@ public class WinObject {
 		Controller.getInstance().sendWin(hash, cost, lat, lon, adId, cridId, pubId, image, forward, price, adm);
 
 		try {
-			RTBServer.adspend += Double.parseDouble(price);
+			RTBServer.adspend.add(Double.parseDouble(price));
 		} catch (Exception error) {
 			Controller.getInstance().sendLog(1, "WinObject:convertBidToWin",
 				"Error: exchange " + pubId + " did not pass a proper {AUCTION_PRICE} substitution ont the WIN, win price is undeterimed: " + price);
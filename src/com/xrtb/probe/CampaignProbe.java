@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -24,7 +25,7 @@ public class CampaignProbe {
 	
 	public CampaignProbe(String campaign) {
 		this.campaign = campaign;
-		probes = new HashMap();
+		probes = new ConcurrentHashMap();
 	}
 	
 	public void reset() {
@@ -37,21 +38,11 @@ public class CampaignProbe {
 	}
 	
 	public void process(String creative, StringBuilder br) {
-		CreativeProbe probe = probes.get(creative);
-		if (probe == null) {
-			probe = new CreativeProbe(creative);
-			probes.put(creative, probe);
-		}
-		probe.process(br);
+		probes.computeIfAbsent(creative, k -> new CreativeProbe(k)).process(br);
 	}
 	
 	public void process(String creative) {
-		CreativeProbe probe = probes.get(creative);
-		if (probe == null) {
-			probe = new CreativeProbe(creative);
-			probes.put(creative, probe);
-		}
-		probe.process();
+		probes.computeIfAbsent(creative, k -> new CreativeProbe(k)).process();
 		//total.increment();
 	}
 	
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -24,24 +25,18 @@ public class CreativeProbe {
 
 	public CreativeProbe(String creative) {
 		this.creative = creative;
-		probes = new HashMap();
+		probes = new ConcurrentHashMap();
 	}
 	
 	public void reset() {
-		probes = new HashMap();
+		probes = new ConcurrentHashMap();
 		total = new LongAdder();
 		bid = new LongAdder();
 
 	}
 
 	public void process(StringBuilder br) {
-		String key = br.toString();
-		LongAdder ad = probes.get(key);
-		if (ad == null) {
-			ad = new LongAdder();
-			probes.put(key, ad);
-		}
-		ad.increment();
+		probes.computeIfAbsent(br.toString(), k -> new LongAdder()).increment();
 		total.increment();
 	}
 
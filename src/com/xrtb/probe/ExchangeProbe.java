@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -25,7 +26,7 @@ public class ExchangeProbe {
 	
 	public ExchangeProbe (String exchange) {
 		this.exchange = exchange;
-		probes = new HashMap();
+		probes = new ConcurrentHashMap();
 	}
 	
 	/**
@@ -41,37 +42,31 @@ public class ExchangeProbe {
 	}
 	
 	public void process(String campaign, String creative, StringBuilder br) {
-		CampaignProbe probe = probes.get(campaign);
-		if (probe == null) {
-			probe = new CampaignProbe(campaign);
-			probes.put(campaign, probe);
-		}
-		probe.process(creative, br);
+		probe(campaign).process(creative, br);
 	}
 	
 	public void process(String campaign, String creative) {
-		CampaignProbe probe = probes.get(campaign);
-		if (probe == null) {
-			probe = new CampaignProbe(campaign);
-			probes.put(campaign, probe);
-		}
-		probe.process(creative);
+		probe(campaign).process(creative);
 	}
 	
 	public void incrementTotal(String campaign) {
 		total.increment();
-		CampaignProbe p = probes.get(campaign);
-		if (p == null) {
-			p = new CampaignProbe(campaign);
-			probes.put(campaign, p);
-		}
-		p.incrementTotal();
+		probe(campaign).incrementTotal();
 	}
 	
 	public void incrementBids(String campaign) {
 		bids.increment();
-		CampaignProbe p = probes.get(campaign);
-		p.incrementBids();
+		probe(campaign).incrementBids();
+	}
+
+	/**
+	 * Return the probe of a campaign, creating it if needed. The bidder threads
+	 * share the probes, so this has to be atomic.
+	 * @param campaign String. The campaign ad id.
+	 * @return CampaignProbe. The probe of the campaign.
+	 */
+	CampaignProbe probe(String campaign) {
+		return probes.computeIfAbsent(campaign, k -> new CampaignProbe(k));
 	}
 	
 	public String report() {
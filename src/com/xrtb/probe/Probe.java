@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -37,6 +38,7 @@ public class Probe {
 	public static final StringBuilder NATIVE_AD_DATUM_MISMATCH = new StringBuilder("Native ad data item mismatch\n");
 	public static final StringBuilder WH_INTERSTITIAL = new StringBuilder("No width or height specified and campaign is not interstitial\n");
 	public static final StringBuilder WH_MATCH = new StringBuilder("Creative  w or h attributes dont match\n");
+	public static final StringBuilder TYPE_WH_MATCH = new StringBuilder("Creative type, w or h doesn't fit the impression\n");
 	public static final StringBuilder VIDEO_LINEARITY = new StringBuilder("Video linearity does not match\n");
 	public static final StringBuilder VIDEO_TOO_SHORT = new StringBuilder("Video Creative min duration not long enough\n");
 	public static final StringBuilder VIDEO_TOO_LONG = new StringBuilder("Video Creative max duration too short\n");
@@ -47,16 +49,11 @@ public class Probe {
 	LongAdder total = new LongAdder();
 	
 	public Probe() {
-		probes = new HashMap();
+		probes = new ConcurrentHashMap();
 	}
 	
 	public ExchangeProbe add(String exchange) {
-		ExchangeProbe probe = probes.get(exchange);
-		if (probe == null) {
-			probe = new ExchangeProbe(exchange);
-			probes.put(exchange, probe);
-		}
-		return probe;
+		return probes.computeIfAbsent(exchange, k -> new ExchangeProbe(k));
 	}
 	
 	/**
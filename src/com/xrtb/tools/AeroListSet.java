@@ -2,7 +2,9 @@ package com.xrtb.tools;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import com.aerospike.client.AerospikeClient;
@@ -20,6 +22,7 @@ public class AeroListSet {
 		String op = null;
 		String name = null;
 		String file = null;
+		String membersName = null;
 		boolean range = false;
 
 		while (i < args.length) {
@@ -51,6 +54,14 @@ public class AeroListSet {
 				setName = args[i + 1];
 				i += 2;
 				break;
+			case "-load-members":
+			case "-add-members":
+			case "-remove-members":
+			case "-read-members":
+				op = args[i].substring(1, args[i].indexOf("-", 1));
+				membersName = args[i + 1];
+				i += 2;
+				break;
 			case "-load-map":
 				op = "load";
 				mapName = args[i + 1];
@@ -91,6 +102,11 @@ public class AeroListSet {
 		AerospikeHandler client = AerospikeHandler.getInstance(host,port,300);
 		RedissonClient redisson = new RedissonClient(client);
 
+		if (membersName != null) {
+			doMembers(redisson, op, membersName, file);
+			return;
+		}
+
 		if (setName != null) {
 			if (op.equals("load")) {
 				loadSet(redisson,file, setName, range);
@@ -109,6 +125,38 @@ public class AeroListSet {
 		System.out.println("Can't figure out what you want to do");
 	}
 
+	/**
+	 * Change or read a shared membership (cookie, device id lists) the bidders keep a local copy of.
+	 * @param redisson RedissonClient. The cache.
+	 * @param op String. load (replace the set), add, remove or read.
+	 * @param name String. The name of the membership.
+	 * @param file String. The file of members, one per line.
+	 * @throws Exception on file or aerospike errors.
+	 */
+	public static void doMembers(RedissonClient redisson, String op, String name, String file) throws Exception {
+		if (name.startsWith("@") == false)
+			name = "@" + name;
+		long version;
+		List<String> list = op.equals("read") ? null : Membership.readData(file);
+		switch (op) {
+		case "load":
+			version = Membership.publish(redisson, name, list);
+			break;
+		case "add":
+			version = Membership.update(redisson, name, list, new ArrayList<String>());
+			break;
+		case "remove":
+			version = Membership.update(redisson, name, new ArrayList<String>(), list);
+			break;
+		default:
+			Membership m = new Membership(name);
+			m.refresh(redisson);
+			System.out.println(name + " has " + m.size() + " members");
+			version = m.getVersion();
+		}
+		System.out.println(name + " is at version " + version);
+	}
+
 	public static void loadSet(RedissonClient redisson, String file, String name, boolean range) throws Exception {
 		BufferedReader br = new BufferedReader(new FileReader(file));
 		long x = 0, k = 0;
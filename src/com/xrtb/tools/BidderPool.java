@@ -0,0 +1,152 @@
+package com.xrtb.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.aerospike.redisson.RedissonClient;
+
+/**
+ * The membership of the bidder fleet. Each bidder keeps its own record in
+ * the cache with an expiry, and refreshes it with a heartbeat. A bidder that
+ * stops sending heartbeats just expires, nobody has to age the others out, and
+ * no bidder ever writes another's record, so the heartbeat costs the same no
+ * matter how many bidders there are.
+ * <p>
+ * The member list is read with a scan of the records and cached locally. The
+ * cache is refreshed by the NameNode thread, and listeners are told who joined
+ * and who left.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class BidderPool {
+
+	/**
+	 * Told about the changes in membership, on the refreshing thread.
+	 */
+	public interface Listener {
+		/**
+		 * A bidder joined the pool.
+		 * @param name String. The instance name of the bidder.
+		 */
+		public void joined(String name);
+
+		/**
+		 * A bidder left the pool, or its record expired.
+		 * @param name String. The instance name of the bidder.
+		 */
+		public void left(String name);
+	}
+
+	/** The cache object */
+	final RedissonClient redis;
+	/** The set (aerospike set) the records are kept in */
+	final String set;
+	/** Milliseconds without a heartbeat before a bidder is considered down */
+	final long expire;
+	/** The members as of the last refresh, sorted. Null before the first */
+	volatile List<String> members;
+	/** Who to tell about changes */
+	final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * A pool of bidders.
+	 * @param redis RedissonClient. The cache object.
+	 * @param set String. The name of the pool.
+	 * @param expire long. Milliseconds without a heartbeat before a bidder is down.
+	 */
+	public BidderPool(RedissonClient redis, String set, long expire) {
+		this.redis = redis;
+		this.set = set;
+		this.expire = expire;
+	}
+
+	/**
+	 * Add a listener for membership changes.
+	 * @param listener Listener. The object to call.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener.
+	 * @param listener Listener. The object to remove.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Send the heartbeat of a bidder. This writes only the bidder's own record.
+	 * @param name String. The instance name of the bidder.
+	 * @throws Exception on cache errors.
+	 */
+	public void heartbeat(String name) throws Exception {
+		int seconds = (int) ((expire + 999) / 1000);
+		redis.putMember(set, name, System.currentTimeMillis(), seconds);
+	}
+
+	/**
+	 * Remove a bidder from the pool.
+	 * @param name String. The instance name of the bidder.
+	 * @throws Exception on cache errors.
+	 */
+	public void remove(String name) throws Exception {
+		redis.removeMember(set, name);
+		refresh();
+	}
+
+	/**
+	 * Read the members from the cache, update the local copy and tell the
+	 * listeners what changed.
+	 * @return List. The members, sorted.
+	 * @throws Exception on cache errors.
+	 */
+	public synchronized List<String> refresh() throws Exception {
+		long stale = System.currentTimeMillis() - expire;
+		List<String> list = new ArrayList<String>();
+		for (Map.Entry<String, Long> e : redis.getMembers(set).entrySet()) {
+			if (e.getValue() > stale)
+				list.add(e.getKey());
+		}
+		Collections.sort(list);
+		list = Collections.unmodifiableList(list);
+
+		List<String> old = members;
+		members = list;
+		if (old != null && listeners.size() > 0) {
+			Set<String> before = new HashSet<String>(old);
+			Set<String> after = new HashSet<String>(list);
+			for (String name : list) {
+				if (!before.contains(name))
+					for (Listener l : listeners)
+						l.joined(name);
+			}
+			for (String name : old) {
+				if (!after.contains(name))
+					for (Listener l : listeners)
+						l.left(name);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Return the members, from the local copy. Reads the cache only if it was
+	 * never refreshed.
+	 * @return List. The instance names of the bidders, sorted. A copy.
+	 * @throws Exception on cache errors.
+	 */
+	public List<String> getMembers() throws Exception {
+		List<String> list = members;
+		if (list == null)
+			list = refresh();
+		return new ArrayList<String>(list);
+	}
+}
@@ -0,0 +1,286 @@
+package com.xrtb.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Gzip compression and decompression using one Inflater and one Deflater per
+ * thread. GZIPInputStream and GZIPOutputStream allocate a new native zlib
+ * stream every time, which is expensive on the bid path. Here the header and
+ * trailer are handled directly and the raw deflate streams are reset and
+ * reused.
+ * <p>
+ * Keeps track of the bytes in and out and the time spent, so that the
+ * compression ratio can be reported in the summary.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class Compression {
+
+	/** Default level, favors speed over size on the bid path */
+	public static volatile int level = Deflater.BEST_SPEED;
+
+	/** The gzip magic number and header for deflate with no options */
+	static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	static final int FHCRC = 2;
+	static final int FEXTRA = 4;
+	static final int FNAME = 8;
+	static final int FCOMMENT = 16;
+
+	/** The per thread deflater */
+	static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(level, true);
+		}
+	};
+
+	/** The per thread inflater */
+	static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	/** The per thread work buffer */
+	static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+
+	static final LongAdder compressions = new LongAdder();
+	static final LongAdder compressedIn = new LongAdder();
+	static final LongAdder compressedOut = new LongAdder();
+	static final LongAdder compressNanos = new LongAdder();
+	static final LongAdder decompressions = new LongAdder();
+	static final LongAdder decompressedIn = new LongAdder();
+	static final LongAdder decompressedOut = new LongAdder();
+	static final LongAdder decompressNanos = new LongAdder();
+
+	/**
+	 * Gzip a string.
+	 *
+	 * @param data
+	 *            String. The data to compress.
+	 * @return byte[]. The gzipped data.
+	 */
+	public static byte[] gzip(String data) {
+		return gzip(data.getBytes());
+	}
+
+	/**
+	 * Gzip a byte array.
+	 *
+	 * @param data
+	 *            byte[]. The data to compress.
+	 * @return byte[]. The gzipped data.
+	 */
+	public static byte[] gzip(byte[] data) {
+		long start = System.nanoTime();
+		Deflater deflater = deflaters.get();
+		byte[] buf = buffers.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+		out.write(HEADER, 0, HEADER.length);
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			out.write(buf, 0, n);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, data.length);
+
+		byte[] result = out.toByteArray();
+		compressions.increment();
+		compressedIn.add(data.length);
+		compressedOut.add(result.length);
+		compressNanos.add(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Read a gzipped stream to the end and return the uncompressed bytes.
+	 *
+	 * @param in
+	 *            InputStream. The gzipped stream.
+	 * @return byte[]. The uncompressed data.
+	 * @throws IOException
+	 *             on I/O errors or if the data is not gzip.
+	 */
+	public static byte[] gunzip(InputStream in) throws IOException {
+		return gunzip(readAll(in));
+	}
+
+	/**
+	 * Uncompress a gzipped byte array. Concatenated gzip members are handled,
+	 * and like GZIPInputStream, trailing bytes that are not another gzip member
+	 * (zero padding) are ignored. The CRC and the length in the trailer of each
+	 * member are checked.
+	 *
+	 * @param data
+	 *            byte[]. The gzipped data.
+	 * @return byte[]. The uncompressed data.
+	 * @throws IOException
+	 *             if the data is not gzip, or is corrupt.
+	 */
+	public static byte[] gunzip(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		Inflater inflater = inflaters.get();
+		byte[] buf = buffers.get();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+
+		int pos = 0;
+		while (pos < data.length) {
+			if (pos > 0 && (pos + 1 >= data.length || data[pos] != HEADER[0] || data[pos + 1] != HEADER[1]))
+				break;
+			int size = out.size();
+			try {
+				pos = skipHeader(data, pos);
+			} catch (ArrayIndexOutOfBoundsException error) {
+				throw new IOException("Truncated gzip header");
+			}
+			inflater.reset();
+			inflater.setInput(data, pos, data.length - pos);
+			CRC32 crc = new CRC32();
+			try {
+				while (!inflater.finished()) {
+					int n = inflater.inflate(buf);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IOException("Truncated gzip data");
+					crc.update(buf, 0, n);
+					out.write(buf, 0, n);
+				}
+			} catch (DataFormatException error) {
+				throw new IOException("Corrupt gzip data: " + error.getMessage());
+			}
+			pos = data.length - inflater.getRemaining();
+			if (pos + 8 > data.length)
+				throw new IOException("Truncated gzip trailer");
+			if (readInt(data, pos) != (int) crc.getValue())
+				throw new IOException("Gzip CRC mismatch");
+			if (readInt(data, pos + 4) != out.size() - size)
+				throw new IOException("Gzip length mismatch");
+			pos += 8;
+		}
+
+		byte[] result = out.toByteArray();
+		decompressions.increment();
+		decompressedIn.add(data.length);
+		decompressedOut.add(result.length);
+		decompressNanos.add(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Read all of a stream into a byte array.
+	 *
+	 * @param in
+	 *            InputStream. The stream to read.
+	 * @return byte[]. The contents.
+	 * @throws IOException
+	 *             on I/O errors.
+	 */
+	public static byte[] readAll(InputStream in) throws IOException {
+		byte[] buf = buffers.get();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		int n;
+		while ((n = in.read(buf)) != -1)
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tell whether the client accepts a gzipped response.
+	 *
+	 * @param acceptEncoding
+	 *            String. The value of the Accept-Encoding header, may be null.
+	 * @return boolean. Returns true if gzip is acceptable.
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		return acceptEncoding != null && acceptEncoding.contains("gzip");
+	}
+
+	/**
+	 * Return the compression statistics.
+	 *
+	 * @return Map. Counts, bytes, ratio and average time in microseconds for
+	 *         both directions.
+	 */
+	public static Map getStats() {
+		Map m = new HashMap();
+		m.put("compress", stats(compressions.sum(), compressedIn.sum(), compressedOut.sum(), compressNanos.sum()));
+		m.put("decompress",
+				stats(decompressions.sum(), decompressedOut.sum(), decompressedIn.sum(), decompressNanos.sum()));
+		return m;
+	}
+
+	static Map stats(long count, long plain, long zipped, long nanos) {
+		Map m = new HashMap();
+		m.put("count", count);
+		m.put("plainBytes", plain);
+		m.put("gzipBytes", zipped);
+		m.put("ratio", zipped == 0 ? 0.0 : (double) plain / zipped);
+		m.put("avgMicros", count == 0 ? 0.0 : nanos / 1000.0 / count);
+		return m;
+	}
+
+	/**
+	 * Skip over a gzip member header.
+	 */
+	static int skipHeader(byte[] data, int pos) throws IOException {
+		if (data.length - pos < 10 || data[pos] != 0x1f || data[pos + 1] != (byte) 0x8b)
+			throw new IOException("Not in gzip format");
+		if (data[pos + 2] != Deflater.DEFLATED)
+			throw new IOException("Unsupported gzip compression method");
+		int flags = data[pos + 3] & 0xff;
+		pos += 10;
+		if ((flags & FEXTRA) != 0) {
+			int len = (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+			pos += 2 + len;
+		}
+		if ((flags & FNAME) != 0) {
+			while (data[pos++] != 0)
+				;
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (data[pos++] != 0)
+				;
+		}
+		if ((flags & FHCRC) != 0)
+			pos += 2;
+		if (pos > data.length)
+			throw new IOException("Truncated gzip header");
+		return pos;
+	}
+
+	static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v & 0xff);
+		out.write((v >> 8) & 0xff);
+		out.write((v >> 16) & 0xff);
+		out.write((v >> 24) & 0xff);
+	}
+
+	static int readInt(byte[] data, int pos) {
+		return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8) | ((data[pos + 2] & 0xff) << 16)
+				| ((data[pos + 3] & 0xff) << 24);
+	}
+}
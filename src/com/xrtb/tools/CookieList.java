@@ -13,6 +13,7 @@ import com.aerospike.client.AerospikeClient;
 import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
 import com.aerospike.client.Record;
+import com.aerospike.redisson.AerospikeHandler;
 import com.aerospike.redisson.RedissonClient;
 
 public class CookieList {
@@ -27,28 +28,22 @@ public class CookieList {
 		String file = null;
 		boolean range = false;
 
-		AerospikeClient client = new AerospikeClient("localhost",3000);
-		
-		Key key = new Key("test", "database", "rtb4free");
-		
+		RedissonClient redisson = new RedissonClient(AerospikeHandler.getInstance("localhost", 3000, 300));
+
 		ArrayList<String> list = new ArrayList<String>();
-		
-		TreeSet set = new TreeSet();
 		for (i=0; i < 100000; i++) {
 			list.add(Integer.toString(i));
-			set.add(Integer.toString(i));
 		}
-		Bin bin1 = new Bin("c1x-cookies", set);
-		client.put(null, key, bin1);
-		
+		Membership.publish(redisson, "c1x-cookies", list);
+
 		System.out.println("Done!");
-		
-		Record record = client.get(null, key);
-		long time = System.currentTimeMillis();
-		Set<String> receivedList = (Set<String>) record.getValue("c1x-cookies");
-		receivedList.contains("99999");
-		System.out.println(System.currentTimeMillis() - time);
-		System.out.println("Received List = " + receivedList.size());
+
+		Membership m = new Membership("c1x-cookies");
+		m.refresh(redisson);
+		long time = System.nanoTime();
+		m.contains("99999");
+		System.out.println((System.nanoTime() - time) / 1000 + " micros");
+		System.out.println("Received List = " + m.size());
 	}
 	
 }
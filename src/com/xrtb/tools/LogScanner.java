@@ -0,0 +1,397 @@
+package com.xrtb.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parallel line scanner for the log files. Plain files are split into byte
+ * ranges on newline boundaries and each range is read through a memory mapped
+ * buffer. Gzipped files (the .gz ones the log sinks roll out) can't be split,
+ * so each one is a single range read through a GZIPInputStream.
+ * <p>
+ * The ranges are processed in a fork join pool. Each range gets its own
+ * accumulator from the supplier, so the line handlers need no locking, and the
+ * accumulators are merged pairwise as the tasks join.
+ * <p>
+ * A line is in the range it starts in: a range skips the partial line at its
+ * start and reads past its end to finish its last line.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class LogScanner {
+
+	/** The size of the ranges plain files are split into */
+	public static volatile long SPLIT_SIZE = 32 * 1024 * 1024;
+
+	/** How much past the end of a range is mapped to find the end of the last line */
+	static final int TAIL = 64 * 1024;
+
+	/**
+	 * Handles one line of a log file.
+	 *
+	 * @param <A>
+	 *            The accumulator type.
+	 */
+	public interface LineHandler<A> {
+		/**
+		 * Process a line.
+		 *
+		 * @param acc
+		 *            A. The accumulator of this range.
+		 * @param file
+		 *            File. The file the line came from.
+		 * @param line
+		 *            String. The line, without the newline.
+		 * @throws Exception
+		 *             on a bad line. The line is counted and reported, and the
+		 *             scan goes on.
+		 */
+		public void process(A acc, File file, String line) throws Exception;
+	}
+
+	/** The pool the ranges are processed in */
+	final ForkJoinPool pool;
+	/** Lines read */
+	final LongAdder lines = new LongAdder();
+	/** Lines the handler threw on */
+	final LongAdder bad = new LongAdder();
+	/** Bytes read */
+	final LongAdder bytes = new LongAdder();
+
+	/**
+	 * A scanner using all the cores.
+	 */
+	public LogScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * A scanner with a fixed number of threads.
+	 *
+	 * @param threads
+	 *            int. The parallelism of the pool.
+	 */
+	public LogScanner(int threads) {
+		pool = new ForkJoinPool(Math.max(1, threads));
+	}
+
+	/**
+	 * Expand a source name to the files to scan. A directory gives all the files
+	 * in it. A file gives itself and the files rolled from it, which are the
+	 * ones whose names start with the name followed by - or . (time stamped,
+	 * numbered or gzipped).
+	 *
+	 * @param source
+	 *            String. The file or directory name.
+	 * @return List. The files, in name order.
+	 */
+	public static List<File> expand(String source) {
+		File f = new File(source);
+		List<File> list = new ArrayList<File>();
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			if (files != null) {
+				for (File x : files) {
+					if (x.isFile())
+						list.add(x);
+				}
+			}
+		} else {
+			if (f.isFile())
+				list.add(f);
+			File dir = f.getAbsoluteFile().getParentFile();
+			String name = f.getName();
+			File[] files = dir == null ? null : dir.listFiles();
+			if (files != null) {
+				for (File x : files) {
+					String n = x.getName();
+					if (x.isFile() && (n.startsWith(name + "-") || n.startsWith(name + ".")))
+						list.add(x);
+				}
+			}
+		}
+		File[] array = list.toArray(new File[list.size()]);
+		Arrays.sort(array);
+		return Arrays.asList(array);
+	}
+
+	/**
+	 * Scan files in parallel.
+	 *
+	 * @param files
+	 *            List. The files to scan.
+	 * @param create
+	 *            Supplier. Makes an empty accumulator, one per range.
+	 * @param handler
+	 *            LineHandler. Processes each line into the accumulator.
+	 * @param merge
+	 *            BinaryOperator. Combines two accumulators. May return either
+	 *            one, after adding the other to it.
+	 * @return A. The merged accumulator.
+	 * @throws IOException
+	 *             if a file can't be read.
+	 */
+	public <A> A scan(List<File> files, Supplier<A> create, LineHandler<A> handler, BinaryOperator<A> merge)
+			throws IOException {
+		List<Range> ranges = new ArrayList<Range>();
+		for (File f : files)
+			split(f, ranges);
+		if (ranges.size() == 0)
+			return create.get();
+		try {
+			return pool.invoke(new Scan<A>(ranges, 0, ranges.size(), create, handler, merge));
+		} catch (RuntimeException error) {
+			for (Throwable t = error.getCause(); t != null; t = t.getCause()) {
+				if (t instanceof IOException)
+					throw (IOException) t;
+			}
+			throw error;
+		}
+	}
+
+	/**
+	 * Scan one file, or the files rolled from it.
+	 *
+	 * @param source
+	 *            String. The file or directory name, see expand().
+	 * @param create
+	 *            Supplier. Makes an empty accumulator, one per range.
+	 * @param handler
+	 *            LineHandler. Processes each line into the accumulator.
+	 * @param merge
+	 *            BinaryOperator. Combines two accumulators.
+	 * @return A. The merged accumulator.
+	 * @throws IOException
+	 *             if a file can't be read.
+	 */
+	public <A> A scan(String source, Supplier<A> create, LineHandler<A> handler, BinaryOperator<A> merge)
+			throws IOException {
+		return scan(expand(source), create, handler, merge);
+	}
+
+	/**
+	 * Stop the pool.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Return the number of lines read.
+	 *
+	 * @return long. The line count.
+	 */
+	public long getLines() {
+		return lines.sum();
+	}
+
+	/**
+	 * Return the number of lines the handler threw on.
+	 *
+	 * @return long. The bad line count.
+	 */
+	public long getBad() {
+		return bad.sum();
+	}
+
+	/**
+	 * Return the number of bytes read, uncompressed.
+	 *
+	 * @return long. The byte count.
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Cut a file into ranges.
+	 */
+	static void split(File f, List<Range> ranges) {
+		long size = f.length();
+		if (size == 0)
+			return;
+		if (isGzip(f)) {
+			ranges.add(new Range(f, 0, size, true));
+			return;
+		}
+		for (long start = 0; start < size; start += SPLIT_SIZE)
+			ranges.add(new Range(f, start, Math.min(size, start + SPLIT_SIZE), false));
+	}
+
+	static boolean isGzip(File f) {
+		if (f.getName().endsWith(".gz"))
+			return true;
+		try (InputStream in = new FileInputStream(f)) {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		} catch (IOException error) {
+			return false;
+		}
+	}
+
+	/**
+	 * A part of a file.
+	 */
+	static final class Range {
+		final File file;
+		final long start;
+		final long end;
+		final boolean gzip;
+
+		Range(File file, long start, long end, boolean gzip) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.gzip = gzip;
+		}
+	}
+
+	/**
+	 * Process a run of ranges, splitting in half until there is one.
+	 */
+	final class Scan<A> extends RecursiveTask<A> {
+		private static final long serialVersionUID = 1L;
+		final List<Range> ranges;
+		final int from;
+		final int to;
+		final Supplier<A> create;
+		final LineHandler<A> handler;
+		final BinaryOperator<A> merge;
+
+		Scan(List<Range> ranges, int from, int to, Supplier<A> create, LineHandler<A> handler,
+				BinaryOperator<A> merge) {
+			this.ranges = ranges;
+			this.from = from;
+			this.to = to;
+			this.create = create;
+			this.handler = handler;
+			this.merge = merge;
+		}
+
+		@Override
+		protected A compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				Scan<A> left = new Scan<A>(ranges, from, mid, create, handler, merge);
+				left.fork();
+				A right = new Scan<A>(ranges, mid, to, create, handler, merge).compute();
+				return merge.apply(left.join(), right);
+			}
+			A acc = create.get();
+			Range r = ranges.get(from);
+			try {
+				if (r.gzip)
+					readGzip(r, acc);
+				else
+					readMapped(r, acc);
+			} catch (IOException error) {
+				throw new RuntimeException(error.getMessage() + " reading " + r.file, error);
+			}
+			return acc;
+		}
+
+		void line(A acc, File file, String line) {
+			lines.increment();
+			try {
+				handler.process(acc, file, line);
+			} catch (Exception error) {
+				bad.increment();
+				if (line.length() > 256)
+					line = line.substring(0, 256) + "...";
+				System.err.println("Bad Record: " + line + ", error: " + error);
+			}
+		}
+
+		void readGzip(Range r, A acc) throws IOException {
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(r.file), 65536), StandardCharsets.UTF_8))) {
+				String content;
+				while ((content = br.readLine()) != null) {
+					bytes.add(content.length() + 1);
+					line(acc, r.file, content);
+				}
+			}
+		}
+
+		void readMapped(Range r, A acc) throws IOException {
+			try (FileChannel fc = FileChannel.open(r.file.toPath(), StandardOpenOption.READ)) {
+				long size = fc.size();
+				long pos = r.start;
+				int tail = TAIL;
+				byte[] buf = new byte[1024];
+
+				// Skip the partial line, it belongs to the range before.
+				if (pos > 0) {
+					pos = nextLine(fc, pos - 1, size);
+					if (pos < 0)
+						return;
+				}
+
+				while (pos < r.end) {
+					long limit = Math.min(size, r.end + tail);
+					MappedByteBuffer map = fc.map(FileChannel.MapMode.READ_ONLY, pos,
+							Math.min(limit - pos, Integer.MAX_VALUE));
+					int n = map.limit();
+					int i = 0;
+					while (pos + i < r.end) {
+						int j = i;
+						while (j < n && map.get(j) != '\n')
+							j++;
+						if (j == n && pos + n < size) {
+							// The line goes past the mapping, map more.
+							if (i == 0)
+								tail *= 2;
+							break;
+						}
+						int len = j - i;
+						if (len > buf.length)
+							buf = new byte[Math.max(len, buf.length * 2)];
+						map.position(i);
+						map.get(buf, 0, len);
+						int k = len;
+						if (k > 0 && buf[k - 1] == '\r')
+							k--;
+						bytes.add(len + 1);
+						line(acc, r.file, new String(buf, 0, k, StandardCharsets.UTF_8));
+						i = j + 1;
+					}
+					pos += i;
+				}
+			}
+		}
+
+		/**
+		 * Return the position after the first newline at or after pos, -1 if
+		 * there is none.
+		 */
+		long nextLine(FileChannel fc, long pos, long size) throws IOException {
+			while (pos < size) {
+				MappedByteBuffer map = fc.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(TAIL, size - pos));
+				int n = map.limit();
+				for (int i = 0; i < n; i++) {
+					if (map.get(i) == '\n')
+						return pos + i + 1;
+				}
+				pos += n;
+			}
+			return -1;
+		}
+	}
+}
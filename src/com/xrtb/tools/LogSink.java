@@ -0,0 +1,520 @@
+package com.xrtb.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A continuous log writer. Lines are handed off to a queue, and a writer
+ * thread drains the queue and writes everything it got in one go (group
+ * commit) every few milliseconds, through a direct ByteBuffer into a
+ * FileChannel. Strings are encoded straight into the buffer, no intermediate
+ * StringBuilder or byte arrays.
+ * <p>
+ * The file is rolled on time (the name gets the -yyyy-MM-dd-HH:mm stamp, like
+ * the other loggers), on size, or both. Optionally the file is gzipped on the
+ * fly. Each commit is sync flushed, so the file can be read up to the last
+ * commit while it is being written; the gzip trailer is added when the file is
+ * rolled or closed.
+ * <p>
+ * Memory is bounded: the bytes waiting in the queue are limited to MAX_PENDING.
+ * When full, offer() drops the line and put() waits for room, and both are
+ * counted so the back pressure shows up in the stats.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class LogSink implements Runnable {
+
+	/** How long the writer waits to gather a group commit, in milliseconds */
+	public static volatile int COMMIT_MILLIS = 5;
+	/** The size of the direct write buffer */
+	public static volatile int BUFFER_SIZE = 256 * 1024;
+	/** The maximum number of characters waiting to be written */
+	public static volatile int MAX_PENDING = 16 * 1024 * 1024;
+	/** Set to force the data to the disk on every commit */
+	public static volatile boolean SYNC = false;
+
+	/** Put in the queue to wake the writer up when closing */
+	static final String WAKEUP = new String();
+
+	/** The file name, without the time stamp */
+	final String base;
+	/** Roll the file this often, 0 means never */
+	final long rollMillis;
+	/** Roll the file at this size, 0 means never */
+	final long maxBytes;
+	/** Gzip the file */
+	final boolean gzip;
+
+	/** The lines waiting to be written */
+	final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+	/** Characters of room left in the queue */
+	final Semaphore room;
+	/** The capacity of the queue, in characters */
+	final int capacity;
+
+	/** The writer thread */
+	final Thread me;
+	/** Set when closing */
+	volatile boolean stopped;
+
+	/** The direct buffer the channel is written from */
+	final ByteBuffer out;
+	/** The encoder of the lines */
+	final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/** Staging for the deflater, which can't take a direct buffer in Java 8 */
+	ByteBuffer plain;
+	byte[] deflated;
+	Deflater deflater;
+	CRC32 crc;
+	long plainSize;
+
+	/** The open file */
+	FileChannel channel;
+	/** The name of the open file */
+	volatile String fileName;
+	/** The bytes in the open file */
+	long fileSize;
+	/** When to roll the file next */
+	long rollTime;
+	/** The time stamp part of the name */
+	String tailstamp = "";
+	/** Distinguishes files rolled on size in the same minute */
+	int sequence;
+	/** Formats the time stamp part of the name */
+	final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH:mm");
+
+	/** The last error, if any */
+	volatile String error;
+
+	final LongAdder records = new LongAdder();
+	final LongAdder chars = new LongAdder();
+	final LongAdder dropped = new LongAdder();
+	final LongAdder blockedNanos = new LongAdder();
+	final LongAdder written = new LongAdder();
+	final LongAdder commits = new LongAdder();
+	final LongAdder rolls = new LongAdder();
+	final LongAdder errors = new LongAdder();
+
+	/**
+	 * A log sink that never rolls and doesn't compress.
+	 *
+	 * @param base
+	 *            String. The file name.
+	 */
+	public LogSink(String base) {
+		this(base, 0, 0, false);
+	}
+
+	/**
+	 * Create the sink and start its writer.
+	 *
+	 * @param base
+	 *            String. The file name. Gets the time stamp when rolled on time,
+	 *            a sequence number when rolled on size and .gz when gzipped.
+	 * @param rollMillis
+	 *            long. Roll the file this often, 0 to not roll on time.
+	 * @param maxBytes
+	 *            long. Roll the file when it gets this big, 0 to not roll on
+	 *            size.
+	 * @param gzip
+	 *            boolean. Set to gzip the file.
+	 */
+	public LogSink(String base, long rollMillis, long maxBytes, boolean gzip) {
+		this.base = base;
+		this.rollMillis = rollMillis;
+		this.maxBytes = maxBytes;
+		this.gzip = gzip;
+		this.capacity = MAX_PENDING;
+		this.room = new Semaphore(capacity);
+		this.out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		if (gzip) {
+			plain = ByteBuffer.allocate(BUFFER_SIZE);
+			deflated = new byte[BUFFER_SIZE];
+			deflater = new Deflater(Compression.level, true);
+			crc = new CRC32();
+		}
+		me = new Thread(this, "log-" + new File(base).getName());
+		me.setDaemon(true);
+		me.start();
+	}
+
+	/**
+	 * Add a line without waiting. If the queue is full, the line is dropped.
+	 *
+	 * @param line
+	 *            String. The line, the newline is added here.
+	 * @return boolean. Returns false if the line was dropped.
+	 */
+	public boolean offer(String line) {
+		if (stopped || !room.tryAcquire(cost(line))) {
+			dropped.increment();
+			return false;
+		}
+		queue.add(line);
+		return true;
+	}
+
+	/**
+	 * Add a line, waiting for room in the queue if it is full.
+	 *
+	 * @param line
+	 *            String. The line, the newline is added here.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void put(String line) throws InterruptedException {
+		if (stopped) {
+			dropped.increment();
+			return;
+		}
+		int n = cost(line);
+		if (!room.tryAcquire(n)) {
+			long start = System.nanoTime();
+			room.acquire(n);
+			blockedNanos.add(System.nanoTime() - start);
+		}
+		queue.add(line);
+	}
+
+	/**
+	 * The room a line takes in the queue. A line bigger than the queue is let in
+	 * when the queue is empty.
+	 */
+	int cost(String line) {
+		return Math.min(line.length() + 1, capacity);
+	}
+
+	/**
+	 * Write out what is queued, close the file and stop the writer.
+	 */
+	public void close() {
+		stopped = true;
+		queue.add(WAKEUP);
+		try {
+			me.join(10000);
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Return the name of the file being written.
+	 *
+	 * @return String. The file name, null if nothing has been written yet.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Return the last error from writing the file.
+	 *
+	 * @return String. The error, or null if all is well.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Return the statistics of the sink.
+	 *
+	 * @return Map. Records and bytes written, drops, time producers spent
+	 *         waiting, commits, rolls and the current backlog.
+	 */
+	public Map getStats() {
+		Map m = new HashMap();
+		long c = commits.sum();
+		m.put("file", fileName == null ? base : fileName);
+		m.put("records", records.sum());
+		m.put("chars", chars.sum());
+		m.put("written", written.sum());
+		m.put("dropped", dropped.sum());
+		m.put("blockedMillis", blockedNanos.sum() / 1000000);
+		m.put("commits", c);
+		m.put("avgBatch", c == 0 ? 0.0 : (double) records.sum() / c);
+		m.put("rolls", rolls.sum());
+		m.put("pending", capacity - room.availablePermits());
+		m.put("errors", errors.sum());
+		if (error != null)
+			m.put("error", error);
+		return m;
+	}
+
+	/**
+	 * The writer. Waits for the first line, gives the producers COMMIT_MILLIS
+	 * to add more, then writes the whole batch and flushes it. The writer is
+	 * never interrupted, an interrupt would close the channel under it.
+	 */
+	public void run() {
+		List<String> batch = new ArrayList<String>(1024);
+		while (true) {
+			try {
+				if (!stopped) {
+					String line = queue.poll(rollMillis == 0 ? 1000 : Math.min(1000, rollMillis),
+							TimeUnit.MILLISECONDS);
+					if (line != null) {
+						batch.add(line);
+						Thread.sleep(COMMIT_MILLIS);
+					}
+				}
+			} catch (InterruptedException e) {
+				stopped = true;
+			}
+			queue.drainTo(batch);
+			try {
+				if (channel != null && rollTime != 0 && System.currentTimeMillis() >= rollTime)
+					roll(false);
+				if (batch.size() > 0)
+					commit(batch);
+			} catch (IOException e) {
+				errors.increment();
+				error = e.toString();
+				e.printStackTrace();
+				closeQuietly();
+			}
+			int n = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				if (batch.get(i) != WAKEUP)
+					n += cost(batch.get(i));
+			}
+			room.release(n);
+			batch.clear();
+
+			if (stopped && queue.isEmpty()) {
+				closeQuietly();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write a batch of lines and flush it to the file.
+	 */
+	void commit(List<String> batch) throws IOException {
+		int n = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			String line = batch.get(i);
+			if (line == WAKEUP)
+				continue;
+			if (channel == null)
+				open();
+			encode(CharBuffer.wrap(line));
+			newline();
+			chars.add(line.length() + 1);
+			n++;
+			if (maxBytes != 0 && fileSize + pending() >= maxBytes)
+				roll(true);
+		}
+		if (channel == null)
+			return;
+		records.add(n);
+		flush(Deflater.SYNC_FLUSH);
+		if (SYNC)
+			channel.force(false);
+		commits.increment();
+	}
+
+	/**
+	 * The bytes encoded but not yet written to the file.
+	 */
+	int pending() {
+		return out.position() + (gzip ? plain.position() / 4 : 0);
+	}
+
+	/**
+	 * Encode characters into the buffer, writing the buffer out when it fills.
+	 */
+	void encode(CharBuffer chars) throws IOException {
+		ByteBuffer target = gzip ? plain : out;
+		while (true) {
+			CoderResult cr = encoder.encode(chars, target, true);
+			if (cr.isOverflow()) {
+				if (gzip)
+					deflate(Deflater.NO_FLUSH);
+				else
+					drain();
+				continue;
+			}
+			if (cr.isError())
+				cr.throwException();
+			return;
+		}
+	}
+
+	/**
+	 * End the line.
+	 */
+	void newline() throws IOException {
+		ByteBuffer target = gzip ? plain : out;
+		if (!target.hasRemaining()) {
+			if (gzip)
+				deflate(Deflater.NO_FLUSH);
+			else
+				drain();
+		}
+		target.put((byte) '\n');
+	}
+
+	/**
+	 * Deflate the staged plain bytes into the direct buffer.
+	 */
+	void deflate(int mode) throws IOException {
+		plain.flip();
+		crc.update(plain.array(), 0, plain.limit());
+		plainSize += plain.limit();
+		deflater.setInput(plain.array(), 0, plain.limit());
+		while (true) {
+			int n = deflater.deflate(deflated, 0, deflated.length, mode);
+			if (n == 0 && deflater.needsInput())
+				break;
+			put(deflated, n);
+			if (n < deflated.length && deflater.needsInput())
+				break;
+		}
+		plain.clear();
+	}
+
+	/**
+	 * Put bytes into the direct buffer, writing it out when it fills.
+	 */
+	void put(byte[] data, int len) throws IOException {
+		int off = 0;
+		while (off < len) {
+			if (!out.hasRemaining())
+				drain();
+			int n = Math.min(out.remaining(), len - off);
+			out.put(data, off, n);
+			off += n;
+		}
+	}
+
+	/**
+	 * Write the direct buffer to the channel.
+	 */
+	void drain() throws IOException {
+		out.flip();
+		while (out.hasRemaining())
+			fileSize += channel.write(out);
+		written.add(out.limit());
+		out.clear();
+	}
+
+	/**
+	 * Write everything that is buffered to the file.
+	 */
+	void flush(int mode) throws IOException {
+		if (gzip)
+			deflate(mode);
+		drain();
+	}
+
+	/**
+	 * Open the next file.
+	 */
+	void open() throws IOException {
+		String name = base;
+		if (rollMillis != 0) {
+			if (sequence == 0) {
+				long now = System.currentTimeMillis();
+				tailstamp = "-" + sdf.format(new Date(now));
+				rollTime = now + rollMillis;
+			}
+			name += tailstamp;
+		}
+		if (sequence != 0)
+			name += "." + sequence;
+		if (gzip)
+			name += ".gz";
+
+		channel = FileChannel.open(new File(name).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		fileName = name;
+		fileSize = channel.size();
+		encoder.reset();
+		if (gzip) {
+			deflater.reset();
+			crc.reset();
+			plainSize = 0;
+			put(Compression.HEADER, Compression.HEADER.length);
+		}
+	}
+
+	/**
+	 * Finish the current file. On size the next file is opened right away with
+	 * the next sequence number, on time it is opened with the next line.
+	 */
+	void roll(boolean onSize) throws IOException {
+		finish();
+		rolls.increment();
+		if (onSize) {
+			sequence++;
+			open();
+		} else
+			sequence = 0;
+	}
+
+	/**
+	 * Flush and close the current file, adding the gzip trailer.
+	 */
+	void finish() throws IOException {
+		if (channel == null)
+			return;
+		if (gzip) {
+			deflate(Deflater.FULL_FLUSH);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(deflated);
+				put(deflated, n);
+			}
+			byte[] trailer = new byte[8];
+			writeInt(trailer, 0, (int) crc.getValue());
+			writeInt(trailer, 4, (int) plainSize);
+			put(trailer, 8);
+		}
+		drain();
+		channel.close();
+		channel = null;
+	}
+
+	void closeQuietly() {
+		try {
+			finish();
+		} catch (IOException e) {
+			errors.increment();
+			error = e.toString();
+		}
+		channel = null;
+		out.clear();
+		if (gzip)
+			plain.clear();
+	}
+
+	static void writeInt(byte[] b, int pos, int v) {
+		b[pos] = (byte) v;
+		b[pos + 1] = (byte) (v >> 8);
+		b[pos + 2] = (byte) (v >> 16);
+		b[pos + 3] = (byte) (v >> 24);
+	}
+}
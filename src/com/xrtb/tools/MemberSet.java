@@ -0,0 +1,162 @@
+package com.xrtb.tools;
+
+/**
+ * A compact set of strings for membership tests on the bid path. Only a 64 bit
+ * hash of each member is kept, in an open addressing table with linear
+ * probing, so a set of a few million cookie ids is a single long[] instead of
+ * a few million String and HashMap entry objects. The chance of a false match
+ * of two different strings is about n / 2^64, which for audience lists is
+ * nothing.
+ * <p>
+ * The set is not thread safe. Readers on the bid path use a set nobody writes
+ * anymore, changes are made to a copy which then replaces it.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class MemberSet {
+
+	/** The hashes, 0 is an empty slot */
+	long[] table;
+	/** Number of members */
+	int size;
+	/** table.length - 1 */
+	int mask;
+
+	/**
+	 * Create an empty set.
+	 * @param expected int. The number of members expected, the table is sized for it.
+	 */
+	public MemberSet(int expected) {
+		int n = 16;
+		while (n < expected * 2)
+			n <<= 1;
+		table = new long[n];
+		mask = n - 1;
+	}
+
+	/**
+	 * Return a copy of this set, to apply changes to.
+	 * @return MemberSet. The copy.
+	 */
+	public MemberSet copy() {
+		MemberSet m = new MemberSet(0);
+		m.table = table.clone();
+		m.mask = mask;
+		m.size = size;
+		return m;
+	}
+
+	/**
+	 * Return the 64 bit hash of a string (FNV-1a, then the murmur finalizer).
+	 * Never 0.
+	 * @param s String. The string to hash.
+	 * @return long. The hash.
+	 */
+	public static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	int home(long h) {
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Is this string a member?
+	 * @param s String. The string to test.
+	 * @return boolean. Returns true if it is in the set.
+	 */
+	public boolean contains(String s) {
+		long h = hash(s);
+		long[] t = table;
+		int m = mask;
+		for (int i = home(h);; i = (i + 1) & m) {
+			long k = t[i];
+			if (k == h)
+				return true;
+			if (k == 0)
+				return false;
+		}
+	}
+
+	/**
+	 * Add a member.
+	 * @param s String. The member to add.
+	 * @return boolean. Returns true if it wasn't a member already.
+	 */
+	public boolean add(String s) {
+		if ((size + 1) * 2 > table.length)
+			grow();
+		long h = hash(s);
+		for (int i = home(h);; i = (i + 1) & mask) {
+			long k = table[i];
+			if (k == h)
+				return false;
+			if (k == 0) {
+				table[i] = h;
+				size++;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove a member. The entries after it in its run are shifted back, so
+	 * there are no tombstones to slow down the lookups.
+	 * @param s String. The member to remove.
+	 * @return boolean. Returns true if it was a member.
+	 */
+	public boolean remove(String s) {
+		long h = hash(s);
+		int i = home(h);
+		while (table[i] != h) {
+			if (table[i] == 0)
+				return false;
+			i = (i + 1) & mask;
+		}
+		table[i] = 0;
+		size--;
+		for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			long k = table[j];
+			// Move k back to the hole unless its home is between the hole and j
+			if (((j - home(k)) & mask) >= ((j - i) & mask)) {
+				table[i] = k;
+				table[j] = 0;
+				i = j;
+			}
+		}
+		return true;
+	}
+
+	void grow() {
+		long[] old = table;
+		table = new long[old.length * 2];
+		mask = table.length - 1;
+		for (long h : old) {
+			if (h == 0)
+				continue;
+			int i = home(h);
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = h;
+		}
+	}
+
+	/**
+	 * Return the number of members.
+	 * @return int. The size of the set.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -2,50 +2,71 @@ package com.xrtb.tools;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.eclipse.jetty.util.ConcurrentHashSet;
-
-import com.aerospike.client.AerospikeClient;
-import com.aerospike.client.Bin;
-import com.aerospike.client.Key;
-import com.aerospike.client.Record;
-import com.xrtb.bidder.Controller;
-import com.xrtb.common.Configuration;
+import com.aerospike.redisson.AerospikeHandler;
+import com.aerospike.redisson.RedissonClient;
 
 /**
- * A Membership class fdor use with the Bidder.
+ * A Membership class for use with the Bidder. The members are kept locally in
+ * a MemberSet, so a query on the bid path is a hash table probe, never a trip
+ * to the cache.
+ * <p>
+ * A shared membership (cookie or device id lists loaded with AeroListSet) is
+ * kept in aerospike as a versioned set. The header record, named after the
+ * set, has the current "version", the version of the snapshot ("base") and the
+ * number of snapshot "pages". Each page is a list of members. Every change
+ * after the snapshot is a delta record with the members added and removed.
+ * The bidders check the version every REFRESH ms and apply only the deltas they
+ * haven't seen, or reload the snapshot if they are behind it. When there are
+ * MAX_DELTAS deltas the loader writes a new snapshot.
+ * <p>
+ * Only one loader should change a set at a time.
+ *
  * @author Ben M. Faul
  *
  */
 public class Membership extends LookingGlass {
 
-	// The set that contains the members
-	volatile Set<String> tree = new TreeSet<String>();
-	
-	// Might be aerospike backed
-	AerospikeClient client;
-	
+	/** Milliseconds between checks of the shared memberships' versions */
+	public static volatile int REFRESH = 5000;
+	/** Members per record of a snapshot */
+	public static volatile int PAGE = 10000;
+	/** Deltas written before the loader writes a new snapshot */
+	public static volatile int MAX_DELTAS = 100;
+	/** The aerospike set the shared memberships are kept in */
+	public static final String SET = "membership";
+
+	/** The cache the shared memberships are read from */
+	static volatile RedissonClient store;
+	/** The shared memberships, refreshed in the background */
+	static final List<Membership> shared = new CopyOnWriteArrayList<Membership>();
+	/** Checks the versions */
+	static Thread refresher;
+
+	// The members, replaced, never changed, once a reader can see it
+	volatile MemberSet members = new MemberSet(0);
+
+	// The version of the shared set we have, -1 if none
+	volatile long version = -1;
+
 	// The name of the symbol
 	String name;
-	
-	// Aerospike keyl
-	Key key;
-	
-	// Aerospike bin
-	Bin bin1;
-	
+
 	/**
 	 * Generic constructor
 	 */
 	public Membership() {
-		
+
 	}
-	
+
 	/**
 	 * Create a membership from the file provided. We expect a simple list, one entry per line.
 	 * @param name String. The name of the Membership
@@ -55,88 +76,337 @@ public class Membership extends LookingGlass {
 	public Membership(String name, String file) throws Exception {
 		this.name = name;
 		myMap = null;
-		readData(file);
+		members = build(readData(file));
+		symbols.put(name, this);
 	}
-	
+
 	/**
-	 * Read data and shove into the tree.
+	 * Constructor for loading a membership list into the shared cache. This
+	 * replaces the whole set.
+	 * @param name String. The symbol name.
+	 * @param fileName String. The filename with data.
+	 * @param redis RedissonClient. The cache to write to.
+	 * @throws Exception on file and aerospike errors.
+	 */
+	public Membership(String name, String fileName, RedissonClient redis) throws Exception {
+		this.name = name;
+		myMap = null;
+		List<String> list = readData(fileName);
+		members = build(list);
+		symbols.put(name, this);
+		version = publish(redis, name, list);
+		share();
+	}
+
+	/**
+	 * Read only constructor (does not load the data) for a shared membership. The
+	 * members are read when the refresher is started.
+	 * @param name String. The name of the symbol.
+	 */
+	public Membership(String name) {
+		this.name = name;
+		myMap = null;
+		symbols.put(name, this);
+		share();
+	}
+
+	/**
+	 * Read data, one member per line.
 	 * @param file String. The filename
+	 * @return List. The members.
 	 * @throws Exception on I/O errors.
 	 */
-	void readData(String file) throws Exception {		
+	static List<String> readData(String file) throws Exception {
+		List<String> list = new ArrayList<String>();
 		BufferedReader br = new BufferedReader(new FileReader(file));
-
-		String[] parts = null;	
-		String message = "Initialize Simple Membership: " + file + " as " + name;
+		String[] parts = null;
 		for (String line; (line = br.readLine()) != null;) {
 			parts = eatquotedStrings(line);
-			for (int i=0;i<parts.length;i++) {
-				parts[i] = parts[i].replaceAll("\"","");
+			list.add(parts[0].replaceAll("\"", ""));
+		}
+		br.close();
+		return list;
+	}
+
+	static MemberSet build(List<String> list) {
+		MemberSet set = new MemberSet(list.size());
+		for (String s : list)
+			set.add(s);
+		return set;
+	}
+
+	/**
+	 * Add this membership to the ones the refresher keeps up to date, in place
+	 * of one with the same name.
+	 */
+	void share() {
+		for (Membership m : shared) {
+			if (m.name.equals(name))
+				shared.remove(m);
+		}
+		shared.add(this);
+		RedissonClient redis = store;
+		if (redis != null) {
+			try {
+				refresh(redis);
+			} catch (Exception error) {
+				error.printStackTrace();
 			}
-			tree.add(parts[0]);
+			startRefresher();
 		}
-		
-		symbols.put(name, this);
-		// System.out.format("[%s] - %d - %s - %s - %s\n",Controller.sdf.format(new Date()), 1, Configuration.instanceName, this.getClass().getName(),message);
 	}
-	
+
 	/**
-	 * Constructor for loading a membership list into Aerospike
-	 * @param name String. The symbol name.
-	 * @param fileName String. The filename with data.
-	 * @param client AerospikeClient. Pointer to your aerospike client.
-	 * @throws Exception on file and aerospike errors.
+	 * Start keeping the shared memberships up to date.
+	 * @param redis RedissonClient. The cache the memberships are in.
 	 */
-	public Membership(String name, String fileName, AerospikeClient client) throws Exception {
-		this.name = name;
-		this.client = client;
-		readData(fileName);
-		key = new Key("test", "database", "rtb4free");
-		bin1 = new Bin(name, tree);
-		client.put(null, key, bin1);
-		tree = null;
+	public static void start(RedissonClient redis) {
+		store = redis;
+		if (shared.size() == 0)
+			return;
+		refreshAll();
+		startRefresher();
+	}
+
+	static synchronized void startRefresher() {
+		if (refresher != null)
+			return;
+		refresher = new Thread(() -> {
+			while (true) {
+				try {
+					Thread.sleep(REFRESH);
+				} catch (InterruptedException e) {
+					return;
+				}
+				refreshAll();
+			}
+		}, "membership-refresh");
+		refresher.setDaemon(true);
+		refresher.start();
 	}
-	
+
 	/**
-	 * Read only constructor (does not load the data) for use with Aerospike.
-	 * @param name String. The name of the symbol.
-	 * @param client AerospikeClient. The aerospike to use.
+	 * Bring all the shared memberships up to date.
 	 */
-	public Membership(String name, AerospikeClient client) {
-		this.name = name;
-		this.client = client;
-		key = new Key("test", "database", "rtb4free");
-		bin1 = new Bin(name, tree);
-		client.put(null, key, bin1);
-		tree = null;
+	public static void refreshAll() {
+		RedissonClient redis = store;
+		if (redis == null)
+			return;
+		for (Membership m : shared) {
+			try {
+				m.refresh(redis);
+			} catch (Exception error) {
+				error.printStackTrace();
+			}
+		}
 	}
-	
+
+	/**
+	 * Bring the local copy up to the version in the cache. If a record is
+	 * missing (a loader is in the middle of a change) nothing changes and the
+	 * next refresh tries again.
+	 * @param redis RedissonClient. The cache to read.
+	 * @return boolean. Returns true if the members changed.
+	 * @throws Exception on aerospike errors.
+	 */
+	public synchronized boolean refresh(RedissonClient redis) throws Exception {
+		Map<String, Object> head = redis.getRecord(SET, name, "version", "base", "pages");
+		if (head == null)
+			return false;
+		long v = number(head.get("version"));
+		long base = number(head.get("base"));
+		if (v == version)
+			return false;
+
+		MemberSet set;
+		long from;
+		if (version >= base && version < v) {
+			set = members.copy();
+			from = version;
+		} else {
+			List<String> list = readPages(redis, name, base, (int) number(head.get("pages")));
+			if (list == null)
+				return false;
+			set = build(list);
+			from = base;
+		}
+
+		List<Map<String, Object>> deltas = readDeltas(redis, name, from, v);
+		if (deltas == null)
+			return false;
+		for (Map<String, Object> delta : deltas) {
+			for (Object s : (List) delta.get("remove"))
+				set.remove(s.toString());
+			for (Object s : (List) delta.get("add"))
+				set.add(s.toString());
+		}
+		members = set;
+		version = v;
+		return true;
+	}
+
+	static long number(Object x) {
+		return x == null ? 0 : ((Number) x).longValue();
+	}
+
+	/**
+	 * Read the pages of a snapshot.
+	 * @return List. The members, or null if a page is missing.
+	 */
+	static List<String> readPages(RedissonClient redis, String name, long base, int pages) throws Exception {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < pages; i++)
+			keys.add(name + ":" + base + ":" + i);
+		List<String> list = new ArrayList<String>();
+		for (Map<String, Object> page : redis.getRecords(SET, keys)) {
+			if (page == null)
+				return null;
+			for (Object s : (List) page.get("members"))
+				list.add(s.toString());
+		}
+		return list;
+	}
+
+	/**
+	 * Read the deltas after version 'from', up to and including 'to'.
+	 * @return List. The deltas in order, or null if one is missing.
+	 */
+	static List<Map<String, Object>> readDeltas(RedissonClient redis, String name, long from, long to)
+			throws Exception {
+		List<String> keys = new ArrayList<String>();
+		for (long v = from + 1; v <= to; v++)
+			keys.add(name + "+" + v);
+		if (keys.size() == 0)
+			return new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> deltas = redis.getRecords(SET, keys);
+		if (deltas.contains(null))
+			return null;
+		return deltas;
+	}
+
+	/**
+	 * Write a snapshot of a set, then delete the old snapshot and the deltas it replaces.
+	 */
+	static void writeSnapshot(RedissonClient redis, String name, long v, Collection<String> members) throws Exception {
+		Map<String, Object> head = redis.getRecord(SET, name, "base", "pages");
+		List<String> list = new ArrayList<String>(members);
+		int pages = (list.size() + PAGE - 1) / PAGE;
+		for (int i = 0; i < pages; i++) {
+			Map<String, Object> bins = new HashMap<String, Object>();
+			bins.put("members", new ArrayList<String>(list.subList(i * PAGE, Math.min(list.size(), (i + 1) * PAGE))));
+			redis.putRecord(SET, name + ":" + v + ":" + i, bins, 0);
+		}
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("base", v);
+		bins.put("pages", pages);
+		redis.putRecord(SET, name, bins, 0);
+
+		if (head == null)
+			return;
+		long old = number(head.get("base"));
+		for (int i = 0; i < number(head.get("pages")); i++)
+			redis.delRecord(SET, name + ":" + old + ":" + i);
+		for (long d = old + 1; d <= v; d++)
+			redis.delRecord(SET, name + "+" + d);
+	}
+
+	/**
+	 * Replace the members of a shared set.
+	 * @param redis RedissonClient. The cache to write to.
+	 * @param name String. The name of the set.
+	 * @param members Collection. The new members.
+	 * @return long. The new version of the set.
+	 * @throws Exception on aerospike errors.
+	 */
+	public static long publish(RedissonClient redis, String name, Collection<String> members) throws Exception {
+		long v = redis.incrRecord(SET, name, "version");
+		writeSnapshot(redis, name, v, new LinkedHashSet<String>(members));
+		return v;
+	}
+
+	/**
+	 * Add and remove members of a shared set. The bidders apply just this
+	 * change. Writes a new snapshot every MAX_DELTAS changes.
+	 * @param redis RedissonClient. The cache to write to.
+	 * @param name String. The name of the set.
+	 * @param adds Collection. The members to add.
+	 * @param removes Collection. The members to remove.
+	 * @return long. The new version of the set.
+	 * @throws Exception on aerospike errors.
+	 */
+	public static long update(RedissonClient redis, String name, Collection<String> adds, Collection<String> removes)
+			throws Exception {
+		long v = redis.incrRecord(SET, name, "version");
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("add", new ArrayList<String>(adds));
+		bins.put("remove", new ArrayList<String>(removes));
+		redis.putRecord(SET, name + "+" + v, bins, 0);
+
+		Map<String, Object> head = redis.getRecord(SET, name, "base", "pages");
+		long base = number(head.get("base"));
+		if (v - base < MAX_DELTAS)
+			return v;
+
+		List<String> list = readPages(redis, name, base, (int) number(head.get("pages")));
+		List<Map<String, Object>> deltas = readDeltas(redis, name, base, v);
+		if (list == null || deltas == null)
+			throw new Exception("Membership " + name + " is missing records, can't write a snapshot");
+		Set<String> set = new LinkedHashSet<String>(list);
+		for (Map<String, Object> delta : deltas) {
+			set.removeAll((List) delta.get("remove"));
+			set.addAll((List) delta.get("add"));
+		}
+		writeSnapshot(redis, name, v, set);
+		return v;
+	}
+
+	/**
+	 * Is this a member?
+	 * @param key String. The key we are looking for.
+	 * @return boolean. Returns true if it is a member.
+	 */
+	public boolean contains(String key) {
+		if (key == null)
+			return false;
+		return members.contains(key);
+	}
+
 	/**
 	 * Does the key exist in the member
-	 * @param key Object. The key we are looking for.
-	 * @return Boolean. Returns the object if the object exists in the membership, otherwise returns null.
+	 * @param tkey Object. The key we are looking for.
+	 * @return Object. Returns the object if the object exists in the membership, otherwise returns null.
 	 */
 	@Override
 	public Object query(Object tkey) {
-		if (client == null) {
-			if (tree.contains(tkey))
-				return tkey;
-		} else {
-			Record record = client.get(null, key);
-			Set<String> receivedList = (Set<String>) record.getValue(name);
-			return receivedList.contains(tkey);
-		}
+		if (tkey != null && members.contains(tkey.toString()))
+			return tkey;
 		return null;
 	}
-	
+
+	/**
+	 * Return the number of members.
+	 * @return int. The size of the local copy.
+	 */
+	public int size() {
+		return members.size();
+	}
+
+	/**
+	 * Return the version of the shared set the local copy is at.
+	 * @return long. The version, -1 if not shared or not read yet.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 	/**
 	 * Let's test this mess.
 	 * @param args
 	 * @throws Exception
 	 */
 	public static void main(String args[]) throws Exception {
-		AerospikeClient client = new AerospikeClient("localhost",3000);
-		Membership m = new Membership("c1x-cookies", "/home/ben/Downloads/c1x_cookies.csv", client);
+		RedissonClient redis = new RedissonClient(AerospikeHandler.getInstance("localhost", 3000, 300));
+		Membership m = new Membership("c1x-cookies", "/home/ben/Downloads/c1x_cookies.csv", redis);
 		System.out.println(m.query("9786B01215534DEB9AAC2D5FEE23A497"));
 	}
 }
@@ -13,17 +13,17 @@ import com.aerospike.redisson.AerospikeHandler;
 import com.aerospike.redisson.RedissonClient;
 
 /**
- * A class that keeps a set of bidders in a scored sorted set. Bidders add themselves to the
- * pool with their timestamp as a score. Once every 5 seconds they wake up and update their own score.
- * Each bidder also ages the set, and anyone who has a timestamp over 60 seconds old is deleted from the set.
- * If a bidder is not in the pool, it is considered down.
+ * A class that keeps the pool of running bidders. Each bidder has its own record in the pool, that
+ * expires 60 seconds after it was written. Once every 5 seconds they wake up and write their record again,
+ * and refresh their local copy of the pool. If a bidder is not in the pool, it is considered down.
+ * See BidderPool.
  * 
  * @author Ben M. Faul
  *
  */
 public class NameNode implements Runnable {
 
-	/** name of the scored sorted set in REDIS. Redisson does not 'directly' support this construct */
+	/** name of the pool (the aerospike set the bidder records are in) */
 	public static final String BIDDERSPOOL = "bidderspool";
 	/** Expiry in seconds from now */
 	public static final long INTERVAL = 30000;
@@ -32,6 +32,8 @@ public class NameNode implements Runnable {
 	
 	/** The redis connection */
 	static RedissonClient redis;
+	/** The pool of bidders */
+	BidderPool pool;
 	/** My thread */
 	Thread me;
 	/** My name. Note, a master has no name, it is null */
@@ -77,9 +79,7 @@ public class NameNode implements Runnable {
 		redis = client;
 		name = null;
 		
-		me = new Thread(this);
-		me.start();
-		latch.await();
+		start();
 	}
 	
 	/**
@@ -94,9 +94,7 @@ public class NameNode implements Runnable {
 		redis = new RedissonClient(spike);
 		this.name = name;
 		
-		me = new Thread(this);
-		me.start();
-		latch.await();
+		start();
 	}
 	
 	/**
@@ -109,18 +107,38 @@ public class NameNode implements Runnable {
 		this.name = name;
 		redis = client;
 		
+		start();
+	}
+	
+	/**
+	 * Create the pool and start the heartbeat thread.
+	 * @throws Exception if interrupted waiting for the first heartbeat.
+	 */
+	void start() throws Exception {
+		pool = new BidderPool(redis, BIDDERSPOOL, INTERVAL * 2);
+		pool.addListener(new BidderPool.Listener() {
+			@Override
+			public void joined(String member) {
+				log(5, "NameNodeManager", "Bidder joined: " + member);
+			}
+
+			@Override
+			public void left(String member) {
+				log(3, "NameNodeManager", "Removed stale bidder: " + member);
+			}
+		});
 		me = new Thread(this);
 		me.start();
 		latch.await();
 	}
-	
+
 	/**
 	 * Remove a name from the pool
 	 * @param name String. The name of the bidder to remove.
 	 */
 	public void remove(String name) throws Exception {
 		System.out.println("-------------> REMOVING NAME: " + name);
-		redis.zrem(BIDDERSPOOL, name);
+		pool.remove(name);
 		redis.del(name);
 	}
 	
@@ -128,37 +146,14 @@ public class NameNode implements Runnable {
 	 * Periodic processing
 	 */
 	public void run() {
-		double time = System.currentTimeMillis();
-		Map map = new HashMap();
 		while(true) {
 			try {
-			    time = System.currentTimeMillis();
-				double now = time;                        // keep a copy
-				map.put(name, time);                      // add the timestamp
-				
 				if (name != null)						  // control nodes don't register
-					redis.zadd(BIDDERSPOOL,map);
-				
-				time = time - INTERVAL * 2;                       							// find all members whose score is stake
-				List<String> candidates = redis.zrangeByScore(BIDDERSPOOL, 0, time);
-				
-				if (candidates == null) {  // aerospike is running, but, there is no BIDDERSPOOL initialize yet
-					latch.countDown();
-					return;
-				}
-				
-				long k = redis.zremrangeByScore(BIDDERSPOOL, 0, time);     				// and remove them
-				if (k > 0) {
-					log(3,"NameNodeManager","Removed stale bidders: " + candidates);
-				}
-				
+					pool.heartbeat(name);
+				pool.refresh();                           // expired bidders are gone already
 			} catch (Exception e) {
 				//e.printStackTrace();
-				//log(1,"NameNodeManager", "INTERRUPT: " + name);
 				AerospikeHandler.reset();
-				//if (name != null)
-				//	redis.zrem(BIDDERSPOOL, name);
-				//return;
 			}
 			latch.countDown();						// doesn't do anything after the first time
 			try {
@@ -189,14 +184,7 @@ public class NameNode implements Runnable {
 	 * @throws Exception on Redis errors (except cast error when the key is empty)
 	 */
 	public  List<String> getMembers()  throws Exception {
-		try {
-			return getMembers(redis);
-		} catch (Exception error) {
-			if (error.toString().contains("Long cannot be cast to java.util.List")) {
-                return (List<String>) new ArrayList();
-			}
-			throw error;
-		}
+		return pool.getMembers();
 	}
 	
 	/**
@@ -206,8 +194,7 @@ public class NameNode implements Runnable {
 	 * @throws Exception on Jedis exceptions.
 	 */
 	public static List<String> getMembers(RedissonClient redis) throws Exception {
-		double now = System.currentTimeMillis() + 100000;
-		return redis.zrangeByScore(BIDDERSPOOL, 0, now);
+		return new BidderPool(redis, BIDDERSPOOL, INTERVAL * 2).getMembers();
 	}
 	
 	/**
@@ -230,7 +217,7 @@ public class NameNode implements Runnable {
 	 */
 	public void removeYourself() {
 		try {
-			redis.zrem(BIDDERSPOOL, name);
+			pool.remove(name);
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
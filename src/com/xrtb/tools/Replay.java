@@ -0,0 +1,326 @@
+package com.xrtb.tools;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import com.xrtb.bidder.CampaignProcessor;
+import com.xrtb.bidder.CampaignSelector;
+import com.xrtb.bidder.RTBServer;
+import com.xrtb.bidder.RouteTable;
+import com.xrtb.bidder.SelectedCreative;
+import com.xrtb.common.Campaign;
+import com.xrtb.common.Configuration;
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.ExchangeCodec;
+
+/**
+ * Campaign reach simulator. Replays logged bid requests through the exchange
+ * codecs and the CampaignSelector of the bidder, in process, to find out how
+ * often each campaign and creative would bid before the campaign is pushed.
+ * <p>
+ * The log is split with the LogScanner and replayed on all the cores. Every
+ * campaign is tested on every request, and every creative of a matching
+ * campaign is tested, so the counts are the reach of each one on its own, not
+ * the share it would win against the others. The no bid reasons come from the
+ * CampaignProcessor Probe, the same as the running bidder reports.
+ * <p>
+ * The exchange of a request is taken from the ext.exchange field the request
+ * log adds, or the -x option for raw requests.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class Replay {
+
+	/** The codecs, by exchange name */
+	final Map<String, ExchangeCodec> codecs = new HashMap<String, ExchangeCodec>();
+	/** The exchange of requests that don't say */
+	final String exchange;
+	/** The number of threads replaying */
+	final int threads;
+
+	/** Requests replayed */
+	public long requests;
+	/** Requests at least one campaign would bid on */
+	public long bids;
+	/** Requests that were not biddable, or couldn't be decoded */
+	public long errors;
+	/** Seconds spent replaying */
+	public double seconds;
+	/** Requests each campaign matched, by ad id */
+	public Map<String, Long> campaigns = new TreeMap<String, Long>();
+	/** Requests each creative could bid on, by ad id/impid */
+	public Map<String, Long> creatives = new TreeMap<String, Long>();
+	/** Requests by exchange */
+	public Map<String, Long> exchanges = new TreeMap<String, Long>();
+
+	public static void main(String[] args) throws Exception {
+		String config = "Campaigns/payday.json";
+		String source = "logs/request";
+		String exchange = "nexage";
+		List<String> files = new ArrayList<String>();
+		boolean only = false;
+		boolean probe = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		while (i < args.length) {
+			switch (args[i]) {
+			case "-h":
+			case "-help":
+				System.out.println("-c config          The bidder configuration, default Campaigns/payday.json");
+				System.out.println("-f filename        The requests to replay, a log or directory, default logs/request");
+				System.out.println("-x exchange        The exchange of requests without ext.exchange, default nexage");
+				System.out.println("-campaign file     Add the campaign (or list of campaigns) in the JSON file");
+				System.out.println("-only              Replay only against the -campaign campaigns");
+				System.out.println("-probe             Print the no bid reasons");
+				System.out.println("-threads n         Threads to replay with, default is the number of cores");
+				return;
+			case "-c":
+				config = args[i + 1];
+				i += 2;
+				break;
+			case "-f":
+				source = args[i + 1];
+				i += 2;
+				break;
+			case "-x":
+				exchange = args[i + 1];
+				i += 2;
+				break;
+			case "-campaign":
+				files.add(args[i + 1]);
+				i += 2;
+				break;
+			case "-only":
+				only = true;
+				i++;
+				break;
+			case "-probe":
+				probe = true;
+				i++;
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				i += 2;
+				break;
+			default:
+				System.err.println("Huh? " + args[i]);
+				return;
+			}
+		}
+
+		Configuration.getInstance(config);
+		List<Campaign> list = Configuration.getInstance().campaignsList;
+		if (only)
+			list.clear();
+		for (String file : files) {
+			for (Campaign c : load(file)) {
+				list.removeIf(x -> Objects.equals(x.adId, c.adId) && Objects.equals(x.owner, c.owner));
+				list.add(c);
+			}
+		}
+		System.out.println("Replaying " + source + " against " + list.size() + " campaigns");
+
+		Replay replay = new Replay(exchange, threads);
+		replay.run(source);
+		System.out.println(replay.report());
+		if (probe)
+			System.out.println(CampaignProcessor.probe.report());
+		System.exit(0);
+	}
+
+	/**
+	 * Read campaigns from a JSON file, either one campaign or a list.
+	 *
+	 * @param file
+	 *            String. The file name.
+	 * @return List. The campaigns.
+	 * @throws Exception
+	 *             on I/O or JSON errors.
+	 */
+	public static List<Campaign> load(String file) throws Exception {
+		String content = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+		List<Campaign> list = new ArrayList<Campaign>();
+		if (content.startsWith("[")) {
+			List<Map> maps = DbTools.mapper.readValue(content, List.class);
+			for (Map m : maps)
+				list.add(new Campaign(DbTools.mapper.writeValueAsString(m)));
+		} else
+			list.add(new Campaign(content));
+		return list;
+	}
+
+	/**
+	 * A replayer over the exchanges of the configuration.
+	 *
+	 * @param exchange
+	 *            String. The exchange of requests that don't name one.
+	 * @param threads
+	 *            int. The number of threads.
+	 */
+	public Replay(String exchange, int threads) {
+		this.exchange = exchange;
+		this.threads = threads;
+		// Appnexus has extra endpoints, the bid endpoint is the shortest.
+		Map<String, String> targets = new HashMap<String, String>();
+		RouteTable routes = RTBServer.routes;
+		for (int i = 0; i < routes.size(); i++) {
+			RouteTable.Route r = routes.get(i);
+			String name = r.codec.getExchange();
+			String old = targets.get(name);
+			if (old == null || r.target.length() < old.length()) {
+				targets.put(name, r.target);
+				codecs.put(name, r.codec);
+			}
+		}
+	}
+
+	/**
+	 * Replay a log.
+	 *
+	 * @param source
+	 *            String. The log (and the logs rolled from it) or directory.
+	 * @throws Exception
+	 *             on I/O errors.
+	 */
+	public void run(String source) throws Exception {
+		CampaignSelector selector = CampaignSelector.getInstance();
+		CampaignProcessor.probe.reset();
+		long time = System.nanoTime();
+		LogScanner scanner = new LogScanner(threads);
+		try {
+			Tally t = scanner.scan(source, () -> new Tally(), (x, file, line) -> x.replay(selector, line), (a, b) -> {
+				a.merge(b);
+				return a;
+			});
+			requests += t.requests;
+			bids += t.bids;
+			errors += t.errors + scanner.getBad();
+			add(campaigns, t.campaigns);
+			add(creatives, t.creatives);
+			add(exchanges, t.exchanges);
+		} finally {
+			scanner.shutdown();
+		}
+		seconds += (System.nanoTime() - time) / 1e9;
+	}
+
+	/**
+	 * Return the number of requests replayed per second, per thread.
+	 *
+	 * @return double. The throughput of one core.
+	 */
+	public double getRate() {
+		return seconds == 0 ? 0 : requests / seconds / threads;
+	}
+
+	/**
+	 * Return the results as text.
+	 *
+	 * @return String. The report.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Requests = %d, bid on = %d (%.3f%%), errors = %d\n", requests, bids,
+				percent(bids), errors));
+		sb.append(String.format("Time = %.3f seconds, threads = %d, requests/second/core = %.1f\n", seconds,
+				threads, getRate()));
+		sb.append("\nExchanges\n");
+		for (Map.Entry<String, Long> e : exchanges.entrySet())
+			sb.append(String.format("\t%s, %d\n", e.getKey(), e.getValue()));
+		sb.append("\nCampaigns\n");
+		for (Map.Entry<String, Long> e : campaigns.entrySet())
+			sb.append(String.format("\t%s, %d, (%.3f%%)\n", e.getKey(), e.getValue(), percent(e.getValue())));
+		sb.append("\nCreatives\n");
+		for (Map.Entry<String, Long> e : creatives.entrySet())
+			sb.append(String.format("\t%s, %d, (%.3f%%)\n", e.getKey(), e.getValue(), percent(e.getValue())));
+		return sb.toString();
+	}
+
+	double percent(long n) {
+		return requests == 0 ? 0 : 100.0 * n / requests;
+	}
+
+	static void add(Map<String, Long> into, Map<String, Long> from) {
+		for (Map.Entry<String, Long> e : from.entrySet())
+			into.merge(e.getKey(), e.getValue(), Long::sum);
+	}
+
+	/**
+	 * Find the exchange a logged request came from.
+	 */
+	String exchangeOf(String line) {
+		int i = line.lastIndexOf("\"exchange\":\"");
+		if (i < 0)
+			return exchange;
+		i += 12;
+		int j = line.indexOf('"', i);
+		return j < 0 ? exchange : line.substring(i, j);
+	}
+
+	/**
+	 * The counts of one part of the log.
+	 */
+	class Tally {
+		long requests;
+		long bids;
+		long errors;
+		Map<String, Long> campaigns = new HashMap<String, Long>();
+		Map<String, Long> creatives = new HashMap<String, Long>();
+		Map<String, Long> exchanges = new HashMap<String, Long>();
+
+		void replay(CampaignSelector selector, String line) throws Exception {
+			if (line.length() == 0)
+				return;
+			requests++;
+			String name = exchangeOf(line);
+			exchanges.merge(name, 1L, Long::sum);
+			ExchangeCodec codec = codecs.get(name);
+			if (codec == null) {
+				errors++;
+				return;
+			}
+			BidRequest br;
+			try {
+				br = codec.decode(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)));
+			} catch (Exception error) {
+				errors++;
+				return;
+			}
+			if (br.notABidRequest()) {
+				errors++;
+				return;
+			}
+			boolean bid = false;
+			for (CampaignProcessor p : selector.evaluate(br)) {
+				List<SelectedCreative> eligible = p.getEligible();
+				if (eligible == null || eligible.size() == 0)
+					continue;
+				bid = true;
+				String adId = p.getCampaign().adId;
+				campaigns.merge(adId, 1L, Long::sum);
+				for (SelectedCreative c : eligible)
+					creatives.merge(adId + "/" + c.getCreative().impid, 1L, Long::sum);
+			}
+			if (bid)
+				bids++;
+		}
+
+		void merge(Tally o) {
+			requests += o.requests;
+			bids += o.bids;
+			errors += o.errors;
+			add(campaigns, o.campaigns);
+			add(creatives, o.creatives);
+			add(exchanges, o.exchanges);
+		}
+	}
+}
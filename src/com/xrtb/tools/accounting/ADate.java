@@ -34,6 +34,17 @@ public class ADate {
 		h.process(r);
 	}
 
+	/**
+	 * Add the counts of another date.
+	 * 
+	 * @param other
+	 *            ADate. The date to add in.
+	 */
+	public void merge(ADate other) {
+		for (int i = 0; i < hours.size(); i++)
+			hours.get(i).merge(other.hours.get(i));
+	}
+
 	public void print(boolean hourly, int year, int month, StringBuilder csv) {
 				
 		if (hourly)
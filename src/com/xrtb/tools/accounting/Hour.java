@@ -63,6 +63,21 @@ public class Hour {
 		}
 	}
 
+	/**
+	 * Add the counts of another hour.
+	 * 
+	 * @param other
+	 *            Hour. The hour to add in.
+	 */
+	public void merge(Hour other) {
+		pixels += other.pixels;
+		clicks += other.clicks;
+		bids += other.bids;
+		wins += other.wins;
+		winPrice = winPrice.add(other.winPrice);
+		bidPrice = bidPrice.add(other.bidPrice);
+	}
+
 	public void print(int year, int month, int day, StringBuilder csv) {
 		double bidP = bidPrice.doubleValue();
 		double winP = winPrice.doubleValue();
@@ -37,6 +37,17 @@ public class Month {
 		date.process(r);
 	}
 	
+	/**
+	 * Add the counts of another month.
+	 * @param other Month. The month to add in.
+	 */
+	public void merge(Month other) {
+		while (dates.size() < other.dates.size())
+			dates.add(new ADate(dates.size()));
+		for (int i = 0; i < other.dates.size(); i++)
+			dates.get(i).merge(other.dates.get(i));
+	}
+	
 	public void print(int year, List<Integer> days, Boolean hourly, StringBuilder csv) {
 		System.out.println("\n\nMonth: " + name);
 		if (!hourly) {
@@ -1,8 +1,5 @@
 package com.xrtb.tools.accounting;
 
-import java.io.BufferedReader;
-
-import java.io.FileReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
@@ -15,6 +12,7 @@ import java.util.TimeZone;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xrtb.tools.LogScanner;
 
 /**
  * A simple accounting program for processing Accounting records from Spark.
@@ -54,6 +52,7 @@ public class Process {
 		String content = null;
 		boolean hourly = false;
 		String csvName = null;
+		int threads = Runtime.getRuntime().availableProcessors();
 		
 		StringBuilder csv = null;
 		
@@ -129,6 +128,10 @@ public class Process {
 				nz = true;
 				i++;
 				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i+1]);
+				i+=2;
+				break;
 			case "-yesterday":
 				Calendar cal = Calendar.getInstance();
 				cal.add(Calendar.DATE, -1);
@@ -159,6 +162,7 @@ public class Process {
 				 System.out.println("                      Default is no CSV");
 				 System.out.println("-yesterday            Set startMonth, endMonth and day to yeserday's particulars");
 				 System.out.println("-exchange <name>      Process just for this exchange.");
+				 System.out.println("-threads <n>          Number of threads reading the logs. Default is the number of cores");
 				 System.out.println("\nWrites report to stdout");
 				 System.out.println("Default: -startMonth " + month + " -stopMonth " + month + " -year " + yr + " -hourly -source logs/accounting");
 				 System.exit(0);
@@ -168,24 +172,21 @@ public class Process {
 			}
 		}
 		
-		FileReader fr = new FileReader(source); 
-		BufferedReader bufr = new BufferedReader(fr); 
-		
 		if (year == null)
 			year = new Year(yr);
 		
-		
-		while((content = bufr.readLine()) != null) {
-			Record record = null;
-			try {
-				record = mapper.readValue(content, Record.class);
-				record.process();
-				year.process(record);
-			} catch (Exception error) {
-				error.printStackTrace();
-				System.err.println("Bad Record: " + content);
-			} 
-		}
+		// The source and the files rolled from it are read in parallel, each part into its own Year.
+		final int which = year.year;
+		LogScanner scanner = new LogScanner(threads);
+		year = scanner.scan(source, () -> new Year(which), (y, file, line) -> {
+			Record record = mapper.readValue(line, Record.class);
+			record.process();
+			y.process(record);
+		}, (a, b) -> {
+			a.merge(b);
+			return a;
+		});
+		scanner.shutdown();
 		
 		if (csvName != null) {
 			csv = new StringBuilder();
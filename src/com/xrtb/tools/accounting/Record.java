@@ -36,11 +36,12 @@ public class Record {
 	
 	
 	
-	static DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm",
-            Locale.US);
-	static {
+	/** One per thread, the logs are read in parallel */
+	static ThreadLocal<DateFormat> formats = ThreadLocal.withInitial(() -> {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm", Locale.US);
 		format.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
-	}
+		return format;
+	});
 	
 	@JsonIgnore
 	transient List<Integer> footprint = new ArrayList();
@@ -51,7 +52,7 @@ public class Record {
 	
 	public void process() {
 		Date date = new Date(time);
-		String result = format.format(date);
+		String result = formats.get().format(date);
 		String [] parts = result.split("-");
 		footprint.add(Integer.parseInt(parts[0]));
 		parts[1] = parts[1].replaceFirst("^0+(?!$)", "");
@@ -33,6 +33,15 @@ public class Year {
 		m.process(r);
 	}
 	
+	/**
+	 * Add the counts of another year, built from a different part of the log.
+	 * @param other Year. The year to add in.
+	 */
+	public void merge(Year other) {
+		for (int i = 0; i < months.size(); i++)
+			months.get(i).merge(other.months.get(i));
+	}
+	
 	public void print(Integer sm, Integer em, List<Integer>days, boolean hourly, StringBuilder csv) {
 		System.out.println(year);
 		for (int i=sm; i<= em;i++) {
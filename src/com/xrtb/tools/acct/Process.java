@@ -1,29 +1,23 @@
 package com.xrtb.tools.acct;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
 
-import com.aerospike.client.AerospikeClient;
-import com.aerospike.client.Bin;
-import com.aerospike.client.Key;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xrtb.pojo.BidResponse;
 import com.xrtb.pojo.WinObject;
+import com.xrtb.tools.LogScanner;
 
 /**
  * A simple accounting program for processing Accounting records from Spark.
@@ -68,6 +62,7 @@ public class Process {
 		String content = null;
 		boolean hourly = false;
 		String csvName = null;
+		int threads = Runtime.getRuntime().availableProcessors();
 
 		StringBuilder csv = null;
 
@@ -143,6 +138,10 @@ public class Process {
 				nz = true;
 				i++;
 				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				i += 2;
+				break;
 			case "-yesterday":
 				Calendar cal = Calendar.getInstance();
 				cal.add(Calendar.DATE, -1);
@@ -173,6 +172,7 @@ public class Process {
 				System.out.println("                      Default is no CSV");
 				System.out.println("-yesterday            Set startMonth, endMonth and day to yeserday's particulars");
 				System.out.println("-exchange <name>      Process just for this exchange.");
+				System.out.println("-threads <n>          Number of threads reading the logs. Default is the number of cores");
 				System.out.println("\nWrites report to stdout");
 				System.out.println("Default: -startMonth " + month + " -stopMonth " + month + " -year " + yr
 						+ " -hourly -source logs/accounting");
@@ -183,78 +183,39 @@ public class Process {
 			}
 		}
 
-		FileReader fr = null;
-		BufferedReader bufr = null;
-
-		File folder = new File(source);
-		File[] listOfFiles = folder.listFiles();
-
-		int threads = 8;
-		List<FileProcessor> procs = new ArrayList();
-		List<String> names = new ArrayList();
-		
-		System.out.println("File coount = " + names.size());
+		if (year == null)
+			year = new Year(yr);
 
-		
-		for (File f : listOfFiles) {
-			if (f.isFile()) {
-				if (f.getName().startsWith("bids") || f.getName().startsWith("wins")
-						|| f.getName().startsWith("request")) {
-
-					//FileProcessor p = new FileProcessor(f.getPath());
-					//procs.add(p);
-					names.add(f.getPath());
-				}
-				/*
-				 * fr = new FileReader(f); bufr = new BufferedReader(fr); while
-				 * ((content = bufr.readLine()) != null) { Object x = null; if
-				 * (f.getName().startsWith("bids")) x =
-				 * mapper.readValue(content, BidResponse.class); else if
-				 * (f.getName().startsWith("wins")) x =
-				 * mapper.readValue(content, WinObject.class); else if
-				 * (f.getName().startsWith("request")) x =
-				 * mapper.readValue(content, Map.class);
-				 * 
-				 * Record record = Record.getInstance(x); } }
-				 */
-			}
-			
-			
-		/*	while (procs.size() > 0) {
-				for (FileProcessor p : procs) {
-					if (p.done) {
-						System.out.println("Completed: " + p.fileName);
-						procs.remove(p);
-						break;
-					}	
-				}
-			} */
+		// The bids, wins and request logs (rolled ones too) are read in parallel, each part
+		// counting into its own map of records by minute.
+		List<File> files = new ArrayList();
+		for (File f : LogScanner.expand(source)) {
+			String name = f.getName();
+			if (name.startsWith("bids") || name.startsWith("wins") || name.startsWith("request"))
+				files.add(f);
 		}
-		
-		long time = System.currentTimeMillis();
-		while(names.size()>0 || procs.size()>0) {
-			if (names.size() != 0 && procs.size()<threads) {
-				FileProcessor p = new FileProcessor(names.get(0));
-				procs.add(p);
-				System.out.println("Starting: " + names.get(0));
-				names.remove(0);
-			}
-			for (FileProcessor p : procs) {
-				if (p.done) {
-					System.out.println("Completed: " + p.fileName);
-					procs.remove(p);
-					break;
-				}	
-			}
-		}
-		time  = System.currentTimeMillis() - time;
-	//	System.out.println(time);
+		System.out.println("File count = " + files.size());
 
-		Iterator it = Record.records.entrySet().iterator();
-		while (it.hasNext()) {
-			Map.Entry<String, Record> pair = (Map.Entry) it.next();
-			;
-			year.process(pair.getValue());
+		long time = System.currentTimeMillis();
+		LogScanner scanner = new LogScanner(threads);
+		Map<String, Record> records = scanner.scan(files, () -> (Map<String, Record>) new HashMap<String, Record>(),
+				(map, file, line) -> {
+					String name = file.getName();
+					Object x = null;
+					if (name.startsWith("bids"))
+						x = mapper.readValue(line, BidResponse.class);
+					else if (name.startsWith("wins"))
+						x = mapper.readValue(line, WinObject.class);
+					else
+						x = mapper.readValue(line, Map.class);
+					Record.add(map, x);
+				}, Record::merge);
+		scanner.shutdown();
+		time = System.currentTimeMillis() - time;
+		System.out.println("Read " + scanner.getLines() + " records in " + time + " milliseconds");
+
+		for (Record r : records.values()) {
+			year.process(r);
 		}
 
 		if (csvName != null) {
@@ -279,58 +240,3 @@ public class Process {
 
 	}
 }
-
-class FileProcessor implements Runnable {
-	static ObjectMapper mapper = new ObjectMapper();
-	static {
-		mapper.setSerializationInclusion(Include.NON_NULL);
-		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-	}
-	String fileName;
-	Thread me;
-	public String status;
-	public boolean done = false;
-
-	public FileProcessor(String fileName)  {
-		this.fileName = fileName;
-		me = new Thread(this);
-		me.start();
-	}
-
-	public void run() {
-		long time = System.currentTimeMillis();
-		String content = null;
-		try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-			while ((content = br.readLine()) != null) {
-				Object x = null;
-				try {
-				if (fileName.contains("bids"))
-					x = mapper.readValue(content, BidResponse.class);
-				else if (fileName.contains("wins"))
-					x = mapper.readValue(content, WinObject.class);
-				else if (fileName.contains("request"))
-					x = mapper.readValue(content, Map.class);
-
-				Record record = Record.getInstance(x);
-				} catch (Exception xxx) {
-					System.out.println(xxx);
-					System.out.println(content);
-					
-				}
-			}
-			status = fileName + " COMPLETE. Time = ";
-		} catch (Exception error) {
-			System.out.println(error);
-			status = fileName + " ERROR: " + error.toString();
-
-		} finally {
-			done = true;
-		}
-
-	}
-
-	public String getStatus() {
-		return status;
-	}
-
-}
\ No newline at end of file
@@ -43,12 +43,13 @@ public class Record {
 	public long time;
 	
 	
-	static DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm",
-            Locale.US);
-	public static Map<String, Record> records = new ConcurrentHashMap();
-	static {
+	/** One per thread, the logs are read in parallel */
+	static ThreadLocal<DateFormat> formats = ThreadLocal.withInitial(() -> {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm", Locale.US);
 		format.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
-	}
+		return format;
+	});
+	public static Map<String, Record> records = new ConcurrentHashMap();
 	
 	String key;
 	
@@ -75,6 +76,16 @@ public class Record {
 	}
 	
 	public static synchronized Record getInstance(Object x) {
+		return add(records, x);
+	}
+	
+	/**
+	 * Count a bid request (as a Map), bid or win into a map of records by minute.
+	 * @param records Map. The records, keyed by minute. Not synchronized, each reader of the logs has its own.
+	 * @param x Object. The Map, BidResponse or WinObject read from the log.
+	 * @return Record. The record for the minute.
+	 */
+	public static Record add(Map<String, Record> records, Object x) {
 		long time = 0;
 		long wins = 0;
 		long bids = 0;
@@ -100,7 +111,7 @@ public class Record {
 			winCost = Double.parseDouble(r.price);
 		}
 		Date date = new Date(time);
-		String key = format.format(date);
+		String key = formats.get().format(date);
 		Record r = records.get(key);
 		if (r == null) {
 			r = new Record(x);
@@ -119,7 +130,7 @@ public class Record {
 	
 	public void process() {
 		Date date = new Date(time);
-		key = format.format(date);
+		key = formats.get().format(date);
 		
 		String [] parts = key.split("-");
 		
@@ -143,6 +154,37 @@ public class Record {
 		
 	}
 	
+	/**
+	 * Add in the counts of another record for the same minute.
+	 * @param other Record. The record to add.
+	 */
+	public void merge(Record other) {
+		requests.add(other.requests.sum());
+		pixels.add(other.pixels.sum());
+		bids.add(other.bids.sum());
+		wins.add(other.wins.sum());
+		clicks.add(other.clicks.sum());
+		bidPrice.add(other.bidPrice.sum());
+		winPrice.add(other.winPrice.sum());
+	}
+	
+	/**
+	 * Merge a map of records into another.
+	 * @param into Map. The records to add to.
+	 * @param from Map. The records to add.
+	 * @return Map. Returns into.
+	 */
+	public static Map<String, Record> merge(Map<String, Record> into, Map<String, Record> from) {
+		for (Record r : from.values()) {
+			Record x = into.get(r.key);
+			if (x == null)
+				into.put(r.key, r);
+			else
+				x.merge(r);
+		}
+		return into;
+	}
+	
 	public String getKey() {
 		return key;
 	}
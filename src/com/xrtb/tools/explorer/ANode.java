@@ -364,9 +364,10 @@ public class ANode {
      * @throws Exception if the request object and the values are not compatible.
      */
     public boolean test(Map map) throws Exception {
-        brValue = interrogate(0, map);
+        Object v = interrogate(0, map);
+        brValue = v;
         //System.out.print("TEST: " + this.heirarchy);
-        return testInternal(brValue);
+        return testInternal(v);
     }
 
     public Object interrogate(int level, Object m) {
@@ -2,16 +2,13 @@ package com.xrtb.tools.explorer;
 
 import java.io.File;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xrtb.tools.LogScanner;
 
 public class Anlz  {
 
@@ -127,18 +124,24 @@ public class Anlz  {
 		setInput(fileName);
 	}
 
+	/**
+	 * Read the input (and the files rolled from it) in parallel. Each part of the
+	 * input is filtered and counted into its own copies of the counters, which
+	 * are merged in at the end.
+	 */
 	public void process() throws Exception {
-		Map map = null;
+		if (Columnar.isColumnar(input)) {
+			processColumnar();
+			return;
+		}
 		long time = System.currentTimeMillis();
+		AtomicInteger matched = new AtomicInteger();
 
-		Stream<String> stream = Files.lines(Paths.get(input));
-		Iterator<String> iter = stream.iterator();
-		while (iter.hasNext()) {
-			lines++;
-			if (limit != -1 && count < limit == false)
-				break;
-			String content = iter.next();
-			map = mapper.readValue(content, Map.class);
+		LogScanner scanner = new LogScanner();
+		Partial result = scanner.scan(input, () -> new Partial(), (p, file, content) -> {
+			if (limit != -1 && matched.get() >= limit)
+				return;
+			Map map = mapper.readValue(content, Map.class);
 			boolean ok = false;
 			for (int i = 0; i < filters.size(); i++) {
 				ANode n = filters.get(i);
@@ -148,27 +151,96 @@ public class Anlz  {
 			}
 			if (ok) {
 				if (keep)
-					data.add(map);
-				for (int j = 0; j < counters.size(); j++) {
-					Interesting c = counters.get(j);
-					c.process(map);
+					p.data.add(map);
+				for (int j = 0; j < p.counters.size(); j++) {
+					p.counters.get(j).process(map);
 				}
 				if (print) {
 					System.out.println("---------------" + content + "-------------------");
 				}
-				count++;
-				if (count % 1000 == 0) {
-					System.out.println("... " + count);
+				int n = matched.incrementAndGet();
+				if (n % 1000 == 0) {
+					System.out.println("... " + n);
+				}
+			}
+		}, (a, b) -> {
+			a.merge(b);
+			return a;
+		});
+		scanner.shutdown();
+
+		data.addAll(result.data);
+		for (int j = 0; j < counters.size(); j++)
+			counters.get(j).merge(result.counters.get(j));
+		count += matched.get();
+		lines += scanner.getLines();
+
+		time = System.currentTimeMillis() - time;
+		System.out.println("Read " + lines + " from " + input + " in " + time + " milliseconds");
+		System.out.println("Result set contains " + this.size() + " records");
+	}
+
+	/**
+	 * Read a columnar input. The filters are applied a column at a time, and
+	 * only the rows that pass are rebuilt as maps for the counters.
+	 */
+	public void processColumnar() throws Exception {
+		long time = System.currentTimeMillis();
+		List<ColumnFilter> cf = new ArrayList();
+		for (ANode n : filters)
+			cf.add(new ColumnFilter(n));
+
+		int matched = 0;
+		long total = 0;
+		try (Columnar.Reader reader = new Columnar.Reader(input)) {
+			Columnar.Block block;
+			while ((block = reader.next()) != null && (limit == -1 || matched < limit)) {
+				total += block.rows;
+				long[] sel = block.all();
+				boolean any = true;
+				for (int i = 0; i < cf.size() && any; i++)
+					any = cf.get(i).apply(block, sel);
+				for (int row = 0; any && row < block.rows && (limit == -1 || matched < limit); row++) {
+					if (!Columnar.Block.selected(sel, row))
+						continue;
+					Map map = block.row(row);
+					if (keep)
+						data.add(map);
+					for (int j = 0; j < counters.size(); j++)
+						counters.get(j).process(map);
+					if (print)
+						System.out.println("---------------" + mapper.writeValueAsString(map) + "-------------------");
+					matched++;
 				}
 			}
-			
 		}
+		count += matched;
+		lines += total;
 
 		time = System.currentTimeMillis() - time;
 		System.out.println("Read " + lines + " from " + input + " in " + time + " milliseconds");
 		System.out.println("Result set contains " + this.size() + " records");
 	}
 
+	/**
+	 * The results of one part of the input.
+	 */
+	static class Partial {
+		List<Interesting> counters = new ArrayList();
+		List data = new ArrayList();
+
+		Partial() {
+			for (Interesting c : Anlz.counters)
+				counters.add(c.fresh());
+		}
+
+		void merge(Partial other) {
+			for (int j = 0; j < counters.size(); j++)
+				counters.get(j).merge(other.counters.get(j));
+			data.addAll(other.data);
+		}
+	}
+
 	public static void setFilter(String hierarchy, String op, Object value) throws Exception {
 		ANode node = new ANode(hierarchy, hierarchy, op, value);
 		filters.add(node);
@@ -16,6 +16,31 @@ public class Average extends Counter {
 		title = h.toString();
 	}
 
+	Average() {
+
+	}
+
+	public Interesting fresh() {
+		Average a = (Average) copySettings(new Average());
+		a.masterNode = masterNode;
+		return a;
+	}
+
+	public void merge(Interesting other) {
+		Average a = (Average) other;
+		if (a.count == 0)
+			return;
+		if (count == 0) {
+			highest = a.highest;
+			lowest = a.lowest;
+		} else {
+			highest = Math.max(highest, a.highest);
+			lowest = Math.min(lowest, a.lowest);
+		}
+		total += a.total;
+		count += a.count;
+	}
+
 	public void process(Map m) throws Exception {
 		Object result = null;
 		String str = "";
@@ -0,0 +1,387 @@
+package com.xrtb.tools.explorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.xrtb.tools.explorer.Columnar.Block;
+import com.xrtb.tools.explorer.Columnar.Column;
+import com.xrtb.tools.explorer.Columnar.Vector;
+
+/**
+ * A filter on one column of a columnar request file. It is the columnar form of
+ * an ANode, with the same operators and meaning: the constant is on the left
+ * (GREATER_THAN 100 is 100 &gt; value), and a request without the field passes
+ * everything but EXISTS.
+ * <p>
+ * A filter works on a whole column of a block at once, clearing the rows that
+ * fail from the selection bitmap. String and list columns are tested once per
+ * dictionary entry rather than once per row, and a block whose min/max or
+ * dictionary can't match is cleared without looking at the rows.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class ColumnFilter {
+
+	/** The dotted name of the field */
+	public final String hierarchy;
+	/** The ANode operator */
+	public final int operator;
+	/** The constant */
+	public final Object value;
+	/** The constant(s) as strings, for string and list columns */
+	final Set<String> strings = new HashSet<String>();
+	/** The constant(s) as numbers, for int and double columns */
+	final double[] numbers;
+
+	/**
+	 * Make a filter.
+	 *
+	 * @param hierarchy
+	 *            String. The dotted name of the field.
+	 * @param op
+	 *            String. The ANode operator name, like EQUALS or MEMBER.
+	 * @param value
+	 *            Object. The constant, a number, string or list.
+	 * @throws Exception
+	 *             if the operator is not supported on columns.
+	 */
+	public ColumnFilter(String hierarchy, String op, Object value) throws Exception {
+		Integer x = ANode.OPS.get(op);
+		if (x == null)
+			throw new Exception("Unknown operator: " + op);
+		switch (x) {
+		case ANode.EQUALS:
+		case ANode.NOT_EQUALS:
+		case ANode.MEMBER:
+		case ANode.NOT_MEMBER:
+		case ANode.INTERSECTS:
+		case ANode.NOT_INTERSECTS:
+		case ANode.LESS_THAN:
+		case ANode.LESS_THAN_EQUALS:
+		case ANode.GREATER_THAN:
+		case ANode.GREATER_THAN_EQUALS:
+		case ANode.EXISTS:
+		case ANode.NOT_EXISTS:
+			break;
+		default:
+			throw new Exception("Operator " + op + " is not supported on columnar files");
+		}
+		this.hierarchy = hierarchy;
+		this.operator = x;
+		this.value = value;
+
+		List<Object> list = new ArrayList<Object>();
+		if (value instanceof Collection)
+			list.addAll((Collection) value);
+		else if (value instanceof Object[]) {
+			for (Object o : (Object[]) value)
+				list.add(o);
+		} else if (value != null)
+			list.add(value);
+		List<Double> nums = new ArrayList<Double>();
+		for (Object o : list) {
+			strings.add(string(o));
+			if (o instanceof Number)
+				nums.add(((Number) o).doubleValue());
+			else {
+				try {
+					nums.add(Double.parseDouble(o.toString()));
+				} catch (NumberFormatException error) {
+				}
+			}
+		}
+		numbers = new double[nums.size()];
+		for (int i = 0; i < numbers.length; i++)
+			numbers[i] = nums.get(i);
+	}
+
+	/**
+	 * Make a filter from an ANode.
+	 *
+	 * @param node
+	 *            ANode. The node.
+	 * @throws Exception
+	 *             if the operator is not supported on columns.
+	 */
+	public ColumnFilter(ANode node) throws Exception {
+		this(node.hierarchy, node.op, node.value);
+	}
+
+	/**
+	 * Numbers the way they look in a list column: 3, not 3.0.
+	 */
+	static String string(Object o) {
+		if (o instanceof Double || o instanceof Float) {
+			double d = ((Number) o).doubleValue();
+			if (d == Math.rint(d) && !Double.isInfinite(d))
+				return Long.toString((long) d);
+		}
+		return String.valueOf(o);
+	}
+
+	boolean negated() {
+		return operator == ANode.NOT_EQUALS || operator == ANode.NOT_MEMBER || operator == ANode.NOT_INTERSECTS;
+	}
+
+	/**
+	 * Apply the filter to a block, clearing the rows that fail.
+	 *
+	 * @param block
+	 *            Block. The block.
+	 * @param sel
+	 *            long[]. The selection bitmap, updated in place.
+	 * @return boolean. Returns false if no rows are left.
+	 * @throws IOException
+	 *             if the block is corrupt.
+	 */
+	public boolean apply(Block block, long[] sel) throws IOException {
+		Column c = Columnar.find(block.schema, hierarchy);
+		if (c == null) {
+			// Not stored, same as not in the request.
+			if (operator == ANode.EXISTS) {
+				clear(sel);
+				return false;
+			}
+			return true;
+		}
+		Vector v = block.column(c.index);
+		if (v.nullCount == v.rows) {
+			if (operator == ANode.EXISTS) {
+				clear(sel);
+				return false;
+			}
+			return true;
+		}
+		if (operator == ANode.EXISTS || operator == ANode.NOT_EXISTS) {
+			boolean want = operator == ANode.EXISTS;
+			for (int w = 0; w < sel.length; w++) {
+				long bits = sel[w];
+				for (long b = bits; b != 0; b &= b - 1) {
+					int row = (w << 6) + Long.numberOfTrailingZeros(b);
+					if (v.isNull(row) == want)
+						bits &= ~(1L << row);
+				}
+				sel[w] = bits;
+			}
+			return any(sel);
+		}
+
+		switch (v.type) {
+		case Columnar.INT:
+		case Columnar.PRESENT:
+			return applyInts(v, sel);
+		case Columnar.DOUBLE:
+			return applyDoubles(v, sel);
+		case Columnar.STRING:
+			return applyStrings(v, sel);
+		default:
+			return applyLists(v, sel);
+		}
+	}
+
+	/**
+	 * Test a request number against the constant.
+	 */
+	boolean test(double x) {
+		switch (operator) {
+		case ANode.EQUALS:
+		case ANode.NOT_EQUALS:
+			return numbers.length == 1 && numbers[0] == x;
+		case ANode.MEMBER:
+		case ANode.NOT_MEMBER:
+		case ANode.INTERSECTS:
+		case ANode.NOT_INTERSECTS:
+			for (double d : numbers) {
+				if (d == x)
+					return true;
+			}
+			return false;
+		case ANode.LESS_THAN:
+			return numbers.length == 1 && numbers[0] < x;
+		case ANode.LESS_THAN_EQUALS:
+			return numbers.length == 1 && numbers[0] <= x;
+		case ANode.GREATER_THAN:
+			return numbers.length == 1 && numbers[0] > x;
+		case ANode.GREATER_THAN_EQUALS:
+			return numbers.length == 1 && numbers[0] >= x;
+		}
+		return false;
+	}
+
+	/**
+	 * Could any value in [min, max] pass? Used to skip blocks.
+	 */
+	boolean possible(double min, double max) {
+		if (negated())
+			return true;
+		switch (operator) {
+		case ANode.LESS_THAN:
+		case ANode.LESS_THAN_EQUALS:
+			return test(max);
+		case ANode.GREATER_THAN:
+		case ANode.GREATER_THAN_EQUALS:
+			return test(min);
+		default:
+			for (double d : numbers) {
+				if (d >= min && d <= max)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	boolean applyInts(Vector v, long[] sel) {
+		if (v.nullCount == 0 && !possible(v.min, v.max)) {
+			clear(sel);
+			return false;
+		}
+		boolean not = negated();
+		long[] ints = v.ints;
+		for (int w = 0; w < sel.length; w++) {
+			long bits = sel[w];
+			for (long b = bits; b != 0; b &= b - 1) {
+				int row = (w << 6) + Long.numberOfTrailingZeros(b);
+				if (!v.isNull(row) && test(ints[row]) == not)
+					bits &= ~(1L << row);
+			}
+			sel[w] = bits;
+		}
+		return any(sel);
+	}
+
+	boolean applyDoubles(Vector v, long[] sel) {
+		if (v.nullCount == 0 && !possible(v.dmin, v.dmax)) {
+			clear(sel);
+			return false;
+		}
+		boolean not = negated();
+		double[] doubles = v.doubles;
+		for (int w = 0; w < sel.length; w++) {
+			long bits = sel[w];
+			for (long b = bits; b != 0; b &= b - 1) {
+				int row = (w << 6) + Long.numberOfTrailingZeros(b);
+				if (!v.isNull(row) && test(doubles[row]) == not)
+					bits &= ~(1L << row);
+			}
+			sel[w] = bits;
+		}
+		return any(sel);
+	}
+
+	/**
+	 * Which dictionary entries are one of the constants.
+	 */
+	boolean[] matches(Vector v) {
+		boolean[] m = new boolean[v.dict.length];
+		for (int i = 0; i < m.length; i++)
+			m[i] = strings.contains(v.dict[i]);
+		return m;
+	}
+
+	boolean applyStrings(Vector v, long[] sel) {
+		boolean[] pass;
+		switch (operator) {
+		case ANode.EQUALS:
+		case ANode.NOT_EQUALS:
+			pass = strings.size() == 1 ? matches(v) : new boolean[v.dict.length];
+			break;
+		case ANode.MEMBER:
+		case ANode.NOT_MEMBER:
+		case ANode.INTERSECTS:
+		case ANode.NOT_INTERSECTS:
+			pass = matches(v);
+			break;
+		default:
+			// Relational operators don't apply to strings.
+			pass = new boolean[v.dict.length];
+		}
+		boolean not = negated();
+		boolean some = false;
+		for (int i = 0; i < pass.length; i++) {
+			pass[i] ^= not;
+			some |= pass[i];
+		}
+		if (!some && v.nullCount == 0) {
+			clear(sel);
+			return false;
+		}
+		int[] codes = v.codes;
+		for (int w = 0; w < sel.length; w++) {
+			long bits = sel[w];
+			for (long b = bits; b != 0; b &= b - 1) {
+				int row = (w << 6) + Long.numberOfTrailingZeros(b);
+				if (!v.isNull(row) && !pass[codes[row]])
+					bits &= ~(1L << row);
+			}
+			sel[w] = bits;
+		}
+		return any(sel);
+	}
+
+	boolean applyLists(Vector v, long[] sel) {
+		boolean[] m = matches(v);
+		boolean equals = operator == ANode.EQUALS || operator == ANode.NOT_EQUALS;
+		boolean relational = operator >= ANode.LESS_THAN && operator <= ANode.GREATER_THAN_EQUALS;
+		boolean not = negated();
+		int[] codes = v.codes;
+		int[] offsets = v.offsets;
+		for (int w = 0; w < sel.length; w++) {
+			long bits = sel[w];
+			for (long b = bits; b != 0; b &= b - 1) {
+				int row = (w << 6) + Long.numberOfTrailingZeros(b);
+				if (v.isNull(row))
+					continue;
+				boolean ok;
+				if (relational)
+					ok = false;
+				else if (equals)
+					ok = sameSet(m, codes, offsets[row], offsets[row + 1]);
+				else {
+					ok = false;
+					for (int i = offsets[row]; i < offsets[row + 1] && !ok; i++)
+						ok = m[codes[i]];
+				}
+				if (ok == not)
+					bits &= ~(1L << row);
+			}
+			sel[w] = bits;
+		}
+		return any(sel);
+	}
+
+	/**
+	 * Is the list the same set as the constant?
+	 */
+	boolean sameSet(boolean[] m, int[] codes, int from, int to) {
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int i = from; i < to; i++) {
+			if (!m[codes[i]])
+				return false;
+			seen.add(codes[i]);
+		}
+		return seen.size() == strings.size();
+	}
+
+	static void clear(long[] sel) {
+		for (int i = 0; i < sel.length; i++)
+			sel[i] = 0;
+	}
+
+	static boolean any(long[] sel) {
+		for (long w : sel) {
+			if (w != 0)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return hierarchy + " " + ANode.OPNAMES.get(operator) + " " + value;
+	}
+}
@@ -0,0 +1,987 @@
+package com.xrtb.tools.explorer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xrtb.tools.LogScanner;
+
+/**
+ * A compact columnar format for the request logs, for offline targeting
+ * analysis without paying for JSON parsing on every run. The request log is
+ * converted once; the fields campaigns target (the BidRequest built ins plus
+ * the device and geo fields) are kept, the rest is dropped.
+ * <p>
+ * The file is a header (the columns) followed by blocks of rows. In a block,
+ * each column is stored separately, prefixed with its length so a reader can
+ * skip columns it doesn't need:
+ * <ul>
+ * <li>A null bitmap, if the block has nulls.</li>
+ * <li>Ints as offsets from the block minimum, bit packed to the width of the
+ * block's range. Min and max are kept.</li>
+ * <li>Doubles as is, with min and max.</li>
+ * <li>Strings, and lists of strings, as a block dictionary and bit packed
+ * codes into it.</li>
+ * </ul>
+ * Filters (see ColumnFilter) test a whole column of a block at a time, and use
+ * the min/max and the dictionary to throw out blocks without looking at the
+ * rows.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class Columnar {
+
+	/** The file magic */
+	public static final String MAGIC = "XRTBCOL";
+	/** The format version */
+	public static final int VERSION = 1;
+	/** Rows per block */
+	public static volatile int BLOCK_ROWS = 65536;
+	/** Strings longer than this are truncated, writeUTF is limited to 64K bytes */
+	static final int MAX_STRING = 16384;
+
+	/** Column types */
+	public static final int STRING = 0, INT = 1, DOUBLE = 2, PRESENT = 3, LIST = 4, INTLIST = 5;
+
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * The default columns: the built ins of BidRequest.compileBuiltIns() plus
+	 * the device and geo fields.
+	 */
+	public static List<Column> defaultSchema() {
+		List<Column> s = new ArrayList<Column>();
+		string(s, "site.id", "site.domain", "site.name", "site.page", "site.content.url", "app.id", "app.domain",
+				"app.name", "app.content.url", "app.bundle", "imp.0.id", "device.ua", "device.ip", "device.os", "device.osv",
+				"device.make", "device.model", "device.carrier", "device.language", "device.geo.country",
+				"device.geo.region", "device.geo.city", "device.geo.zip");
+		add(s, INT, "imp.0.instl", "imp.0.banner.w", "imp.0.banner.h", "imp.0.video.w", "imp.0.video.h",
+				"imp.0.video.protocol", "imp.0.video.minduration", "imp.0.video.maxduration", "imp.0.native.layout",
+				"device.devicetype", "device.connectiontype", "device.js", "device.geo.type");
+		add(s, DOUBLE, "imp.0.bidfloor", "device.geo.lat", "device.geo.lon");
+		add(s, PRESENT, "site", "app", "imp.0.banner", "imp.0.video", "imp.0.native", "imp.0.pmp");
+		add(s, LIST, "imp.0.video.mimes", "imp.0.banner.mimes", "bcat", "badv", "site.cat", "app.cat");
+		add(s, INTLIST, "imp.0.video.protocols", "imp.0.banner.btype", "imp.0.banner.battr", "imp.0.banner.api");
+		return s;
+	}
+
+	static void string(List<Column> s, String... names) {
+		add(s, STRING, names);
+	}
+
+	static void add(List<Column> s, int type, String... names) {
+		for (String name : names)
+			s.add(new Column(s.size(), name, type));
+	}
+
+	/**
+	 * Convert request logs to the columnar format. Usage: -f source -o target
+	 * [-threads n]. The source can be a file (its rolled files are read too) or
+	 * a directory.
+	 *
+	 * @param args
+	 *            String[]. The arguments.
+	 * @throws Exception
+	 *             on I/O errors.
+	 */
+	public static void main(String[] args) throws Exception {
+		String source = "logs/request";
+		String target = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		while (i < args.length) {
+			switch (args[i]) {
+			case "-h":
+			case "-help":
+				System.out.println("-f filename      Request log to convert, default logs/request");
+				System.out.println("-o filename      Columnar file to write, default columnar/<source>.col next to the source");
+				System.out.println("-threads n       Threads reading the log, default is the number of cores");
+				return;
+			case "-f":
+				source = args[i + 1];
+				i += 2;
+				break;
+			case "-o":
+				target = args[i + 1];
+				i += 2;
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				i += 2;
+				break;
+			default:
+				System.err.println("Huh? " + args[i]);
+				return;
+			}
+		}
+		if (target == null)
+			target = defaultTarget(source);
+		long time = System.currentTimeMillis();
+		long rows = convert(source, target, threads);
+		time = System.currentTimeMillis() - time;
+		System.out.println("Converted " + rows + " requests from " + source + " to " + target + " in " + time
+				+ " milliseconds");
+	}
+
+	/**
+	 * Return the default columnar file for a request log. It goes in a
+	 * "columnar" directory next to the log, so that LogScanner.expand() does
+	 * not take it for one of the log's rolled files.
+	 *
+	 * @param source
+	 *            String. The request log.
+	 * @return String. The columnar file name.
+	 */
+	public static String defaultTarget(String source) {
+		File f = new File(source).getAbsoluteFile();
+		File dir = new File(f.getParentFile(), "columnar");
+		dir.mkdirs();
+		return new File(dir, f.getName() + ".col").getPath();
+	}
+
+	/**
+	 * Convert a request log to the columnar format. The log is read in
+	 * parallel, so the rows are not in log order.
+	 *
+	 * @param source
+	 *            String. The request log (and its rolled files) or directory.
+	 * @param target
+	 *            String. The columnar file to write.
+	 * @param threads
+	 *            int. The number of threads reading the log.
+	 * @return long. The number of rows written.
+	 * @throws IOException
+	 *             on I/O errors.
+	 */
+	public static long convert(String source, String target, int threads) throws IOException {
+		List<Column> schema = defaultSchema();
+		Writer writer = new Writer(target, schema);
+		LogScanner scanner = new LogScanner(threads);
+		try {
+			BlockBuilder last = scanner.scan(source, () -> new BlockBuilder(schema), (b, file, line) -> {
+				b.add(mapper.readValue(line, Map.class));
+				if (b.rows == BLOCK_ROWS) {
+					writer.write(b);
+					b.reset();
+				}
+			}, (a, b) -> {
+				try {
+					writer.write(b);
+				} catch (IOException error) {
+					throw new RuntimeException(error);
+				}
+				return a;
+			});
+			writer.write(last);
+		} finally {
+			scanner.shutdown();
+			writer.close();
+		}
+		return writer.rows;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * A column of the schema.
+	 */
+	public static final class Column {
+		/** The position in the schema */
+		public final int index;
+		/** The dotted name in the request */
+		public final String name;
+		/** The type */
+		public final int type;
+		/** The name split up, numbers are list indexes */
+		final Object[] path;
+
+		Column(int index, String name, int type) {
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			String[] parts = name.split("\\.");
+			path = new Object[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				try {
+					path[i] = Integer.valueOf(parts[i]);
+				} catch (NumberFormatException error) {
+					path[i] = parts[i];
+				}
+			}
+		}
+
+		/**
+		 * Pull this column's value out of a request.
+		 */
+		Object extract(Map request) {
+			Object o = request;
+			for (Object p : path) {
+				if (o instanceof Map)
+					o = ((Map) o).get(p instanceof String ? p : p.toString());
+				else if (o instanceof List && p instanceof Integer) {
+					List l = (List) o;
+					int i = (Integer) p;
+					o = i < l.size() ? l.get(i) : null;
+				} else
+					return null;
+				if (o == null)
+					return null;
+			}
+			return o;
+		}
+	}
+
+	/**
+	 * Find a column by name.
+	 *
+	 * @param schema
+	 *            List. The columns.
+	 * @param name
+	 *            String. The dotted name.
+	 * @return Column. The column, or null if it is not stored.
+	 */
+	public static Column find(List<Column> schema, String name) {
+		for (Column c : schema) {
+			if (c.name.equals(name))
+				return c;
+		}
+		return null;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Accumulates rows and encodes them as a block.
+	 */
+	static final class BlockBuilder {
+		final List<Column> schema;
+		final ColumnBuilder[] columns;
+		int rows;
+
+		BlockBuilder(List<Column> schema) {
+			this.schema = schema;
+			columns = new ColumnBuilder[schema.size()];
+			reset();
+		}
+
+		void reset() {
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = new ColumnBuilder(schema.get(i).type);
+			rows = 0;
+		}
+
+		void add(Map request) {
+			for (int i = 0; i < columns.length; i++)
+				columns[i].add(rows, schema.get(i).extract(request));
+			rows++;
+		}
+
+		byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(rows);
+			for (ColumnBuilder c : columns) {
+				byte[] data = c.encode(rows);
+				out.writeInt(data.length);
+				out.write(data);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Accumulates one column of a block.
+	 */
+	static final class ColumnBuilder {
+		final int type;
+		long[] nulls = new long[16];
+		int nullCount;
+		long[] ints;
+		double[] doubles;
+		Map<String, Integer> dict;
+		List<String> words;
+		int[] codes;
+		int[] counts;
+		int ncodes;
+
+		ColumnBuilder(int type) {
+			this.type = type;
+			switch (type) {
+			case INT:
+			case PRESENT:
+				ints = new long[1024];
+				break;
+			case DOUBLE:
+				doubles = new double[1024];
+				break;
+			default:
+				dict = new HashMap<String, Integer>();
+				words = new ArrayList<String>();
+				codes = new int[1024];
+				if (type != STRING)
+					counts = new int[1024];
+			}
+		}
+
+		void add(int row, Object v) {
+			if (type == PRESENT)
+				v = v == null ? null : 1L;
+			else if ((type == INT || type == DOUBLE) && !(v instanceof Number))
+				v = null;
+			else if ((type == LIST || type == INTLIST) && v != null && !(v instanceof List))
+				v = Arrays.asList(v);
+			else if (type == STRING && v != null && !(v instanceof String))
+				v = v.toString();
+
+			if (row >> 6 >= nulls.length)
+				nulls = Arrays.copyOf(nulls, nulls.length * 2);
+			if (v == null) {
+				nulls[row >> 6] |= 1L << row;
+				nullCount++;
+			}
+
+			switch (type) {
+			case INT:
+			case PRESENT:
+				if (row >= ints.length)
+					ints = Arrays.copyOf(ints, ints.length * 2);
+				ints[row] = v == null ? 0 : ((Number) v).longValue();
+				break;
+			case DOUBLE:
+				if (row >= doubles.length)
+					doubles = Arrays.copyOf(doubles, doubles.length * 2);
+				doubles[row] = v == null ? 0 : ((Number) v).doubleValue();
+				break;
+			case STRING:
+				if (row >= codes.length)
+					codes = Arrays.copyOf(codes, codes.length * 2);
+				codes[row] = v == null ? 0 : code((String) v);
+				break;
+			default:
+				if (row >= counts.length)
+					counts = Arrays.copyOf(counts, counts.length * 2);
+				List list = v == null ? null : (List) v;
+				counts[row] = list == null ? 0 : list.size();
+				if (list != null) {
+					for (Object o : list) {
+						if (ncodes == codes.length)
+							codes = Arrays.copyOf(codes, codes.length * 2);
+						codes[ncodes++] = code(String.valueOf(o));
+					}
+				}
+			}
+		}
+
+		int code(String s) {
+			if (s.length() > MAX_STRING)
+				s = s.substring(0, MAX_STRING);
+			Integer c = dict.get(s);
+			if (c == null) {
+				c = words.size();
+				dict.put(s, c);
+				words.add(s);
+			}
+			return c;
+		}
+
+		byte[] encode(int rows) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(nullCount);
+			if (nullCount > 0 && nullCount < rows) {
+				for (int i = 0; i < (rows + 63) >> 6; i++)
+					out.writeLong(nulls[i]);
+			}
+			if (nullCount < rows) {
+				switch (type) {
+				case INT:
+				case PRESENT: {
+					long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+					for (int i = 0; i < rows; i++) {
+						if (!isNull(i)) {
+							min = Math.min(min, ints[i]);
+							max = Math.max(max, ints[i]);
+						}
+					}
+					out.writeLong(min);
+					out.writeLong(max);
+					long[] offsets = new long[rows];
+					for (int i = 0; i < rows; i++)
+						offsets[i] = isNull(i) ? 0 : ints[i] - min;
+					pack(out, offsets, rows, bits(max - min));
+					break;
+				}
+				case DOUBLE: {
+					double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+					for (int i = 0; i < rows; i++) {
+						if (!isNull(i)) {
+							min = Math.min(min, doubles[i]);
+							max = Math.max(max, doubles[i]);
+						}
+					}
+					out.writeDouble(min);
+					out.writeDouble(max);
+					for (int i = 0; i < rows; i++)
+						out.writeDouble(doubles[i]);
+					break;
+				}
+				case STRING:
+					writeDict(out);
+					pack(out, codes, rows, bits(words.size() - 1));
+					break;
+				default: {
+					writeDict(out);
+					int most = 0;
+					for (int i = 0; i < rows; i++)
+						most = Math.max(most, counts[i]);
+					pack(out, counts, rows, bits(most));
+					out.writeInt(ncodes);
+					pack(out, codes, ncodes, bits(words.size() - 1));
+				}
+				}
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		boolean isNull(int row) {
+			return (nulls[row >> 6] & (1L << row)) != 0;
+		}
+
+		void writeDict(DataOutputStream out) throws IOException {
+			out.writeInt(words.size());
+			for (String s : words)
+				out.writeUTF(s);
+		}
+	}
+
+	/**
+	 * The number of bits needed for values from 0 to max.
+	 */
+	static int bits(long max) {
+		return max <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(max);
+	}
+
+	static void pack(DataOutputStream out, int[] v, int n, int bits) throws IOException {
+		long[] x = new long[n];
+		for (int i = 0; i < n; i++)
+			x[i] = v[i];
+		pack(out, x, n, bits);
+	}
+
+	/**
+	 * Bit pack n values of the given width.
+	 */
+	static void pack(DataOutputStream out, long[] v, int n, int bits) throws IOException {
+		out.writeByte(bits);
+		if (bits == 0)
+			return;
+		long word = 0;
+		int used = 0;
+		for (int i = 0; i < n; i++) {
+			long x = v[i];
+			word |= x << used;
+			used += bits;
+			if (used >= 64) {
+				out.writeLong(word);
+				used -= 64;
+				word = used == 0 ? 0 : x >>> (bits - used);
+			}
+		}
+		if (used > 0)
+			out.writeLong(word);
+	}
+
+	/**
+	 * Unpack n bit packed values.
+	 */
+	static long[] unpack(DataInputStream in, int n) throws IOException {
+		int bits = in.readByte();
+		long[] v = new long[n];
+		if (bits == 0)
+			return v;
+		long mask = bits == 64 ? -1L : (1L << bits) - 1;
+		long word = 0;
+		int avail = 0;
+		for (int i = 0; i < n; i++) {
+			if (avail >= bits) {
+				v[i] = word & mask;
+				word = bits == 64 ? 0 : word >>> bits;
+				avail -= bits;
+			} else {
+				long next = in.readLong();
+				long x = word | (avail == 0 ? next : next << avail);
+				v[i] = x & mask;
+				int rest = bits - avail;
+				word = rest == 64 ? 0 : next >>> rest;
+				avail = 64 - rest;
+			}
+		}
+		return v;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Writes the blocks of a columnar file.
+	 */
+	static final class Writer {
+		final DataOutputStream out;
+		long rows;
+
+		Writer(String name, List<Column> schema) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(name), 1 << 16));
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(schema.size());
+			for (Column c : schema) {
+				out.writeUTF(c.name);
+				out.writeByte(c.type);
+			}
+		}
+
+		synchronized void write(BlockBuilder b) throws IOException {
+			if (b.rows == 0)
+				return;
+			byte[] data = b.encode();
+			out.write(data);
+			rows += b.rows;
+		}
+
+		synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Tell whether a file is in the columnar format.
+	 *
+	 * @param name
+	 *            String. The file name.
+	 * @return boolean. Returns true if the file starts with the magic.
+	 */
+	public static boolean isColumnar(String name) {
+		try (DataInputStream in = new DataInputStream(open(name))) {
+			return MAGIC.equals(in.readUTF());
+		} catch (Exception error) {
+			return false;
+		}
+	}
+
+	static InputStream open(String name) throws IOException {
+		InputStream in = new FileInputStream(name);
+		if (name.endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+		return new BufferedInputStream(in, 1 << 16);
+	}
+
+	/**
+	 * Reads a columnar file a block at a time.
+	 */
+	public static final class Reader implements AutoCloseable {
+		final DataInputStream in;
+		/** The columns in the file */
+		public final List<Column> schema = new ArrayList<Column>();
+
+		/**
+		 * Open a columnar file.
+		 *
+		 * @param name
+		 *            String. The file name.
+		 * @throws IOException
+		 *             if the file can't be read or isn't columnar.
+		 */
+		public Reader(String name) throws IOException {
+			in = new DataInputStream(open(name));
+			String magic;
+			try {
+				magic = in.readUTF();
+			} catch (IOException error) {
+				magic = null;
+			}
+			if (!MAGIC.equals(magic)) {
+				in.close();
+				throw new IOException(name + " is not a columnar request file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				in.close();
+				throw new IOException(name + " has columnar version " + version + ", expected " + VERSION);
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String cname = in.readUTF();
+				schema.add(new Column(i, cname, in.readByte()));
+			}
+		}
+
+		/**
+		 * Read the next block.
+		 *
+		 * @return Block. The block, or null at the end of the file.
+		 * @throws IOException
+		 *             on I/O errors.
+		 */
+		public Block next() throws IOException {
+			int rows;
+			try {
+				rows = in.readInt();
+			} catch (EOFException error) {
+				return null;
+			}
+			byte[][] raw = new byte[schema.size()][];
+			for (int i = 0; i < raw.length; i++) {
+				raw[i] = new byte[in.readInt()];
+				in.readFully(raw[i]);
+			}
+			return new Block(schema, rows, raw);
+		}
+
+		/**
+		 * Apply the filters to every block, and hand the blocks with matches to
+		 * the visitor.
+		 *
+		 * @param filters
+		 *            List. The filters, all must pass.
+		 * @param visitor
+		 *            BlockVisitor. Gets each block with its selection, may be
+		 *            null to just count.
+		 * @return long. The number of rows that passed.
+		 * @throws Exception
+		 *             on I/O errors, or from the visitor.
+		 */
+		public long scan(List<ColumnFilter> filters, BlockVisitor visitor) throws Exception {
+			long matched = 0;
+			Block b;
+			while ((b = next()) != null) {
+				long[] sel = b.all();
+				boolean any = true;
+				for (int i = 0; i < filters.size() && any; i++)
+					any = filters.get(i).apply(b, sel);
+				if (!any)
+					continue;
+				int n = Block.count(sel);
+				if (n == 0)
+					continue;
+				matched += n;
+				if (visitor != null)
+					visitor.block(b, sel);
+			}
+			return matched;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the blocks with rows that passed the filters.
+	 */
+	public interface BlockVisitor {
+		/**
+		 * Process a block.
+		 *
+		 * @param block
+		 *            Block. The block.
+		 * @param sel
+		 *            long[]. The bitmap of the rows that passed.
+		 * @throws Exception
+		 *             to stop the scan.
+		 */
+		public void block(Block block, long[] sel) throws Exception;
+	}
+
+	/**
+	 * A block of rows. Columns are decoded when first used.
+	 */
+	public static final class Block {
+		final List<Column> schema;
+		/** The number of rows */
+		public final int rows;
+		final byte[][] raw;
+		final Vector[] vectors;
+
+		Block(List<Column> schema, int rows, byte[][] raw) {
+			this.schema = schema;
+			this.rows = rows;
+			this.raw = raw;
+			this.vectors = new Vector[raw.length];
+		}
+
+		/**
+		 * Return a decoded column.
+		 *
+		 * @param index
+		 *            int. The column index.
+		 * @return Vector. The values.
+		 * @throws IOException
+		 *             if the block is corrupt.
+		 */
+		public Vector column(int index) throws IOException {
+			Vector v = vectors[index];
+			if (v == null) {
+				v = new Vector(schema.get(index).type, rows, raw[index]);
+				vectors[index] = v;
+			}
+			return v;
+		}
+
+		/**
+		 * Rebuild a row as a request map, with just the stored fields. Used to
+		 * feed the counters.
+		 *
+		 * @param row
+		 *            int. The row.
+		 * @return Map. The request.
+		 * @throws IOException
+		 *             if the block is corrupt.
+		 */
+		public Map row(int row) throws IOException {
+			Map root = new HashMap();
+			for (Column c : schema) {
+				Object v = column(c.index).value(row);
+				if (v != null)
+					put(root, c.path, 0, c.type == PRESENT ? null : v);
+			}
+			return root;
+		}
+
+		/**
+		 * Put a value at a path, making the maps and lists on the way. A null
+		 * value makes an empty map, if there is nothing there already.
+		 */
+		static void put(Object node, Object[] path, int i, Object v) {
+			Object key = path[i];
+			boolean last = i == path.length - 1;
+			if (node instanceof Map) {
+				Map m = (Map) node;
+				String k = key.toString();
+				if (last) {
+					if (v != null)
+						m.put(k, v);
+					else if (m.get(k) == null)
+						m.put(k, new HashMap());
+					return;
+				}
+				Object child = m.get(k);
+				if (child == null) {
+					child = path[i + 1] instanceof Integer ? new ArrayList() : new HashMap();
+					m.put(k, child);
+				}
+				put(child, path, i + 1, v);
+			} else if (node instanceof List && key instanceof Integer) {
+				List l = (List) node;
+				int k = (Integer) key;
+				while (l.size() <= k)
+					l.add(null);
+				if (last) {
+					if (v != null)
+						l.set(k, v);
+					else if (l.get(k) == null)
+						l.set(k, new HashMap());
+					return;
+				}
+				Object child = l.get(k);
+				if (child == null) {
+					child = path[i + 1] instanceof Integer ? new ArrayList() : new HashMap();
+					l.set(k, child);
+				}
+				put(child, path, i + 1, v);
+			}
+		}
+
+		/**
+		 * A selection with all the rows.
+		 */
+		long[] all() {
+			long[] sel = new long[(rows + 63) >> 6];
+			Arrays.fill(sel, -1L);
+			if ((rows & 63) != 0)
+				sel[sel.length - 1] = (1L << rows) - 1;
+			return sel;
+		}
+
+		/**
+		 * Count the rows in a selection.
+		 *
+		 * @param sel
+		 *            long[]. The selection bitmap.
+		 * @return int. The number of rows selected.
+		 */
+		public static int count(long[] sel) {
+			int n = 0;
+			for (long w : sel)
+				n += Long.bitCount(w);
+			return n;
+		}
+
+		/**
+		 * Tell if a row is in a selection.
+		 *
+		 * @param sel
+		 *            long[]. The selection bitmap.
+		 * @param row
+		 *            int. The row.
+		 * @return boolean. Returns true if selected.
+		 */
+		public static boolean selected(long[] sel, int row) {
+			return (sel[row >> 6] & (1L << row)) != 0;
+		}
+	}
+
+	/**
+	 * A decoded column of a block.
+	 */
+	public static final class Vector {
+		/** The column type */
+		public final int type;
+		/** The number of rows */
+		public final int rows;
+		/** The null bitmap, null if there are no nulls */
+		long[] nulls;
+		/** The number of nulls */
+		public final int nullCount;
+		/** Int values and min/max */
+		public long[] ints;
+		public long min, max;
+		/** Double values and min/max */
+		public double[] doubles;
+		public double dmin, dmax;
+		/** The dictionary of a string or list column */
+		public String[] dict;
+		/** The codes into the dictionary, a row's codes for lists */
+		public int[] codes;
+		/** Where each row's codes start, for lists, rows + 1 long */
+		public int[] offsets;
+
+		Vector(int type, int rows, byte[] raw) throws IOException {
+			this.type = type;
+			this.rows = rows;
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+			nullCount = in.readInt();
+			if (nullCount == rows) {
+				nulls = new long[(rows + 63) >> 6];
+				Arrays.fill(nulls, -1L);
+				return;
+			}
+			if (nullCount > 0) {
+				nulls = new long[(rows + 63) >> 6];
+				for (int i = 0; i < nulls.length; i++)
+					nulls[i] = in.readLong();
+			}
+			switch (type) {
+			case INT:
+			case PRESENT:
+				min = in.readLong();
+				max = in.readLong();
+				ints = unpack(in, rows);
+				for (int i = 0; i < rows; i++)
+					ints[i] += min;
+				break;
+			case DOUBLE:
+				dmin = in.readDouble();
+				dmax = in.readDouble();
+				doubles = new double[rows];
+				for (int i = 0; i < rows; i++)
+					doubles[i] = in.readDouble();
+				break;
+			case STRING:
+				readDict(in);
+				codes = toInts(unpack(in, rows));
+				break;
+			default:
+				readDict(in);
+				long[] counts = unpack(in, rows);
+				offsets = new int[rows + 1];
+				for (int i = 0; i < rows; i++)
+					offsets[i + 1] = offsets[i] + (int) counts[i];
+				codes = toInts(unpack(in, in.readInt()));
+			}
+		}
+
+		void readDict(DataInputStream in) throws IOException {
+			dict = new String[in.readInt()];
+			for (int i = 0; i < dict.length; i++)
+				dict[i] = in.readUTF();
+		}
+
+		static int[] toInts(long[] v) {
+			int[] x = new int[v.length];
+			for (int i = 0; i < v.length; i++)
+				x[i] = (int) v[i];
+			return x;
+		}
+
+		/**
+		 * Tell if a row is null.
+		 *
+		 * @param row
+		 *            int. The row.
+		 * @return boolean. Returns true if the field was not in the request.
+		 */
+		public boolean isNull(int row) {
+			return nulls != null && (nulls[row >> 6] & (1L << row)) != 0;
+		}
+
+		/**
+		 * Return a row's value the way Jackson would have: Integer, Double,
+		 * String or List.
+		 *
+		 * @param row
+		 *            int. The row.
+		 * @return Object. The value, or null.
+		 */
+		public Object value(int row) {
+			if (isNull(row))
+				return null;
+			switch (type) {
+			case INT:
+			case PRESENT:
+				long v = ints[row];
+				if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+					return (int) v;
+				return v;
+			case DOUBLE:
+				return doubles[row];
+			case STRING:
+				return dict[codes[row]];
+			default:
+				List list = new ArrayList();
+				for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+					String s = dict[codes[i]];
+					if (type == INTLIST) {
+						try {
+							list.add(Integer.parseInt(s));
+							continue;
+						} catch (NumberFormatException error) {
+						}
+					}
+					list.add(s);
+				}
+				return list;
+			}
+		}
+	}
+}
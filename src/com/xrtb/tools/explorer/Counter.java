@@ -122,6 +122,32 @@ public class Counter implements Interesting {
 		return tups;
 	}
 
+	/**
+	 * Return an empty counter with the same settings. The nodes only read the
+	 * maps, so they are shared.
+	 */
+	public Interesting fresh() {
+		return copySettings(new Counter());
+	}
+
+	Counter copySettings(Counter c) {
+		c.nodes = nodes;
+		c.title = title;
+		c.sep = sep;
+		c.limit = limit;
+		return c;
+	}
+
+	/**
+	 * Add in the counts of another counter.
+	 */
+	public void merge(Interesting other) {
+		Counter c = (Counter) other;
+		count += c.count;
+		for (Map.Entry<String, Integer> e : c.values.entrySet())
+			values.merge(e.getKey(), e.getValue(), Integer::sum);
+	}
+
 	public int size() {
 		return values.size();
 	}
@@ -19,6 +19,14 @@ public class CounterUnique extends Counter {
 		title = h.toString();
 	}
 
+	CounterUnique() {
+
+	}
+
+	public Interesting fresh() {
+		return copySettings(new CounterUnique());
+	}
+
 	public void process(Map m) throws Exception {
 		Object result = null;
 		String str = "";
@@ -40,6 +40,14 @@ public class Factor extends Counter {
 		}
 	}
 	
+	public Interesting fresh() {
+		return copySettings(new Factor());
+	}
+
+	public void merge(Interesting other) {
+		factors.addAll(((Factor) other).factors);
+	}
+
 	/**
 	 * Print the report
 	 */
@@ -13,4 +13,8 @@ public interface Interesting {
 	public Object get(String key);
 	public void clear();
 	public String getTitle();
+	/** An empty copy with the same settings, for counting one part of the input */
+	public Interesting fresh();
+	/** Add in the counts of a copy made by fresh() */
+	public void merge(Interesting other);
 }
@@ -1,6 +1,4 @@
 package com.xrtb.tools.explorer;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -9,26 +7,17 @@ import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xrtb.tools.LogScanner;
 
 /**
- * A quick and dirty requst map reduce scanner, for use with archived JSON records of the bid requests
+ * A quick and dirty requst map reduce scanner, for use with archived JSON records of the bid requests. The
+ * log, and the logs rolled from it, are read in parallel with the LogScanner. A columnar file (see Columnar) can
+ * be scanned instead, and filtered with -r.
  * @author Ben M. Faul
  *
  */
 public class RequestScanner {
 
-	static Map<String, Integer> allIabs = new HashMap();
-	static Map<String, Integer> blocked = new HashMap();
-	static Map<String, Integer> domains = new HashMap();
-	static Map<String, Integer> banners = new HashMap();
-	static Map<String, Integer> btype = new HashMap();
-	static Map<String, Integer> countries = new HashMap();
-	static Map<String, Integer> oss = new HashMap();
-	static Map<String, Integer> carriers = new HashMap();
-	static Map<String, Integer> makes = new HashMap();
-	static Map<String, Integer> models = new HashMap();
-	static Map<String, Integer> ips = new HashMap();
-	
 	static Map<String,String> blockType = new HashMap();
 	static {
 		blockType.put("1","Html Text Ad");
@@ -39,6 +28,9 @@ public class RequestScanner {
 
 	public static ObjectMapper mapper = new ObjectMapper();
 
+	/** Filters applied to a columnar file */
+	static List<ColumnFilter> filters = new ArrayList();
+
 	public static void main(String[] args) throws Exception {
 		String fin = "logs/request";
 		//String fin = "logs/request";
@@ -58,12 +50,165 @@ public class RequestScanner {
 				h = Integer.parseInt(args[i+1]);
 				i+= 2;
 				break;
+			case "-f":
+				fin = args[i+1];
+				i+= 2;
+				break;
+			case "-r":
+				Object value = args[i+3];
+				try {
+					value = Integer.parseInt(args[i+3]);
+				} catch (NumberFormatException error) {
+				}
+				filters.add(new ColumnFilter(args[i+1], args[i+2], value));
+				i+= 4;
+				break;
+			default:
+				System.err.println("Huh? " + args[i]);
+				return;
 			}
 		}
-		BufferedReader br = new BufferedReader(new FileReader(fin));
+		final int ourW = w;
+		final int ourH = h;
+		Totals t;
+		if (Columnar.isColumnar(fin)) {
+			t = new Totals();
+			try (Columnar.Reader reader = new Columnar.Reader(fin)) {
+				Totals x = t;
+				reader.scan(filters, (block, sel) -> {
+					for (int row = 0; row < block.rows; row++) {
+						if (Columnar.Block.selected(sel, row))
+							x.process(block.row(row), ourW, ourH);
+					}
+				});
+			}
+		} else {
+			if (filters.size() > 0) {
+				System.err.println("Filters need a columnar file, see Columnar");
+				return;
+			}
+			LogScanner scanner = new LogScanner();
+			t = scanner.scan(fin, () -> new Totals(), (x, file, line) -> x.process(line, ourW, ourH), (a, b) -> {
+				a.merge(b);
+				return a;
+			});
+			scanner.shutdown();
+		}
+
+		double weBid = t.ourSize - t.apiCount;
+		System.out.println("Count = " + t.count 
+				+ "\nInstl = " + t.instlCount + ", (" + (t.instlCount / t.count * 100.0) + ")"
+				+ "\nBid Floor = "
+				+ t.bidFloorCount + ", (" + (t.bidFloorCount / t.count * 100.0) + ")"
+				+ "\nAvg Bid Floor = " + (t.bidFloorValue / t.bidFloorCount)
+				+ "\n\nBanners = " + t.bannerCount + ", ("
+				+ (t.bannerCount / t.count * 100) + ")"
+				
+				+ "\nVideo = " + t.videoCount + ", ("
+				+ (t.videoCount / t.count * 100) + ")"
+				
+				+ "\nNative = " + t.nativeCount + ", ("
+				+ (t.nativeCount / t.count * 100) + ")"
+				
+				
+				+ "\n\nAvg Banner Bid Floor = " + t.bannerFloorValue / t.bannerCount
+				+ "\nOur Size Banners = " + t.ourSize + ", ("
+				+ (t.ourSize / t.count * 100) + ")" + "\nAvg Our Size Bid Floor = "
+				+ (t.ourSizeBidFloor / t.ourSize) +
+
+				"\nMimes of Our Size = " + t.mimeCount + ", ("
+				+ (t.mimeCount / t.ourSize * 100) + ")" + "\nAPIs of Our Size = "
+				+ t.apiCount + ", (" + (t.apiCount / t.ourSize * 100) + ")" +
+
+				"\nAvg Non API Bid Floor = "
+				+ (t.nonApiFloorValue / (t.ourSize - t.apiCount))
+				+ "\nAvg API Bid Floor = " + (t.apiFloorValue / (t.apiCount)) +
+
+				"\nGeo = " + t.geoCount + ", (" + (t.geoCount / t.count * 100) + ")"
+				+ "\nOur Geo = " + (t.ourGeoCount / t.ourSize * 100) +
+
+				"\n");
+
+		List<Quartet> qlist = reduceQuartet(t.allIabs,(int)t.count);
+		System.out.println("Not categorized: " + t.noCat + " ("
+				+ (t.noCat / t.count * 100) + ")");
+		qlist.forEach((q) -> System.out.printf("%s, %d, (%.3f%%) %s\n",q.iab,q.count,q.percent,q.description));
+
+		// ////////////////////////////////////////
+
+		System.out.println("\nBlocked Categories\n");
+		qlist = reduceQuartet(t.blocked,(int)t.count);
+		qlist.forEach((q) -> System.out.printf("%s, %d, (%.3f%%) %s\n",q.iab,q.count,q.percent,q.description));
+
+		// ///////////////////////
+
+		List<Tuple> tups = null;
+		
+
+		System.out.println("\n\nDevice IP analysis, number with t.ips: " + t.ipCount + "(" + (t.ipCount/t.count * 100) + ")\n");
+		System.out.println("Ratio of unique: " + (t.ips.size()/t.ipCount * 100));
+		tups = reduce(t.ips,(int)t.count);
+		for (i=0;i < 10; i++) {
+			Tuple q = tups.get(i);
+			System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent);
+		}
+		//tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		
+		//System.out.println("\n\nSite analysis\n\n");
+		//tups = reduce(t.domains,(int)t.count);
+		//tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		System.out.println("\n\nBanner Sizes\n\n");
+		tups = reduce(t.banners,(int)t.bannerCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+
+		//////////////////////// t.blocked banner types ///////////////////////////
+		
+		System.out.println("\n\nBlocked Banner Type\n\n");
+		tups = reduce(t.btype,(int)t.bannerCount);
+		tups.forEach((q) -> System.out.printf("%s (%s), %d, (%.3f%%)\n",q.site,blockType.get(q.site),q.count,q.percent));
+	
+		
+		System.out.println("\n\nCountries\n");
+		tups = reduce(t.countries,(int)t.countryCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		System.out.println("\n\nDevice OS\n");
+		tups = reduce(t.oss,(int)t.osCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		System.out.println("\n\nCarriers, Percent with Carrier Data = " + ((Double)t.carrierCount/t.count * 100) + "\n");
+		tups = reduce(t.carriers,(int)t.carrierCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		
+		System.out.println("\n\nMake, Percent with Make Data = " + ((Double)t.makeCount/t.count * 100) + "\n");
+		tups = reduce(t.makes,(int)t.makeCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+		System.out.println("\n\nModel, Percent with Model Data = " + ((Double)t.modelCount/t.count * 100) + "\n");
+		tups = reduce(t.models,(int)t.modelCount);
+		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
+		
+	}
+	
+	/**
+	 * The counts of one part of the log. Each part of the log is counted into its own, and they are merged at the end.
+	 */
+	static class Totals {
+		Map<String, Integer> allIabs = new HashMap();
+		Map<String, Integer> blocked = new HashMap();
+		Map<String, Integer> domains = new HashMap();
+		Map<String, Integer> banners = new HashMap();
+		Map<String, Integer> btype = new HashMap();
+		Map<String, Integer> countries = new HashMap();
+		Map<String, Integer> oss = new HashMap();
+		Map<String, Integer> carriers = new HashMap();
+		Map<String, Integer> makes = new HashMap();
+		Map<String, Integer> models = new HashMap();
+		Map<String, Integer> ips = new HashMap();
 
-		String line = null;
-		Map map = null;
 		double count = 0;
 		double instlCount = 0;
 		double bidFloorCount = 0;
@@ -90,24 +235,39 @@ public class RequestScanner {
 		double makeCount = 0;
 		double modelCount = 0;
 		double ipCount = 0;
-		
 		double btypeCount = 0;
-		
-		while ((line = br.readLine()) != null) {
+
+		/**
+		 * Count one request.
+		 * @param line String. The JSON of the request.
+		 * @param w int. The width of our banner.
+		 * @param h int. The height of our banner.
+		 * @throws Exception on JSON errors.
+		 */
+		void process(String line, int w, int h) throws Exception {
+			process(mapper.readValue(line, Map.class), w, h);
+		}
+
+		/**
+		 * Count one request.
+		 * @param map Map. The request.
+		 * @param w int. The width of our banner.
+		 * @param h int. The height of our banner.
+		 */
+		void process(Map map, int w, int h) {
 			boolean us = false;
 			count++;
-			map = mapper.readValue(line, Map.class);
 			List imp = (List) map.get("imp");
-			
-			
+		
+		
 			Map x = (Map) imp.get(0);
-			
+		
 			if (x.get("instl") != null) {
 				Integer d = (Integer)x.get("instl");
 				if (d != 0)
 					instlCount++;
 			}
-			
+		
 			Double v = null;
 			Object q = x.get("bidfloor");
 			if (q instanceof Integer) {
@@ -117,10 +277,10 @@ public class RequestScanner {
 				v = (Double) x.get("bidfloor");
 
 			Map banner = (Map) x.get("banner");
-			
+		
 			Map video = (Map)x.get("video");
 			Map nativeAd = (Map)x.get("native");
-			
+		
 			if (video != null)
 				videoCount++;
 			if (nativeAd != null)
@@ -128,9 +288,9 @@ public class RequestScanner {
 
 			Map device = (Map) map.get("device");
 			Map geo = null;
-			
+		
 			if (device != null) {
-				
+			
 				String ip = (String)device.get("ip");
 				if (ip != null) {
 					ipCount++;
@@ -141,7 +301,7 @@ public class RequestScanner {
 					mK++;
 					ips.put(ip,mK);
 				}
-				
+			
 				String make = (String)device.get("make");
 				if (make != null) {
 					makeCount++;
@@ -152,7 +312,7 @@ public class RequestScanner {
 					mK++;
 					makes.put(make,mK);
 				}
-				
+			
 				String model = (String)device.get("mode;");
 				if (model != null) {
 					modelCount++;
@@ -163,7 +323,7 @@ public class RequestScanner {
 					mK++;
 					models.put(make,mK);
 				}
-				
+			
 				String carrier = (String)device.get("carrier");
 				if (carrier != null) {
 					carrierCount++;
@@ -174,7 +334,7 @@ public class RequestScanner {
 					cK++;
 					carriers.put(carrier,cK);
 				}
-				
+			
 				String os = (String)device.get("os");
 				if (os != null) {
 					osCount++;
@@ -185,7 +345,7 @@ public class RequestScanner {
 					osK++;
 					oss.put(os, osK);
 				}
-				
+			
 				geo = (Map) device.get("geo");
 				if (geo != null) {
 					Object test = geo.get("lat");
@@ -206,14 +366,14 @@ public class RequestScanner {
 						mc++;
 						countries.put(country,mc);
 					}
-					
+				
 					if (lat == null || lat == 0 || country == null)
 						geo = null;
 				}
 			}
 			if (banner != null) {
 				bannerCount++;
-				
+			
 				Integer wx = (Integer) banner.get("w");
 				Integer hx= (Integer) banner.get("h");
 
@@ -223,14 +383,14 @@ public class RequestScanner {
 					szcount = new Integer(0);
 				szcount++;
 				banners.put(test,szcount);
-				
+			
 				List<Integer> bt;
 				Object what = banner.get("btype");
 				if (what instanceof Integer) {
 					bt = new ArrayList();
 					bt.add((Integer)what);
 				} else {
-				
+			
 				bt = (List)banner.get("btype");
 				if (bt != null) {
 					btypeCount++;
@@ -244,7 +404,7 @@ public class RequestScanner {
 					}
 				}
 				}
-				
+			
 				if (wx == w && h == hx) {
 					ourSize++;
 					if (v != null)
@@ -308,7 +468,7 @@ public class RequestScanner {
 						what++;
 						allIabs.put(iab, what);
 					}
-					
+				
 				} else {
 				List<String> list = (List) site.get("cat");
 				if (list != null) {
@@ -351,108 +511,59 @@ public class RequestScanner {
 			}
 
 		// System.out.println(line);
-
 		}
 
-		double weBid = ourSize - apiCount;
-		System.out.println("Count = " + count 
-				+ "\nInstl = " + instlCount + ", (" + (instlCount / count * 100.0) + ")"
-				+ "\nBid Floor = "
-				+ bidFloorCount + ", (" + (bidFloorCount / count * 100.0) + ")"
-				+ "\nAvg Bid Floor = " + (bidFloorValue / bidFloorCount)
-				+ "\n\nBanners = " + bannerCount + ", ("
-				+ (bannerCount / count * 100) + ")"
-				
-				+ "\nVideo = " + videoCount + ", ("
-				+ (videoCount / count * 100) + ")"
-				
-				+ "\nNative = " + nativeCount + ", ("
-				+ (nativeCount / count * 100) + ")"
-				
-				
-				+ "\n\nAvg Banner Bid Floor = " + bannerFloorValue / bannerCount
-				+ "\nOur Size Banners = " + ourSize + ", ("
-				+ (ourSize / count * 100) + ")" + "\nAvg Our Size Bid Floor = "
-				+ (ourSizeBidFloor / ourSize) +
-
-				"\nMimes of Our Size = " + mimeCount + ", ("
-				+ (mimeCount / ourSize * 100) + ")" + "\nAPIs of Our Size = "
-				+ apiCount + ", (" + (apiCount / ourSize * 100) + ")" +
-
-				"\nAvg Non API Bid Floor = "
-				+ (nonApiFloorValue / (ourSize - apiCount))
-				+ "\nAvg API Bid Floor = " + (apiFloorValue / (apiCount)) +
-
-				"\nGeo = " + geoCount + ", (" + (geoCount / count * 100) + ")"
-				+ "\nOur Geo = " + (ourGeoCount / ourSize * 100) +
-
-				"\n");
-
-		List<Quartet> qlist = reduceQuartet(allIabs,(int)count);
-		System.out.println("Not categorized: " + noCat + " ("
-				+ (noCat / count * 100) + ")");
-		qlist.forEach((q) -> System.out.printf("%s, %d, (%.3f%%) %s\n",q.iab,q.count,q.percent,q.description));
-
-		// ////////////////////////////////////////
-
-		System.out.println("\nBlocked Categories\n");
-		qlist = reduceQuartet(blocked,(int)count);
-		qlist.forEach((q) -> System.out.printf("%s, %d, (%.3f%%) %s\n",q.iab,q.count,q.percent,q.description));
-
-		// ///////////////////////
-
-		List<Tuple> tups = null;
-		
-
-		System.out.println("\n\nDevice IP analysis, number with ips: " + ipCount + "(" + (ipCount/count * 100) + ")\n");
-		System.out.println("Ratio of unique: " + (ips.size()/ipCount * 100));
-		tups = reduce(ips,(int)count);
-		for (i=0;i < 10; i++) {
-			Tuple q = tups.get(i);
-			System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent);
+		/**
+		 * Add in the counts of another part.
+		 * @param o Totals. The other part.
+		 */
+		void merge(Totals o) {
+			count += o.count;
+			instlCount += o.instlCount;
+			bidFloorCount += o.bidFloorCount;
+			bannerCount += o.bannerCount;
+			bannerWithFloor += o.bannerWithFloor;
+			bidFloorValue += o.bidFloorValue;
+			bannerFloorValue += o.bannerFloorValue;
+			ourSize += o.ourSize;
+			ourSizeBidFloor += o.ourSizeBidFloor;
+			mimeCount += o.mimeCount;
+			apiCount += o.apiCount;
+			apiFloorValue += o.apiFloorValue;
+			nonApiFloorValue += o.nonApiFloorValue;
+			geoCount += o.geoCount;
+			ourGeoCount += o.ourGeoCount;
+			noCat += o.noCat;
+			noBcat += o.noBcat;
+			bCat += o.bCat;
+			countryCount += o.countryCount;
+			osCount += o.osCount;
+			carrierCount += o.carrierCount;
+			videoCount += o.videoCount;
+			nativeCount += o.nativeCount;
+			makeCount += o.makeCount;
+			modelCount += o.modelCount;
+			ipCount += o.ipCount;
+			btypeCount += o.btypeCount;
+			add(allIabs, o.allIabs);
+			add(blocked, o.blocked);
+			add(domains, o.domains);
+			add(banners, o.banners);
+			add(btype, o.btype);
+			add(countries, o.countries);
+			add(oss, o.oss);
+			add(carriers, o.carriers);
+			add(makes, o.makes);
+			add(models, o.models);
+			add(ips, o.ips);
 		}
-		//tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		
-		//System.out.println("\n\nSite analysis\n\n");
-		//tups = reduce(domains,(int)count);
-		//tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		System.out.println("\n\nBanner Sizes\n\n");
-		tups = reduce(banners,(int)bannerCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
 
-		//////////////////////// blocked banner types ///////////////////////////
-		
-		System.out.println("\n\nBlocked Banner Type\n\n");
-		tups = reduce(btype,(int)bannerCount);
-		tups.forEach((q) -> System.out.printf("%s (%s), %d, (%.3f%%)\n",q.site,blockType.get(q.site),q.count,q.percent));
-	
-		
-		System.out.println("\n\nCountries\n");
-		tups = reduce(countries,(int)countryCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		System.out.println("\n\nDevice OS\n");
-		tups = reduce(oss,(int)osCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		System.out.println("\n\nCarriers, Percent with Carrier Data = " + ((Double)carrierCount/count * 100) + "\n");
-		tups = reduce(carriers,(int)carrierCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		
-		System.out.println("\n\nMake, Percent with Make Data = " + ((Double)makeCount/count * 100) + "\n");
-		tups = reduce(makes,(int)makeCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		System.out.println("\n\nModel, Percent with Model Data = " + ((Double)modelCount/count * 100) + "\n");
-		tups = reduce(models,(int)modelCount);
-		tups.forEach((q) -> System.out.printf("%s, %d, (%.3f%%)\n",q.site,q.count,q.percent));
-		
-		br.close();
+		static void add(Map<String, Integer> into, Map<String, Integer> from) {
+			for (Map.Entry<String, Integer> e : from.entrySet())
+				into.merge(e.getKey(), e.getValue(), Integer::sum);
+		}
 	}
-	
+
 	public static  List<Quartet> reduceQuartet(Map<String,Integer> map, int count) {
 		Iterator<String> it = map.keySet().iterator();
 		List<Quartet> iabs = new ArrayList();
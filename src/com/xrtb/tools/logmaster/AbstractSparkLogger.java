@@ -33,6 +33,14 @@ public abstract class AbstractSparkLogger implements Runnable {
 	/** A list of object sets. Each list is a different channel/file. */
 	Set<List> setOfLists = new HashSet();
 
+	/**
+	 * A logger that writes as it is offered to, so there is no batch thread.
+	 * Subclasses doing this override offer().
+	 */
+	protected AbstractSparkLogger() {
+
+	}
+
 	public AbstractSparkLogger(int interval) {
 		LOG_INTERVAL = interval;
 		me = new Thread(this);
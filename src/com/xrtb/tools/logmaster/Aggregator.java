@@ -0,0 +1,430 @@
+package com.xrtb.tools.logmaster;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sharded accounting engine for the Spark log master. Events are partitioned
+ * by campaign/creative across a fixed number of worker threads. Each shard owns
+ * its accumulators outright, so no locks are taken while counting. Money is
+ * kept as fixed point longs, in micros.
+ * <p>
+ * A snapshot is taken by epoch swap: a marker is put in every shard's queue,
+ * and when a shard reaches it, it hands over its current table and starts a
+ * new one. Everything before the marker is in the snapshot, everything after is
+ * in the next one.
+ * <p>
+ * Serialization of the raw records to the log files is also done on the
+ * shards, so the subscriber threads only hand off.
+ *
+ * @author Ben M. Faul
+ *
+ */
+public class Aggregator {
+
+	/** Number of micros in a unit of currency */
+	public static final long MICROS = 1000000;
+
+	/** Slice array offsets */
+	static final int BIDS = 0, WINS = 1, COST = 2, PIXELS = 3, CLICKS = 4, SLICE = 5;
+
+	/** Event types */
+	static final int BID = 0, WIN = 1, PIXEL = 2, CLICK = 3, MARKER = 4;
+
+	/** The shards */
+	final Shard[] shards;
+
+	/**
+	 * Create the aggregator and start its shards.
+	 *
+	 * @param nShards
+	 *            int. The number of worker threads.
+	 * @param queueSize
+	 *            int. The size of each shard's queue. Producers block when it
+	 *            is full.
+	 * @param logger
+	 *            AbstractSparkLogger. Where the raw records go, may be null.
+	 */
+	public Aggregator(int nShards, int queueSize, AbstractSparkLogger logger) {
+		shards = new Shard[nShards];
+		for (int i = 0; i < nShards; i++) {
+			shards[i] = new Shard(i, queueSize, logger);
+			shards[i].start();
+		}
+	}
+
+	/**
+	 * Convert a price to micros.
+	 *
+	 * @param price
+	 *            double. The price.
+	 * @return long. The price in micros.
+	 */
+	public static long toMicros(double price) {
+		return Math.round(price * MICROS);
+	}
+
+	/**
+	 * Convert a price string to micros. Returns 0 if it can't be parsed.
+	 *
+	 * @param price
+	 *            String. The price.
+	 * @return long. The price in micros.
+	 */
+	public static long toMicros(String price) {
+		if (price == null)
+			return 0;
+		try {
+			return toMicros(Double.parseDouble(price));
+		} catch (NumberFormatException error) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Count a bid.
+	 *
+	 * @param adId
+	 *            String. The campaign.
+	 * @param crid
+	 *            String. The creative.
+	 * @param exchange
+	 *            String. The exchange, the slice key.
+	 * @param micros
+	 *            long. The bid price.
+	 * @param file
+	 *            String. The log file for the raw record, or null.
+	 * @param record
+	 *            Object. The raw record.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for queue space.
+	 */
+	public void bid(String adId, String crid, String exchange, long micros, String file, Object record)
+			throws InterruptedException {
+		submit(new Event(BID, adId, crid, exchange, micros, file, record));
+	}
+
+	/**
+	 * Count a win.
+	 *
+	 * @param adId
+	 *            String. The campaign.
+	 * @param crid
+	 *            String. The creative.
+	 * @param pubId
+	 *            String. The publisher (exchange), the slice key.
+	 * @param micros
+	 *            long. The win price.
+	 * @param file
+	 *            String. The log file for the raw record, or null.
+	 * @param record
+	 *            Object. The raw record.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for queue space.
+	 */
+	public void win(String adId, String crid, String pubId, long micros, String file, Object record)
+			throws InterruptedException {
+		submit(new Event(WIN, adId, crid, pubId, micros, file, record));
+	}
+
+	/**
+	 * Count a pixel fire.
+	 *
+	 * @param adId
+	 *            String. The campaign.
+	 * @param crid
+	 *            String. The creative.
+	 * @param exchange
+	 *            String. The exchange, the slice key.
+	 * @param file
+	 *            String. The log file for the raw record, or null.
+	 * @param record
+	 *            Object. The raw record.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for queue space.
+	 */
+	public void pixel(String adId, String crid, String exchange, String file, Object record)
+			throws InterruptedException {
+		submit(new Event(PIXEL, adId, crid, exchange, 0, file, record));
+	}
+
+	/**
+	 * Count a click.
+	 *
+	 * @param adId
+	 *            String. The campaign.
+	 * @param crid
+	 *            String. The creative.
+	 * @param exchange
+	 *            String. The exchange, the slice key.
+	 * @param file
+	 *            String. The log file for the raw record, or null.
+	 * @param record
+	 *            Object. The raw record.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for queue space.
+	 */
+	public void click(String adId, String crid, String exchange, String file, Object record)
+			throws InterruptedException {
+		submit(new Event(CLICK, adId, crid, exchange, 0, file, record));
+	}
+
+	void submit(Event e) throws InterruptedException {
+		int h = e.key.hash;
+		shards[((h ^ (h >>> 16)) & 0x7fffffff) % shards.length].queue.put(e);
+	}
+
+	/**
+	 * Take a snapshot of the accounting since the last snapshot. The shards
+	 * swap in new tables, so counting goes on while the snapshot is built.
+	 *
+	 * @return List. The accounting records with activity, one per
+	 *         campaign/creative.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting on the shards.
+	 */
+	public List<AcctCreative> snapshot() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(shards.length);
+		Event[] markers = new Event[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			markers[i] = new Event(latch);
+			shards[i].queue.put(markers[i]);
+		}
+		latch.await();
+
+		long now = System.currentTimeMillis();
+		List<AcctCreative> list = new ArrayList<AcctCreative>();
+		for (Event m : markers) {
+			for (Acc a : m.table.values())
+				list.add(a.toRecord(now));
+		}
+		return list;
+	}
+
+	/**
+	 * Return the number of events waiting in the shard queues.
+	 *
+	 * @return int. The backlog.
+	 */
+	public int backlog() {
+		int n = 0;
+		for (Shard s : shards)
+			n += s.queue.size();
+		return n;
+	}
+
+	/**
+	 * Stop the shard threads.
+	 */
+	public void stop() {
+		for (Shard s : shards)
+			s.interrupt();
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Campaign/creative key, no string concatenation.
+	 */
+	static final class Key {
+		final String adId;
+		final String crid;
+		final int hash;
+
+		Key(String adId, String crid) {
+			this.adId = adId;
+			this.crid = crid;
+			this.hash = 31 * (adId == null ? 0 : adId.hashCode()) + (crid == null ? 0 : crid.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return hash == k.hash && eq(adId, k.adId) && eq(crid, k.crid);
+		}
+
+		static boolean eq(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * An event for a shard. A marker carries the latch and gets the table.
+	 */
+	static final class Event {
+		final int type;
+		final Key key;
+		final String slice;
+		final long micros;
+		final String file;
+		final Object record;
+		final CountDownLatch latch;
+		volatile Map<Key, Acc> table;
+
+		Event(int type, String adId, String crid, String slice, long micros, String file, Object record) {
+			this.type = type;
+			this.key = new Key(adId, crid);
+			this.slice = slice == null ? "unknown" : slice;
+			this.micros = micros;
+			this.file = file;
+			this.record = record;
+			this.latch = null;
+		}
+
+		Event(CountDownLatch latch) {
+			this.type = MARKER;
+			this.key = null;
+			this.slice = null;
+			this.micros = 0;
+			this.file = null;
+			this.record = null;
+			this.latch = latch;
+		}
+	}
+
+	/**
+	 * The accumulators of one campaign/creative, owned by one shard.
+	 */
+	static final class Acc {
+		final Key key;
+		long bids, wins, clicks, pixels;
+		long bidMicros, winMicros;
+		final Map<String, long[]> slices = new HashMap<String, long[]>();
+
+		Acc(Key key) {
+			this.key = key;
+		}
+
+		long[] slice(String name) {
+			long[] s = slices.get(name);
+			if (s == null) {
+				s = new long[SLICE];
+				slices.put(name, s);
+			}
+			return s;
+		}
+
+		void add(Event e) {
+			long[] s = slice(e.slice);
+			switch (e.type) {
+			case BID:
+				bids++;
+				bidMicros += e.micros;
+				s[BIDS]++;
+				break;
+			case WIN:
+				wins++;
+				winMicros += e.micros;
+				s[WINS]++;
+				s[COST] += e.micros;
+				break;
+			case PIXEL:
+				pixels++;
+				s[PIXELS]++;
+				break;
+			case CLICK:
+				clicks++;
+				s[CLICKS]++;
+				break;
+			}
+		}
+
+		/**
+		 * Convert to the record written to the accounting log.
+		 */
+		AcctCreative toRecord(long time) {
+			AcctCreative c = new AcctCreative("unknown", key.adId, key.crid);
+			c.time = time;
+			c.bids.set(bids);
+			c.wins.set(wins);
+			c.clicks.set(clicks);
+			c.pixels.set(pixels);
+			c.bidPrice = BigDecimal.valueOf(bidMicros, 6);
+			c.winPrice = BigDecimal.valueOf(winMicros, 6);
+			for (Map.Entry<String, long[]> e : slices.entrySet()) {
+				long[] s = e.getValue();
+				String name = e.getKey();
+				if (s[BIDS] != 0)
+					c.slices.bids.put(name, (int) s[BIDS]);
+				if (s[WINS] != 0) {
+					c.slices.wins.put(name, (int) s[WINS]);
+					c.slices.cost.put(name, (double) s[COST] / MICROS);
+				}
+				if (s[PIXELS] != 0)
+					c.slices.pixels.put(name, (int) s[PIXELS]);
+				if (s[CLICKS] != 0)
+					c.slices.clicks.put(name, (int) s[CLICKS]);
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * A worker thread and the table it owns.
+	 */
+	static final class Shard extends Thread {
+		final BlockingQueue<Event> queue;
+		final AbstractSparkLogger logger;
+		Map<Key, Acc> table = new HashMap<Key, Acc>();
+
+		Shard(int n, int queueSize, AbstractSparkLogger logger) {
+			super("spark-shard-" + n);
+			setDaemon(true);
+			this.queue = new ArrayBlockingQueue<Event>(queueSize);
+			this.logger = logger;
+		}
+
+		@Override
+		public void run() {
+			List<Event> batch = new ArrayList<Event>(256);
+			try {
+				while (true) {
+					batch.add(queue.take());
+					queue.drainTo(batch, 255);
+					for (int i = 0; i < batch.size(); i++)
+						process(batch.get(i));
+					batch.clear();
+				}
+			} catch (InterruptedException error) {
+				return;
+			}
+		}
+
+		void process(Event e) {
+			if (e.type == MARKER) {
+				e.table = table;
+				table = new HashMap<Key, Acc>();
+				e.latch.countDown();
+				return;
+			}
+
+			Acc a = table.get(e.key);
+			if (a == null) {
+				a = new Acc(e.key);
+				table.put(e.key, a);
+			}
+			a.add(e);
+
+			if (e.file != null && logger != null) {
+				try {
+					logger.offer(new LogObject(e.file, Spark.mapper.writer().writeValueAsString(e.record)));
+				} catch (Exception error) {
+					error.printStackTrace();
+				}
+			}
+		}
+	}
+}
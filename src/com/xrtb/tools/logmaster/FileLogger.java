@@ -1,92 +1,139 @@
 package com.xrtb.tools.logmaster;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.xrtb.tools.LogSink;
 
 /**
  * A simple class that logs channel information to a file, based on the channel
- * name. You will be called at execute() every logging interval. The name is the
- * channel name, the values is a list of JSON strings that are the log entries
- * for this channel for the log period.
- * 
+ * name. Each channel has its own LogSink, so entries are streamed to the file
+ * as they are offered, and the file is rolled by the sink. The accounting
+ * records can't be lost, so when a file falls behind the caller waits for it.
+ *
  * @author Ben M. Faul
  *
  */
 
 public class FileLogger extends AbstractSparkLogger {
-	/** The timestamp part of the name */
-	String tailstamp = "";
-	/** Logger time, how many minutes before you clip the log */
+	/** Logger time, how many milliseconds before you clip the log, 0 for never */
 	protected int time;
-	/** count down time */
-	protected long countdown;
-	/** Logging formatter yyyy-mm-dd-hh:ss part. */
-	SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH:mm");
+	/** Clip the log at this size in bytes, 0 for never */
+	protected long maxBytes;
+	/** Gzip the logs */
+	protected boolean gzip;
+	/** The sinks, by channel name */
+	final Map<String, LogSink> sinks = new ConcurrentHashMap<String, LogSink>();
 
 	/**
 	 * The constructor for the file logger
+	 *
+	 * @param interval
+	 *            int. Kept for compatibility, the logger writes continuously.
 	 */
 	public FileLogger(int interval) {
-		super(interval);
+		this(interval, 0);
 	}
 
 	/**
 	 * Constructor for the file logger using log names
-	 * 
+	 *
 	 * @param interval
-	 *            int. The interval for dumping the logging
+	 *            int. Kept for compatibility, the logger writes continuously.
 	 * @param countdown
-	 *            int. The interval for rolling the log
+	 *            int. The interval for rolling the log, in minutes
 	 */
 	public FileLogger(int interval, int countdown) {
-		super(interval);
-		this.time = countdown;
-		this.time *= 60000;
-		setTime();
+		this(interval, countdown, 0, false);
+	}
+
+	/**
+	 * Constructor for the file logger with size rolling and compression.
+	 *
+	 * @param interval
+	 *            int. Kept for compatibility, the logger writes continuously.
+	 * @param countdown
+	 *            int. The interval for rolling the log, in minutes, 0 for
+	 *            never.
+	 * @param maxBytes
+	 *            long. Roll the log at this size, 0 for never.
+	 * @param gzip
+	 *            boolean. Set to gzip the logs.
+	 */
+	public FileLogger(int interval, int countdown, long maxBytes, boolean gzip) {
+		super();
+		LOG_INTERVAL = interval;
+		this.time = countdown * 60000;
+		this.maxBytes = maxBytes;
+		this.gzip = gzip;
 	}
 
-	void setTime() {
-		countdown = System.currentTimeMillis() + time;
-		tailstamp = "-" + sdf.format(new Date());
-		System.out.println("************ SET NEW TIMESTAMP ************");
+	/**
+	 * Stream an object to its channel's file.
+	 *
+	 * @param offering
+	 *            LogObject. The object to log.
+	 */
+	@Override
+	public void offer(LogObject offering) {
 		try {
-			AppendToFile.close();
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			sink(offering.name).put(offering.content);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
 	/**
 	 * Time to log something.
-	 * 
+	 *
 	 * @param name.
 	 *            String. The channel name.
 	 * @param values
 	 *            List. A list of JSON strings.
 	 */
 	public void execute(String name, List<String> values) {
-		StringBuilder sb = new StringBuilder();
-
-		if (countdown != 0 && System.currentTimeMillis() > countdown) {
-			setTime();
+		LogSink sink = sink(name);
+		try {
+			for (String contents : values) {
+				sink.put(contents);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+	}
 
-		for (String contents : values) {
-			sb.append(contents);
-			sb.append("\n");
-		}
-		if (sb.length() > 0)
-			try {
-				String thisFile = Spark.logDir + "/" + name + tailstamp;
-				// System.out.println("APPENDING: " + thisFile);
-				
-				AppendToFile.item(thisFile, sb);
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
+	/**
+	 * Return the sink of a channel, creating it if needed.
+	 *
+	 * @param name
+	 *            String. The channel name.
+	 * @return LogSink. The sink writing the channel's file.
+	 */
+	LogSink sink(String name) {
+		return sinks.computeIfAbsent(name, k -> new LogSink(Spark.logDir + "/" + k, time, maxBytes, gzip));
+	}
+
+	/**
+	 * Return the statistics of the channel files.
+	 *
+	 * @return Map. The sink statistics by channel name.
+	 */
+	public Map getStats() {
+		Map m = new HashMap();
+		for (Map.Entry<String, LogSink> e : sinks.entrySet())
+			m.put(e.getKey(), e.getValue().getStats());
+		return m;
+	}
+
+	/**
+	 * Write out what is pending and close the files.
+	 */
+	public void close() {
+		for (LogSink sink : sinks.values())
+			sink.close();
+		sinks.clear();
 	}
 
 }
@@ -52,8 +52,8 @@ import com.xrtb.pojo.WinObject;
  */
 
 public class Spark implements Runnable {
-	List<AcctCreative> creatives = new ArrayList();
-	Map<String, AcctCreative> accountHash = new HashMap();
+	/** The sharded accounting engine */
+	Aggregator aggregator;
 
 	Thread me;
 	String zeromq = "localhost";
@@ -68,6 +68,11 @@ public class Spark implements Runnable {
 	static String CLICKFILE = null;
 	static String PIXELFILE = null;
 
+	/** Number of accounting shards, one thread each */
+	static int SHARDS = Runtime.getRuntime().availableProcessors();
+	/** Size of each shard's queue */
+	static int SHARDQUEUE = 65536;
+
 	public AtomicLong requests = new AtomicLong(0);
 	public AtomicLong bids = new AtomicLong(0);
 	public AtomicLong wins = new AtomicLong(0);
@@ -119,6 +124,8 @@ public class Spark implements Runnable {
 							.println("-purge               [Delete the log records already produced, default no purge]");
 					System.out
 							.println("-interval            [Set the accounting interval, default is 60000 (60 seconds)]");
+					System.out
+							.println("-shards n            [Number of accounting threads, default is number of cores ]");
 					i++;
 					break;
 				case "-clicks":
@@ -145,6 +152,10 @@ public class Spark implements Runnable {
 					INTERVAL = Integer.parseInt(args[i + 1]);
 					i += 2;
 					break;
+				case "-shards":
+					SHARDS = Integer.parseInt(args[i + 1]);
+					i += 2;
+					break;
 				case "-zeromq":
 					zeromq = args[i + 1];
 					i += 2;
@@ -186,9 +197,6 @@ public class Spark implements Runnable {
 	 */
 	public Spark() throws Exception {
 		this("localhost");
-		me = new Thread(this);
-
-		me.start();
 	}
 
 	/**
@@ -199,19 +207,14 @@ public class Spark implements Runnable {
 		while (true) {
 			try {
 				Thread.sleep(60000);
-				System.out.println("CREATIVES = " + creatives.size());
-					String content = null;
-					for (int i = 0; i < creatives.size(); i++) {
-						AcctCreative c = creatives.get(i);
-						if (!c.isZero()) {
-							synchronized (c) {
-								c.time = System.currentTimeMillis();
-								content = mapper.writer().writeValueAsString(c);
-								c.clear();
-							}
-							logger.offer(new LogObject("accounting", content));
-						}
-					}
+				if (aggregator == null)
+					continue;
+				List<AcctCreative> creatives = aggregator.snapshot();
+				System.out.println("CREATIVES = " + creatives.size() + ", BACKLOG = " + aggregator.backlog());
+				for (AcctCreative c : creatives) {
+					if (!c.isZero())
+						logger.offer(new LogObject("accounting", mapper.writer().writeValueAsString(c)));
+				}
 				BigDecimal winCostX = new BigDecimal(winCost.get());
 				BigDecimal bidCostX = new BigDecimal(bidCost.get());
 				winCostX = winCostX.divide(oneThousand);
@@ -260,6 +263,7 @@ public class Spark implements Runnable {
 
 		logger = new FileLogger(INTERVAL); // Instantiate your own logger if you
 											// don't want to log to files.
+		aggregator = new Aggregator(SHARDS, SHARDQUEUE, logger);
 		/**
 		 * Win Notifications HERE
 		 */
@@ -321,51 +325,10 @@ public class Spark implements Runnable {
 	
 	static BigDecimal oneThousand = new BigDecimal(1000);
 	public void processWin(WinObject win) throws Exception {
-		String campaign = win.adId;
-		String impid = win.cridId;
-		BigDecimal cost = new BigDecimal(win.price);
-		//double cost = Double.parseDouble(win.price);
-
-		Double x = null;
-		Integer y = null;
-		AcctCreative creat = null;
-		synchronized (Spark.class) {
-			creat = getRecord(campaign, impid);
-			if (creat == null) {
-				creat = new AcctCreative("unknown", win.adId, win.cridId);
-				creatives.add(creat);
-				accountHash.put(win.adId + ":" + win.cridId, creat);	
-			}
-		}
-		
+		long micros = Aggregator.toMicros(win.price);
 		wins.incrementAndGet();
-
-		synchronized (creat) {
-			
-			x = creat.slices.cost.get(win.pubId);
-			if (x == null)
-				x = new Double(0);
-			y = creat.slices.wins.get(win.pubId);
-			if (y == null)
-				y = new Integer(0);
-
-			
-			creat.wins.incrementAndGet();
-			creat.winPrice = creat.winPrice.add(cost);
-			
-			x += cost.doubleValue();
-			y++;
-			creat.slices.cost.put(win.pubId, x);
-			creat.slices.wins.put(win.pubId, y);
-
-			cost = cost.multiply(oneThousand);
-			winCost.addAndGet((int)cost.longValue());
-		}
-
-		if (WINFILE != null) {
-			String content = mapper.writer().writeValueAsString(win);
-			logger.offer(new LogObject(WINFILE, content));
-		}
+		winCost.addAndGet(micros / 1000);
+		aggregator.win(win.adId, win.cridId, win.pubId, micros, WINFILE, win);
 	}
 
 	/**
@@ -420,50 +383,12 @@ public class Spark implements Runnable {
 			ev = new ClickLog(ev.payload,ev.instance);
 		}
 
-		Map m = new HashMap();
-		m.put("time", ev.time);
-		String type = null;
-
-
-		AcctCreative creat = getRecord(ev.ad_id, ev.creative_id);
-
-		if (creat == null) {
-			creat = new AcctCreative("unknown", ev.ad_id, ev.creative_id);
-			creatives.add(creat);
-			accountHash.put(ev.ad_id + ":" + ev.creative_id, creat);
-		}
-
-		m.put("campaign", creat.campaignName);
-		m.put("creative", creat.name);
-
-		synchronized (creat) {
-			if (ev.type == PixelClickConvertLog.CLICK) {
-				creat.clicks.incrementAndGet();
-				clicks.incrementAndGet();
-				Integer y = creat.slices.clicks.get(ev.exchange);
-				if (y == null)
-					y = new Integer(0);
-				creat.slices.clicks.put(ev.exchange, y);
-			} else if (ev.type == PixelClickConvertLog.PIXEL) {;
-				creat.pixels.incrementAndGet();
-				pixels.incrementAndGet();
-				Integer y = creat.slices.pixels.get(ev.exchange);
-				if (y == null)
-					y = new Integer(0);
-				creat.slices.pixels.put(ev.exchange, y);
-			} else {
-
-			}
-		}
-		
-		if (ev.type == PixelClickConvertLog.CLICK && CLICKFILE != null ) {
-			String content = mapper.writer().writeValueAsString(ev);
-			logger.offer(new LogObject(CLICKFILE, content));
-		}
-		
-		if (ev.type == PixelClickConvertLog.PIXEL && PIXELFILE != null ) {
-			String content = mapper.writer().writeValueAsString(ev);
-			logger.offer(new LogObject(PIXELFILE, content));
+		if (ev.type == PixelClickConvertLog.CLICK) {
+			clicks.incrementAndGet();
+			aggregator.click(ev.ad_id, ev.creative_id, ev.exchange, CLICKFILE, ev);
+		} else if (ev.type == PixelClickConvertLog.PIXEL) {
+			pixels.incrementAndGet();
+			aggregator.pixel(ev.ad_id, ev.creative_id, ev.exchange, PIXELFILE, ev);
 		}
 	}
 
@@ -476,52 +401,9 @@ public class Spark implements Runnable {
 	 *             on bad access to atomic variables.
 	 */
 	public void processBid(BidResponse br) throws Exception {
-		String campaign = br.adid;
-		String impid = br.crid;
-		double cost = br.cost;
-
-		AcctCreative creat = getRecord(campaign, impid);
-		Integer x = null;
-		if (creat == null) {
-			creat = new AcctCreative("unknown", br.adid, br.crid);
-			creatives.add(creat);
-			accountHash.put(br.adid + ":" + br.crid, creat);
-		}
-		
-		x = creat.slices.bids.get(br.exchange);
-		if (x == null)
-			x = new Integer(0);
-
+		long micros = Aggregator.toMicros(br.cost);
 		bids.incrementAndGet();
-		synchronized (creat) {
-			creat.bids.incrementAndGet();
-			creat.bidPrice = creat.bidPrice.add(new BigDecimal(cost));
-			x++;
-			creat.slices.bids.put(br.exchange, x);
-			bidCost.addAndGet((int) (cost * 1000));
-		}
-
-		if (BIDFILE != null) {
-			String content = mapper.writer().writeValueAsString(br);
-			logger.offer(new LogObject(BIDFILE, content));
-		}
-
-	}
-
-	/**
-	 * Given a campaign name and impression id, retrieve the account creative
-	 * record.
-	 * 
-	 * @param campaign
-	 *            String. The name of the campaign.
-	 * @param impid
-	 *            String. The impression id.
-	 * @return AcctCreative. A summary accounting record this campaign/creative.
-	 */
-	public AcctCreative getRecord(String campaign, String impid) {
-		StringBuilder sb = new StringBuilder(campaign);
-		sb.append(":");
-		sb.append(impid);
-		return accountHash.get(sb.toString());
+		bidCost.addAndGet(micros / 1000);
+		aggregator.bid(br.adid, br.crid, br.exchange, micros, BIDFILE, br);
 	}
-}
\ No newline at end of file
+}
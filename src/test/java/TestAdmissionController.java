@@ -0,0 +1,140 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.bidder.AdmissionController;
+import com.xrtb.bidder.RTBServer;
+import com.xrtb.bidder.RouteTable;
+import com.xrtb.exchanges.Generic;
+import com.xrtb.pojo.BidRequest;
+
+/**
+ * Tests the adaptive admission of bid requests.
+ * @author Ben M. Faul
+ *
+ */
+public class TestAdmissionController {
+
+	static RouteTable.Route gold;
+	static RouteTable.Route bronze;
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestAdmissionController");
+		AdmissionController.ENABLED = true;
+		Map<String, BidRequest> exchanges = new HashMap();
+		Generic g = new Generic();
+		g.setExchange("gold");
+		g.tmax = 100;
+		exchanges.put("/rtb/bids/gold", g);
+		Generic b = new Generic();
+		b.setExchange("bronze");
+		b.priority = 0;
+		b.tmax = 100;
+		exchanges.put("/rtb/bids/bronze", b);
+		RTBServer.routes = new RouteTable(exchanges);
+		gold = RTBServer.routes.get("/rtb/bids/gold");
+		bronze = RTBServer.routes.get("/rtb/bids/bronze");
+	}
+
+	@AfterClass
+	public static void teardown() {
+		AdmissionController.ENABLED = false;
+	}
+
+	/**
+	 * Test the limit grows while requests are fast, and is cut once per burst of late ones.
+	 */
+	@Test
+	public void testAimd() {
+		AdmissionController ac = new AdmissionController(0);
+		double start = ac.getLimit();
+		for (int i = 0; i < 1000; i++)
+			ac.done(gold, System.currentTimeMillis());
+		assertTrue(ac.getLimit() > start);
+
+		double before = ac.getLimit();
+		long then = System.currentTimeMillis() - 500;
+		for (int i = 0; i < 10; i++)
+			ac.done(gold, then);
+		assertEquals(before * AdmissionController.BACKOFF, ac.getLimit(), 0.001);
+	}
+
+	/**
+	 * Test the low priority exchange is shed first, and a request too old to answer in time is shed.
+	 */
+	@Test
+	public void testShedding() {
+		AdmissionController ac = new AdmissionController(100);
+		long now = System.currentTimeMillis();
+		assertNull(ac.admit(gold, now, 80));
+		assertEquals("Server throttling", ac.admit(bronze, now, 80));
+		assertNull(ac.admit(bronze, now, 40));
+		assertEquals("Server throttling", ac.admit(gold, now, 101));
+		assertEquals("Too late", ac.admit(gold, now - 150, 1));
+	}
+
+	/**
+	 * Test nothing adapts or is shed below the cap unless enabled.
+	 */
+	@Test
+	public void testDisabled() {
+		AdmissionController.ENABLED = false;
+		try {
+			AdmissionController ac = new AdmissionController(100);
+			double start = ac.getLimit();
+			long then = System.currentTimeMillis() - 500;
+			assertNull(ac.admit(bronze, then, 100));
+			assertEquals("Server throttling", ac.admit(bronze, then, 101));
+			ac.done(gold, then);
+			assertEquals(start, ac.getLimit(), 0);
+		} finally {
+			AdmissionController.ENABLED = true;
+		}
+	}
+
+	/**
+	 * Test a bidder with no profile still sheds when jetty's thread pool is exhausted.
+	 */
+	@Test
+	public void testLowOnThreads() {
+		AdmissionController.ENABLED = false;
+		try {
+			boolean[] low = { false };
+			AdmissionController ac = new AdmissionController(0);
+			ac.setThreadPool(new ThreadPool() {
+				public void execute(Runnable r) {
+				}
+
+				public void join() {
+				}
+
+				public int getThreads() {
+					return 0;
+				}
+
+				public int getIdleThreads() {
+					return 0;
+				}
+
+				public boolean isLowOnThreads() {
+					return low[0];
+				}
+			});
+			long now = System.currentTimeMillis();
+			assertNull(ac.admit(gold, now, 1));
+			low[0] = true;
+			assertEquals("Server throttling", ac.admit(gold, now, 1));
+		} finally {
+			AdmissionController.ENABLED = true;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.tools.logmaster.AcctCreative;
+import com.xrtb.tools.logmaster.Aggregator;
+
+/**
+ * Tests the sharded accounting engine of the log master.
+ * @author Ben M. Faul
+ *
+ */
+public class TestAggregator {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestAggregator");
+	}
+
+	@Test
+	public void testCounts() throws Exception {
+		Aggregator agg = new Aggregator(4, 1024, null);
+		Thread[] producers = new Thread[4];
+		for (int t = 0; t < producers.length; t++) {
+			producers[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < 1000; i++) {
+						String crid = "c" + (i % 10);
+						agg.bid("camp", crid, "nexage", Aggregator.toMicros(0.001), null, null);
+						agg.win("camp", crid, "nexage", Aggregator.toMicros("0.0005"), null, null);
+						agg.pixel("camp", crid, "nexage", null, null);
+						agg.click("camp", crid, "stroer", null, null);
+					}
+				} catch (InterruptedException error) {
+				}
+			});
+			producers[t].start();
+		}
+		for (Thread t : producers)
+			t.join();
+
+		List<AcctCreative> list = agg.snapshot();
+		assertEquals(10, list.size());
+		long bids = 0, wins = 0;
+		BigDecimal cost = BigDecimal.ZERO;
+		for (AcctCreative c : list) {
+			bids += c.bids.get();
+			wins += c.wins.get();
+			cost = cost.add(c.winPrice);
+			assertEquals(400, c.pixels.get());
+			assertEquals(400, (int) c.slices.clicks.get("stroer"));
+			assertEquals(400, (int) c.slices.wins.get("nexage"));
+		}
+		assertEquals(4000, bids);
+		assertEquals(4000, wins);
+		assertEquals(0, cost.compareTo(new BigDecimal("2.000000")));
+
+		// New epoch starts empty
+		assertEquals(0, agg.snapshot().size());
+		agg.bid("camp", "c1", "nexage", 1, null, null);
+		assertEquals(1, agg.snapshot().size());
+		agg.stop();
+	}
+}
@@ -0,0 +1,130 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.common.AudienceLookup;
+import com.xrtb.common.Campaign;
+import com.xrtb.common.Node;
+import com.xrtb.pojo.BidRequest;
+
+/**
+ * Tests the audience questions of all the campaigns are answered in one trip, and cached.
+ * @author Ben M. Faul
+ *
+ */
+public class TestAudienceLookup {
+
+	/**
+	 * The local stand-in, counting the trips.
+	 */
+	static class Counting extends AudienceLookup.LocalSource {
+		int trips;
+		int questions;
+
+		@Override
+		public boolean[] isMember(List<String> names, List<String> members) {
+			trips++;
+			questions += names.size();
+			return super.isMember(names, members);
+		}
+	}
+
+	static Counting source = new Counting();
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestAudienceLookup");
+		source.add("$cookies", "u1");
+		source.add("$devices", "d1");
+		AudienceLookup.setSource(source);
+	}
+
+	static BidRequest request(String user, String device) throws Exception {
+		String json = "{\"id\":\"1\",\"user\":{\"id\":\"" + user + "\"},\"device\":{\"ifa\":\"" + device
+				+ "\"},\"imp\":[]}";
+		return new BidRequest(new ByteArrayInputStream(json.getBytes()));
+	}
+
+	static Campaign campaign(Node... nodes) {
+		Campaign c = new Campaign();
+		c.attributes = new ArrayList<Node>(Arrays.asList(nodes));
+		return c;
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		Node cookie = new Node("cookie", "user.id", "MEMBER", "$cookies");
+		Node device = new Node("device", "device.ifa", "NOT_MEMBER", "$devices");
+		Node or = new Node("or", null, "OR",
+				Arrays.asList(new Node("c2", "user.id", "MEMBER", "$cookies"), device));
+		List<Campaign> list = Arrays.asList(campaign(cookie), campaign(device, or));
+		assertEquals(3, list.get(1).getAudience().size());
+
+		BidRequest br = request("u1", "d1");
+		AudienceLookup.prefetch(br, list);
+		assertEquals(1, source.trips);
+		assertEquals(2, source.questions);
+		assertTrue(cookie.test(br));
+		assertFalse(device.test(br));
+		assertTrue(or.test(br));
+		assertEquals(1, source.trips);
+
+		// Same user, from the cache
+		br = request("u1", "d1");
+		AudienceLookup.prefetch(br, list);
+		assertEquals(1, source.trips);
+		assertTrue(cookie.test(br));
+
+		// Not prefetched, asked one at a time
+		br = request("u2", "d2");
+		assertFalse(cookie.test(br));
+		assertTrue(device.test(br));
+		assertEquals(3, source.trips);
+	}
+
+	/**
+	 * Test a failing source is asked once per request, not by every node, and not again for RETRY_MS.
+	 */
+	@Test
+	public void testFailure() throws Exception {
+		int[] trips = { 0 };
+		Node cookie = new Node("cookie", "user.id", "MEMBER", "$cookies");
+		Node device = new Node("device", "device.ifa", "NOT_MEMBER", "$devices");
+		List<Campaign> list = Arrays.asList(campaign(cookie), campaign(device));
+		int retry = AudienceLookup.RETRY_MS;
+		try {
+			AudienceLookup.setSource((names, members) -> {
+				trips[0]++;
+				throw new Exception("Source is down");
+			});
+			AudienceLookup.RETRY_MS = 0;
+			for (int i = 0; i < 3; i++) {
+				BidRequest br = request("u1", "d" + i);
+				AudienceLookup.prefetch(br, list);
+				assertFalse(cookie.test(br));
+				assertTrue(device.test(br));
+				assertEquals(i + 1, trips[0]);
+			}
+
+			AudienceLookup.RETRY_MS = 60000;
+			for (int i = 0; i < 3; i++) {
+				BidRequest br = request("u1", "d" + i);
+				AudienceLookup.prefetch(br, list);
+				assertFalse(cookie.test(br));
+				assertTrue(device.test(br));
+			}
+			assertEquals(4, trips[0]);
+		} finally {
+			AudienceLookup.RETRY_MS = retry;
+			AudienceLookup.setSource(source);
+		}
+	}
+}
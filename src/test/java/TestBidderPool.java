@@ -0,0 +1,73 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aerospike.redisson.RedissonClient;
+import com.xrtb.tools.BidderPool;
+
+/**
+ * Tests the bidder pool membership, using the embedded cache.
+ * @author Ben M. Faul
+ *
+ */
+public class TestBidderPool {
+
+	static RedissonClient redis;
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestBidderPool");
+		redis = new RedissonClient();
+	}
+
+	/**
+	 * Test heartbeats, expiry, removal and the change notifications.
+	 */
+	@Test
+	public void testMembership() throws Exception {
+		BidderPool pool = new BidderPool(redis, "testpool", 200);
+		List<String> joined = new ArrayList<String>();
+		List<String> left = new ArrayList<String>();
+		pool.addListener(new BidderPool.Listener() {
+			@Override
+			public void joined(String name) {
+				joined.add(name);
+			}
+
+			@Override
+			public void left(String name) {
+				left.add(name);
+			}
+		});
+
+		assertEquals(0, pool.getMembers().size());
+		pool.heartbeat("b");
+		pool.heartbeat("a");
+		assertEquals(0, pool.getMembers().size()); // the local copy
+		assertEquals(Arrays.asList("a", "b"), pool.refresh());
+		assertEquals(Arrays.asList("a", "b"), pool.getMembers());
+		assertEquals(Arrays.asList("a", "b"), joined);
+
+		// a stops sending heartbeats
+		Thread.sleep(300);
+		pool.heartbeat("b");
+		pool.heartbeat("c");
+		assertEquals(Arrays.asList("b", "c"), pool.refresh());
+		assertEquals(Arrays.asList("a"), left);
+		assertTrue(joined.contains("c"));
+
+		pool.remove("b");
+		assertEquals(Arrays.asList("c"), pool.getMembers());
+		assertEquals(Arrays.asList("a", "b"), left);
+
+		// Another pool doesn't see these
+		assertEquals(0, new BidderPool(redis, "otherpool", 200).getMembers().size());
+	}
+}
@@ -3,6 +3,7 @@ package test.java;
 import static org.junit.Assert.*;
 
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
@@ -102,6 +103,30 @@ public class TestCampaignProcessor  {
 		assertTrue(resp.getCreative().dimensions.get(0).getLeftX() == 320);
 	}
 	
+	/**
+	 * Evaluate runs every campaign, and tests every creative of the ones that match.
+	 * @throws Exception if the config file or the sample bid file fails to load, or they contain JSON errors.
+	 */
+	@Test
+	public void testEvaluate() throws Exception {
+		InputStream is = Configuration.getInputStream("SampleBids/nexage.txt");
+		BidRequest request = new BidRequest(is);
+		List<CampaignProcessor> list = CampaignSelector.getInstance().evaluate(request);
+		assertTrue(list.size() > 0);
+		boolean any = false;
+		for (CampaignProcessor p : list) {
+			List<SelectedCreative> eligible = p.getEligible();
+			assertNotNull(eligible);
+			if (eligible.size() > 0) {
+				any = true;
+				assertNotNull(p.getSelectedCreative());
+				for (SelectedCreative sc : eligible)
+					assertTrue(p.getCampaign().creatives.contains(sc.getCreative()));
+			}
+		}
+		assertTrue(any);
+	}
+
 	@Test
 	public void testJavascriptCreative() throws Exception {
 		
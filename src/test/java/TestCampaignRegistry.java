@@ -0,0 +1,142 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.common.Campaign;
+import com.xrtb.common.CampaignRegistry;
+import com.xrtb.common.Creative;
+import com.xrtb.common.Node;
+
+/**
+ * Tests the indexed campaign registry and its delta operations.
+ * @author Ben M. Faul
+ *
+ */
+public class TestCampaignRegistry {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestCampaignRegistry");
+	}
+
+	static Campaign campaign(String owner, String adId, String... impids) {
+		Campaign c = new Campaign();
+		c.owner = owner;
+		c.adId = adId;
+		for (String impid : impids) {
+			Creative cr = new Creative();
+			cr.impid = impid;
+			cr.setPrice(1.0);
+			c.creatives.add(cr);
+		}
+		return c;
+	}
+
+	/**
+	 * Test the index follows the list changes.
+	 */
+	@Test
+	public void testIndex() {
+		CampaignRegistry r = new CampaignRegistry();
+		Campaign a = campaign("ben", "a", "x", "y");
+		Campaign b = campaign("peter", "b", "z");
+		r.add(a);
+		r.add(b);
+		assertSame(a, r.get("ben", "a"));
+		assertNull(r.get("peter", "a"));
+		assertSame(a, r.find("peter", "a"));
+		assertSame(a, r.find(null, "a"));
+		assertEquals("z", r.getCreative("peter", "b", "z").impid);
+		assertNull(r.getCreative("peter", "b", "x"));
+
+		Campaign a2 = campaign("ben", "a", "x");
+		assertSame(a, r.replace(a2));
+		assertEquals(2, r.size());
+		assertSame(a2, r.get("ben", "a"));
+
+		r.removeIf(c -> c.owner.equals("peter"));
+		assertNull(r.get("peter", "b"));
+		assertEquals(1, r.size());
+		r.clear();
+		assertNull(r.get("ben", "a"));
+	}
+
+	/**
+	 * Test price changes and pausing a creative.
+	 */
+	@Test
+	public void testDeltas() {
+		CampaignRegistry r = new CampaignRegistry();
+		Campaign a = campaign("ben", "a", "x", "y");
+		r.add(a);
+
+		assertTrue(r.setPrice("ben", "a", "x", 2.5));
+		Creative x = r.getCreative("ben", "a", "x");
+		assertEquals(2.5, x.price, 0);
+		assertEquals("2.5", x.strPrice);
+		assertFalse(r.setPrice("ben", "a", "nope", 2.5));
+
+		List<Creative> before = a.creatives;
+		assertTrue(r.pause("ben", "a", "x"));
+		assertNotSame(before, a.creatives);
+		assertEquals(2, before.size());
+		assertEquals(1, a.creatives.size());
+		assertTrue(r.isPaused("ben", "a", "x"));
+		assertFalse(r.pause("ben", "a", "x"));
+
+		assertTrue(r.setPrice("ben", "a", "x", 3.0));
+		assertEquals(3.0, x.price, 0);
+
+		assertTrue(r.resume("ben", "a", "x"));
+		assertFalse(r.resume("ben", "a", "x"));
+		assertEquals(2, a.creatives.size());
+		assertSame(x, r.getCreative("ben", "a", "x"));
+
+		// A paused creative stays paused when its campaign is loaded again
+		r.pause("ben", "a", "y");
+		Campaign a2 = campaign("ben", "a", "x", "y");
+		r.replace(a2);
+		assertTrue(r.isPaused("ben", "a", "y"));
+		assertNull(r.getCreative("ben", "a", "y"));
+		assertTrue(r.resume("ben", "a", "y"));
+		assertEquals(2, a2.creatives.size());
+
+		r.pause("ben", "a", "y");
+		r.replace(campaign("ben", "a", "x"));
+		assertFalse(r.isPaused("ben", "a", "y"));
+
+		r.pause("ben", "a", "x");
+		r.remove("ben", "a");
+		assertFalse(r.isPaused("ben", "a", "x"));
+	}
+
+	/**
+	 * Test the fields a campaign targets are found, including the OR parts.
+	 */
+	@Test
+	public void testTargets() throws Exception {
+		Campaign a = campaign("ben", "a", "x");
+		a.attributes.add(new Node("country", "device.geo.country", "EQUALS", "USA"));
+		List<Node> parts = new ArrayList<Node>();
+		parts.add(new Node("site", "site.domain", "EQUALS", "a.com"));
+		parts.add(new Node("app", "app.bundle", "EQUALS", "a.com"));
+		a.attributes.add(new Node("or", null, "OR", parts));
+		a.creatives.get(0).attributes.add(new Node("w", "imp.0.banner.w", "EQUALS", 320));
+		a.creatives.get(0).capSpecification = "device.ip";
+
+		Set<String> set = CampaignRegistry.targets(a);
+		assertEquals(5, set.size());
+		assertTrue(set.contains("device.geo.country"));
+		assertTrue(set.contains("site.domain"));
+		assertTrue(set.contains("app.bundle"));
+		assertTrue(set.contains("imp.0.banner.w"));
+		assertTrue(set.contains("device.ip"));
+	}
+}
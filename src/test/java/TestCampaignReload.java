@@ -0,0 +1,70 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.bidder.Controller;
+import com.xrtb.commands.BasicCommand;
+import com.xrtb.common.CampaignRegistry;
+import com.xrtb.common.Configuration;
+
+/**
+ * Test a paused creative stays paused when its campaign is loaded again.
+ * @author Ben M. Faul
+ *
+ */
+public class TestCampaignReload {
+
+	@BeforeClass
+	public static void setup() {
+		try {
+			Config.setup();
+			System.out.println("******************  TestCampaignReload");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		Configuration.getInstance().campaignsList.resume("ben", "ben:payday", "66skiddoo");
+	}
+
+	/**
+	 * Pause a creative, reload its campaign with an add campaign command, and check it is still paused.
+	 */
+	@Test
+	public void testPausedAfterReload() throws Exception {
+		CampaignRegistry r = Configuration.getInstance().campaignsList;
+
+		BasicCommand cmd = new BasicCommand();
+		cmd.cmd = Controller.PAUSE_CREATIVE;
+		cmd.owner = "ben";
+		cmd.name = "ben:payday";
+		cmd.target = "66skiddoo";
+		cmd.from = "test";
+		Controller.getInstance().pauseCreative(cmd);
+		assertTrue(r.isPaused("ben", "ben:payday", "66skiddoo"));
+
+		BasicCommand add = new BasicCommand();
+		add.owner = "ben";
+		add.target = "ben:payday";
+		add.from = "test";
+		List<BasicCommand> cmds = new ArrayList<BasicCommand>();
+		cmds.add(add);
+		Controller.getInstance().addCampaigns(cmds);
+
+		assertNotNull(r.get("ben", "ben:payday"));
+		assertTrue(r.isPaused("ben", "ben:payday", "66skiddoo"));
+		assertNull(r.getCreative("ben", "ben:payday", "66skiddoo"));
+
+		Configuration.getInstance().addCampaignsList("ben", new String[] { "ben:payday" });
+		assertTrue(r.isPaused("ben", "ben:payday", "66skiddoo"));
+	}
+}
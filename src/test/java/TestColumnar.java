@@ -0,0 +1,191 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xrtb.tools.LogScanner;
+import com.xrtb.tools.explorer.ColumnFilter;
+import com.xrtb.tools.explorer.Columnar;
+
+/**
+ * Tests the columnar request log format and its filters.
+ * @author Ben M. Faul
+ *
+ */
+public class TestColumnar {
+
+	static File dir;
+	static String col;
+	static Map<String, Map> requests = new HashMap();
+	static ObjectMapper mapper = new ObjectMapper();
+	static int saveRows;
+	static long saveSplit;
+
+	static final String[] countries = { "USA", "CAN", "MEX", "GBR" };
+	static final String[] cats = { "IAB1", "IAB2", "IAB3", "IAB25", "IAB26" };
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestColumnar");
+		dir = Files.createTempDirectory("columnar").toFile();
+		dir.deleteOnExit();
+		saveRows = Columnar.BLOCK_ROWS;
+		saveSplit = LogScanner.SPLIT_SIZE;
+		Columnar.BLOCK_ROWS = 100;
+		LogScanner.SPLIT_SIZE = 8192;
+
+		Random r = new Random(1);
+		String log = dir.getAbsolutePath() + "/request";
+		try (FileWriter out = new FileWriter(log)) {
+			for (int i = 0; i < 2000; i++) {
+				Map m = new HashMap();
+				Map imp = new HashMap();
+				imp.put("id", "imp-" + i);
+				if (r.nextInt(4) != 0)
+					imp.put("bidfloor", r.nextInt(100) / 10.0);
+				if (r.nextBoolean()) {
+					Map banner = new HashMap();
+					banner.put("w", r.nextBoolean() ? 320 : 728);
+					banner.put("h", r.nextBoolean() ? 50 : 90);
+					banner.put("btype", Arrays.asList(r.nextInt(4) + 1));
+					imp.put("banner", banner);
+				} else {
+					Map video = new HashMap();
+					video.put("w", 640);
+					video.put("h", 480);
+					video.put("mimes", Arrays.asList("video/mp4"));
+					imp.put("video", video);
+				}
+				m.put("imp", Arrays.asList(imp));
+				Map device = new HashMap();
+				if (r.nextInt(10) != 0) {
+					Map geo = new HashMap();
+					geo.put("country", countries[r.nextInt(countries.length)]);
+					device.put("geo", geo);
+				}
+				device.put("os", r.nextBoolean() ? "Android" : "iOS");
+				m.put("device", device);
+				List bcat = new ArrayList();
+				for (String c : cats) {
+					if (r.nextInt(3) == 0)
+						bcat.add(c);
+				}
+				if (bcat.size() > 0)
+					m.put("bcat", bcat);
+				requests.put("imp-" + i, m);
+				out.write(mapper.writeValueAsString(m) + "\n");
+			}
+		}
+		col = Columnar.defaultTarget(log);
+		assertEquals(2000, Columnar.convert(log, col, 4));
+		assertEquals(1, LogScanner.expand(log).size());
+	}
+
+	@AfterClass
+	public static void teardown() {
+		Columnar.BLOCK_ROWS = saveRows;
+		LogScanner.SPLIT_SIZE = saveSplit;
+	}
+
+	/**
+	 * Every row read back must have the stored fields of its request.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		assertTrue(Columnar.isColumnar(col));
+		int n = 0;
+		try (Columnar.Reader reader = new Columnar.Reader(col)) {
+			Columnar.Block b;
+			while ((b = reader.next()) != null) {
+				for (int i = 0; i < b.rows; i++) {
+					Map row = b.row(i);
+					Map imp = (Map) ((List) row.get("imp")).get(0);
+					Map m = requests.get(imp.get("id"));
+					assertNotNull(m);
+					Map original = (Map) ((List) m.get("imp")).get(0);
+					assertEquals(original.get("bidfloor"), imp.get("bidfloor"));
+					assertEquals(original.get("banner"), imp.get("banner"));
+					assertEquals(m.get("bcat"), row.get("bcat"));
+					assertEquals(m.get("device"), row.get("device"));
+					if (original.get("video") != null)
+						assertEquals(Arrays.asList("video/mp4"), ((Map) imp.get("video")).get("mimes"));
+					n++;
+				}
+			}
+		}
+		assertEquals(2000, n);
+	}
+
+	/**
+	 * Filters must pass the same rows as testing the requests one at a time.
+	 */
+	@Test
+	public void testFilters() throws Exception {
+		int w320 = 0, floorUnder = 0, north = 0, blocked = 0, video = 0, all = 0;
+		for (Map m : requests.values()) {
+			Map imp = (Map) ((List) m.get("imp")).get(0);
+			Map banner = (Map) imp.get("banner");
+			Map geo = (Map) ((Map) m.get("device")).get("geo");
+			Double floor = (Double) imp.get("bidfloor");
+			List bcat = (List) m.get("bcat");
+
+			if (banner == null || banner.get("w").equals(320))
+				w320++;
+			if (floor == null || 5 > floor)
+				floorUnder++;
+			if (geo == null || Arrays.asList("USA", "CAN").contains(geo.get("country")))
+				north++;
+			if (bcat == null || !bcat.contains("IAB25"))
+				blocked++;
+			if (imp.get("video") != null)
+				video++;
+			if ((banner == null || banner.get("w").equals(320)) && (floor == null || 5 > floor)
+					&& (geo == null || Arrays.asList("USA", "CAN").contains(geo.get("country"))))
+				all++;
+		}
+
+		assertEquals(w320, count(new ColumnFilter("imp.0.banner.w", "EQUALS", 320)));
+		assertEquals(floorUnder, count(new ColumnFilter("imp.0.bidfloor", "GREATER_THAN", 5)));
+		assertEquals(north, count(new ColumnFilter("device.geo.country", "MEMBER", Arrays.asList("USA", "CAN"))));
+		assertEquals(blocked, count(new ColumnFilter("bcat", "NOT_MEMBER", "IAB25")));
+		assertEquals(video, count(new ColumnFilter("imp.0.video", "EXISTS", null)));
+		assertEquals(all, count(new ColumnFilter("imp.0.banner.w", "EQUALS", 320),
+				new ColumnFilter("imp.0.bidfloor", "GREATER_THAN", 5),
+				new ColumnFilter("device.geo.country", "MEMBER", Arrays.asList("USA", "CAN"))));
+		assertEquals(0, count(new ColumnFilter("device.os", "EQUALS", "Windows"),
+				new ColumnFilter("device.os", "EXISTS", null)));
+	}
+
+	/**
+	 * Unsupported operators are refused.
+	 */
+	@Test
+	public void testUnsupported() throws Exception {
+		try {
+			new ColumnFilter("device.geo", "INRANGE", new ArrayList());
+			fail("INRANGE should not be supported");
+		} catch (Exception error) {
+
+		}
+	}
+
+	long count(ColumnFilter... filters) throws Exception {
+		try (Columnar.Reader reader = new Columnar.Reader(col)) {
+			return reader.scan(Arrays.asList(filters), null);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.bidder.CommandExecutor;
+import com.xrtb.bidder.Controller;
+import com.xrtb.commands.BasicCommand;
+
+/**
+ * Tests the ordering and batching of the bidder command executor.
+ * @author Ben M. Faul
+ *
+ */
+public class TestCommandExecutor {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestCommandExecutor");
+	}
+
+	static BasicCommand command(int cmd, String target) {
+		BasicCommand c = new BasicCommand();
+		c.cmd = cmd;
+		c.target = target;
+		return c;
+	}
+
+	/**
+	 * Records what it runs. The first command waits for the gate, so the rest
+	 * pile up behind it.
+	 */
+	static class Recorder implements CommandExecutor.Handler {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch query = new CountDownLatch(1);
+		CountDownLatch finished;
+
+		Recorder(int n) {
+			finished = new CountDownLatch(n);
+		}
+
+		@Override
+		public void execute(BasicCommand cmd) throws Exception {
+			if (CommandExecutor.isQuery(cmd.cmd)) {
+				log.add("query " + cmd.target);
+				query.countDown();
+			} else {
+				gate.await();
+				log.add("cmd " + cmd.target);
+			}
+			finished.countDown();
+		}
+
+		@Override
+		public void addCampaigns(List<BasicCommand> cmds) throws Exception {
+			StringBuilder sb = new StringBuilder("add");
+			for (BasicCommand c : cmds)
+				sb.append(" " + c.target);
+			log.add(sb.toString());
+			for (BasicCommand c : cmds)
+				finished.countDown();
+		}
+	}
+
+	/**
+	 * Test the state changing commands run in order, runs of adds are one
+	 * batch, and queries don't wait behind them.
+	 */
+	@Test
+	public void testOrderAndBatching() throws Exception {
+		Recorder r = new Recorder(7);
+		CommandExecutor x = new CommandExecutor(r);
+		try {
+			x.submit(command(Controller.STOP_BIDDER, "1"));
+			x.submit(command(Controller.ADD_CAMPAIGN, "a"));
+			x.submit(command(Controller.ADD_CAMPAIGN, "b"));
+			x.submit(command(Controller.ADD_CAMPAIGN, "c"));
+			x.submit(command(Controller.SET_PRICE, "2"));
+			x.submit(command(Controller.ADD_CAMPAIGN, "d"));
+
+			x.submit(command(Controller.GET_PRICE, "q"));
+			assertTrue(r.query.await(5, TimeUnit.SECONDS));
+			assertEquals("query q", r.log.get(0));
+			assertTrue(x.getQueueDepth() >= 5);
+
+			r.gate.countDown();
+			assertTrue(r.finished.await(5, TimeUnit.SECONDS));
+			assertEquals("cmd 1", r.log.get(1));
+			assertEquals("add a b c", r.log.get(2));
+			assertEquals("cmd 2", r.log.get(3));
+			assertEquals("add d", r.log.get(4));
+
+			Thread.sleep(50);
+			Map m = x.getStats();
+			assertEquals(7L, m.get("executed"));
+			assertEquals(2L, m.get("batches"));
+			assertEquals(4L, m.get("batched"));
+			assertEquals(0, x.getQueueDepth());
+			assertTrue((Double) m.get("maxLatency") > 0);
+		} finally {
+			x.shutdown();
+		}
+	}
+
+	/**
+	 * Test a command that fails is still counted, and the commands behind it run.
+	 */
+	@Test
+	public void testFailure() throws Exception {
+		CountDownLatch finished = new CountDownLatch(1);
+		CommandExecutor x = new CommandExecutor(new CommandExecutor.Handler() {
+			@Override
+			public void execute(BasicCommand cmd) throws Exception {
+				if (cmd.target.equals("bad"))
+					throw new Exception("Bad command");
+				finished.countDown();
+			}
+
+			@Override
+			public void addCampaigns(List<BasicCommand> cmds) throws Exception {
+
+			}
+		});
+		try {
+			x.submit(command(Controller.STOP_BIDDER, "bad"));
+			x.submit(command(Controller.START_BIDDER, "good"));
+			assertTrue(finished.await(5, TimeUnit.SECONDS));
+			Thread.sleep(50);
+			assertEquals(2L, x.getStats().get("executed"));
+		} finally {
+			x.shutdown();
+		}
+	}
+}
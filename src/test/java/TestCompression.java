@@ -0,0 +1,98 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.tools.Compression;
+
+/**
+ * Tests the pooled gzip compression.
+ * @author Ben M. Faul
+ *
+ */
+public class TestCompression {
+
+	static String data;
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestCompression");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			sb.append("{\"id\":\"" + i + "\",\"adm\":\"<VAST version=\\\"2.0\\\"></VAST>\"}");
+		data = sb.toString();
+	}
+
+	/**
+	 * Our gzip must be readable by the JDK, and the JDK's by ours.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] zipped = Compression.gzip(data);
+		assertTrue(zipped.length < data.length());
+
+		GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(zipped));
+		assertEquals(data, new String(Compression.readAll(gis)));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(data.getBytes());
+		gzos.close();
+		assertEquals(data, new String(Compression.gunzip(new ByteArrayInputStream(baos.toByteArray()))));
+
+		// Reuse of the thread's inflater and deflater
+		assertEquals("hello", new String(Compression.gunzip(Compression.gzip("hello"))));
+		assertEquals("", new String(Compression.gunzip(Compression.gzip(""))));
+
+		byte[] hello = Compression.gzip("hello");
+		byte[] padded = new byte[hello.length + 16];
+		System.arraycopy(hello, 0, padded, 0, hello.length);
+		assertEquals("hello", new String(Compression.gunzip(padded)));
+	}
+
+	@Test
+	public void testBadData() {
+		try {
+			Compression.gunzip("not gzip at all".getBytes());
+			fail("Should have thrown");
+		} catch (IOException error) {
+		}
+
+		byte[] zipped = Compression.gzip(data);
+		byte[] truncated = new byte[zipped.length / 2];
+		System.arraycopy(zipped, 0, truncated, 0, truncated.length);
+		try {
+			Compression.gunzip(truncated);
+			fail("Should have thrown");
+		} catch (IOException error) {
+		}
+
+		byte[] badSize = zipped.clone();
+		badSize[badSize.length - 1] ^= 1;
+		try {
+			Compression.gunzip(badSize);
+			fail("Should have thrown");
+		} catch (IOException error) {
+		}
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		Compression.gunzip(Compression.gzip(data));
+		Map m = Compression.getStats();
+		Map c = (Map) m.get("compress");
+		assertTrue((Long) c.get("count") > 0);
+		assertTrue((Double) c.get("ratio") > 1.0);
+		assertTrue(Compression.acceptsGzip("deflate, gzip"));
+		assertFalse(Compression.acceptsGzip(null));
+	}
+}
@@ -8,6 +8,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -21,7 +22,10 @@ import org.junit.Test;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import com.xrtb.bidder.Controller;
+import com.xrtb.common.Campaign;
 import com.xrtb.common.Configuration;
+import com.xrtb.common.Creative;
+import com.xrtb.common.Deal;
 import com.xrtb.common.HttpPostGet;
 import com.xrtb.jmq.MessageListener;
 import com.xrtb.jmq.RTopic;
@@ -134,4 +138,40 @@ public class TestDeals {
 		int code = http.getResponseCode();
 		assertEquals(code,200);
 	}
+
+	/**
+	 * Test the deal indexes of the creative and the campaign.
+	 */
+	@Test
+	public void testDealIndex() throws Exception {
+		Campaign camp = new Campaign();
+		Creative a = new Creative();
+		a.impid = "a";
+		a.deals = new ArrayList<Deal>();
+		for (int i = 0; i < 300; i++)
+			a.deals.add(new Deal("deal-" + i, i));
+		Creative b = new Creative();
+		b.impid = "b";
+		b.deals = new ArrayList<Deal>();
+		b.deals.add(new Deal("deal-7", 1.5));
+		b.deals.add(new Deal("other", 2.5));
+		Creative c = new Creative();
+		c.impid = "c";
+		camp.creatives.add(a);
+		camp.creatives.add(b);
+		camp.creatives.add(c);
+		camp.encodeDeals();
+
+		assertEquals(new Deal("deal-7", 0), new Deal("deal-7", 9));
+		assertEquals(new Deal("deal-7", 0).hashCode(), new Deal("deal-7", 9).hashCode());
+		assertEquals(299.0, a.findDeal("deal-299").price, 0);
+		assertNull(a.findDeal("other"));
+		assertEquals(2.5, b.findDeal("other").price, 0);
+
+		List<Creative> list = camp.getDealCreatives("deal-7");
+		assertEquals(2, list.size());
+		assertTrue(list.contains(a) && list.contains(b));
+		assertEquals(1, camp.getDealCreatives("other").size());
+		assertNull(camp.getDealCreatives("nope"));
+	}
 }
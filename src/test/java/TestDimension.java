@@ -2,10 +2,16 @@ package test.java;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import com.xrtb.common.Creative;
+import com.xrtb.common.CreativeIndex;
 import com.xrtb.common.Dimension;
 import com.xrtb.common.Dimensions;
+import com.xrtb.pojo.Impression;
+import com.xrtb.pojo.Video;
 
 public class TestDimension {
 
@@ -55,4 +61,49 @@ public class TestDimension {
 		
 		assertNotNull(dims.getBestFit(null,null));
 	}
+
+	/**
+	 * Test the creative index finds the creatives that fit the impression size and type.
+	 */
+	@Test
+	public void testCreativeIndex() {
+		Creative a = new Creative();
+		a.impid = "a";
+		a.dimensions = new Dimensions();
+		a.dimensions.add(new Dimension(320, 50));
+		a.dimensions.add(new Dimension(300, 250));
+		Creative b = new Creative();
+		b.impid = "b";
+		b.dimensions = new Dimensions();
+		b.dimensions.add(new Dimension(728, 90));
+		Creative c = new Creative();                     // any size
+		c.impid = "c";
+		Creative d = new Creative();                     // a range
+		d.impid = "d";
+		d.dimensions = new Dimensions();
+		d.dimensions.add(new Dimension(0, 400, -1, -1));
+		Creative v = new Creative();
+		v.impid = "v";
+		v.videoDuration = 30;
+		v.dimensions = new Dimensions();
+		v.dimensions.add(new Dimension(320, 50));
+
+		CreativeIndex index = new CreativeIndex(Arrays.asList(a, b, c, d, v));
+		Impression imp = new Impression();
+		imp.w = 320;
+		imp.h = 50;
+		CreativeIndex.Bucket bucket = index.get(imp);
+		assertEquals(Arrays.asList(a, c, d), bucket.creatives);
+		assertEquals(Arrays.asList(b, v), bucket.others);
+
+		imp.w = 1;                                       // nobody's exact size
+		assertEquals(Arrays.asList(c, d), index.get(imp).creatives);
+
+		imp.w = null;
+		assertEquals(Arrays.asList(a, b, c, d), index.get(imp).creatives);
+
+		imp.w = 320;
+		imp.video = new Video();
+		assertEquals(Arrays.asList(v), index.get(imp).creatives);
+	}
 }
@@ -0,0 +1,72 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.pojo.ExchangeCounts;
+
+/**
+ * Tests the per exchange counters.
+ * @author Ben M. Faul
+ *
+ */
+public class TestExchangeCounts {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestExchangeCounts");
+	}
+
+	/**
+	 * Test no increments are lost when many threads count at once, and the ids are dense.
+	 */
+	@Test
+	public void testConcurrent() throws Exception {
+		ExchangeCounts ec = new ExchangeCounts();
+		String[] exchanges = { "nexage", "smaato", "fyber" };
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 30000; i++) {
+					ec.incrementRequest(exchanges[i % 3]);
+					if (i % 10 == 0)
+						ec.incrementBid(exchanges[i % 3]);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+
+		List<Map> list = ec.getList();
+		assertEquals(3, list.size());
+		for (Map m : list) {
+			assertEquals(80000L, m.get("requests"));
+			assertEquals(8000L, m.get("bids"));
+		}
+		assertTrue(ec.id("smaato") < 3);
+		assertEquals(3, ec.id("new"));
+	}
+
+	/**
+	 * Test the qps is computed from the counts since the last snapshot.
+	 */
+	@Test
+	public void testRate() {
+		ExchangeCounts ec = new ExchangeCounts();
+		for (int i = 0; i < 100; i++)
+			ec.incrementRequest("nexage");
+		ec.getList(10);
+		assertEquals(10.0, (Double) ec.getList().get(0).get("qps"), 0);
+
+		for (int i = 0; i < 20; i++)
+			ec.incrementRequest("nexage");
+		assertEquals(2.0, (Double) ec.getList(10).get(0).get("qps"), 0);
+		assertEquals(0.0, (Double) ec.getList(10).get(0).get("qps"), 0);
+	}
+}
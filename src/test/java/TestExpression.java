@@ -0,0 +1,109 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.common.Expression;
+import com.xrtb.common.Node;
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.Impression;
+
+/**
+ * Tests the compiled expression language used by nodes and bid shading.
+ * @author Ben M. Faul
+ *
+ */
+public class TestExpression {
+
+	static BidRequest br;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestExpression");
+		String json = "{\"id\":\"1\",\"site\":{\"domain\":\"example.com\"},"
+				+ "\"device\":{\"os\":\"iOS\",\"geo\":{\"country\":\"USA\",\"lat\":40.5}},"
+				+ "\"user\":{\"keywords\":[\"a\",\"b\"]},\"imp\":[]}";
+		br = new BidRequest(new ByteArrayInputStream(json.getBytes()));
+		br.setExchange("nexage");
+	}
+
+	@Test
+	public void testConditions() throws Exception {
+		assertTrue(Expression.compile("device.geo.country == 'USA'").test(br));
+		assertFalse(Expression.compile("device.geo.country != \"USA\"").test(br));
+		assertTrue(Expression.compile("in(device.os, 'Android', 'iOS') && device.geo.lat > 40").test(br));
+		assertTrue(Expression.compile("contains(user.keywords, 'b') || false").test(br));
+		assertTrue(Expression.compile("!exists(device.ifa) && exchange == 'nexage'").test(br));
+		assertTrue(Expression.compile("startsWith(site.domain, 'exam') && len(user.keywords) == 2").test(br));
+		assertFalse(Expression.compile("site.missing.field").test(br));
+	}
+
+	@Test
+	public void testShading() throws Exception {
+		Impression imp = new Impression();
+		imp.bidFloor = 1.0;
+
+		Expression e = Expression.compile("max(bidfloor + 0.01, price * 0.5)");
+		assertEquals(1.01, e.price(br, imp, 2.0), 0.0001);
+		assertEquals(2.0, e.price(br, imp, 4.0), 0.0001);
+
+		e = Expression.compile("device.geo.country == 'USA' ? round(price * 0.8, 2) : price");
+		assertEquals(2.4, e.price(br, imp, 3.0), 0.0001);
+
+		// Non numeric result leaves the price alone
+		assertEquals(3.0, Expression.compile("'x'").price(br, imp, 3.0), 0.0001);
+	}
+
+	@Test
+	public void testFolding() throws Exception {
+		assertTrue(Expression.compile("1 + 2 * 3 == 7").isConstant());
+		assertEquals(7.0, Expression.compile("(1 + 2) * 3 - 2").eval(br, null, 0));
+		assertFalse(Expression.compile("rand() < 2").isConstant());
+		assertEquals("ab1.0", Expression.compile("'a' + 'b' + 1").eval(br, null, 0));
+		assertEquals(0.001, Expression.compile("1e-3").eval(br, null, 0));
+		assertEquals(250.0, Expression.compile("2.5E+2").eval(br, null, 0));
+		assertEquals(2e3 - 1, Expression.compile("2e3-1").eval(br, null, 0));
+	}
+
+	@Test
+	public void testErrors() {
+		String[] bad = { "1 +", "(1", "foo(1)", "'abc", "a == == b", "abs(1, 2)", "1 # 2" };
+		for (String s : bad) {
+			try {
+				Expression.compile(s);
+				fail("Should not compile: " + s);
+			} catch (Exception error) {
+				assertTrue(error.getMessage().startsWith("Expression error"));
+			}
+		}
+	}
+
+	@Test
+	public void testNode() throws Exception {
+		Node n = new Node("usa", "device.geo.country", "EQUALS", "USA", "device.os == 'iOS'");
+		assertTrue(n.test(br));
+		n = new Node("usa", "device.geo.country", "EQUALS", "USA", "device.os == 'Android'");
+		assertFalse(n.test(br));
+
+		// A stored node with JavaScript code from before expressions still loads, without the code
+		Map m = new HashMap();
+		m.put("name", "usa");
+		m.put("op", "EQUALS");
+		m.put("value", "USA");
+		m.put("bidRequestValues", Arrays.asList("device", "geo", "country"));
+		m.put("code", "function test(br) { return br.device.os === 'Android'; }");
+		n = new Node(m);
+		assertNull(n.code);
+		assertTrue(n.test(br));
+
+		m.put("code", "device.os == 'Android'");
+		assertFalse(new Node(m).test(br));
+	}
+}
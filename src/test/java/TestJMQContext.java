@@ -0,0 +1,81 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import com.xrtb.jmq.JMQContext;
+
+/**
+ * Tests the shared ZeroMQ context, its bounded sockets and their counters.
+ * @author Ben M. Faul
+ *
+ */
+public class TestJMQContext {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestJMQContext");
+	}
+
+	static Map stats(String name) {
+		List<Map> all = JMQContext.getStats();
+		for (Map m : all) {
+			if (name.equals(m.get("name")))
+				return m;
+		}
+		return null;
+	}
+
+	/**
+	 * Test a socket with nobody reading drops at its high water mark instead of queueing forever.
+	 */
+	@Test
+	public void testHighWaterMark() throws Exception {
+		int hwm = JMQContext.SEND_HWM;
+		JMQContext.SEND_HWM = 10;
+		ZMQ.Socket push = JMQContext.socket(ZMQ.PUSH, "hwm-test");
+		JMQContext.SEND_HWM = hwm;
+		try {
+			push.connect("tcp://localhost:5595");
+			int sent = 0;
+			for (int i = 0; i < 1000; i++) {
+				if (JMQContext.send(push, null, "message " + i))
+					sent++;
+			}
+			assertTrue(sent < 1000);
+			Map m = stats("hwm-test");
+			assertEquals((long) sent, m.get("sent"));
+			assertEquals(1000L - sent, m.get("dropped"));
+		} finally {
+			JMQContext.close(push);
+		}
+		assertNull(stats("hwm-test"));
+	}
+
+	/**
+	 * Test sockets share the one context and messages get through.
+	 */
+	@Test
+	public void testSend() throws Exception {
+		ZMQ.Socket pull = JMQContext.socket(ZMQ.PULL, "pull-test");
+		ZMQ.Socket push = JMQContext.socket(ZMQ.PUSH, "push-test");
+		try {
+			pull.setReceiveTimeOut(5000);
+			pull.bind("tcp://*:5594");
+			push.connect("tcp://localhost:5594");
+			assertTrue(JMQContext.send(push, null, "hello"));
+			assertEquals("hello", pull.recvStr());
+			assertSame(JMQContext.getInstance(), JMQContext.getInstance());
+			assertEquals(1L, stats("push-test").get("sent"));
+		} finally {
+			JMQContext.close(push);
+			JMQContext.close(pull);
+		}
+	}
+}
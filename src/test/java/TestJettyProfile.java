@@ -0,0 +1,76 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.common.JettyProfile;
+
+/**
+ * Tests the jetty performance profile.
+ * @author Ben M. Faul
+ *
+ */
+public class TestJettyProfile {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestJettyProfile");
+	}
+
+	@Test
+	public void testDefaults() {
+		JettyProfile p = new JettyProfile(new HashMap());
+		assertTrue(p.acceptors() >= 1);
+		assertTrue(p.selectors() >= 1);
+		assertTrue(p.sessionless);
+		assertEquals(2000, p.maxInflight);
+		assertFalse(p.adaptive);
+	}
+
+	@Test
+	public void testConfigured() {
+		Map m = new HashMap();
+		m.put("maxThreads", 64);
+		m.put("minThreads", 128);
+		m.put("queueSize", 500);
+		m.put("selectorsPerCore", 0.0);
+		m.put("requestHeaderSize", 4096);
+		m.put("sessionless", false);
+		JettyProfile p = new JettyProfile(m);
+
+		assertEquals(64, p.minThreads);
+		assertEquals(1, p.selectors());
+		assertFalse(p.sessionless);
+
+		QueuedThreadPool pool = p.threadPool();
+		assertEquals(64, pool.getMaxThreads());
+
+		HttpConfiguration http = p.httpConfiguration();
+		assertEquals(4096, http.getRequestHeaderSize());
+		assertTrue(http.isPersistentConnectionsEnabled());
+		assertFalse(http.getSendServerVersion());
+	}
+
+	@Test
+	public void testAsyncMode() {
+		assertFalse(new JettyProfile().isAsync());
+
+		Map m = new HashMap();
+		m.put("mode", "async");
+		m.put("executor", "virtual");
+		m.put("asyncTimeout", 250);
+		m.put("asyncQueue", 64);
+		JettyProfile p = new JettyProfile(m);
+		assertTrue(p.isAsync());
+		assertEquals("virtual", p.executor);
+		assertEquals(250, p.asyncTimeout);
+		assertEquals(64, p.asyncQueue);
+	}
+}
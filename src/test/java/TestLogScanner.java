@@ -0,0 +1,105 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.tools.LogScanner;
+
+/**
+ * Tests the parallel log scanner.
+ * @author Ben M. Faul
+ *
+ */
+public class TestLogScanner {
+
+	static File dir;
+	static long save;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestLogScanner");
+		dir = Files.createTempDirectory("logscanner").toFile();
+		save = LogScanner.SPLIT_SIZE;
+	}
+
+	@AfterClass
+	public static void stop() {
+		LogScanner.SPLIT_SIZE = save;
+	}
+
+	/**
+	 * Every line must be seen exactly once, however the file is split, and the
+	 * gzipped rolled file is read too.
+	 */
+	@Test
+	public void testSplits() throws Exception {
+		String name = dir.getAbsolutePath() + "/request";
+		StringBuilder sb = new StringBuilder();
+		long expected = 0;
+		for (int i = 1; i <= 5000; i++) {
+			sb.append("{\"id\":").append(i).append("}\n");
+			expected += i;
+		}
+		// A line longer than what is mapped past the end of a range
+		StringBuilder big = new StringBuilder("{\"id\":5001,\"pad\":\"");
+		for (int i = 0; i < 200000; i++)
+			big.append('x');
+		sb.append(big).append("\"}\n");
+		expected += 5001;
+		sb.append("{\"id\":5002}");   // no newline at the end
+		expected += 5002;
+		Files.write(new File(name).toPath(), sb.toString().getBytes());
+
+		GZIPOutputStream gz = new GZIPOutputStream(new FileOutputStream(name + "-2017-01-01-00:00.gz"));
+		for (int i = 1; i <= 1000; i++) {
+			gz.write(("{\"id\":" + i + "}\n").getBytes());
+			expected += i;
+		}
+		gz.close();
+
+		for (long split : new long[] { 100, 4096, 1 << 20 }) {
+			LogScanner.SPLIT_SIZE = split;
+			LogScanner scanner = new LogScanner(4);
+			long[] sum = scanner.scan(name, () -> new long[1], (acc, file, line) -> {
+				int i = line.indexOf(':');
+				int j = line.indexOf(',') > 0 ? line.indexOf(',') : line.indexOf('}');
+				acc[0] += Long.parseLong(line.substring(i + 1, j));
+			}, (a, b) -> {
+				a[0] += b[0];
+				return a;
+			});
+			scanner.shutdown();
+			assertEquals("Split " + split, expected, sum[0]);
+			assertEquals(5002 + 1000, scanner.getLines());
+			assertEquals(0, scanner.getBad());
+		}
+	}
+
+	/**
+	 * Bad lines are counted and skipped.
+	 */
+	@Test
+	public void testBad() throws Exception {
+		String name = dir.getAbsolutePath() + "/bad";
+		Files.write(new File(name).toPath(), "1\n2\nthree\n4\n".getBytes());
+		LogScanner scanner = new LogScanner(2);
+		List<Integer> list = scanner.scan(name, () -> new ArrayList<Integer>(),
+				(acc, file, line) -> acc.add(Integer.parseInt(line)), (a, b) -> {
+					a.addAll(b);
+					return a;
+				});
+		scanner.shutdown();
+		assertEquals(3, list.size());
+		assertEquals(1, scanner.getBad());
+	}
+}
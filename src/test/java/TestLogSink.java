@@ -0,0 +1,102 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.tools.Compression;
+import com.xrtb.tools.LogSink;
+
+/**
+ * Tests the continuous log writer.
+ * @author Ben M. Faul
+ *
+ */
+public class TestLogSink {
+
+	static File dir;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestLogSink");
+		dir = Files.createTempDirectory("logsink").toFile();
+		dir.deleteOnExit();
+	}
+
+	/**
+	 * Everything offered must be in the file, in order, after close.
+	 */
+	@Test
+	public void testPlain() throws Exception {
+		String name = dir.getAbsolutePath() + "/plain";
+		LogSink sink = new LogSink(name);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			String line = "{\"id\":" + i + ",\"name\":\"caf\u00e9\"}";
+			assertTrue(sink.offer(line));
+			expected.append(line).append("\n");
+		}
+		sink.close();
+		assertEquals(expected.toString(), new String(Files.readAllBytes(new File(name).toPath()), "UTF-8"));
+
+		Map m = sink.getStats();
+		assertEquals(10000L, m.get("records"));
+		assertEquals(0L, m.get("dropped"));
+		assertFalse(sink.offer("after close"));
+	}
+
+	/**
+	 * Gzipped, rolled on size. Every file must be a complete gzip file, and
+	 * together they hold all the lines.
+	 */
+	@Test
+	public void testGzipRoll() throws Exception {
+		String name = dir.getAbsolutePath() + "/zipped";
+		LogSink sink = new LogSink(name, 0, 20000, true);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			String line = "{\"id\":" + i + ",\"r\":" + (i * 7919 % 10007) + "}";
+			sink.put(line);
+			expected.append(line).append("\n");
+		}
+		sink.close();
+		assertTrue((Long) sink.getStats().get("rolls") > 0);
+
+		StringBuilder actual = new StringBuilder();
+		String file = name + ".gz";
+		for (int i = 1; new File(file).exists(); i++) {
+			GZIPInputStream in = new GZIPInputStream(new FileInputStream(file));
+			actual.append(new String(Compression.readAll(in)));
+			in.close();
+			file = name + "." + i + ".gz";
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * With no room left, offer drops and counts it.
+	 */
+	@Test
+	public void testBounded() throws Exception {
+		int save = LogSink.MAX_PENDING;
+		LogSink.MAX_PENDING = 100;
+		LogSink sink = new LogSink(dir.getAbsolutePath() + "/bounded");
+		LogSink.MAX_PENDING = save;
+
+		int dropped = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (!sink.offer("0123456789012345678901234567890123456789"))
+				dropped++;
+		}
+		sink.close();
+		assertTrue(dropped > 0);
+		assertEquals((long) dropped, sink.getStats().get("dropped"));
+	}
+}
@@ -0,0 +1,101 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aerospike.redisson.RedissonClient;
+import com.xrtb.tools.MemberSet;
+import com.xrtb.tools.Membership;
+
+/**
+ * Tests the compact member sets and the versioned, shared memberships, using the embedded cache.
+ * @author Ben M. Faul
+ *
+ */
+public class TestMembership {
+
+	static RedissonClient redis;
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestMembership");
+		redis = new RedissonClient();
+	}
+
+	/**
+	 * Test adds, removes and growing the open addressing table.
+	 */
+	@Test
+	public void testMemberSet() {
+		MemberSet set = new MemberSet(0);
+		for (int i = 0; i < 10000; i++)
+			assertTrue(set.add("cookie-" + i));
+		assertFalse(set.add("cookie-5"));
+		assertEquals(10000, set.size());
+		for (int i = 0; i < 10000; i += 2)
+			assertTrue(set.remove("cookie-" + i));
+		assertFalse(set.remove("cookie-0"));
+		assertEquals(5000, set.size());
+		for (int i = 0; i < 10000; i++)
+			assertEquals(i % 2 == 1, set.contains("cookie-" + i));
+
+		MemberSet copy = set.copy();
+		copy.add("cookie-0");
+		assertTrue(copy.contains("cookie-0"));
+		assertFalse(set.contains("cookie-0"));
+	}
+
+	/**
+	 * Test a bidder's copy follows the snapshots and the deltas.
+	 */
+	@Test
+	public void testSharedMembership() throws Exception {
+		int old = Membership.MAX_DELTAS;
+		Membership.MAX_DELTAS = 3;
+		Membership.PAGE = 2;
+		try {
+			assertEquals(1, Membership.publish(redis, "@devices", Arrays.asList("a", "b", "c")));
+			Membership m = new Membership("@devices");
+			assertEquals(-1, m.getVersion());
+			assertTrue(m.refresh(redis));
+			assertFalse(m.refresh(redis));
+			assertEquals(3, m.size());
+			assertNotNull(m.query("b"));
+			assertNull(m.query("d"));
+
+			List<String> none = new ArrayList<String>();
+			Membership.update(redis, "@devices", Arrays.asList("d"), Arrays.asList("a"));
+			assertTrue(m.refresh(redis));
+			assertEquals(2, m.getVersion());
+			assertTrue(m.contains("d"));
+			assertFalse(m.contains("a"));
+
+			// A new bidder gets the snapshot and the delta
+			Membership other = new Membership("@devices2");
+			Membership.update(redis, "@devices2", Arrays.asList("x"), none);
+			assertTrue(other.refresh(redis));
+			assertTrue(other.contains("x"));
+
+			// The third delta writes a new snapshot, a bidder that missed it reloads
+			Membership.update(redis, "@devices", Arrays.asList("e"), none);
+			Membership.update(redis, "@devices", none, Arrays.asList("b"));
+			Membership fresh = new Membership("@devices");
+			assertTrue(fresh.refresh(redis));
+			assertTrue(m.refresh(redis));
+			for (Membership x : Arrays.asList(m, fresh)) {
+				assertEquals(4, x.getVersion());
+				assertEquals(3, x.size());
+				assertTrue(x.contains("c") && x.contains("d") && x.contains("e"));
+			}
+		} finally {
+			Membership.MAX_DELTAS = old;
+			Membership.PAGE = 10000;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.bidder.PreFilter;
+import com.xrtb.common.Campaign;
+import com.xrtb.common.CampaignRegistry;
+import com.xrtb.common.Creative;
+import com.xrtb.common.Dimension;
+import com.xrtb.common.Dimensions;
+import com.xrtb.common.Node;
+
+/**
+ * Tests the no bids decided before the bid request is parsed.
+ * @author Ben M. Faul
+ *
+ */
+public class TestPreFilter {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestPreFilter");
+	}
+
+	static Campaign campaign(String adId, Object countries, int w, int h) throws Exception {
+		Campaign c = new Campaign();
+		c.owner = "ben";
+		c.adId = adId;
+		Node n = new Node("country", "device.geo.country", countries instanceof String ? "EQUALS" : "MEMBER",
+				countries);
+		n.notPresentOk = false;
+		c.attributes.add(n);
+		Creative cr = new Creative();
+		cr.impid = adId + "-banner";
+		cr.dimensions = new Dimensions();
+		cr.dimensions.add(new Dimension(w, h));
+		c.creatives.add(cr);
+		return c;
+	}
+
+	static byte[] request(String country, String imps) {
+		return ("{\"id\":\"1\",\"imp\":[" + imps + "],\"site\":{\"id\":\"s\",\"domain\":\"a.com\",\"cat\":[\"IAB1\"]},"
+				+ "\"device\":{\"ua\":\"x\",\"geo\":{\"lat\":1.0" + (country == null ? "" : ",\"country\":\"" + country + "\"")
+				+ "}},\"user\":{\"id\":\"u\"}}").getBytes();
+	}
+
+	static final String BANNER = "{\"id\":\"1\",\"banner\":{\"w\":300,\"h\":250,\"pos\":1}}";
+
+	/**
+	 * Test the scanner reads only the fields it needs and skips the rest.
+	 */
+	@Test
+	public void testScan() throws Exception {
+		PreFilter.Fields f = PreFilter.scan(request("USA", BANNER + ",{\"id\":\"2\",\"video\":{\"w\":640}}"));
+		assertEquals("a.com", f.siteDomain);
+		assertNull(f.appDomain);
+		assertEquals("USA", f.country);
+		assertEquals(1, f.sizes.size());
+		assertEquals(300, f.sizes.get(0)[0]);
+		assertTrue(f.unsized);
+		assertNull(PreFilter.scan("[1,2]".getBytes()));
+	}
+
+	/**
+	 * Test a request is rejected only when no campaign could match it, and the summary follows the campaigns.
+	 */
+	@Test
+	public void testCheck() throws Exception {
+		CampaignRegistry r = new CampaignRegistry();
+		try {
+			PreFilter.setChecks(Arrays.asList("country", "size"));
+			r.add(campaign("a", "USA", 300, 250));
+			r.add(campaign("b", Arrays.asList("GBR", "FRA"), 728, 90));
+
+			assertNull(PreFilter.check(r, request("USA", BANNER)));
+			assertNull(PreFilter.check(r, request("FRA", BANNER)));
+			assertEquals("No campaign for country", PreFilter.check(r, request("DEU", BANNER)));
+			assertEquals("No campaign for country", PreFilter.check(r, request(null, BANNER)));
+			assertEquals("No creative for size",
+					PreFilter.check(r, request("USA", "{\"id\":\"1\",\"banner\":{\"w\":320,\"h\":50}}")));
+			assertNull(PreFilter.check(r, request("USA", "{\"id\":\"1\",\"video\":{\"w\":320,\"h\":50}}")));
+			assertNull(PreFilter.check(r, "{\"id\":".getBytes()));
+
+			Campaign any = new Campaign();
+			any.owner = "ben";
+			any.adId = "c";
+			r.add(any);
+			assertNull(PreFilter.check(r, request("DEU", BANNER)));
+		} finally {
+			PreFilter.setChecks(null);
+		}
+	}
+}
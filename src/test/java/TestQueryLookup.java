@@ -0,0 +1,121 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.common.Campaign;
+import com.xrtb.common.Node;
+import com.xrtb.common.QueryLookup;
+import com.xrtb.pojo.BidRequest;
+
+/**
+ * Tests the QUERY nodes on a remote data source, using the memory mapped file source.
+ * @author Ben M. Faul
+ *
+ */
+public class TestQueryLookup {
+
+	/**
+	 * The file source, counting the trips.
+	 */
+	static class Counting extends QueryLookup.FileSource {
+		int trips;
+
+		@Override
+		public Map<String, Object> get(String name, List<String> keys) throws Exception {
+			trips++;
+			return super.get(name, keys);
+		}
+	}
+
+	static Counting source = new Counting();
+	static String file;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestQueryLookup");
+		File f = File.createTempFile("scores", ".csv");
+		f.deleteOnExit();
+		Files.write(f.toPath(), "d1,75\nd2,10\r\nexample.com,sports\n".getBytes());
+		file = f.getAbsolutePath();
+		QueryLookup.register("testfile", source);
+	}
+
+	static BidRequest request(String device) throws Exception {
+		String json = "{\"id\":\"1\",\"site\":{\"domain\":\"example.com\"},\"device\":{\"ifa\":\"" + device
+				+ "\"},\"imp\":[]}";
+		return new BidRequest(new ByteArrayInputStream(json.getBytes()));
+	}
+
+	static Node query(String hierarchy, String op, Object operand) throws Exception {
+		return new Node("q", hierarchy, Node.QUERY, new ArrayList(Arrays.asList("testfile", file, op, operand)));
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		Node score = query("device.ifa", "LESS_THAN", 50); // 50 < score
+		Node segment = query("site.domain", "EQUALS", "sports");
+		Campaign a = new Campaign();
+		a.attributes = new ArrayList<Node>(Arrays.asList(score));
+		Campaign b = new Campaign();
+		b.attributes = new ArrayList<Node>(Arrays.asList(segment, score));
+		List<Campaign> list = Arrays.asList(a, b);
+		assertEquals(2, b.getQueries().size());
+
+		BidRequest br = request("d1");
+		QueryLookup.prefetch(br, list);
+		assertEquals(1, source.trips);
+		assertTrue(score.test(br));
+		assertTrue(segment.test(br));
+		assertEquals(1, source.trips);
+
+		// d2 is fetched, the domain is cached
+		br = request("d2");
+		QueryLookup.prefetch(br, list);
+		assertEquals(2, source.trips);
+		assertFalse(score.test(br));
+
+		// Not in the file, the absence is cached too
+		score.notPresentOk = false;
+		br = request("d3");
+		QueryLookup.prefetch(br, list);
+		assertFalse(score.test(br));
+		QueryLookup.prefetch(request("d3"), list);
+		assertEquals(3, source.trips);
+	}
+
+	/**
+	 * Test a failing source is not asked again by every node of every request.
+	 */
+	@Test
+	public void testFailure() throws Exception {
+		int[] trips = { 0 };
+		QueryLookup.register("down", (name, keys) -> {
+			trips[0]++;
+			throw new Exception("Source is down");
+		});
+		Node a = new Node("q", "device.ifa", Node.QUERY, new ArrayList(Arrays.asList("down", "x", "EQUALS", 1)));
+		Node b = new Node("q", "site.domain", Node.QUERY, new ArrayList(Arrays.asList("down", "x", "EQUALS", 1)));
+		Campaign c = new Campaign();
+		c.attributes = new ArrayList<Node>(Arrays.asList(a, b));
+		List<Campaign> list = Arrays.asList(c);
+
+		for (int i = 0; i < 3; i++) {
+			BidRequest br = request("d" + i);
+			QueryLookup.prefetch(br, list);
+			a.test(br);
+			b.test(br);
+		}
+		assertEquals(1, trips[0]);
+	}
+}
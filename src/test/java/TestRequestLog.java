@@ -0,0 +1,81 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xrtb.bidder.RequestLog;
+import com.xrtb.common.ExchangeLogLevel;
+
+/**
+ * Tests the request log sampling and projection.
+ * @author Ben M. Faul
+ *
+ */
+public class TestRequestLog {
+
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestRequestLog");
+	}
+
+	/**
+	 * Test the record keeps only the listed paths and leaves the request alone.
+	 */
+	@Test
+	public void testProjection() throws Exception {
+		String json = "{\"id\":\"abc\",\"imp\":[{\"id\":\"1\",\"banner\":{\"w\":300,\"h\":250}},{\"id\":\"2\"}],"
+				+ "\"device\":{\"ip\":\"1.2.3.4\",\"ua\":\"x\",\"geo\":{\"lat\":1.0}},\"site\":{\"domain\":\"a.com\"}}";
+		JsonNode original = mapper.readTree(json);
+		try {
+			RequestLog.setFields(Arrays.asList("id", "imp.banner.w", "device.geo"));
+			ObjectNode r = RequestLog.record(original, "nexage", 1234);
+			assertEquals("abc", r.get("id").asText());
+			assertEquals(300, r.get("imp").get(0).get("banner").get("w").asInt());
+			assertNull(r.get("imp").get(0).get("banner").get("h"));
+			assertEquals(2, r.get("imp").size());
+			assertNull(r.get("device").get("ip"));
+			assertEquals(1.0, r.get("device").get("geo").get("lat").asDouble(), 0);
+			assertNull(r.get("site"));
+			assertEquals("nexage", r.get("ext").get("exchange").asText());
+			assertEquals(1234, r.get("ext").get("timestamp").asLong());
+			assertEquals("requests", r.get("type").asText());
+
+			RequestLog.setFields(null);
+			r = RequestLog.record(original, "nexage", 1234);
+			assertEquals("a.com", r.get("site").get("domain").asText());
+			assertEquals(json, original.toString());
+		} finally {
+			RequestLog.setFields(null);
+		}
+	}
+
+	/**
+	 * Test sampling by id is repeatable and close to the level.
+	 */
+	@Test
+	public void testSampling() {
+		ExchangeLogLevel levels = ExchangeLogLevel.getInstance();
+		levels.setExchangeLogLevel("sampled", 10);
+		int n = 0;
+		for (int i = 0; i < 10000; i++) {
+			boolean yes = levels.shouldLog("sampled", "request-" + i);
+			assertEquals(yes, levels.shouldLog("sampled", "request-" + i));
+			if (yes)
+				n++;
+		}
+		assertTrue("" + n, n > 800 && n < 1200);
+		levels.setExchangeLogLevel("sampled", 0);
+		assertFalse(levels.shouldLog("sampled", "request-1"));
+		levels.setExchangeLogLevel("sampled", 100);
+		assertTrue(levels.shouldLog("sampled", "request-1"));
+	}
+}
@@ -0,0 +1,70 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.bidder.RouteTable;
+import com.xrtb.exchanges.Generic;
+import com.xrtb.exchanges.Nexage;
+import com.xrtb.exchanges.Stroer;
+import com.xrtb.pojo.BidRequest;
+import com.xrtb.pojo.OpenRtbCodec;
+import com.xrtb.pojo.PrototypeCodec;
+
+/**
+ * Tests the bid target route table and the exchange codecs.
+ * @author Ben M. Faul
+ *
+ */
+public class TestRouteTable {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestRouteTable");
+	}
+
+	@Test
+	public void testRoutes() {
+		Map<String, BidRequest> exchanges = new HashMap();
+		Generic g = new Generic();
+		g.setExchange("acme");
+		exchanges.put("/rtb/bids/nexage", new Nexage());
+		exchanges.put("/rtb/bids/stroer", new Stroer());
+		exchanges.put("/rtb/bids/acme", g);
+		RouteTable routes = new RouteTable(exchanges);
+
+		assertEquals(3, routes.size());
+		assertNull(routes.get("/rtb/win/nexage"));
+		assertNull(routes.get("/pixel"));
+		assertNull(routes.get("/rtb/bids/nexagex"));
+		assertNull(routes.get("/rtb/bids/other"));
+
+		RouteTable.Route r = routes.get("/rtb/bids/nexage");
+		assertNotNull(r);
+		assertTrue(r.codec instanceof OpenRtbCodec);
+		assertEquals("nexage", r.codec.getExchange());
+		assertSame(r, routes.get(r.index));
+
+		assertTrue(routes.get("/rtb/bids/stroer").codec instanceof PrototypeCodec);
+		assertEquals("acme", routes.get("/rtb/bids/acme").codec.getExchange());
+
+		assertNull(new RouteTable().get("/rtb/bids/nexage"));
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		Nexage x = new Nexage();
+		x.usesEncodedAdm = false;
+		OpenRtbCodec codec = new OpenRtbCodec(x);
+		BidRequest br = codec.decode(new ByteArrayInputStream("{\"id\":\"123\",\"imp\":[]}".getBytes()));
+		assertEquals("123", br.id);
+		assertEquals("nexage", br.getExchange());
+		assertFalse(br.usesEncodedAdm);
+	}
+}
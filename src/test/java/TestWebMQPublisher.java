@@ -0,0 +1,80 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import com.xrtb.jmq.JMQContext;
+import com.xrtb.jmq.WebMQPublisher;
+
+/**
+ * Tests the long lived WebMQ publishers.
+ * @author Ben M. Faul
+ *
+ */
+public class TestWebMQPublisher {
+
+	@BeforeClass
+	public static void setup() {
+		System.out.println("******************  TestWebMQPublisher");
+	}
+
+	/**
+	 * Test the publisher is reused, sends batches, and counts by topic.
+	 */
+	@Test
+	public void testPublish() throws Exception {
+		WebMQPublisher.WARMUP = 500;
+		WebMQPublisher p = WebMQPublisher.getPublisher("5597");
+		assertSame(p, WebMQPublisher.getPublisher("5597"));
+
+		ZMQ.Socket sub = JMQContext.getInstance().socket(ZMQ.SUB);
+		sub.setReceiveTimeOut(5000);
+		sub.connect("tcp://localhost:5597");
+		sub.subscribe("test".getBytes());
+		try {
+			assertEquals(3, p.send("test", Arrays.asList("a", "b", "c")));
+			assertTrue(p.send("test", "d"));
+			for (String s : Arrays.asList("a", "b", "c", "d")) {
+				assertEquals("test", sub.recvStr());
+				assertEquals(s, sub.recvStr());
+			}
+
+			Thread.sleep(100); // counted after the send
+			Map m = p.getStats();
+			assertEquals(0, m.get("queued"));
+			Map t = (Map) ((Map) m.get("topics")).get("test");
+			assertEquals(4L, t.get("messages"));
+			assertEquals(4L, t.get("bytes"));
+			List<Map> all = WebMQPublisher.getAllStats();
+			assertTrue(all.size() >= 1);
+		} finally {
+			sub.close();
+			p.close();
+		}
+	}
+
+	/**
+	 * Test the caller gets the error when the port can't be bound, and nothing is kept.
+	 */
+	@Test
+	public void testBindError() throws Exception {
+		ZMQ.Socket taken = JMQContext.getInstance().socket(ZMQ.PUB);
+		taken.bind("tcp://*:5593");
+		try {
+			WebMQPublisher.getPublisher("5593");
+			fail("Should have thrown");
+		} catch (RuntimeException error) {
+		} finally {
+			taken.close();
+		}
+		for (Map m : WebMQPublisher.getAllStats())
+			assertNotEquals("5593", m.get("port"));
+	}
+}
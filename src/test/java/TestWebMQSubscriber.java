@@ -0,0 +1,81 @@
+package test.java;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xrtb.jmq.WebMQ;
+import com.xrtb.jmq.WebMQPublisher;
+import com.xrtb.jmq.WebMQSubscriber;
+
+/**
+ * Tests the HTTP subscribers of WebMQ share one upstream subscription.
+ * @author Ben M. Faul
+ *
+ */
+public class TestWebMQSubscriber {
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		System.out.println("******************  TestWebMQSubscriber");
+		new WebMQ(7399, null);
+	}
+
+	/**
+	 * Read the lines of a subscription onto a queue.
+	 */
+	static ArrayBlockingQueue<String> watch(String query) throws Exception {
+		ArrayBlockingQueue<String> lines = new ArrayBlockingQueue<String>(1000);
+		HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:7399/subscribe?" + query)
+				.openConnection();
+		Thread t = new Thread(() -> {
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(c.getInputStream()))) {
+				for (String line; (line = br.readLine()) != null;) {
+					if (line.length() > 0)
+						lines.add(line);
+				}
+			} catch (Exception error) {
+
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return lines;
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		ArrayBlockingQueue<String> a = watch("port=5596&topics=news");
+		ArrayBlockingQueue<String> b = watch("port=5596&topics=news&sse");
+		for (int i = 0; i < 50 && WebMQSubscriber.getAllStats().size() == 0; i++)
+			Thread.sleep(100);
+
+		WebMQPublisher p = WebMQPublisher.getPublisher("5596");
+		try {
+			String first = null;
+			for (int i = 0; i < 50 && first == null; i++) {
+				p.send("news", "hello");
+				first = a.poll(200, TimeUnit.MILLISECONDS);
+			}
+			assertEquals("{\"topic\":\"news\",\"message\":\"hello\"}", first);
+			String event = b.poll(5, TimeUnit.SECONDS);
+			assertEquals("data: " + first, event);
+
+			List<Map> stats = WebMQSubscriber.getAllStats();
+			assertEquals(1, stats.size());
+			assertEquals(2, stats.get(0).get("clients"));
+		} finally {
+			p.close();
+		}
+	}
+}